@@ -0,0 +1,138 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import com.epickrram.freewheel.io.PackerEncoderStream;
+import com.epickrram.freewheel.io.UnpackerDecoderStream;
+import com.epickrram.freewheel.messaging.Receiver;
+import com.epickrram.freewheel.protocol.CodeBookImpl;
+import com.epickrram.junit.PerfTest;
+import com.epickrram.junit.PerfTestRunner;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.CtNewConstructor;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.msgpack.packer.MessagePackPacker;
+import org.msgpack.unpacker.MessagePackUnpacker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+@Ignore
+@RunWith(PerfTestRunner.class)
+public final class SubscriberDispatchPerfTest
+{
+    private static final int MESSAGE_COUNT = 5000000;
+    private static final CodeBookImpl CODE_BOOK = new CodeBookImpl();
+    private static final Map<Integer, Class<?>> INTERFACE_BY_METHOD_COUNT = new HashMap<Integer, Class<?>>();
+    private static final Map<Integer, Class<?>> IMPLEMENTATION_BY_METHOD_COUNT = new HashMap<Integer, Class<?>>();
+
+    @Test
+    @PerfTest(name = "invoker array dispatch, 1 method", warmUpRuns = 5, iterations = MESSAGE_COUNT)
+    public void perfInvokerArrayOneMethod() throws Exception
+    {
+        dispatch(SubscriberDispatchMode.INVOKER_ARRAY, 1);
+    }
+
+    @Test
+    @PerfTest(name = "switch dispatch, 1 method", warmUpRuns = 5, iterations = MESSAGE_COUNT)
+    public void perfSwitchOneMethod() throws Exception
+    {
+        dispatch(SubscriberDispatchMode.SWITCH, 1);
+    }
+
+    @Test
+    @PerfTest(name = "invoker array dispatch, 8 methods", warmUpRuns = 5, iterations = MESSAGE_COUNT)
+    public void perfInvokerArrayEightMethods() throws Exception
+    {
+        dispatch(SubscriberDispatchMode.INVOKER_ARRAY, 8);
+    }
+
+    @Test
+    @PerfTest(name = "switch dispatch, 8 methods", warmUpRuns = 5, iterations = MESSAGE_COUNT)
+    public void perfSwitchEightMethods() throws Exception
+    {
+        dispatch(SubscriberDispatchMode.SWITCH, 8);
+    }
+
+    @Test
+    @PerfTest(name = "invoker array dispatch, 64 methods", warmUpRuns = 5, iterations = MESSAGE_COUNT)
+    public void perfInvokerArraySixtyFourMethods() throws Exception
+    {
+        dispatch(SubscriberDispatchMode.INVOKER_ARRAY, 64);
+    }
+
+    @Test
+    @PerfTest(name = "switch dispatch, 64 methods", warmUpRuns = 5, iterations = MESSAGE_COUNT)
+    public void perfSwitchSixtyFourMethods() throws Exception
+    {
+        dispatch(SubscriberDispatchMode.SWITCH, 64);
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private void dispatch(final SubscriberDispatchMode dispatchMode, final int methodCount) throws Exception
+    {
+        final Class<Object> descriptor = (Class<Object>) getInterface(methodCount);
+        final Object implementation = IMPLEMENTATION_BY_METHOD_COUNT.get(methodCount).newInstance();
+        final Receiver receiver = new SubscriberFactory(dispatchMode).createReceiver(descriptor, implementation);
+
+        final byte[][] messages = new byte[methodCount][];
+        for(int i = 0; i < methodCount; i++)
+        {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final PackerEncoderStream encoderStream = new PackerEncoderStream(CODE_BOOK, new MessagePackPacker(outputStream));
+            encoderStream.writeInt(i);
+            messages[i] = outputStream.toByteArray();
+        }
+
+        for(int i = 0; i < MESSAGE_COUNT; i++)
+        {
+            final byte[] message = messages[i % methodCount];
+            receiver.onMessage(0, i % methodCount, new UnpackerDecoderStream(CODE_BOOK,
+                    new MessagePackUnpacker(new ByteArrayInputStream(message, 0, message.length))));
+        }
+    }
+
+    private static synchronized Class<?> getInterface(final int methodCount) throws Exception
+    {
+        if(!INTERFACE_BY_METHOD_COUNT.containsKey(methodCount))
+        {
+            final ClassPool classPool = ClassPool.getDefault();
+            final String interfaceName = SubscriberDispatchPerfTest.class.getName() + "Interface" + methodCount;
+            final CtClass interfaceClass = classPool.makeInterface(interfaceName);
+            final CtClass implementationClass = classPool.makeClass(interfaceName + "Impl");
+            implementationClass.addInterface(interfaceClass);
+            implementationClass.addField(CtField.make("public long total;", implementationClass));
+            implementationClass.addConstructor(CtNewConstructor.defaultConstructor(implementationClass));
+            for(int i = 0; i < methodCount; i++)
+            {
+                final String methodName = String.format("method%02d", i);
+                interfaceClass.addMethod(CtMethod.make("public void " + methodName + "(int value);", interfaceClass));
+                implementationClass.addMethod(CtMethod.make("public void " + methodName + "(int value) { total += value; }",
+                        implementationClass));
+            }
+            INTERFACE_BY_METHOD_COUNT.put(methodCount, interfaceClass.toClass());
+            IMPLEMENTATION_BY_METHOD_COUNT.put(methodCount, implementationClass.toClass());
+        }
+        return INTERFACE_BY_METHOD_COUNT.get(methodCount);
+    }
+}
@@ -0,0 +1,253 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the LZ4 block format. Favours speed over ratio: matches are found
+ * through a single-entry hash table of 4-byte sequences.
+ */
+public final class Lz4BlockCodec
+{
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_LOG = 12;
+    private static final int RUN_MASK = 0x0F;
+    private static final ThreadLocal<int[]> HASH_TABLE = new ThreadLocal<int[]>()
+    {
+        @Override
+        protected int[] initialValue()
+        {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    private Lz4BlockCodec() {}
+
+    public static int maxCompressedLength(final int length)
+    {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * @return the number of bytes written to dest, which must have maxCompressedLength(srcLength) bytes available
+     */
+    public static int compress(final byte[] src, final int srcOffset, final int srcLength,
+                               final byte[] dest, final int destOffset)
+    {
+        final int srcEnd = srcOffset + srcLength;
+        int destPosition = destOffset;
+        int anchor = srcOffset;
+        if(srcLength > MATCH_FIND_LIMIT)
+        {
+            final int matchFindLimit = srcEnd - MATCH_FIND_LIMIT;
+            final int matchLimit = srcEnd - LAST_LITERALS;
+            // positions are stored relative to srcOffset, plus one so that zero means empty
+            final int[] hashTable = HASH_TABLE.get();
+            Arrays.fill(hashTable, 0);
+            int position = srcOffset;
+            while(position < matchFindLimit)
+            {
+                final int sequence = readInt(src, position);
+                final int hash = hash(sequence);
+                int reference = hashTable[hash] - 1 + srcOffset;
+                hashTable[hash] = position - srcOffset + 1;
+                if(reference < srcOffset || position - reference > MAX_OFFSET || readInt(src, reference) != sequence)
+                {
+                    position++;
+                    continue;
+                }
+                while(position > anchor && reference > srcOffset && src[position - 1] == src[reference - 1])
+                {
+                    position--;
+                    reference--;
+                }
+                int matchLength = MIN_MATCH;
+                while(position + matchLength < matchLimit && src[position + matchLength] == src[reference + matchLength])
+                {
+                    matchLength++;
+                }
+                destPosition = writeSequence(src, anchor, position - anchor, position - reference, matchLength,
+                        dest, destPosition);
+                position += matchLength;
+                anchor = position;
+            }
+        }
+        return writeLastLiterals(src, anchor, srcEnd - anchor, dest, destPosition) - destOffset;
+    }
+
+    /**
+     * Decompresses exactly destLength bytes into dest.
+     *
+     * @throws IOException if the block is malformed or does not decompress to destLength bytes
+     */
+    public static void decompress(final byte[] src, final int srcOffset, final int srcLength,
+                                  final byte[] dest, final int destOffset, final int destLength) throws IOException
+    {
+        final int srcEnd = srcOffset + srcLength;
+        final int destEnd = destOffset + destLength;
+        int srcPosition = srcOffset;
+        int destPosition = destOffset;
+        while(true)
+        {
+            if(srcPosition >= srcEnd)
+            {
+                throw new IOException("Truncated block");
+            }
+            final int token = src[srcPosition++] & 0xff;
+            int literalLength = token >>> 4;
+            if(literalLength == RUN_MASK)
+            {
+                int lengthByte;
+                do
+                {
+                    if(srcPosition >= srcEnd)
+                    {
+                        throw new IOException("Truncated literal length");
+                    }
+                    lengthByte = src[srcPosition++] & 0xff;
+                    literalLength += lengthByte;
+                }
+                while(lengthByte == 0xff);
+            }
+            if(literalLength > srcEnd - srcPosition || literalLength > destEnd - destPosition)
+            {
+                throw new IOException("Literal run exceeds block");
+            }
+            System.arraycopy(src, srcPosition, dest, destPosition, literalLength);
+            srcPosition += literalLength;
+            destPosition += literalLength;
+            if(srcPosition == srcEnd)
+            {
+                break;
+            }
+            if(srcEnd - srcPosition < 2)
+            {
+                throw new IOException("Truncated match offset");
+            }
+            final int offset = (src[srcPosition] & 0xff) | ((src[srcPosition + 1] & 0xff) << 8);
+            srcPosition += 2;
+            if(offset == 0 || offset > destPosition - destOffset)
+            {
+                throw new IOException("Invalid match offset " + offset);
+            }
+            int matchLength = token & RUN_MASK;
+            if(matchLength == RUN_MASK)
+            {
+                int lengthByte;
+                do
+                {
+                    if(srcPosition >= srcEnd)
+                    {
+                        throw new IOException("Truncated match length");
+                    }
+                    lengthByte = src[srcPosition++] & 0xff;
+                    matchLength += lengthByte;
+                }
+                while(lengthByte == 0xff);
+            }
+            matchLength += MIN_MATCH;
+            if(matchLength > destEnd - destPosition)
+            {
+                throw new IOException("Match exceeds block");
+            }
+            // matches may overlap the bytes they produce, so copy forwards one byte at a time
+            int matchPosition = destPosition - offset;
+            for(int i = 0; i < matchLength; i++)
+            {
+                dest[destPosition++] = dest[matchPosition++];
+            }
+        }
+        if(destPosition != destEnd)
+        {
+            throw new IOException("Block decompressed to " + (destPosition - destOffset) + " bytes, expected " + destLength);
+        }
+    }
+
+    private static int writeSequence(final byte[] src, final int literalOffset, final int literalLength,
+                                     final int matchOffset, final int matchLength,
+                                     final byte[] dest, final int destOffset)
+    {
+        int destPosition = destOffset;
+        final int tokenPosition = destPosition++;
+        final int matchRun = matchLength - MIN_MATCH;
+        int token = Math.min(matchRun, RUN_MASK);
+        if(literalLength >= RUN_MASK)
+        {
+            token |= RUN_MASK << 4;
+            destPosition = writeLength(literalLength - RUN_MASK, dest, destPosition);
+        }
+        else
+        {
+            token |= literalLength << 4;
+        }
+        dest[tokenPosition] = (byte) token;
+        System.arraycopy(src, literalOffset, dest, destPosition, literalLength);
+        destPosition += literalLength;
+        dest[destPosition++] = (byte) matchOffset;
+        dest[destPosition++] = (byte) (matchOffset >>> 8);
+        if(matchRun >= RUN_MASK)
+        {
+            destPosition = writeLength(matchRun - RUN_MASK, dest, destPosition);
+        }
+        return destPosition;
+    }
+
+    private static int writeLastLiterals(final byte[] src, final int literalOffset, final int literalLength,
+                                         final byte[] dest, final int destOffset)
+    {
+        int destPosition = destOffset;
+        if(literalLength >= RUN_MASK)
+        {
+            dest[destPosition++] = (byte) (RUN_MASK << 4);
+            destPosition = writeLength(literalLength - RUN_MASK, dest, destPosition);
+        }
+        else
+        {
+            dest[destPosition++] = (byte) (literalLength << 4);
+        }
+        System.arraycopy(src, literalOffset, dest, destPosition, literalLength);
+        return destPosition + literalLength;
+    }
+
+    private static int writeLength(final int length, final byte[] dest, final int destOffset)
+    {
+        int remaining = length;
+        int destPosition = destOffset;
+        while(remaining >= 0xff)
+        {
+            dest[destPosition++] = (byte) 0xff;
+            remaining -= 0xff;
+        }
+        dest[destPosition++] = (byte) remaining;
+        return destPosition;
+    }
+
+    private static int readInt(final byte[] src, final int offset)
+    {
+        return (src[offset] & 0xff) | ((src[offset + 1] & 0xff) << 8) |
+                ((src[offset + 2] & 0xff) << 16) | ((src[offset + 3] & 0xff) << 24);
+    }
+
+    private static int hash(final int sequence)
+    {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
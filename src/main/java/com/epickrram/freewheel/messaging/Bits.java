@@ -35,6 +35,17 @@ public final class Bits
                   ((src[offset + 3] & 0xff) <<  0)));
     }
 
+    public static void writeShort(final int value, final byte[] dest, final int offset)
+    {
+        dest[offset] = (byte) (value >>> 8);
+        dest[offset + 1] = (byte) (value);
+    }
+
+    public static int readUnsignedShort(final byte[] src, final int offset)
+    {
+        return ((src[offset] & 0xff) << 8) | (src[offset + 1] & 0xff);
+    }
+
     public static void writeLong(final long value, final byte[] dest, final int offset)
     {
         dest[offset] = (byte) (value >> 56);
@@ -0,0 +1,31 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging;
+
+import com.epickrram.freewheel.io.DecoderStream;
+import com.epickrram.freewheel.io.EncoderStream;
+
+import java.io.IOException;
+
+/**
+ * A Receiver that writes sync responses itself, encoded according to the declared return type of the
+ * invoked method, so that transports need neither box the result nor look up a translator for it.
+ */
+public interface EncodingReceiver extends Receiver
+{
+    void onSyncMessage(final int topicId, final int methodId, final DecoderStream decoderStream,
+                       final EncoderStream responseEncoderStream) throws IOException;
+}
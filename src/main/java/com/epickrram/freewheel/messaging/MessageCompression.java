@@ -0,0 +1,110 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging;
+
+import com.epickrram.freewheel.io.Lz4BlockCodec;
+import com.epickrram.freewheel.messaging.config.Compressed;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compresses message payloads above a size threshold. A compressed message keeps its header, with
+ * FLAG_COMPRESSED set, followed by the uncompressed payload length and an LZ4 block.
+ */
+public final class MessageCompression
+{
+    // guards against corrupt or hostile length prefixes
+    public static final int MAX_UNCOMPRESSED_LENGTH = 16 * 1024 * 1024;
+    private static final int LENGTH_PREFIX_SIZE = 4;
+
+    private final int threshold;
+
+    public MessageCompression(final int threshold)
+    {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return the compression configured for descriptor, or null if it is not annotated with {@link Compressed}
+     */
+    public static MessageCompression forDescriptor(final Class<?> descriptor)
+    {
+        final Compressed compressed = descriptor.getAnnotation(Compressed.class);
+        return compressed == null ? null : new MessageCompression(compressed.threshold());
+    }
+
+    public int getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * @return a compressed copy of message, or message itself if its payload is below the threshold
+     * or would not get smaller
+     */
+    public byte[] compress(final byte[] message)
+    {
+        final int headerLength = MessageHeader.getLength(message, 0);
+        final int payloadLength = message.length - headerLength;
+        if(payloadLength < threshold || MessageHeader.isCompressed(message, 0))
+        {
+            return message;
+        }
+        final byte[] compressed = new byte[headerLength + LENGTH_PREFIX_SIZE + Lz4BlockCodec.maxCompressedLength(payloadLength)];
+        System.arraycopy(message, 0, compressed, 0, headerLength);
+        MessageHeader.setFlags(compressed, 0, MessageHeader.getFlags(message, 0) | MessageHeader.FLAG_COMPRESSED);
+        Bits.writeInt(payloadLength, compressed, headerLength);
+        final int compressedLength = headerLength + LENGTH_PREFIX_SIZE +
+                Lz4BlockCodec.compress(message, headerLength, payloadLength, compressed, headerLength + LENGTH_PREFIX_SIZE);
+        if(compressedLength >= message.length)
+        {
+            return message;
+        }
+        return Arrays.copyOf(compressed, compressedLength);
+    }
+
+    /**
+     * @return a copy of the compressed message at offset, decompressed and with FLAG_COMPRESSED cleared
+     */
+    public static byte[] decompress(final byte[] message, final int offset, final int length) throws MessagingException
+    {
+        final int headerLength = MessageHeader.getLength(message, offset);
+        if(length < headerLength + LENGTH_PREFIX_SIZE)
+        {
+            throw new MessagingException("Compressed message of " + length + " bytes is too short");
+        }
+        final int payloadLength = Bits.readInt(message, offset + headerLength);
+        if(payloadLength < 0 || payloadLength > MAX_UNCOMPRESSED_LENGTH)
+        {
+            throw new MessagingException("Invalid uncompressed length " + payloadLength);
+        }
+        final byte[] decompressed = new byte[headerLength + payloadLength];
+        System.arraycopy(message, offset, decompressed, 0, headerLength);
+        MessageHeader.setFlags(decompressed, 0, MessageHeader.getFlags(message, offset) & ~MessageHeader.FLAG_COMPRESSED);
+        try
+        {
+            Lz4BlockCodec.decompress(message, offset + headerLength + LENGTH_PREFIX_SIZE,
+                    length - headerLength - LENGTH_PREFIX_SIZE, decompressed, headerLength, payloadLength);
+        }
+        catch (IOException e)
+        {
+            throw new MessagingException("Unable to decompress message for topic " +
+                    MessageHeader.getTopicId(message, offset), e);
+        }
+        return decompressed;
+    }
+}
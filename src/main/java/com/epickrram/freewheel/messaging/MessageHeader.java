@@ -0,0 +1,201 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging;
+
+import java.util.Arrays;
+
+/**
+ * Fixed binary header at the start of every message, written and read with {@link Bits} so that
+ * routing, filtering and journaling can inspect messages without decoding their payloads.
+ * Transports frame messages with their own length prefix.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     1  version
+ *      1     1  flags
+ *      2     2  method id (unsigned)
+ *      4     4  topic id
+ *      8     8  sequence
+ *     16     8  timestamp, only present if FLAG_TIMESTAMP is set
+ *  16/24     8  deadline, only present if FLAG_DEADLINE is set; follows the timestamp if there is one
+ * </pre>
+ *
+ * The msgpack-encoded method arguments follow the header. If FLAG_COMPRESSED is set, they are
+ * preceded by their uncompressed length and compressed (see {@link MessageCompression}).
+ * FLAG_IDEMPOTENT marks sync requests that may share a response with identical concurrent requests.
+ * The deadline is the wall-clock time, in epoch milliseconds, after which the caller of a sync request
+ * will no longer wait for its response.
+ */
+public final class MessageHeader
+{
+    public static final byte VERSION = 1;
+    public static final int FLAG_SYNC = 0x01;
+    public static final int FLAG_TIMESTAMP = 0x02;
+    public static final int FLAG_COMPRESSED = 0x04;
+    public static final int FLAG_IDEMPOTENT = 0x08;
+    public static final int FLAG_DEADLINE = 0x10;
+    public static final int LENGTH = 16;
+    public static final int TIMESTAMP_LENGTH = 8;
+    public static final int DEADLINE_LENGTH = 8;
+    public static final int MAX_METHOD_ID = 0xFFFF;
+
+    public static final int TOPIC_ID_OFFSET = 4;
+    public static final int SEQUENCE_OFFSET = 8;
+
+    private static final int VERSION_OFFSET = 0;
+    private static final int FLAGS_OFFSET = 1;
+    private static final int METHOD_ID_OFFSET = 2;
+    private static final int TIMESTAMP_OFFSET = 16;
+
+    private MessageHeader() {}
+
+    public static void write(final byte[] dest, final int offset, final int topicId, final int methodId,
+                             final int flags, final long sequence)
+    {
+        dest[offset + VERSION_OFFSET] = VERSION;
+        dest[offset + FLAGS_OFFSET] = (byte) flags;
+        Bits.writeShort(methodId, dest, offset + METHOD_ID_OFFSET);
+        Bits.writeInt(topicId, dest, offset + TOPIC_ID_OFFSET);
+        Bits.writeLong(sequence, dest, offset + SEQUENCE_OFFSET);
+    }
+
+    public static void writeTimestamp(final byte[] dest, final int offset, final long timestamp)
+    {
+        Bits.writeLong(timestamp, dest, offset + TIMESTAMP_OFFSET);
+    }
+
+    /**
+     * @return a copy of the message at the start of src, with FLAG_DEADLINE set and the deadline inserted
+     */
+    public static byte[] withDeadline(final byte[] src, final int length, final long deadline)
+    {
+        if(hasDeadline(src, 0))
+        {
+            final byte[] message = Arrays.copyOf(src, length);
+            Bits.writeLong(deadline, message, getDeadlineOffset(message, 0));
+            return message;
+        }
+        final int deadlineOffset = getDeadlineOffset(src, 0);
+        final byte[] message = new byte[length + DEADLINE_LENGTH];
+        System.arraycopy(src, 0, message, 0, deadlineOffset);
+        System.arraycopy(src, deadlineOffset, message, deadlineOffset + DEADLINE_LENGTH, length - deadlineOffset);
+        setFlags(message, 0, getFlags(src, 0) | FLAG_DEADLINE);
+        Bits.writeLong(deadline, message, deadlineOffset);
+        return message;
+    }
+
+    public static void setFlags(final byte[] dest, final int offset, final int flags)
+    {
+        dest[offset + FLAGS_OFFSET] = (byte) flags;
+    }
+
+    public static void validate(final byte[] src, final int offset, final int length) throws MessagingException
+    {
+        if(length < LENGTH)
+        {
+            throw new MessagingException("Message of " + length + " bytes is shorter than the message header");
+        }
+        if(getVersion(src, offset) != VERSION)
+        {
+            throw new MessagingException("Unsupported message header version " + getVersion(src, offset));
+        }
+        if(length < getLength(src, offset))
+        {
+            throw new MessagingException("Message of " + length + " bytes is shorter than the message header");
+        }
+    }
+
+    public static int getVersion(final byte[] src, final int offset)
+    {
+        return src[offset + VERSION_OFFSET];
+    }
+
+    public static int getFlags(final byte[] src, final int offset)
+    {
+        return src[offset + FLAGS_OFFSET] & 0xff;
+    }
+
+    public static boolean isSync(final byte[] src, final int offset)
+    {
+        return (getFlags(src, offset) & FLAG_SYNC) != 0;
+    }
+
+    public static boolean hasTimestamp(final byte[] src, final int offset)
+    {
+        return (getFlags(src, offset) & FLAG_TIMESTAMP) != 0;
+    }
+
+    public static boolean isCompressed(final byte[] src, final int offset)
+    {
+        return (getFlags(src, offset) & FLAG_COMPRESSED) != 0;
+    }
+
+    public static boolean isIdempotent(final byte[] src, final int offset)
+    {
+        return (getFlags(src, offset) & FLAG_IDEMPOTENT) != 0;
+    }
+
+    public static boolean hasDeadline(final byte[] src, final int offset)
+    {
+        return (getFlags(src, offset) & FLAG_DEADLINE) != 0;
+    }
+
+    public static int getMethodId(final byte[] src, final int offset)
+    {
+        return Bits.readUnsignedShort(src, offset + METHOD_ID_OFFSET);
+    }
+
+    public static int getTopicId(final byte[] src, final int offset)
+    {
+        return Bits.readInt(src, offset + TOPIC_ID_OFFSET);
+    }
+
+    public static long getSequence(final byte[] src, final int offset)
+    {
+        return Bits.readLong(src, offset + SEQUENCE_OFFSET);
+    }
+
+    public static long getTimestamp(final byte[] src, final int offset)
+    {
+        return hasTimestamp(src, offset) ? Bits.readLong(src, offset + TIMESTAMP_OFFSET) : 0L;
+    }
+
+    /**
+     * @return the deadline in epoch milliseconds, or 0 if the message has none
+     */
+    public static long getDeadline(final byte[] src, final int offset)
+    {
+        return hasDeadline(src, offset) ? Bits.readLong(src, offset + getDeadlineOffset(src, offset)) : 0L;
+    }
+
+    public static boolean isExpired(final byte[] src, final int offset, final long currentTimeMillis)
+    {
+        return hasDeadline(src, offset) && getDeadline(src, offset) < currentTimeMillis;
+    }
+
+    /**
+     * @return the size of the header, i.e. the offset of the payload relative to the start of the message
+     */
+    public static int getLength(final byte[] src, final int offset)
+    {
+        return getDeadlineOffset(src, offset) + (hasDeadline(src, offset) ? DEADLINE_LENGTH : 0);
+    }
+
+    private static int getDeadlineOffset(final byte[] src, final int offset)
+    {
+        return hasTimestamp(src, offset) ? TIMESTAMP_OFFSET + TIMESTAMP_LENGTH : TIMESTAMP_OFFSET;
+    }
+}
@@ -15,10 +15,34 @@
 //////////////////////////////////////////////////////////////////////////////////
 package com.epickrram.freewheel.messaging;
 
+import com.epickrram.freewheel.messaging.filter.MessageFilter;
+
+import java.util.Collection;
+import java.util.Map;
+
 public interface MessagingContext
 {
+    /**
+     * Generates publisher and subscriber classes for the supplied descriptors in parallel, ahead of
+     * createPublisher/createSubscriber. Returns the time spent generating each descriptor's classes, in nanoseconds.
+     */
+    public Map<Class<?>, Long> prepare(final Collection<Class<?>> publisherDescriptors,
+                                       final Collection<Class<?>> subscriberDescriptors) throws MessagingException;
     public <T> T createPublisher(final Class<T> descriptor) throws MessagingException;
     public <T> void createSubscriber(final Class<T> descriptor, final T implementation) throws MessagingException;
+    /**
+     * Subscribes implementation to only those messages accepted by filter; the filter is applied to the encoded
+     * message, before any arguments are decoded.
+     */
+    public <T> void createSubscriber(final Class<T> descriptor, final T implementation,
+                                     final MessageFilter filter) throws MessagingException;
+    /**
+     * Subscribes to ResponseCacheInvalidation, so that servers can clear results cached by the @CachedResponse
+     * methods of this context's publishers.
+     */
+    public void subscribeToResponseCacheInvalidation() throws MessagingException;
+    public <T> void removePublisher(final Class<T> descriptor) throws MessagingException;
+    public <T> void removeSubscriber(final Class<T> descriptor, final T implementation) throws MessagingException;
     public void start();
     public void stop();
 }
\ No newline at end of file
@@ -16,20 +16,30 @@
 
 package com.epickrram.freewheel.messaging;
 
+import com.epickrram.freewheel.messaging.dispatch.InlineMessageDispatcher;
+import com.epickrram.freewheel.messaging.dispatch.MessageDispatcherFactory;
 import com.epickrram.freewheel.messaging.multicast.MulticastMessagingService;
 import com.epickrram.freewheel.messaging.ptp.BlockingPointToPointMessagingService;
+import com.epickrram.freewheel.messaging.ptp.BlockingThreadModel;
+import com.epickrram.freewheel.messaging.ptp.BlockingTransportPolicy;
 import com.epickrram.freewheel.messaging.ptp.EndPoint;
 import com.epickrram.freewheel.messaging.ptp.EndPointProvider;
+import com.epickrram.freewheel.messaging.ptp.OutboundFlowControl;
 import com.epickrram.freewheel.messaging.ptp.PointToPointMessagingService;
+import com.epickrram.freewheel.messaging.ptp.ReconnectPolicy;
+import com.epickrram.freewheel.messaging.ptp.SyncRequestPolicy;
 import com.epickrram.freewheel.protocol.CodeBookImpl;
 import com.epickrram.freewheel.protocol.CodeBookRegistry;
+import com.epickrram.freewheel.remoting.BufferedEncodingMode;
 import com.epickrram.freewheel.remoting.BufferedPublisherFactory;
 import com.epickrram.freewheel.remoting.ClassNameTopicIdGenerator;
 import com.epickrram.freewheel.remoting.DirectPublisherFactory;
 import com.epickrram.freewheel.remoting.PublisherFactory;
 import com.epickrram.freewheel.remoting.PublisherType;
 import com.epickrram.freewheel.remoting.RingBufferFactoryImpl;
+import com.epickrram.freewheel.remoting.SubscriberDispatchMode;
 import com.epickrram.freewheel.remoting.SubscriberFactory;
+import com.epickrram.freewheel.remoting.TopicIdGenerator;
 import com.epickrram.freewheel.util.DaemonThreadFactory;
 import com.lmax.disruptor.EventProcessor;
 
@@ -41,7 +51,34 @@ import java.util.concurrent.Executors;
 public final class MessagingContextFactory
 {
     private final CodeBookImpl codeBook = new CodeBookImpl();
-    private final ClassNameTopicIdGenerator topicIdGenerator = new ClassNameTopicIdGenerator();
+    private final TopicIdGenerator topicIdGenerator;
+    private final MessageDispatcherFactory messageDispatcherFactory;
+    private final SubscriberDispatchMode subscriberDispatchMode;
+
+    public MessagingContextFactory()
+    {
+        this(InlineMessageDispatcher.factory());
+    }
+
+    public MessagingContextFactory(final MessageDispatcherFactory messageDispatcherFactory)
+    {
+        this(messageDispatcherFactory, SubscriberDispatchMode.INVOKER_ARRAY);
+    }
+
+    public MessagingContextFactory(final MessageDispatcherFactory messageDispatcherFactory,
+                                   final SubscriberDispatchMode subscriberDispatchMode)
+    {
+        this(messageDispatcherFactory, subscriberDispatchMode, new ClassNameTopicIdGenerator());
+    }
+
+    public MessagingContextFactory(final MessageDispatcherFactory messageDispatcherFactory,
+                                   final SubscriberDispatchMode subscriberDispatchMode,
+                                   final TopicIdGenerator topicIdGenerator)
+    {
+        this.topicIdGenerator = topicIdGenerator;
+        this.messageDispatcherFactory = messageDispatcherFactory;
+        this.subscriberDispatchMode = subscriberDispatchMode;
+    }
 
     public CodeBookRegistry getCodeBookRegistry()
     {
@@ -50,34 +87,82 @@ public final class MessagingContextFactory
 
     public MessagingContext createPointToPointMessagingContext(final EndPointProvider endPointProvider)
     {
-        final PointToPointMessagingService messagingService = new PointToPointMessagingService(endPointProvider, codeBook, topicIdGenerator);
-        return createMessagingContext(messagingService, PublisherType.BUFFERED);
+        return createMessagingContext(createPointToPointMessagingService(endPointProvider), PublisherType.BUFFERED);
+    }
+
+    public MessagingContext createPointToPointMessagingContext(final EndPointProvider endPointProvider,
+                                                               final BufferedEncodingMode encodingMode)
+    {
+        return createMessagingContext(createPointToPointMessagingService(endPointProvider), PublisherType.BUFFERED,
+                encodingMode);
     }
 
     public MessagingContext createDirectPointToPointMessagingContext(final EndPointProvider endPointProvider)
     {
-        final PointToPointMessagingService messagingService = new PointToPointMessagingService(endPointProvider, codeBook, topicIdGenerator);
+        return createMessagingContext(createPointToPointMessagingService(endPointProvider), PublisherType.DIRECT);
+    }
+
+    public MessagingContext createDirectPointToPointMessagingContext(final EndPointProvider endPointProvider,
+                                                                     final SyncRequestPolicy syncRequestPolicy)
+    {
+        final PointToPointMessagingService messagingService = new PointToPointMessagingService(endPointProvider, codeBook,
+                topicIdGenerator, OutboundFlowControl.defaults(), ReconnectPolicy.defaults(), messageDispatcherFactory,
+                syncRequestPolicy);
         return createMessagingContext(messagingService, PublisherType.DIRECT);
     }
 
     public MessagingContext createDirectBlockingPointToPointMessagingContext(final EndPointProvider endPointProvider)
     {
-        final BlockingPointToPointMessagingService messagingService = new BlockingPointToPointMessagingService(endPointProvider, codeBook, topicIdGenerator);
+        return createDirectBlockingPointToPointMessagingContext(endPointProvider, BlockingThreadModel.PLATFORM);
+    }
+
+    public MessagingContext createDirectBlockingPointToPointMessagingContext(final EndPointProvider endPointProvider,
+                                                                            final BlockingThreadModel threadModel)
+    {
+        return createDirectBlockingPointToPointMessagingContext(endPointProvider, BlockingTransportPolicy.withThreadModel(threadModel));
+    }
+
+    public MessagingContext createDirectBlockingPointToPointMessagingContext(final EndPointProvider endPointProvider,
+                                                                            final BlockingTransportPolicy transportPolicy)
+    {
+        final BlockingPointToPointMessagingService messagingService =
+                new BlockingPointToPointMessagingService(endPointProvider, codeBook, topicIdGenerator, messageDispatcherFactory,
+                        transportPolicy);
         return createMessagingContext(messagingService, PublisherType.DIRECT);
     }
 
     public MessagingContext createMulticastMessagingContext(final EndPoint endPoint)
     {
-        final MulticastMessagingService messagingService = new MulticastMessagingService(endPoint, codeBook);
+        final MulticastMessagingService messagingService = new MulticastMessagingService(endPoint, codeBook, messageDispatcherFactory,
+                topicIdGenerator);
         return createMessagingContext(messagingService, PublisherType.BUFFERED);
     }
 
+    public MessagingContext createMulticastMessagingContext(final EndPoint endPoint, final BufferedEncodingMode encodingMode)
+    {
+        final MulticastMessagingService messagingService = new MulticastMessagingService(endPoint, codeBook, messageDispatcherFactory,
+                topicIdGenerator);
+        return createMessagingContext(messagingService, PublisherType.BUFFERED, encodingMode);
+    }
+
+    private PointToPointMessagingService createPointToPointMessagingService(final EndPointProvider endPointProvider)
+    {
+        return new PointToPointMessagingService(endPointProvider, codeBook, topicIdGenerator,
+                OutboundFlowControl.defaults(), ReconnectPolicy.defaults(), messageDispatcherFactory);
+    }
+
     private MessagingContext createMessagingContext(final MessagingService messagingService, final PublisherType publisherType)
+    {
+        return createMessagingContext(messagingService, publisherType, BufferedEncodingMode.CALLER_THREAD);
+    }
+
+    private MessagingContext createMessagingContext(final MessagingService messagingService, final PublisherType publisherType,
+                                                    final BufferedEncodingMode encodingMode)
     {
         final PublisherFactory publisherFactory = publisherType.isDirect() ?
-                createDirectPublisherFactory(messagingService) : createBufferedPublisherFactory(messagingService);
+                createDirectPublisherFactory(messagingService) : createBufferedPublisherFactory(messagingService, encodingMode);
 
-        final SubscriberFactory subscriberFactory = new SubscriberFactory();
+        final SubscriberFactory subscriberFactory = new SubscriberFactory(subscriberDispatchMode);
         final MessagingContextImpl messagingContext =
                 new MessagingContextImpl(publisherFactory, subscriberFactory, messagingService, topicIdGenerator);
         final Collection<LifecycleAware> lifecycleAwareCollection = publisherFactory.getLifecycleAwareCollection();
@@ -93,12 +178,13 @@ public final class MessagingContextFactory
         return new DirectPublisherFactory(messagingService, topicIdGenerator, codeBook);
     }
 
-    private PublisherFactory createBufferedPublisherFactory(final MessagingService messagingService)
+    private PublisherFactory createBufferedPublisherFactory(final MessagingService messagingService,
+                                                            final BufferedEncodingMode encodingMode)
     {
         final OutgoingMessageEventFactory eventFactory = new OutgoingMessageEventFactory(codeBook);
         final MessagingServiceEventHandler eventHandler = new MessagingServiceEventHandler(messagingService);
         final RingBufferFactoryImpl ringBufferFactory = new RingBufferFactoryImpl(eventFactory, eventHandler);
-        return new BufferedPublisherFactory(ringBufferFactory, topicIdGenerator, codeBook);
+        return new BufferedPublisherFactory(ringBufferFactory, topicIdGenerator, codeBook, encodingMode);
     }
 
 
@@ -15,20 +15,43 @@
 //////////////////////////////////////////////////////////////////////////////////
 package com.epickrram.freewheel.messaging;
 
+import com.epickrram.freewheel.messaging.filter.FilteredReceiver;
+import com.epickrram.freewheel.messaging.filter.MessageFilter;
+import com.epickrram.freewheel.messaging.filter.MessageFilters;
 import com.epickrram.freewheel.remoting.PublisherFactory;
+import com.epickrram.freewheel.remoting.ResponseCacheInvalidation;
 import com.epickrram.freewheel.remoting.SubscriberFactory;
 import com.epickrram.freewheel.remoting.TopicIdGenerator;
+import com.epickrram.freewheel.util.DaemonThreadFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
 
 public final class MessagingContextImpl implements MessagingContext
 {
+    private static final Logger LOGGER = Logger.getLogger(MessagingContextImpl.class.getName());
+
     private final PublisherFactory publisherFactory;
     private final SubscriberFactory subscriberFactory;
     private final MessagingService messagingService;
     private final TopicIdGenerator topicIdGenerator;
     private final List<LifecycleAware> lifecycleAwareList = new ArrayList<LifecycleAware>();
+    private final Map<Integer, Map<Object, List<Receiver>>> receiversByTopicIdMap =
+            new HashMap<Integer, Map<Object, List<Receiver>>>();
 
     public MessagingContextImpl(final PublisherFactory publisherFactory,
                                 final SubscriberFactory subscriberFactory,
@@ -41,6 +64,65 @@ public final class MessagingContextImpl implements MessagingContext
         this.topicIdGenerator = topicIdGenerator;
     }
 
+    @Override
+    public Map<Class<?>, Long> prepare(final Collection<Class<?>> publisherDescriptors,
+                                       final Collection<Class<?>> subscriberDescriptors) throws MessagingException
+    {
+        final Set<Class<?>> descriptors = new LinkedHashSet<Class<?>>(publisherDescriptors);
+        descriptors.addAll(subscriberDescriptors);
+        if(descriptors.isEmpty())
+        {
+            return Collections.emptyMap();
+        }
+        final int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), descriptors.size());
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount, new DaemonThreadFactory("class-generator"));
+        try
+        {
+            final Map<Class<?>, Future<Long>> generationFutures = new LinkedHashMap<Class<?>, Future<Long>>();
+            for (final Class<?> descriptor : descriptors)
+            {
+                generationFutures.put(descriptor, executor.submit(new Callable<Long>()
+                {
+                    @Override
+                    public Long call() throws Exception
+                    {
+                        final long startNanos = System.nanoTime();
+                        if(publisherDescriptors.contains(descriptor))
+                        {
+                            publisherFactory.preparePublisher(descriptor);
+                        }
+                        if(subscriberDescriptors.contains(descriptor))
+                        {
+                            subscriberFactory.prepareReceiver(descriptor);
+                        }
+                        return System.nanoTime() - startNanos;
+                    }
+                }));
+            }
+
+            final Map<Class<?>, Long> generationNanosByDescriptor = new LinkedHashMap<Class<?>, Long>();
+            for (Map.Entry<Class<?>, Future<Long>> entry : generationFutures.entrySet())
+            {
+                final Long generationNanos = entry.getValue().get();
+                LOGGER.fine("Generated classes for " + entry.getKey().getName() + " in " + generationNanos / 1000L + "us");
+                generationNanosByDescriptor.put(entry.getKey(), generationNanos);
+            }
+            return Collections.unmodifiableMap(generationNanosByDescriptor);
+        }
+        catch (InterruptedException e)
+        {
+            throw new MessagingException("Interrupted while generating classes", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new MessagingException("Unable to generate classes", e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
     @Override
     public <T> T createPublisher(final Class<T> descriptor) throws MessagingException
     {
@@ -52,12 +134,85 @@ public final class MessagingContextImpl implements MessagingContext
     @Override
     public <T> void createSubscriber(final Class<T> descriptor, final T implementation) throws MessagingException
     {
-        final Receiver receiver = subscriberFactory.createReceiver(descriptor, implementation);
+        createSubscriber(descriptor, implementation, null);
+    }
+
+    @Override
+    public <T> void createSubscriber(final Class<T> descriptor, final T implementation,
+                                     final MessageFilter filter) throws MessagingException
+    {
+        if(filter != null)
+        {
+            MessageFilters.validate(filter, descriptor);
+        }
+        final Receiver subscriberReceiver = subscriberFactory.createReceiver(descriptor, implementation);
+        final Receiver receiver = filter == null ? subscriberReceiver : new FilteredReceiver(subscriberReceiver, filter);
         final int topicId = topicIdGenerator.getTopicId(descriptor);
+        synchronized (receiversByTopicIdMap)
+        {
+            Map<Object, List<Receiver>> receiversByImplementation = receiversByTopicIdMap.get(topicId);
+            if(receiversByImplementation == null)
+            {
+                receiversByImplementation = new IdentityHashMap<Object, List<Receiver>>();
+                receiversByTopicIdMap.put(topicId, receiversByImplementation);
+            }
+            List<Receiver> receivers = receiversByImplementation.get(implementation);
+            if(receivers == null)
+            {
+                receivers = new ArrayList<Receiver>(1);
+                receiversByImplementation.put(implementation, receivers);
+            }
+            receivers.add(receiver);
+        }
         messagingService.registerReceiver(topicId, receiver);
         messagingService.registerSubscriber(descriptor);
     }
 
+    @Override
+    public void subscribeToResponseCacheInvalidation() throws MessagingException
+    {
+        createSubscriber(ResponseCacheInvalidation.class, publisherFactory.getResponseCacheInvalidation());
+    }
+
+    @Override
+    public <T> void removePublisher(final Class<T> descriptor) throws MessagingException
+    {
+        messagingService.unregisterPublisher(descriptor);
+        publisherFactory.removePublisher(descriptor);
+    }
+
+    @Override
+    public <T> void removeSubscriber(final Class<T> descriptor, final T implementation) throws MessagingException
+    {
+        final int topicId = topicIdGenerator.getTopicId(descriptor);
+        final Receiver receiver;
+        final boolean lastSubscriberForTopic;
+        synchronized (receiversByTopicIdMap)
+        {
+            final Map<Object, List<Receiver>> receiversByImplementation = receiversByTopicIdMap.get(topicId);
+            final List<Receiver> receivers = receiversByImplementation == null ? null : receiversByImplementation.get(implementation);
+            if(receivers == null)
+            {
+                throw new MessagingException("No subscriber to " + descriptor.getName() + " registered for " + implementation);
+            }
+            receiver = receivers.remove(receivers.size() - 1);
+            if(receivers.isEmpty())
+            {
+                receiversByImplementation.remove(implementation);
+            }
+            lastSubscriberForTopic = receiversByImplementation.isEmpty();
+            if(lastSubscriberForTopic)
+            {
+                receiversByTopicIdMap.remove(topicId);
+            }
+        }
+        messagingService.unregisterReceiver(topicId, receiver);
+        if(lastSubscriberForTopic)
+        {
+            messagingService.unregisterSubscriber(descriptor);
+        }
+    }
+
     @Override
     public void start()
     {
@@ -24,9 +24,12 @@ public interface MessagingService
     void send(int topicId, ByteArrayOutputStream byteArrayOutputStream) throws MessagingException;
     DecoderStream sendAndWait(int topicId, ByteArrayOutputStream byteArrayOutputStream) throws MessagingException;
     void registerReceiver(int topicId, Receiver receiver);
+    void unregisterReceiver(int topicId, Receiver receiver);
 
     <T> void registerPublisher(final Class<T> descriptor);
     <T> void registerSubscriber(final Class<T> descriptor);
+    <T> void unregisterPublisher(final Class<T> descriptor);
+    <T> void unregisterSubscriber(final Class<T> descriptor);
 
     void start() throws MessagingException;
     void shutdown() throws MessagingException;
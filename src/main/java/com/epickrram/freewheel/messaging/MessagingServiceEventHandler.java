@@ -18,8 +18,15 @@ package com.epickrram.freewheel.messaging;
 
 import com.lmax.disruptor.EventHandler;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 public final class MessagingServiceEventHandler implements EventHandler<OutgoingMessageEvent>
 {
+    private static final Logger LOGGER = Logger.getLogger(MessagingServiceEventHandler.class.getSimpleName());
+
+    private final AtomicLong encodingFailureCount = new AtomicLong();
     private final MessagingService messagingService;
 
     public MessagingServiceEventHandler(final MessagingService messagingService)
@@ -31,6 +38,24 @@ public final class MessagingServiceEventHandler implements EventHandler<Outgoing
     public void onEvent(final OutgoingMessageEvent event, final long sequence,
                         final boolean endOfBatch) throws Exception
     {
+        try
+        {
+            event.encodeDeferred();
+        }
+        catch(Exception e)
+        {
+            encodingFailureCount.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Dropping message on topic " + event.getTopicId() + " that could not be encoded", e);
+            return;
+        }
         messagingService.send(event.getTopicId(), event.getOutput());
     }
+
+    /**
+     * @return the number of deferred messages dropped because their arguments could not be encoded
+     */
+    public long getEncodingFailureCount()
+    {
+        return encodingFailureCount.get();
+    }
 }
\ No newline at end of file
@@ -22,13 +22,23 @@ import com.epickrram.freewheel.io.PackerEncoderStreamFactory;
 import com.lmax.disruptor.EventFactory;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 
 public final class OutgoingMessageEvent
 {
+    public static final int MAX_DEFERRED_ARGUMENTS = 16;
+
     private final EncoderStream encoderStream;
     private final ByteArrayOutputStream output;
+    private final byte[] header = new byte[MessageHeader.LENGTH];
+    private final long[] primitiveArguments = new long[MAX_DEFERRED_ARGUMENTS];
+    private final Object[] referenceArguments = new Object[MAX_DEFERRED_ARGUMENTS];
 
     private int topicId;
+    private int methodId;
+    private long sequence;
+    private int argumentCount;
+    private DeferredEncoder deferredEncoder;
 
     public OutgoingMessageEvent(final EncoderStreamFactory encoderStreamFactory)
     {
@@ -46,6 +56,13 @@ public final class OutgoingMessageEvent
         this.topicId = topicId;
     }
 
+    public void writeHeader(final int topicId, final int methodId, final long sequence)
+    {
+        this.topicId = topicId;
+        MessageHeader.write(header, 0, topicId, methodId, 0, sequence);
+        output.write(header, 0, header.length);
+    }
+
     public EncoderStream getEncoderStream()
     {
         return encoderStream;
@@ -56,9 +73,100 @@ public final class OutgoingMessageEvent
         return output;
     }
 
+    /**
+     * Records the message to be written by encodeDeferred; arguments are captured with the set*Argument methods.
+     */
+    public void deferEncoding(final int topicId, final int methodId, final long sequence,
+                              final int argumentCount, final DeferredEncoder deferredEncoder)
+    {
+        this.topicId = topicId;
+        this.methodId = methodId;
+        this.sequence = sequence;
+        this.argumentCount = argumentCount;
+        this.deferredEncoder = deferredEncoder;
+    }
+
+    public void setPrimitiveArgument(final int index, final long value)
+    {
+        primitiveArguments[index] = value;
+    }
+
+    public long getPrimitiveArgument(final int index)
+    {
+        return primitiveArguments[index];
+    }
+
+    public void setBooleanArgument(final int index, final boolean value)
+    {
+        primitiveArguments[index] = value ? 1L : 0L;
+    }
+
+    public boolean getBooleanArgument(final int index)
+    {
+        return primitiveArguments[index] != 0L;
+    }
+
+    public void setFloatArgument(final int index, final float value)
+    {
+        primitiveArguments[index] = Float.floatToRawIntBits(value);
+    }
+
+    public float getFloatArgument(final int index)
+    {
+        return Float.intBitsToFloat((int) primitiveArguments[index]);
+    }
+
+    public void setDoubleArgument(final int index, final double value)
+    {
+        primitiveArguments[index] = Double.doubleToRawLongBits(value);
+    }
+
+    public double getDoubleArgument(final int index)
+    {
+        return Double.longBitsToDouble(primitiveArguments[index]);
+    }
+
+    public void setReferenceArgument(final int index, final Object value)
+    {
+        referenceArguments[index] = value;
+    }
+
+    public Object getReferenceArgument(final int index)
+    {
+        return referenceArguments[index];
+    }
+
+    /**
+     * Writes the header and captured arguments of a deferred message to the output, then releases the
+     * captured references. Does nothing if the message was encoded by the publishing thread.
+     */
+    public void encodeDeferred() throws IOException
+    {
+        final DeferredEncoder encoder = deferredEncoder;
+        if(encoder == null)
+        {
+            return;
+        }
+        deferredEncoder = null;
+        output.reset();
+        writeHeader(topicId, methodId, sequence);
+        try
+        {
+            encoder.encode(methodId, this, encoderStream);
+        }
+        finally
+        {
+            for(int i = 0; i < argumentCount; i++)
+            {
+                referenceArguments[i] = null;
+            }
+        }
+    }
+
     public void reset()
     {
         output.reset();
+        deferredEncoder = null;
     }
 
 }
\ No newline at end of file
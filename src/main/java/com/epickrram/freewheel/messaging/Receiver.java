@@ -19,6 +19,6 @@ import com.epickrram.freewheel.io.DecoderStream;
 
 public interface Receiver
 {
-    void onMessage(final int topicId, final DecoderStream decoderStream);
-    Object onSyncMessage(final int topicId, final DecoderStream decoderStream);
+    void onMessage(final int topicId, final int methodId, final DecoderStream decoderStream);
+    Object onSyncMessage(final int topicId, final int methodId, final DecoderStream decoderStream);
 }
\ No newline at end of file
@@ -15,34 +15,209 @@
 //////////////////////////////////////////////////////////////////////////////////
 package com.epickrram.freewheel.messaging;
 
-import com.epickrram.freewheel.util.Creator;
-
-import java.util.Collection;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentMap;
-
-import static com.epickrram.freewheel.util.ConcurrentMapIdiom.getOrCreateFromConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class ReceiverRegistry
 {
-    private final ConcurrentMap<Integer, Queue<Receiver>> receiverByTopicIdMap = new ConcurrentHashMap<Integer, Queue<Receiver>>();
+    private static final Receiver[] NO_RECEIVERS = new Receiver[0];
+    private static final Receiver[][] NO_DENSE_RECEIVERS = new Receiver[0][];
+    private static final int INITIAL_CAPACITY = 16;
+    // topic ids handed out by a manifest are small and dense, so are looked up by index
+    private static final int DENSE_TOPIC_ID_LIMIT = 256;
+
+    private final AtomicLong unknownTopicCount = new AtomicLong();
+    private final Object registrationLock = new Object();
+    private volatile Receiver[][] denseReceivers = NO_DENSE_RECEIVERS;
+    private volatile ReceiverTable receiverTable = new ReceiverTable(INITIAL_CAPACITY);
 
     public void registerReceiver(final int topicId, final Receiver receiver)
     {
-        getOrCreateFromConcurrentMap(receiverByTopicIdMap, new Creator<Queue<Receiver>>()
+        synchronized (registrationLock)
         {
-            @Override
-            public Queue<Receiver> create()
+            final Receiver[] existing = lookup(topicId);
+            final Receiver[] updated;
+            if(existing == null)
+            {
+                updated = new Receiver[] {receiver};
+            }
+            else
+            {
+                updated = new Receiver[existing.length + 1];
+                System.arraycopy(existing, 0, updated, 0, existing.length);
+                updated[existing.length] = receiver;
+            }
+            store(topicId, updated);
+        }
+    }
+
+    public void removeReceiver(final int topicId, final Receiver receiver)
+    {
+        synchronized (registrationLock)
+        {
+            final Receiver[] existing = lookup(topicId);
+            if(existing == null)
+            {
+                return;
+            }
+            int index = -1;
+            for(int i = 0; i < existing.length; i++)
+            {
+                if(existing[i] == receiver)
+                {
+                    index = i;
+                    break;
+                }
+            }
+            if(index == -1)
             {
-                return new ConcurrentLinkedQueue<Receiver>();
+                return;
             }
-        }, topicId).add(receiver);
+            if(existing.length == 1)
+            {
+                store(topicId, null);
+                return;
+            }
+            final Receiver[] updated = new Receiver[existing.length - 1];
+            System.arraycopy(existing, 0, updated, 0, index);
+            System.arraycopy(existing, index + 1, updated, index, existing.length - index - 1);
+            store(topicId, updated);
+        }
+    }
+
+    public Receiver[] getReceivers(final int topicId)
+    {
+        final Receiver[] receivers = lookup(topicId);
+        if(receivers == null)
+        {
+            unknownTopicCount.incrementAndGet();
+            return NO_RECEIVERS;
+        }
+        return receivers;
     }
 
-    public Collection<Receiver> getReceiverList(final int topicId)
+    /**
+     * Like getReceivers, but for inspecting registrations rather than dispatching; does not count unknown topics.
+     */
+    public Receiver[] getRegisteredReceivers(final int topicId)
     {
-        return receiverByTopicIdMap.get(topicId);
+        final Receiver[] receivers = lookup(topicId);
+        return receivers == null ? NO_RECEIVERS : receivers;
+    }
+
+    public long getUnknownTopicCount()
+    {
+        return unknownTopicCount.get();
+    }
+
+    private Receiver[] lookup(final int topicId)
+    {
+        final Receiver[][] dense = denseReceivers;
+        if(topicId >= 0 && topicId < dense.length)
+        {
+            return dense[topicId];
+        }
+        return topicId >= 0 && topicId < DENSE_TOPIC_ID_LIMIT ? null : receiverTable.get(topicId);
+    }
+
+    private void store(final int topicId, final Receiver[] topicReceivers)
+    {
+        if(topicId >= 0 && topicId < DENSE_TOPIC_ID_LIMIT)
+        {
+            final Receiver[][] dense = denseReceivers;
+            final Receiver[][] updated = new Receiver[Math.max(dense.length, topicId + 1)][];
+            System.arraycopy(dense, 0, updated, 0, dense.length);
+            updated[topicId] = topicReceivers;
+            denseReceivers = updated;
+        }
+        else if(topicReceivers == null)
+        {
+            receiverTable = receiverTable.copyWithout(topicId);
+        }
+        else
+        {
+            receiverTable = receiverTable.copyWith(topicId, topicReceivers);
+        }
+    }
+
+    private static final class ReceiverTable
+    {
+        private final int[] topicIds;
+        private final Receiver[][] receivers;
+        private final int mask;
+        private final int size;
+
+        private ReceiverTable(final int capacity)
+        {
+            this(new int[capacity], new Receiver[capacity][], 0);
+        }
+
+        private ReceiverTable(final int[] topicIds, final Receiver[][] receivers, final int size)
+        {
+            this.topicIds = topicIds;
+            this.receivers = receivers;
+            this.mask = topicIds.length - 1;
+            this.size = size;
+        }
+
+        private Receiver[] get(final int topicId)
+        {
+            int index = indexFor(topicId);
+            while(receivers[index] != null)
+            {
+                if(topicIds[index] == topicId)
+                {
+                    return receivers[index];
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        private ReceiverTable copyWith(final int topicId, final Receiver[] topicReceivers)
+        {
+            final boolean isNewTopic = get(topicId) == null;
+            final int newSize = isNewTopic ? size + 1 : size;
+            final int capacity = newSize * 2 > topicIds.length ? topicIds.length * 2 : topicIds.length;
+            final ReceiverTable copy = new ReceiverTable(new int[capacity], new Receiver[capacity][], newSize);
+            for(int i = 0; i < topicIds.length; i++)
+            {
+                if(receivers[i] != null)
+                {
+                    copy.put(topicIds[i], receivers[i]);
+                }
+            }
+            copy.put(topicId, topicReceivers);
+            return copy;
+        }
+
+        private ReceiverTable copyWithout(final int topicId)
+        {
+            final ReceiverTable copy = new ReceiverTable(new int[topicIds.length], new Receiver[topicIds.length][], size - 1);
+            for(int i = 0; i < topicIds.length; i++)
+            {
+                if(receivers[i] != null && topicIds[i] != topicId)
+                {
+                    copy.put(topicIds[i], receivers[i]);
+                }
+            }
+            return copy;
+        }
+
+        private void put(final int topicId, final Receiver[] topicReceivers)
+        {
+            int index = indexFor(topicId);
+            while(receivers[index] != null && topicIds[index] != topicId)
+            {
+                index = (index + 1) & mask;
+            }
+            topicIds[index] = topicId;
+            receivers[index] = topicReceivers;
+        }
+
+        private int indexFor(final int topicId)
+        {
+            final int hash = topicId * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
     }
-}
\ No newline at end of file
+}
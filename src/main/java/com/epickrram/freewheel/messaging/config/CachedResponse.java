@@ -0,0 +1,38 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.config;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Caches the results of a sync method in direct publishers, keyed on the encoded arguments, so that repeated
+ * calls are answered without a round trip. Cached results are shared between callers and should be immutable.
+ * Servers may clear cached results early by publishing on ResponseCacheInvalidation.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CachedResponse
+{
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 60000L;
+
+    int maxEntries() default DEFAULT_MAX_ENTRIES;
+
+    long timeToLiveMillis() default DEFAULT_TIME_TO_LIVE_MILLIS;
+}
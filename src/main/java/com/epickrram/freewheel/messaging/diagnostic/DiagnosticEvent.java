@@ -0,0 +1,63 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.diagnostic;
+
+import com.lmax.disruptor.EventFactory;
+
+final class DiagnosticEvent
+{
+    static final EventFactory<DiagnosticEvent> FACTORY = new EventFactory<DiagnosticEvent>()
+    {
+        @Override
+        public DiagnosticEvent newInstance()
+        {
+            return new DiagnosticEvent();
+        }
+    };
+
+    private long timestampNanos;
+    private DiagnosticEventType type;
+    private int topicId;
+    private long value;
+
+    void set(final long timestampNanos, final DiagnosticEventType type, final int topicId, final long value)
+    {
+        this.timestampNanos = timestampNanos;
+        this.type = type;
+        this.topicId = topicId;
+        this.value = value;
+    }
+
+    long getTimestampNanos()
+    {
+        return timestampNanos;
+    }
+
+    DiagnosticEventType getType()
+    {
+        return type;
+    }
+
+    int getTopicId()
+    {
+        return topicId;
+    }
+
+    long getValue()
+    {
+        return value;
+    }
+}
@@ -0,0 +1,241 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.diagnostic;
+
+import com.epickrram.freewheel.util.DaemonThreadFactory;
+import com.lmax.disruptor.BatchEventProcessor;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.MultiThreadedClaimStrategy;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.SleepingWaitStrategy;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records diagnostic events from messaging threads into a pre-allocated ring, which a background
+ * thread drains to a DiagnosticEventSink. Recording copies a few primitives and never blocks on the
+ * sink; events are dropped if the ring is full. When no topic enables an event's level, record
+ * returns after a single volatile read.
+ */
+public final class DiagnosticLog
+{
+    public static final int DEFAULT_RING_SIZE = 4096;
+
+    private static final DiagnosticEventSink NO_OP_SINK = new DiagnosticEventSink()
+    {
+        @Override
+        public void onEvent(final long timestampNanos, final DiagnosticEventType type, final int topicId, final long value)
+        {
+        }
+    };
+
+    private final RingBuffer<DiagnosticEvent> ringBuffer;
+    private final BatchEventProcessor<DiagnosticEvent> eventProcessor;
+    private final int sampleInterval;
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    // highest sequence a producer may claim; reserved before next() so that a claim never waits for the processor
+    private final AtomicLong reservedSequence = new AtomicLong(-1L);
+    private final Object levelLock = new Object();
+    private volatile DiagnosticLevel defaultLevel;
+    // sorted by topic id, replaced as a pair on update
+    private volatile TopicLevels topicLevels = new TopicLevels(new int[0], new DiagnosticLevel[0]);
+    private volatile DiagnosticLevel maximumLevel;
+    private volatile ExecutorService executorService;
+
+    /**
+     * @param sampleInterval record one in every sampleInterval enabled events
+     */
+    public DiagnosticLog(final int ringSize, final int sampleInterval, final DiagnosticLevel defaultLevel,
+                         final DiagnosticEventSink sink)
+    {
+        if(sampleInterval < 1)
+        {
+            throw new IllegalArgumentException("Sample interval must be at least 1");
+        }
+        this.sampleInterval = sampleInterval;
+        this.defaultLevel = defaultLevel;
+        this.maximumLevel = defaultLevel;
+        this.ringBuffer = new RingBuffer<DiagnosticEvent>(DiagnosticEvent.FACTORY,
+                new MultiThreadedClaimStrategy(ringSize), new SleepingWaitStrategy());
+        this.eventProcessor = new BatchEventProcessor<DiagnosticEvent>(ringBuffer, ringBuffer.newBarrier(),
+                new EventHandler<DiagnosticEvent>()
+                {
+                    @Override
+                    public void onEvent(final DiagnosticEvent event, final long sequence, final boolean endOfBatch)
+                    {
+                        sink.onEvent(event.getTimestampNanos(), event.getType(), event.getTopicId(), event.getValue());
+                    }
+                });
+        ringBuffer.setGatingSequences(eventProcessor.getSequence());
+    }
+
+    /**
+     * @return a log that records nothing until a level is enabled on it
+     */
+    public static DiagnosticLog disabled()
+    {
+        return new DiagnosticLog(2, 1, DiagnosticLevel.OFF, NO_OP_SINK);
+    }
+
+    public void record(final DiagnosticEventType type, final int topicId, final long value)
+    {
+        final DiagnosticLevel eventLevel = type.getLevel();
+        if(!maximumLevel.enables(eventLevel) || !levelFor(topicId).enables(eventLevel))
+        {
+            return;
+        }
+        if(sampleInterval != 1 && sampleCounter.getAndIncrement() % sampleInterval != 0L)
+        {
+            return;
+        }
+        if(!reserveSequence())
+        {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        final long sequence = ringBuffer.next();
+        try
+        {
+            ringBuffer.get(sequence).set(System.nanoTime(), type, topicId, value);
+        }
+        finally
+        {
+            ringBuffer.publish(sequence);
+        }
+    }
+
+    public boolean isEnabled(final DiagnosticEventType type, final int topicId)
+    {
+        return maximumLevel.enables(type.getLevel()) && levelFor(topicId).enables(type.getLevel());
+    }
+
+    public void setDefaultLevel(final DiagnosticLevel level)
+    {
+        synchronized (levelLock)
+        {
+            defaultLevel = level;
+            updateMaximumLevel();
+        }
+    }
+
+    public void setTopicLevel(final int topicId, final DiagnosticLevel level)
+    {
+        synchronized (levelLock)
+        {
+            final TopicLevels current = topicLevels;
+            final int index = Arrays.binarySearch(current.topicIds, topicId);
+            if(index >= 0)
+            {
+                final DiagnosticLevel[] levels = current.levels.clone();
+                levels[index] = level;
+                topicLevels = new TopicLevels(current.topicIds, levels);
+            }
+            else
+            {
+                final int insertionPoint = -(index + 1);
+                final int length = current.topicIds.length;
+                final int[] topicIds = new int[length + 1];
+                final DiagnosticLevel[] levels = new DiagnosticLevel[length + 1];
+                System.arraycopy(current.topicIds, 0, topicIds, 0, insertionPoint);
+                System.arraycopy(current.levels, 0, levels, 0, insertionPoint);
+                topicIds[insertionPoint] = topicId;
+                levels[insertionPoint] = level;
+                System.arraycopy(current.topicIds, insertionPoint, topicIds, insertionPoint + 1, length - insertionPoint);
+                System.arraycopy(current.levels, insertionPoint, levels, insertionPoint + 1, length - insertionPoint);
+                topicLevels = new TopicLevels(topicIds, levels);
+            }
+            updateMaximumLevel();
+        }
+    }
+
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    public void start()
+    {
+        executorService = Executors.newSingleThreadExecutor(new DaemonThreadFactory("diagnostic-log"));
+        executorService.submit(eventProcessor);
+    }
+
+    public void stop()
+    {
+        if(executorService != null)
+        {
+            eventProcessor.halt();
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Reserves a sequence that is free in the ring, so that the following next() returns without waiting.
+     * Every reservation is followed by exactly one claim, so the claimed sequence never exceeds the highest
+     * reservation, which was checked against the processor's sequence.
+     */
+    private boolean reserveSequence()
+    {
+        final int ringSize = ringBuffer.getBufferSize();
+        while(true)
+        {
+            final long reserved = reservedSequence.get();
+            if(reserved + 1L - eventProcessor.getSequence().get() > ringSize)
+            {
+                return false;
+            }
+            if(reservedSequence.compareAndSet(reserved, reserved + 1L))
+            {
+                return true;
+            }
+        }
+    }
+
+    private DiagnosticLevel levelFor(final int topicId)
+    {
+        final TopicLevels levels = topicLevels;
+        final int index = Arrays.binarySearch(levels.topicIds, topicId);
+        return index >= 0 ? levels.levels[index] : defaultLevel;
+    }
+
+    private void updateMaximumLevel()
+    {
+        DiagnosticLevel maximum = defaultLevel;
+        for (DiagnosticLevel level : topicLevels.levels)
+        {
+            if(level.ordinal() > maximum.ordinal())
+            {
+                maximum = level;
+            }
+        }
+        maximumLevel = maximum;
+    }
+
+    private static final class TopicLevels
+    {
+        private final int[] topicIds;
+        private final DiagnosticLevel[] levels;
+
+        private TopicLevels(final int[] topicIds, final DiagnosticLevel[] levels)
+        {
+            this.topicIds = topicIds;
+            this.levels = levels;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.diagnostic;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes drained diagnostic events to java.util.logging, off the messaging threads.
+ */
+public final class LoggingDiagnosticEventSink implements DiagnosticEventSink
+{
+    private static final Logger LOGGER = Logger.getLogger(LoggingDiagnosticEventSink.class.getName());
+
+    private final StringBuilder line = new StringBuilder();
+
+    @Override
+    public void onEvent(final long timestampNanos, final DiagnosticEventType type, final int topicId, final long value)
+    {
+        if(!LOGGER.isLoggable(Level.INFO))
+        {
+            return;
+        }
+        line.setLength(0);
+        line.append(timestampNanos).append(' ').append(type).append(" topic=").append(topicId).append(" value=").append(value);
+        LOGGER.info(line.toString());
+    }
+}
@@ -0,0 +1,55 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.dispatch;
+
+import com.lmax.disruptor.EventFactory;
+
+final class IncomingMessageEvent
+{
+    static final EventFactory<IncomingMessageEvent> FACTORY = new EventFactory<IncomingMessageEvent>()
+    {
+        @Override
+        public IncomingMessageEvent newInstance()
+        {
+            return new IncomingMessageEvent();
+        }
+    };
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int length;
+
+    void set(final byte[] message, final int offset, final int length)
+    {
+        if(buffer.length < length)
+        {
+            buffer = new byte[length];
+        }
+        System.arraycopy(message, offset, buffer, 0, length);
+        this.length = length;
+    }
+
+    byte[] getBuffer()
+    {
+        return buffer;
+    }
+
+    int getLength()
+    {
+        return length;
+    }
+}
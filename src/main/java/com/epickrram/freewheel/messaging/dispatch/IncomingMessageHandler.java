@@ -0,0 +1,95 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.dispatch;
+
+import com.epickrram.freewheel.io.DecoderStream;
+import com.epickrram.freewheel.io.UnpackerDecoderStream;
+import com.epickrram.freewheel.messaging.MessageCompression;
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.Receiver;
+import com.epickrram.freewheel.messaging.ReceiverRegistry;
+import com.epickrram.freewheel.messaging.filter.FilteredReceiver;
+import com.epickrram.freewheel.protocol.CodeBook;
+import org.msgpack.unpacker.MessagePackUnpacker;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public final class IncomingMessageHandler
+{
+    private static final Logger LOGGER = Logger.getLogger(IncomingMessageHandler.class.getName());
+
+    private final CodeBook codeBook;
+    private final ReceiverRegistry receiverRegistry;
+    private final AtomicLong filteredMessageCount = new AtomicLong();
+
+    public IncomingMessageHandler(final CodeBook codeBook, final ReceiverRegistry receiverRegistry)
+    {
+        this.codeBook = codeBook;
+        this.receiverRegistry = receiverRegistry;
+    }
+
+    public void onMessage(final byte[] message, final int offset, final int length)
+    {
+        MessageHeader.validate(message, offset, length);
+        if(MessageHeader.isCompressed(message, offset))
+        {
+            final byte[] decompressed = MessageCompression.decompress(message, offset, length);
+            onMessage(decompressed, 0, decompressed.length);
+            return;
+        }
+        final int topicId = MessageHeader.getTopicId(message, offset);
+        final int methodId = MessageHeader.getMethodId(message, offset);
+        final Receiver[] receivers = receiverRegistry.getReceivers(topicId);
+        for (int i = 0; i < receivers.length; i++)
+        {
+            final Receiver receiver = receivers[i];
+            if(receiver instanceof FilteredReceiver && !((FilteredReceiver) receiver).accept(message, offset, length))
+            {
+                filteredMessageCount.incrementAndGet();
+                continue;
+            }
+            try
+            {
+                receiver.onMessage(topicId, methodId, payloadDecoderStreamFor(message, offset, length));
+            }
+            catch (RuntimeException e)
+            {
+                LOGGER.log(Level.SEVERE, "Receiver failed to handle message for topic " + topicId, e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of messages not delivered to a receiver because its filter rejected them
+     */
+    public long getFilteredMessageCount()
+    {
+        return filteredMessageCount.get();
+    }
+
+    /**
+     * @return a stream positioned at the start of the payload, just after the message header
+     */
+    public DecoderStream payloadDecoderStreamFor(final byte[] message, final int offset, final int length)
+    {
+        final int headerLength = MessageHeader.getLength(message, offset);
+        return new UnpackerDecoderStream(codeBook,
+                new MessagePackUnpacker(new ByteArrayInputStream(message, offset + headerLength, length - headerLength)));
+    }
+}
@@ -0,0 +1,56 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.dispatch;
+
+public final class InlineMessageDispatcher implements MessageDispatcher
+{
+    private static final MessageDispatcherFactory FACTORY = new MessageDispatcherFactory()
+    {
+        @Override
+        public MessageDispatcher create(final IncomingMessageHandler messageHandler)
+        {
+            return new InlineMessageDispatcher(messageHandler);
+        }
+    };
+
+    private final IncomingMessageHandler messageHandler;
+
+    public InlineMessageDispatcher(final IncomingMessageHandler messageHandler)
+    {
+        this.messageHandler = messageHandler;
+    }
+
+    public static MessageDispatcherFactory factory()
+    {
+        return FACTORY;
+    }
+
+    @Override
+    public void dispatch(final byte[] message, final int offset, final int length)
+    {
+        messageHandler.onMessage(message, offset, length);
+    }
+
+    @Override
+    public void start()
+    {
+    }
+
+    @Override
+    public void stop()
+    {
+    }
+}
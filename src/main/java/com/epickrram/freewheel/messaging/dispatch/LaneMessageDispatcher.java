@@ -0,0 +1,143 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.dispatch;
+
+import com.epickrram.freewheel.messaging.MessageCompression;
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.util.DaemonThreadFactory;
+import com.lmax.disruptor.BatchEventProcessor;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.RingBuffer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public final class LaneMessageDispatcher implements MessageDispatcher
+{
+    private final ShardKeyExtractor shardKeyExtractor;
+    private final List<RingBuffer<IncomingMessageEvent>> lanes = new ArrayList<RingBuffer<IncomingMessageEvent>>();
+    private final List<BatchEventProcessor<IncomingMessageEvent>> eventProcessors =
+            new ArrayList<BatchEventProcessor<IncomingMessageEvent>>();
+    private volatile ExecutorService executorService;
+
+    public LaneMessageDispatcher(final IncomingMessageHandler messageHandler, final int laneCount,
+                                 final int laneSize, final ShardKeyExtractor shardKeyExtractor)
+    {
+        if(laneCount < 1)
+        {
+            throw new IllegalArgumentException("At least one dispatch lane is required");
+        }
+        this.shardKeyExtractor = shardKeyExtractor;
+        final EventHandler<IncomingMessageEvent> eventHandler = new EventHandler<IncomingMessageEvent>()
+        {
+            @Override
+            public void onEvent(final IncomingMessageEvent event, final long sequence, final boolean endOfBatch) throws Exception
+            {
+                messageHandler.onMessage(event.getBuffer(), 0, event.getLength());
+            }
+        };
+        for(int i = 0; i < laneCount; i++)
+        {
+            final RingBuffer<IncomingMessageEvent> lane = new RingBuffer<IncomingMessageEvent>(IncomingMessageEvent.FACTORY, laneSize);
+            final BatchEventProcessor<IncomingMessageEvent> eventProcessor =
+                    new BatchEventProcessor<IncomingMessageEvent>(lane, lane.newBarrier(), eventHandler);
+            lane.setGatingSequences(eventProcessor.getSequence());
+            lanes.add(lane);
+            eventProcessors.add(eventProcessor);
+        }
+    }
+
+    public static MessageDispatcherFactory factory(final int laneCount, final int laneSize,
+                                                   final ShardKeyExtractor shardKeyExtractor)
+    {
+        return new MessageDispatcherFactory()
+        {
+            @Override
+            public MessageDispatcher create(final IncomingMessageHandler messageHandler)
+            {
+                return new LaneMessageDispatcher(messageHandler, laneCount, laneSize, shardKeyExtractor);
+            }
+        };
+    }
+
+    @Override
+    public void dispatch(final byte[] message, final int offset, final int length)
+    {
+        MessageHeader.validate(message, offset, length);
+        if(MessageHeader.isCompressed(message, offset))
+        {
+            // decompress once here, as the shard key is read from the payload
+            final byte[] decompressed = MessageCompression.decompress(message, offset, length);
+            dispatch(decompressed, 0, decompressed.length);
+            return;
+        }
+        final RingBuffer<IncomingMessageEvent> lane = lanes.get(laneIndex(getShardKey(message, offset, length)));
+        final long sequence = lane.next();
+        try
+        {
+            lane.get(sequence).set(message, offset, length);
+        }
+        finally
+        {
+            lane.publish(sequence);
+        }
+    }
+
+    @Override
+    public void start()
+    {
+        executorService = Executors.newFixedThreadPool(eventProcessors.size(), new DaemonThreadFactory("dispatcher"));
+        for (BatchEventProcessor<IncomingMessageEvent> eventProcessor : eventProcessors)
+        {
+            executorService.submit(eventProcessor);
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        for (BatchEventProcessor<IncomingMessageEvent> eventProcessor : eventProcessors)
+        {
+            eventProcessor.halt();
+        }
+        if(executorService != null)
+        {
+            executorService.shutdown();
+        }
+    }
+
+    private long getShardKey(final byte[] message, final int offset, final int length)
+    {
+        try
+        {
+            return shardKeyExtractor.getShardKey(message, offset, length);
+        }
+        catch (IOException e)
+        {
+            throw new MessagingException("Unable to read shard key", e);
+        }
+    }
+
+    private int laneIndex(final long shardKey)
+    {
+        final int hash = (int) (shardKey ^ (shardKey >>> 32));
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % lanes.size();
+    }
+}
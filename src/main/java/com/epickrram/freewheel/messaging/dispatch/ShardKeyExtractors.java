@@ -0,0 +1,78 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.dispatch;
+
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.filter.MessagePackScanner;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class ShardKeyExtractors
+{
+    public static final ShardKeyExtractor TOPIC_ID = new ShardKeyExtractor()
+    {
+        @Override
+        public long getShardKey(final byte[] message, final int offset, final int length)
+        {
+            return MessageHeader.getTopicId(message, offset);
+        }
+    };
+
+    private ShardKeyExtractors() {}
+
+    /**
+     * Shards on the value of an integral (byte, int or long) method argument, read in place from the message.
+     */
+    public static ShardKeyExtractor integralArgument(final int argumentIndex)
+    {
+        return new ShardKeyExtractor()
+        {
+            @Override
+            public long getShardKey(final byte[] message, final int offset, final int length) throws IOException
+            {
+                final int end = offset + length;
+                int position = offset + MessageHeader.getLength(message, offset);
+                for(int i = 0; i < argumentIndex && position != MessagePackScanner.INVALID_POSITION; i++)
+                {
+                    position = MessagePackScanner.skipArgument(message, position, end);
+                }
+                if(!MessagePackScanner.isIntegral(message, position, end))
+                {
+                    throw new IOException("Argument " + argumentIndex + " is not an integral value");
+                }
+                return MessagePackScanner.readIntegral(message, position);
+            }
+        };
+    }
+
+    public static ShardKeyExtractor byTopic(final Map<Integer, ShardKeyExtractor> extractorByTopicIdMap,
+                                            final ShardKeyExtractor defaultExtractor)
+    {
+        final Map<Integer, ShardKeyExtractor> extractors = new HashMap<Integer, ShardKeyExtractor>(extractorByTopicIdMap);
+        return new ShardKeyExtractor()
+        {
+            @Override
+            public long getShardKey(final byte[] message, final int offset, final int length) throws IOException
+            {
+                final ShardKeyExtractor extractor = extractors.get(MessageHeader.getTopicId(message, offset));
+                return extractor != null ?
+                        extractor.getShardKey(message, offset, length) : defaultExtractor.getShardKey(message, offset, length);
+            }
+        };
+    }
+}
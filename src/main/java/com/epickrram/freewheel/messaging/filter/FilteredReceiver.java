@@ -0,0 +1,77 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.filter;
+
+import com.epickrram.freewheel.io.DecoderStream;
+import com.epickrram.freewheel.io.EncoderStream;
+import com.epickrram.freewheel.messaging.EncodingReceiver;
+import com.epickrram.freewheel.messaging.Receiver;
+import com.epickrram.freewheel.remoting.ReturnValueCodec;
+
+import java.io.IOException;
+
+/**
+ * A Receiver that only wants messages accepted by its filter. The filter is applied by the
+ * transport against the encoded message; sync messages are always delivered, since the caller
+ * is waiting for a response.
+ */
+public final class FilteredReceiver implements EncodingReceiver
+{
+    private final Receiver delegate;
+    private final MessageFilter filter;
+
+    public FilteredReceiver(final Receiver delegate, final MessageFilter filter)
+    {
+        this.delegate = delegate;
+        this.filter = filter;
+    }
+
+    public boolean accept(final byte[] message, final int offset, final int length)
+    {
+        return filter.accept(message, offset, length);
+    }
+
+    public MessageFilter getFilter()
+    {
+        return filter;
+    }
+
+    @Override
+    public void onMessage(final int topicId, final int methodId, final DecoderStream decoderStream)
+    {
+        delegate.onMessage(topicId, methodId, decoderStream);
+    }
+
+    @Override
+    public Object onSyncMessage(final int topicId, final int methodId, final DecoderStream decoderStream)
+    {
+        return delegate.onSyncMessage(topicId, methodId, decoderStream);
+    }
+
+    @Override
+    public void onSyncMessage(final int topicId, final int methodId, final DecoderStream decoderStream,
+                              final EncoderStream responseEncoderStream) throws IOException
+    {
+        if(delegate instanceof EncodingReceiver)
+        {
+            ((EncodingReceiver) delegate).onSyncMessage(topicId, methodId, decoderStream, responseEncoderStream);
+        }
+        else
+        {
+            ReturnValueCodec.writeUntyped(responseEncoderStream, delegate.onSyncMessage(topicId, methodId, decoderStream));
+        }
+    }
+}
@@ -0,0 +1,331 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.filter;
+
+import com.epickrram.freewheel.io.DecoderStream;
+import com.epickrram.freewheel.io.EncoderStream;
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.remoting.RemoteInterfaceSchema;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import static com.epickrram.freewheel.messaging.filter.MessagePackScanner.INVALID_POSITION;
+
+/**
+ * Filters built from these factories can also be encoded and sent to a remote publisher, so that
+ * unwanted messages are not sent at all.
+ */
+public final class MessageFilters
+{
+    private static final byte ACCEPT_ALL_TYPE = 0;
+    private static final byte METHOD_IDS_TYPE = 1;
+    private static final byte INTEGRAL_ARGUMENT_TYPE = 2;
+    private static final byte ANY_OF_TYPE = 3;
+    private static final byte ALL_OF_TYPE = 4;
+
+    private static final MessageFilter ACCEPT_ALL = new AcceptAllFilter();
+
+    private MessageFilters() {}
+
+    public static MessageFilter acceptAll()
+    {
+        return ACCEPT_ALL;
+    }
+
+    public static MessageFilter methodIds(final int... methodIds)
+    {
+        return new MethodIdFilter(methodIds.clone());
+    }
+
+    /**
+     * Accepts messages for methodId whose integral (byte, int or long) argument at argumentIndex is one of
+     * values; messages for other methods are accepted. Arguments preceding argumentIndex may be numeric
+     * primitives, Strings or other objects, but not boolean primitives, which cannot be told apart from the
+     * null marker written ahead of an object; validate rejects filters that break this rule. If the argument
+     * cannot be read, the message is accepted.
+     */
+    public static MessageFilter integralArgument(final int methodId, final int argumentIndex, final long... values)
+    {
+        final long[] sortedValues = values.clone();
+        Arrays.sort(sortedValues);
+        return new IntegralArgumentFilter(methodId, argumentIndex, sortedValues);
+    }
+
+    public static MessageFilter anyOf(final MessageFilter... filters)
+    {
+        return new CompositeFilter(ANY_OF_TYPE, filters.clone());
+    }
+
+    public static MessageFilter allOf(final MessageFilter... filters)
+    {
+        return new CompositeFilter(ALL_OF_TYPE, filters.clone());
+    }
+
+    /**
+     * @throws IllegalArgumentException if filter refers to a method that descriptor does not have, or to an
+     * argument that is not integral or cannot be located in the encoded message
+     */
+    public static void validate(final MessageFilter filter, final Class<?> descriptor)
+    {
+        if(filter instanceof CompositeFilter)
+        {
+            for (MessageFilter component : ((CompositeFilter) filter).filters)
+            {
+                validate(component, descriptor);
+            }
+        }
+        else if(filter instanceof IntegralArgumentFilter)
+        {
+            ((IntegralArgumentFilter) filter).validate(descriptor);
+        }
+    }
+
+    public static boolean isEncodable(final MessageFilter filter)
+    {
+        if(filter instanceof CompositeFilter)
+        {
+            for (MessageFilter component : ((CompositeFilter) filter).filters)
+            {
+                if(!isEncodable(component))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return filter instanceof EncodableFilter;
+    }
+
+    public static void encode(final MessageFilter filter, final EncoderStream encoderStream) throws IOException
+    {
+        if(!isEncodable(filter))
+        {
+            throw new IllegalArgumentException("Filter " + filter + " was not created by MessageFilters");
+        }
+        ((EncodableFilter) filter).encode(encoderStream);
+    }
+
+    public static MessageFilter decode(final DecoderStream decoderStream) throws IOException
+    {
+        final byte type = decoderStream.readByte();
+        switch(type)
+        {
+            case ACCEPT_ALL_TYPE:
+                return ACCEPT_ALL;
+            case METHOD_IDS_TYPE:
+            {
+                final int[] methodIds = new int[decoderStream.readInt()];
+                for (int i = 0; i < methodIds.length; i++)
+                {
+                    methodIds[i] = decoderStream.readInt();
+                }
+                return new MethodIdFilter(methodIds);
+            }
+            case INTEGRAL_ARGUMENT_TYPE:
+            {
+                final int methodId = decoderStream.readInt();
+                final int argumentIndex = decoderStream.readInt();
+                final long[] values = new long[decoderStream.readInt()];
+                for (int i = 0; i < values.length; i++)
+                {
+                    values[i] = decoderStream.readLong();
+                }
+                return integralArgument(methodId, argumentIndex, values);
+            }
+            case ANY_OF_TYPE:
+            case ALL_OF_TYPE:
+            {
+                final MessageFilter[] filters = new MessageFilter[decoderStream.readInt()];
+                for (int i = 0; i < filters.length; i++)
+                {
+                    filters[i] = decode(decoderStream);
+                }
+                return new CompositeFilter(type, filters);
+            }
+            default:
+                throw new IOException("Unknown filter type " + type);
+        }
+    }
+
+    private interface EncodableFilter extends MessageFilter
+    {
+        void encode(final EncoderStream encoderStream) throws IOException;
+    }
+
+    private static final class AcceptAllFilter implements EncodableFilter
+    {
+        @Override
+        public boolean accept(final byte[] message, final int offset, final int length)
+        {
+            return true;
+        }
+
+        @Override
+        public void encode(final EncoderStream encoderStream) throws IOException
+        {
+            encoderStream.writeByte(ACCEPT_ALL_TYPE);
+        }
+    }
+
+    private static final class MethodIdFilter implements EncodableFilter
+    {
+        private final int[] methodIds;
+
+        private MethodIdFilter(final int[] methodIds)
+        {
+            this.methodIds = methodIds;
+        }
+
+        @Override
+        public boolean accept(final byte[] message, final int offset, final int length)
+        {
+            final int methodId = MessageHeader.getMethodId(message, offset);
+            for (int i = 0; i < methodIds.length; i++)
+            {
+                if(methodIds[i] == methodId)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void encode(final EncoderStream encoderStream) throws IOException
+        {
+            encoderStream.writeByte(METHOD_IDS_TYPE);
+            encoderStream.writeInt(methodIds.length);
+            for (int methodId : methodIds)
+            {
+                encoderStream.writeInt(methodId);
+            }
+        }
+    }
+
+    private static final class IntegralArgumentFilter implements EncodableFilter
+    {
+        private final int methodId;
+        private final int argumentIndex;
+        private final long[] sortedValues;
+
+        private IntegralArgumentFilter(final int methodId, final int argumentIndex, final long[] sortedValues)
+        {
+            this.methodId = methodId;
+            this.argumentIndex = argumentIndex;
+            this.sortedValues = sortedValues;
+        }
+
+        @Override
+        public boolean accept(final byte[] message, final int offset, final int length)
+        {
+            // the payload of a compressed message cannot be scanned
+            if(MessageHeader.getMethodId(message, offset) != methodId || MessageHeader.isCompressed(message, offset))
+            {
+                return true;
+            }
+            final int end = offset + length;
+            int position = offset + MessageHeader.getLength(message, offset);
+            for (int i = 0; i < argumentIndex && position != INVALID_POSITION; i++)
+            {
+                position = MessagePackScanner.skipArgument(message, position, end);
+            }
+            if(!MessagePackScanner.isIntegral(message, position, end))
+            {
+                return true;
+            }
+            return Arrays.binarySearch(sortedValues, MessagePackScanner.readIntegral(message, position)) >= 0;
+        }
+
+        private void validate(final Class<?> descriptor)
+        {
+            final Method method = RemoteInterfaceSchema.forDescriptor(descriptor).getMethod(methodId);
+            if(method == null)
+            {
+                throw new IllegalArgumentException(descriptor.getName() + " has no method with id " + methodId);
+            }
+            final Class<?>[] parameterTypes = method.getParameterTypes();
+            if(argumentIndex < 0 || argumentIndex >= parameterTypes.length || !isIntegral(parameterTypes[argumentIndex]))
+            {
+                throw new IllegalArgumentException("Argument " + argumentIndex + " of " + method + " is not integral");
+            }
+            for (int i = 0; i < argumentIndex; i++)
+            {
+                if(boolean.class == parameterTypes[i])
+                {
+                    throw new IllegalArgumentException("Argument " + argumentIndex + " of " + method +
+                            " cannot be filtered as it follows a boolean argument");
+                }
+            }
+        }
+
+        private static boolean isIntegral(final Class<?> type)
+        {
+            return byte.class == type || int.class == type || long.class == type;
+        }
+
+        @Override
+        public void encode(final EncoderStream encoderStream) throws IOException
+        {
+            encoderStream.writeByte(INTEGRAL_ARGUMENT_TYPE);
+            encoderStream.writeInt(methodId);
+            encoderStream.writeInt(argumentIndex);
+            encoderStream.writeInt(sortedValues.length);
+            for (long value : sortedValues)
+            {
+                encoderStream.writeLong(value);
+            }
+        }
+    }
+
+    private static final class CompositeFilter implements EncodableFilter
+    {
+        private final byte type;
+        private final MessageFilter[] filters;
+
+        private CompositeFilter(final byte type, final MessageFilter[] filters)
+        {
+            this.type = type;
+            this.filters = filters;
+        }
+
+        @Override
+        public boolean accept(final byte[] message, final int offset, final int length)
+        {
+            final boolean anyOf = type == ANY_OF_TYPE;
+            for (int i = 0; i < filters.length; i++)
+            {
+                if(filters[i].accept(message, offset, length) == anyOf)
+                {
+                    return anyOf;
+                }
+            }
+            return !anyOf;
+        }
+
+        @Override
+        public void encode(final EncoderStream encoderStream) throws IOException
+        {
+            encoderStream.writeByte(type);
+            encoderStream.writeInt(filters.length);
+            for (MessageFilter filter : filters)
+            {
+                ((EncodableFilter) filter).encode(encoderStream);
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.filter;
+
+import com.epickrram.freewheel.messaging.Bits;
+
+/**
+ * Reads msgpack-encoded values in place, without allocating, so that filters and shard key extractors
+ * can inspect leading method arguments.
+ */
+public final class MessagePackScanner
+{
+    public static final int INVALID_POSITION = -1;
+
+    private MessagePackScanner() {}
+
+    /**
+     * @return the position following the value at position, or INVALID_POSITION if the value is
+     * truncated or not understood
+     */
+    public static int skipValue(final byte[] buffer, final int position, final int end)
+    {
+        int current = position;
+        long pendingValues = 1;
+        while(pendingValues > 0)
+        {
+            if(current >= end)
+            {
+                return INVALID_POSITION;
+            }
+            pendingValues--;
+            final int type = buffer[current] & 0xff;
+            if(type <= 0x7f || type >= 0xe0)
+            {
+                current += 1;
+            }
+            else if(type <= 0x8f)
+            {
+                pendingValues += 2 * (type & 0x0f);
+                current += 1;
+            }
+            else if(type <= 0x9f)
+            {
+                pendingValues += type & 0x0f;
+                current += 1;
+            }
+            else if(type <= 0xbf)
+            {
+                current += 1 + (type & 0x1f);
+            }
+            else
+            {
+                switch(type)
+                {
+                    case 0xc0:
+                    case 0xc2:
+                    case 0xc3:
+                        current += 1;
+                        break;
+                    case 0xcc:
+                    case 0xd0:
+                        current += 2;
+                        break;
+                    case 0xcd:
+                    case 0xd1:
+                        current += 3;
+                        break;
+                    case 0xca:
+                    case 0xce:
+                    case 0xd2:
+                        current += 5;
+                        break;
+                    case 0xcb:
+                    case 0xcf:
+                    case 0xd3:
+                        current += 9;
+                        break;
+                    case 0xda:
+                        if(current + 3 > end)
+                        {
+                            return INVALID_POSITION;
+                        }
+                        current += 3 + readUnsignedShort(buffer, current + 1);
+                        break;
+                    case 0xdb:
+                        if(current + 5 > end)
+                        {
+                            return INVALID_POSITION;
+                        }
+                        current += 5 + (int) readUnsignedInt(buffer, current + 1);
+                        break;
+                    case 0xdc:
+                    case 0xde:
+                        if(current + 3 > end)
+                        {
+                            return INVALID_POSITION;
+                        }
+                        pendingValues += (type == 0xde ? 2 : 1) * readUnsignedShort(buffer, current + 1);
+                        current += 3;
+                        break;
+                    case 0xdd:
+                    case 0xdf:
+                        if(current + 5 > end)
+                        {
+                            return INVALID_POSITION;
+                        }
+                        pendingValues += (type == 0xdf ? 2 : 1) * readUnsignedInt(buffer, current + 1);
+                        current += 5;
+                        break;
+                    default:
+                        return INVALID_POSITION;
+                }
+            }
+        }
+        return current <= end ? current : INVALID_POSITION;
+    }
+
+    /**
+     * Skips a method argument as written by PackerEncoderStream, where Strings and objects are preceded by a
+     * boolean null marker.
+     *
+     * @return the position following the argument at position, or INVALID_POSITION
+     */
+    public static int skipArgument(final byte[] buffer, final int position, final int end)
+    {
+        if(position < 0 || position >= end)
+        {
+            return INVALID_POSITION;
+        }
+        final int type = buffer[position] & 0xff;
+        if(type == 0xc3)
+        {
+            return position + 1;
+        }
+        return skipValue(buffer, type == 0xc2 ? position + 1 : position, end);
+    }
+
+    public static boolean isIntegral(final byte[] buffer, final int position, final int end)
+    {
+        if(position < 0 || position >= end)
+        {
+            return false;
+        }
+        final int type = buffer[position] & 0xff;
+        return (type <= 0x7f || type >= 0xe0 || (type >= 0xcc && type <= 0xcf) || (type >= 0xd0 && type <= 0xd3)) &&
+                skipValue(buffer, position, end) != INVALID_POSITION;
+    }
+
+    /**
+     * Callers must check isIntegral first.
+     */
+    public static long readIntegral(final byte[] buffer, final int position)
+    {
+        final int type = buffer[position] & 0xff;
+        if(type <= 0x7f)
+        {
+            return type;
+        }
+        if(type >= 0xe0)
+        {
+            return buffer[position];
+        }
+        switch(type)
+        {
+            case 0xcc:
+                return buffer[position + 1] & 0xff;
+            case 0xcd:
+                return readUnsignedShort(buffer, position + 1);
+            case 0xce:
+                return readUnsignedInt(buffer, position + 1);
+            case 0xd0:
+                return buffer[position + 1];
+            case 0xd1:
+                return (short) readUnsignedShort(buffer, position + 1);
+            case 0xd2:
+                return (int) readUnsignedInt(buffer, position + 1);
+            default:
+                return Bits.readLong(buffer, position + 1);
+        }
+    }
+
+    private static int readUnsignedShort(final byte[] buffer, final int position)
+    {
+        return Bits.readUnsignedShort(buffer, position);
+    }
+
+    private static long readUnsignedInt(final byte[] buffer, final int position)
+    {
+        return Bits.readInt(buffer, position) & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,91 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.multicast;
+
+import com.epickrram.freewheel.messaging.Bits;
+
+/**
+ * Prefixes each datagram of a message too large to send in one. The marker byte is never a valid
+ * MessageHeader version, so receivers can tell fragments from whole messages.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     1  marker
+ *      1     1  reserved
+ *      2     2  fragment index (unsigned)
+ *      4     2  fragment count (unsigned)
+ *      6     2  fragment data size; every fragment but the last carries exactly this many bytes
+ *      8     8  message id, unique per sending socket
+ *     16     4  total message length
+ * </pre>
+ */
+final class FragmentHeader
+{
+    static final byte MARKER = (byte) 0xF0;
+    static final int LENGTH = 20;
+    static final int MAX_FRAGMENT_COUNT = 0xFFFF;
+    static final int MAX_FRAGMENT_SIZE = 0xFFFF;
+
+    private static final int INDEX_OFFSET = 2;
+    private static final int COUNT_OFFSET = 4;
+    private static final int DATA_SIZE_OFFSET = 6;
+    private static final int MESSAGE_ID_OFFSET = 8;
+    private static final int TOTAL_LENGTH_OFFSET = 16;
+
+    private FragmentHeader() {}
+
+    static void write(final byte[] dest, final int index, final int count, final int dataSize,
+                      final long messageId, final int totalLength)
+    {
+        dest[0] = MARKER;
+        dest[1] = 0;
+        Bits.writeShort(index, dest, INDEX_OFFSET);
+        Bits.writeShort(count, dest, COUNT_OFFSET);
+        Bits.writeShort(dataSize, dest, DATA_SIZE_OFFSET);
+        Bits.writeLong(messageId, dest, MESSAGE_ID_OFFSET);
+        Bits.writeInt(totalLength, dest, TOTAL_LENGTH_OFFSET);
+    }
+
+    static boolean isFragment(final byte[] src, final int offset, final int length)
+    {
+        return length >= LENGTH && src[offset] == MARKER;
+    }
+
+    static int getIndex(final byte[] src, final int offset)
+    {
+        return Bits.readUnsignedShort(src, offset + INDEX_OFFSET);
+    }
+
+    static int getCount(final byte[] src, final int offset)
+    {
+        return Bits.readUnsignedShort(src, offset + COUNT_OFFSET);
+    }
+
+    static int getDataSize(final byte[] src, final int offset)
+    {
+        return Bits.readUnsignedShort(src, offset + DATA_SIZE_OFFSET);
+    }
+
+    static long getMessageId(final byte[] src, final int offset)
+    {
+        return Bits.readLong(src, offset + MESSAGE_ID_OFFSET);
+    }
+
+    static int getTotalLength(final byte[] src, final int offset)
+    {
+        return Bits.readInt(src, offset + TOTAL_LENGTH_OFFSET);
+    }
+}
@@ -0,0 +1,242 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.multicast;
+
+import com.epickrram.freewheel.messaging.dispatch.MessageDispatcher;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+/**
+ * Reassembles fragmented messages on the receiving thread. In-progress messages are held in a fixed
+ * set of slots whose buffers are reused, so that fragments are copied straight into place without
+ * allocating. Not thread-safe.
+ */
+final class FragmentReassembler
+{
+    // larger buffers are not kept once their message has been dispatched
+    private static final int RETAINED_BUFFER_LIMIT = 1024 * 1024;
+
+    private final FragmentationPolicy policy;
+    private final Reassembly[] reassemblies;
+    private volatile long completedCount;
+    private volatile long incompleteCount;
+    private volatile long malformedCount;
+
+    FragmentReassembler(final FragmentationPolicy policy)
+    {
+        this.policy = policy;
+        this.reassemblies = new Reassembly[policy.getMaxPendingReassemblies()];
+        for (int i = 0; i < reassemblies.length; i++)
+        {
+            reassemblies[i] = new Reassembly();
+        }
+    }
+
+    /**
+     * Copies the fragment into its message's buffer, dispatching the message once all of its fragments have arrived.
+     */
+    void onFragment(final InetAddress sourceAddress, final int sourcePort, final byte[] fragment, final int offset, final int length,
+                    final long nowMillis, final MessageDispatcher messageDispatcher)
+    {
+        final int index = FragmentHeader.getIndex(fragment, offset);
+        final int count = FragmentHeader.getCount(fragment, offset);
+        final int dataSize = FragmentHeader.getDataSize(fragment, offset);
+        final int totalLength = FragmentHeader.getTotalLength(fragment, offset);
+        final long messageId = FragmentHeader.getMessageId(fragment, offset);
+        final int fragmentLength = length - FragmentHeader.LENGTH;
+        final long position = (long) index * dataSize;
+        if(index >= count || totalLength <= 0 || totalLength > policy.getMaxMessageSize() ||
+           position + fragmentLength > totalLength || (index < count - 1 && fragmentLength != dataSize) ||
+           (index == count - 1 && position + fragmentLength != totalLength))
+        {
+            malformedCount++;
+            return;
+        }
+        expireStale(nowMillis);
+        Reassembly reassembly = find(sourceAddress, sourcePort, messageId);
+        if(reassembly == null)
+        {
+            reassembly = allocate();
+            reassembly.start(sourceAddress, sourcePort, messageId, count, totalLength, nowMillis);
+        }
+        else if(reassembly.fragmentCount != count || reassembly.totalLength != totalLength)
+        {
+            malformedCount++;
+            return;
+        }
+        if(!reassembly.receive(index, fragment, offset + FragmentHeader.LENGTH, (int) position, fragmentLength))
+        {
+            return;
+        }
+        if(reassembly.isComplete())
+        {
+            completedCount++;
+            try
+            {
+                messageDispatcher.dispatch(reassembly.buffer, 0, reassembly.totalLength);
+            }
+            finally
+            {
+                reassembly.release();
+            }
+        }
+    }
+
+    long getCompletedCount()
+    {
+        return completedCount;
+    }
+
+    long getIncompleteCount()
+    {
+        return incompleteCount;
+    }
+
+    long getMalformedCount()
+    {
+        return malformedCount;
+    }
+
+    int getPendingCount()
+    {
+        int pendingCount = 0;
+        for (Reassembly reassembly : reassemblies)
+        {
+            if(reassembly.active)
+            {
+                pendingCount++;
+            }
+        }
+        return pendingCount;
+    }
+
+    private void expireStale(final long nowMillis)
+    {
+        final long expiryMillis = nowMillis - policy.getReassemblyTimeoutMillis();
+        for (Reassembly reassembly : reassemblies)
+        {
+            if(reassembly.active && reassembly.startMillis < expiryMillis)
+            {
+                incompleteCount++;
+                reassembly.release();
+            }
+        }
+    }
+
+    private Reassembly find(final InetAddress sourceAddress, final int sourcePort, final long messageId)
+    {
+        for (Reassembly reassembly : reassemblies)
+        {
+            if(reassembly.active && reassembly.messageId == messageId && reassembly.sourcePort == sourcePort &&
+               reassembly.sourceAddress.equals(sourceAddress))
+            {
+                return reassembly;
+            }
+        }
+        return null;
+    }
+
+    private Reassembly allocate()
+    {
+        Reassembly oldest = null;
+        for (Reassembly reassembly : reassemblies)
+        {
+            if(!reassembly.active)
+            {
+                return reassembly;
+            }
+            if(oldest == null || reassembly.startMillis < oldest.startMillis)
+            {
+                oldest = reassembly;
+            }
+        }
+        incompleteCount++;
+        oldest.release();
+        return oldest;
+    }
+
+    private static final class Reassembly
+    {
+        private byte[] buffer = new byte[0];
+        private long[] receivedFragments = new long[0];
+        private InetAddress sourceAddress;
+        private int sourcePort;
+        private long messageId;
+        private int fragmentCount;
+        private int receivedCount;
+        private int totalLength;
+        private long startMillis;
+        private boolean active;
+
+        private void start(final InetAddress sourceAddress, final int sourcePort, final long messageId,
+                           final int fragmentCount, final int totalLength, final long startMillis)
+        {
+            if(buffer.length < totalLength)
+            {
+                buffer = new byte[totalLength];
+            }
+            final int bitsetLength = (fragmentCount + 63) >>> 6;
+            if(receivedFragments.length < bitsetLength)
+            {
+                receivedFragments = new long[bitsetLength];
+            }
+            else
+            {
+                Arrays.fill(receivedFragments, 0, bitsetLength, 0L);
+            }
+            this.sourceAddress = sourceAddress;
+            this.sourcePort = sourcePort;
+            this.messageId = messageId;
+            this.fragmentCount = fragmentCount;
+            this.totalLength = totalLength;
+            this.startMillis = startMillis;
+            this.receivedCount = 0;
+            this.active = true;
+        }
+
+        /**
+         * @return false if the fragment is a duplicate
+         */
+        private boolean receive(final int index, final byte[] src, final int srcOffset, final int position, final int length)
+        {
+            final long mask = 1L << (index & 63);
+            if((receivedFragments[index >>> 6] & mask) != 0L)
+            {
+                return false;
+            }
+            receivedFragments[index >>> 6] |= mask;
+            System.arraycopy(src, srcOffset, buffer, position, length);
+            receivedCount++;
+            return true;
+        }
+
+        private boolean isComplete()
+        {
+            return receivedCount == fragmentCount;
+        }
+
+        private void release()
+        {
+            active = false;
+            sourceAddress = null;
+            if(buffer.length > RETAINED_BUFFER_LIMIT)
+            {
+                buffer = new byte[0];
+            }
+        }
+    }
+}
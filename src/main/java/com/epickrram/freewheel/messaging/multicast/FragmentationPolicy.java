@@ -0,0 +1,79 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.multicast;
+
+public final class FragmentationPolicy
+{
+    // an Ethernet MTU less IP and UDP headers
+    public static final int DEFAULT_MAX_DATAGRAM_SIZE = 1472;
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 4 * 1024 * 1024;
+    public static final long DEFAULT_REASSEMBLY_TIMEOUT_MILLIS = 1000L;
+    public static final int DEFAULT_MAX_PENDING_REASSEMBLIES = 64;
+
+    private final int maxDatagramSize;
+    private final int maxMessageSize;
+    private final long reassemblyTimeoutMillis;
+    private final int maxPendingReassemblies;
+
+    public FragmentationPolicy(final int maxDatagramSize, final int maxMessageSize,
+                               final long reassemblyTimeoutMillis, final int maxPendingReassemblies)
+    {
+        if(maxDatagramSize <= FragmentHeader.LENGTH || maxDatagramSize > FragmentHeader.MAX_FRAGMENT_SIZE)
+        {
+            throw new IllegalArgumentException("Datagram size must be between " + (FragmentHeader.LENGTH + 1) +
+                    " and " + FragmentHeader.MAX_FRAGMENT_SIZE);
+        }
+        if(maxMessageSize < maxDatagramSize || reassemblyTimeoutMillis <= 0L || maxPendingReassemblies <= 0)
+        {
+            throw new IllegalArgumentException("Max message size must be >= datagram size, with positive timeout and pending reassemblies");
+        }
+        this.maxDatagramSize = maxDatagramSize;
+        this.maxMessageSize = maxMessageSize;
+        this.reassemblyTimeoutMillis = reassemblyTimeoutMillis;
+        this.maxPendingReassemblies = maxPendingReassemblies;
+    }
+
+    public static FragmentationPolicy defaults()
+    {
+        return new FragmentationPolicy(DEFAULT_MAX_DATAGRAM_SIZE, DEFAULT_MAX_MESSAGE_SIZE,
+                DEFAULT_REASSEMBLY_TIMEOUT_MILLIS, DEFAULT_MAX_PENDING_REASSEMBLIES);
+    }
+
+    public int getMaxDatagramSize()
+    {
+        return maxDatagramSize;
+    }
+
+    public int getMaxMessageSize()
+    {
+        return maxMessageSize;
+    }
+
+    public long getReassemblyTimeoutMillis()
+    {
+        return reassemblyTimeoutMillis;
+    }
+
+    public int getMaxPendingReassemblies()
+    {
+        return maxPendingReassemblies;
+    }
+
+    int getFragmentDataSize()
+    {
+        return maxDatagramSize - FragmentHeader.LENGTH;
+    }
+}
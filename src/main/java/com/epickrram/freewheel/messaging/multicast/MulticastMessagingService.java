@@ -16,16 +16,23 @@
 package com.epickrram.freewheel.messaging.multicast;
 
 import com.epickrram.freewheel.io.DecoderStream;
-import com.epickrram.freewheel.io.UnpackerDecoderStream;
+import com.epickrram.freewheel.messaging.MessageCompression;
+import com.epickrram.freewheel.messaging.MessageHeader;
 import com.epickrram.freewheel.messaging.MessagingException;
 import com.epickrram.freewheel.messaging.MessagingService;
 import com.epickrram.freewheel.messaging.Receiver;
 import com.epickrram.freewheel.messaging.ReceiverRegistry;
+import com.epickrram.freewheel.messaging.diagnostic.DiagnosticEventType;
+import com.epickrram.freewheel.messaging.diagnostic.DiagnosticLog;
+import com.epickrram.freewheel.messaging.dispatch.IncomingMessageHandler;
+import com.epickrram.freewheel.messaging.dispatch.InlineMessageDispatcher;
+import com.epickrram.freewheel.messaging.dispatch.MessageDispatcher;
+import com.epickrram.freewheel.messaging.dispatch.MessageDispatcherFactory;
 import com.epickrram.freewheel.messaging.ptp.EndPoint;
 import com.epickrram.freewheel.protocol.CodeBook;
-import org.msgpack.unpacker.MessagePackUnpacker;
+import com.epickrram.freewheel.remoting.ClassNameTopicIdGenerator;
+import com.epickrram.freewheel.remoting.TopicIdGenerator;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
@@ -34,8 +41,12 @@ import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
 import java.net.SocketAddress;
 import java.net.SocketException;
-import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,14 +61,59 @@ public final class MulticastMessagingService implements MessagingService
     private final ReceiverRegistry receiverRegistry = new ReceiverRegistry();
     private final Thread listenerThread;
     private final CountDownLatch listenerThreadStartedLatch = new CountDownLatch(1);
-    private final CodeBook codeBook;
+    private final MessageDispatcher messageDispatcher;
+    private final TopicIdGenerator topicIdGenerator;
+    private final FragmentationPolicy fragmentationPolicy;
+    private final FragmentReassembler reassembler;
+    private final DiagnosticLog diagnosticLog;
+    private final AtomicLong nextMessageId = new AtomicLong();
+    private final ConcurrentMap<Integer, MessageCompression> compressionByTopicIdMap = new ConcurrentHashMap<Integer, MessageCompression>();
+    private final Set<Integer> subscribedTopicIds = new HashSet<Integer>();
+    private final Object groupMembershipLock = new Object();
 
     private volatile boolean isShuttingDown = false;
+    private boolean started;
+    private boolean joinedGroup;
 
     public MulticastMessagingService(final EndPoint endPoint, final CodeBook codeBook)
     {
+        this(endPoint, codeBook, InlineMessageDispatcher.factory());
+    }
+
+    public MulticastMessagingService(final EndPoint endPoint, final CodeBook codeBook,
+                                     final MessageDispatcherFactory messageDispatcherFactory)
+    {
+        this(endPoint, codeBook, messageDispatcherFactory, new ClassNameTopicIdGenerator());
+    }
+
+    public MulticastMessagingService(final EndPoint endPoint, final CodeBook codeBook,
+                                     final MessageDispatcherFactory messageDispatcherFactory,
+                                     final TopicIdGenerator topicIdGenerator)
+    {
+        this(endPoint, codeBook, messageDispatcherFactory, topicIdGenerator, FragmentationPolicy.defaults());
+    }
+
+    public MulticastMessagingService(final EndPoint endPoint, final CodeBook codeBook,
+                                     final MessageDispatcherFactory messageDispatcherFactory,
+                                     final TopicIdGenerator topicIdGenerator,
+                                     final FragmentationPolicy fragmentationPolicy)
+    {
+        this(endPoint, codeBook, messageDispatcherFactory, topicIdGenerator, fragmentationPolicy, DiagnosticLog.disabled());
+    }
+
+    public MulticastMessagingService(final EndPoint endPoint, final CodeBook codeBook,
+                                     final MessageDispatcherFactory messageDispatcherFactory,
+                                     final TopicIdGenerator topicIdGenerator,
+                                     final FragmentationPolicy fragmentationPolicy,
+                                     final DiagnosticLog diagnosticLog)
+    {
+        this.topicIdGenerator = topicIdGenerator;
+        this.fragmentationPolicy = fragmentationPolicy;
+        this.diagnosticLog = diagnosticLog;
+        this.reassembler = new FragmentReassembler(fragmentationPolicy);
         this.ipAddress = endPoint.getAddress().getHostAddress();
-        this.codeBook = codeBook;
+        this.messageDispatcher = new RecordingMessageDispatcher(
+                messageDispatcherFactory.create(new IncomingMessageHandler(codeBook, receiverRegistry)));
         try
         {
             multicastAddress = new InetSocketAddress(InetAddress.getByName(ipAddress), endPoint.getPort());
@@ -77,31 +133,73 @@ public final class MulticastMessagingService implements MessagingService
     @Override
     public <T> void registerPublisher(final Class<T> descriptor)
     {
+        final MessageCompression compression = MessageCompression.forDescriptor(descriptor);
+        if(compression != null)
+        {
+            compressionByTopicIdMap.put(topicIdGenerator.getTopicId(descriptor), compression);
+        }
     }
 
     @Override
     public <T> void registerSubscriber(final Class<T> descriptor)
     {
+        synchronized (groupMembershipLock)
+        {
+            subscribedTopicIds.add(topicIdGenerator.getTopicId(descriptor));
+            if(started && !joinedGroup)
+            {
+                joinGroup();
+            }
+        }
+    }
+
+    @Override
+    public <T> void unregisterPublisher(final Class<T> descriptor)
+    {
+        compressionByTopicIdMap.remove(topicIdGenerator.getTopicId(descriptor));
+    }
+
+    /**
+     * All topics share one socket, so it leaves the multicast group once no topic has a subscriber.
+     */
+    @Override
+    public <T> void unregisterSubscriber(final Class<T> descriptor)
+    {
+        synchronized (groupMembershipLock)
+        {
+            subscribedTopicIds.remove(topicIdGenerator.getTopicId(descriptor));
+            if(subscribedTopicIds.isEmpty() && joinedGroup)
+            {
+                try
+                {
+                    multicastSocket.leaveGroup(InetAddress.getByName(ipAddress));
+                }
+                catch (IOException e)
+                {
+                    throw new MessagingException("Could not leave multicast group", e);
+                }
+                joinedGroup = false;
+            }
+        }
     }
 
     public void send(final int topicId, final ByteArrayOutputStream byteArrayOutputStream) throws MessagingException
     {
         try
         {
-            final int dataLength = byteArrayOutputStream.size();
-            final DatagramPacket sendPacket = new DatagramPacket(byteArrayOutputStream.toByteArray(), 0, dataLength);
-
-            if (dataLength > BUFFER_SIZE)
+            final MessageCompression compression = compressionByTopicIdMap.get(topicId);
+            final byte[] message = compression == null ? byteArrayOutputStream.toByteArray() :
+                    compression.compress(byteArrayOutputStream.toByteArray());
+            final int dataLength = message.length;
+            if(dataLength > fragmentationPolicy.getMaxDatagramSize())
             {
-                LOGGER.warning("Attempting to send message of " + dataLength + " bytes");
+                sendFragments(topicId, message);
+                return;
             }
+            final DatagramPacket sendPacket = new DatagramPacket(message, 0, dataLength);
             sendPacket.setSocketAddress(multicastAddress);
-
-            LOGGER.info("Sending message of size " + dataLength + " to address " + multicastAddress);
-
             multicastSocket.send(sendPacket);
-
-            LOGGER.info("Sent message");
+            diagnosticLog.record(DiagnosticEventType.MESSAGE_SENT, topicId, dataLength);
         }
         catch (IOException e)
         {
@@ -127,16 +225,20 @@ public final class MulticastMessagingService implements MessagingService
         receiverRegistry.registerReceiver(topicId, receiver);
     }
 
+    @Override
+    public void unregisterReceiver(final int topicId, final Receiver receiver)
+    {
+        receiverRegistry.removeReceiver(topicId, receiver);
+    }
+
     public void start() throws MessagingException
     {
-        try
+        synchronized (groupMembershipLock)
         {
-            multicastSocket.joinGroup(InetAddress.getByName(ipAddress));
-        }
-        catch (IOException e)
-        {
-            throw new MessagingException("Could not bind to multicast group", e);
+            joinGroup();
+            started = true;
         }
+        messageDispatcher.start();
         listenerThread.start();
         try
         {
@@ -156,6 +258,7 @@ public final class MulticastMessagingService implements MessagingService
             listenerThread.interrupt();
             multicastSocket.close();
             listenerThread.join();
+            messageDispatcher.stop();
         }
         catch (InterruptedException e)
         {
@@ -163,6 +266,53 @@ public final class MulticastMessagingService implements MessagingService
         }
     }
 
+    public long getIncompleteMessageCount()
+    {
+        return reassembler.getIncompleteCount();
+    }
+
+    private void joinGroup()
+    {
+        try
+        {
+            multicastSocket.joinGroup(InetAddress.getByName(ipAddress));
+        }
+        catch (IOException e)
+        {
+            throw new MessagingException("Could not bind to multicast group", e);
+        }
+        joinedGroup = true;
+    }
+
+    private void sendFragments(final int topicId, final byte[] message) throws IOException
+    {
+        if(message.length > fragmentationPolicy.getMaxMessageSize())
+        {
+            throw new MessagingException("Message of " + message.length + " bytes exceeds maximum of " +
+                    fragmentationPolicy.getMaxMessageSize());
+        }
+        final int dataSize = fragmentationPolicy.getFragmentDataSize();
+        final int fragmentCount = (message.length + dataSize - 1) / dataSize;
+        if(fragmentCount > FragmentHeader.MAX_FRAGMENT_COUNT)
+        {
+            throw new MessagingException("Message of " + message.length + " bytes needs too many fragments");
+        }
+        final long messageId = nextMessageId.getAndIncrement();
+        final byte[] datagram = new byte[fragmentationPolicy.getMaxDatagramSize()];
+        final DatagramPacket sendPacket = new DatagramPacket(datagram, 0, datagram.length);
+        sendPacket.setSocketAddress(multicastAddress);
+        for (int index = 0; index < fragmentCount; index++)
+        {
+            final int position = index * dataSize;
+            final int fragmentLength = Math.min(dataSize, message.length - position);
+            FragmentHeader.write(datagram, index, fragmentCount, dataSize, messageId, message.length);
+            System.arraycopy(message, position, datagram, FragmentHeader.LENGTH, fragmentLength);
+            sendPacket.setData(datagram, 0, FragmentHeader.LENGTH + fragmentLength);
+            multicastSocket.send(sendPacket);
+        }
+        diagnosticLog.record(DiagnosticEventType.FRAGMENTED_MESSAGE_SENT, topicId, fragmentCount);
+    }
+
     private MulticastSocket createMulticastSocket(final int port) throws IOException
     {
         final MulticastSocket socket = new MulticastSocket(port);
@@ -189,6 +339,38 @@ public final class MulticastMessagingService implements MessagingService
         return socket;
     }
 
+    private final class RecordingMessageDispatcher implements MessageDispatcher
+    {
+        private final MessageDispatcher delegate;
+
+        private RecordingMessageDispatcher(final MessageDispatcher delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void dispatch(final byte[] message, final int offset, final int length)
+        {
+            if(length >= MessageHeader.LENGTH)
+            {
+                diagnosticLog.record(DiagnosticEventType.MESSAGE_RECEIVED, MessageHeader.getTopicId(message, offset), length);
+            }
+            delegate.dispatch(message, offset, length);
+        }
+
+        @Override
+        public void start()
+        {
+            delegate.start();
+        }
+
+        @Override
+        public void stop()
+        {
+            delegate.stop();
+        }
+    }
+
     private final class MessageHandler implements Runnable
     {
         private final MulticastSocket socket;
@@ -201,27 +383,23 @@ public final class MulticastMessagingService implements MessagingService
         public void run()
         {
             listenerThreadStartedLatch.countDown();
+            // dispatchers copy or fully consume a message before returning, so one buffer serves every packet
+            final byte[] receiveBuffer = new byte[Math.max(BUFFER_SIZE, fragmentationPolicy.getMaxDatagramSize())];
+            final DatagramPacket recvPacket = new DatagramPacket(receiveBuffer, 0, receiveBuffer.length);
             while (!Thread.currentThread().isInterrupted())
             {
-                final byte[] receiveBuffer = new byte[BUFFER_SIZE];
-                final DatagramPacket recvPacket = new DatagramPacket(receiveBuffer, 0, BUFFER_SIZE);
                 try
                 {
-                    LOGGER.info("Waiting for packet...");
+                    recvPacket.setLength(receiveBuffer.length);
                     socket.receive(recvPacket);
-                    LOGGER.info("Received a packet of length " + recvPacket.getLength());
-                    final ByteArrayInputStream inputBuffer = new ByteArrayInputStream(recvPacket.getData(),
-                            recvPacket.getOffset(),
-                            recvPacket.getLength());
-
-
-                    final UnpackerDecoderStream decoderStream = new UnpackerDecoderStream(getCodeBook(), new MessagePackUnpacker(inputBuffer));
-                    final int topicId = decoderStream.readInt();
-
-                    final Collection<Receiver> receiverList = receiverRegistry.getReceiverList(topicId);
-                    for (Receiver receiver : receiverList)
+                    if(FragmentHeader.isFragment(receiveBuffer, recvPacket.getOffset(), recvPacket.getLength()))
+                    {
+                        reassembler.onFragment(recvPacket.getAddress(), recvPacket.getPort(), receiveBuffer, recvPacket.getOffset(),
+                                recvPacket.getLength(), System.currentTimeMillis(), messageDispatcher);
+                    }
+                    else
                     {
-                        receiver.onMessage(topicId, decoderStream);
+                        messageDispatcher.dispatch(receiveBuffer, recvPacket.getOffset(), recvPacket.getLength());
                     }
                 }
                 catch (IOException e)
@@ -231,13 +409,12 @@ public final class MulticastMessagingService implements MessagingService
                         LOGGER.log(Level.WARNING, "Failed to receive datagram packet", e);
                     }
                 }
+                catch (MessagingException e)
+                {
+                    LOGGER.log(Level.WARNING, "Failed to dispatch datagram packet", e);
+                }
             }
             LOGGER.info("MessageHandler thread interrupted. Shutting down.");
         }
     }
-
-    private CodeBook getCodeBook()
-    {
-        return codeBook;
-    }
 }
\ No newline at end of file
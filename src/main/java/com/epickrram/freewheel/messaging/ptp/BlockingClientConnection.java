@@ -0,0 +1,186 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.messaging.MessagingException;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A persistent connection from a publisher to a blocking receiver. Sync requests are tagged with a correlation id
+ * and may be answered in any order; a single reader matches each response frame to its waiting caller.
+ *
+ * Response payloads are encoded as described in SyncRequestInvoker.
+ */
+final class BlockingClientConnection
+{
+    private static final Logger LOGGER = Logger.getLogger(BlockingClientConnection.class.getSimpleName());
+
+    private final FramedConnection connection;
+    private final int sendAndWaitTimeoutMillis;
+    private final ConcurrentMap<Integer, PendingResponse> pendingResponses = new ConcurrentHashMap<Integer, PendingResponse>();
+    private final AtomicInteger correlationIdSequence = new AtomicInteger();
+    private volatile IOException failure;
+
+    BlockingClientConnection(final FramedConnection connection, final int sendAndWaitTimeoutMillis)
+    {
+        this.connection = connection;
+        this.sendAndWaitTimeoutMillis = sendAndWaitTimeoutMillis;
+    }
+
+    void start(final Executor readerExecutor)
+    {
+        readerExecutor.execute(new ResponseReader());
+    }
+
+    void send(final byte[] message) throws IOException
+    {
+        connection.writeFrame(FramedConnection.NO_CORRELATION_ID, message, 0, message.length);
+    }
+
+    /**
+     * @return the response payload; the encoded result follows the status byte
+     */
+    byte[] sendAndWait(final byte[] message, final int topicId) throws IOException
+    {
+        final int correlationId = nextCorrelationId();
+        final PendingResponse pendingResponse = new PendingResponse();
+        pendingResponses.put(correlationId, pendingResponse);
+        try
+        {
+            if(failure != null)
+            {
+                throw failure;
+            }
+            connection.writeFrame(correlationId, message, 0, message.length);
+            return pendingResponse.await(sendAndWaitTimeoutMillis, topicId);
+        }
+        finally
+        {
+            pendingResponses.remove(correlationId);
+        }
+    }
+
+    boolean isOpen()
+    {
+        return failure == null && !connection.isClosed();
+    }
+
+    void close()
+    {
+        connection.close();
+    }
+
+    private int nextCorrelationId()
+    {
+        int correlationId;
+        do
+        {
+            correlationId = correlationIdSequence.incrementAndGet();
+        }
+        while(correlationId == FramedConnection.NO_CORRELATION_ID);
+        return correlationId;
+    }
+
+    private void onFailure(final IOException cause)
+    {
+        failure = cause;
+        connection.close();
+        for (PendingResponse pendingResponse : pendingResponses.values())
+        {
+            pendingResponse.fail(cause);
+        }
+    }
+
+    private final class ResponseReader implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                while(true)
+                {
+                    final byte[] response = connection.readFrame();
+                    final PendingResponse pendingResponse = pendingResponses.remove(connection.getReadCorrelationId());
+                    if(pendingResponse != null)
+                    {
+                        pendingResponse.complete(response);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                if(!connection.isClosed())
+                {
+                    LOGGER.log(Level.WARNING, "Lost connection " + connection, e);
+                }
+                onFailure(e);
+            }
+        }
+    }
+
+    private static final class PendingResponse
+    {
+        private final Thread waiter = Thread.currentThread();
+        private volatile byte[] response;
+        private volatile IOException failure;
+
+        void complete(final byte[] response)
+        {
+            this.response = response;
+            LockSupport.unpark(waiter);
+        }
+
+        void fail(final IOException failure)
+        {
+            this.failure = failure;
+            LockSupport.unpark(waiter);
+        }
+
+        byte[] await(final int timeoutMillis, final int topicId) throws IOException
+        {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while(response == null && failure == null)
+            {
+                final long remainingNanos = deadline - System.nanoTime();
+                if(remainingNanos <= 0L)
+                {
+                    throw new MessagingException("Did not receive response for topic " + topicId +
+                            " within " + timeoutMillis + "ms");
+                }
+                if(Thread.currentThread().isInterrupted())
+                {
+                    throw new MessagingException("Interrupted while waiting for response for topic " + topicId);
+                }
+                LockSupport.parkNanos(this, remainingNanos);
+            }
+            if(response == null)
+            {
+                throw failure;
+            }
+            return SyncRequestInvoker.checkResponse(response, topicId);
+        }
+    }
+}
@@ -17,16 +17,22 @@
 package com.epickrram.freewheel.messaging.ptp;
 
 import com.epickrram.freewheel.io.DecoderStream;
-import com.epickrram.freewheel.io.PackerEncoderStream;
 import com.epickrram.freewheel.io.UnpackerDecoderStream;
-import com.epickrram.freewheel.messaging.Bits;
+import com.epickrram.freewheel.messaging.MessageCompression;
+import com.epickrram.freewheel.messaging.MessageHeader;
 import com.epickrram.freewheel.messaging.MessagingException;
 import com.epickrram.freewheel.messaging.MessagingService;
 import com.epickrram.freewheel.messaging.Receiver;
+import com.epickrram.freewheel.messaging.ReceiverRegistry;
+import com.epickrram.freewheel.messaging.dispatch.IncomingMessageHandler;
+import com.epickrram.freewheel.messaging.dispatch.InlineMessageDispatcher;
+import com.epickrram.freewheel.messaging.dispatch.MessageDispatcher;
+import com.epickrram.freewheel.messaging.dispatch.MessageDispatcherFactory;
 import com.epickrram.freewheel.protocol.CodeBook;
 import com.epickrram.freewheel.remoting.TopicIdGenerator;
+import com.epickrram.freewheel.util.DaemonThreadFactory;
 import com.epickrram.freewheel.util.IoUtil;
-import org.msgpack.packer.MessagePackPacker;
+import com.epickrram.freewheel.util.VirtualThreads;
 import org.msgpack.unpacker.MessagePackUnpacker;
 
 import javax.net.ServerSocketFactory;
@@ -34,17 +40,19 @@ import javax.net.SocketFactory;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -52,6 +60,15 @@ import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Point-to-point transport over blocking sockets. Each publisher keeps one persistent connection per topic,
+ * carrying frames as described in FramedConnection. Receivers read each connection on its own thread:
+ * async messages are dispatched in order on that thread, while sync requests are handed to a bounded
+ * worker pool and answered on the same connection, in completion order, by correlation id.
+ * Idempotent sync requests that are identical to one already in flight share its response.
+ * Sync requests carry the caller's deadline; receivers drop them once it has passed, and reject them
+ * outright while too many are already queued for a worker (see BlockingTransportPolicy#getShedQueueDepth()).
+ */
 public final class BlockingPointToPointMessagingService implements MessagingService
 {
     private static final Logger LOGGER = Logger.getLogger(BlockingPointToPointMessagingService.class.getSimpleName());
@@ -59,43 +76,95 @@ public final class BlockingPointToPointMessagingService implements MessagingServ
     private final EndPointProvider endPointProvider;
     private final CodeBook codeBook;
     private final TopicIdGenerator topicIdGenerator;
+    private final BlockingTransportPolicy transportPolicy;
     private final SocketFactory socketFactory = SocketFactory.getDefault();
     private final ServerSocketFactory serverSocketFactory = ServerSocketFactory.getDefault();
     private final Map<Integer, Class<?>> topicIdToInterfaceMap = new ConcurrentHashMap<Integer, Class<?>>();
+    private final Map<Integer, MessageCompression> compressionByTopicIdMap = new ConcurrentHashMap<Integer, MessageCompression>();
+    private final Map<Integer, BlockingClientConnection> clientConnectionByTopicIdMap = new ConcurrentHashMap<Integer, BlockingClientConnection>();
+    private final Object clientConnectionLock = new Object();
     private final Collection<BlockingConnectionReceiverRunnable> receiverCollection = new CopyOnWriteArrayList<BlockingConnectionReceiverRunnable>();
-    // TODO configuration
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ExecutorService executor;
+    private final ExecutorService connectionExecutor;
+    private final ThreadPoolExecutor syncWorkerPool;
     private final AtomicBoolean running = new AtomicBoolean();
     private final AtomicInteger startedReceiverThreadCounter = new AtomicInteger(0);
+    private final ReceiverRegistry receiverRegistry = new ReceiverRegistry();
+    private final MessageDispatcher messageDispatcher;
+    private final CoalescedRequests coalescedRequests = new CoalescedRequests();
+    private final SyncRequestAdmission syncRequestAdmission;
+    private final SyncRequestInvoker syncRequestInvoker;
 
     public BlockingPointToPointMessagingService(final EndPointProvider endPointProvider,
                                                 final CodeBook codeBook,
                                                 final TopicIdGenerator topicIdGenerator)
     {
+        this(endPointProvider, codeBook, topicIdGenerator, InlineMessageDispatcher.factory());
+    }
+
+    public BlockingPointToPointMessagingService(final EndPointProvider endPointProvider,
+                                                final CodeBook codeBook,
+                                                final TopicIdGenerator topicIdGenerator,
+                                                final MessageDispatcherFactory messageDispatcherFactory)
+    {
+        this(endPointProvider, codeBook, topicIdGenerator, messageDispatcherFactory, BlockingTransportPolicy.defaults());
+    }
+
+    public BlockingPointToPointMessagingService(final EndPointProvider endPointProvider,
+                                                final CodeBook codeBook,
+                                                final TopicIdGenerator topicIdGenerator,
+                                                final MessageDispatcherFactory messageDispatcherFactory,
+                                                final int sendAndWaitTimeoutMillis,
+                                                final BlockingThreadModel threadModel)
+    {
+        this(endPointProvider, codeBook, topicIdGenerator, messageDispatcherFactory,
+                new BlockingTransportPolicy(sendAndWaitTimeoutMillis, threadModel, Runtime.getRuntime().availableProcessors(),
+                        BlockingTransportPolicy.DEFAULT_SYNC_WORKER_QUEUE_CAPACITY, BlockingTransportPolicy.DEFAULT_MAX_FRAME_LENGTH));
+    }
+
+    public BlockingPointToPointMessagingService(final EndPointProvider endPointProvider,
+                                                final CodeBook codeBook,
+                                                final TopicIdGenerator topicIdGenerator,
+                                                final MessageDispatcherFactory messageDispatcherFactory,
+                                                final BlockingTransportPolicy transportPolicy)
+    {
+        if(transportPolicy.getThreadModel() == BlockingThreadModel.VIRTUAL && VirtualThreads.isSupported())
+        {
+            executor = VirtualThreads.newThreadPerTaskExecutor("blocking-receiver");
+            connectionExecutor = VirtualThreads.newThreadPerTaskExecutor("blocking-connection");
+        }
+        else
+        {
+            if(transportPolicy.getThreadModel() == BlockingThreadModel.VIRTUAL)
+            {
+                LOGGER.warning("Virtual threads are not supported by this runtime, using platform threads");
+            }
+            executor = Executors.newCachedThreadPool(new DaemonThreadFactory("blocking-receiver"));
+            connectionExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("blocking-connection"));
+        }
+        syncWorkerPool = new ThreadPoolExecutor(transportPolicy.getSyncWorkerThreads(), transportPolicy.getSyncWorkerThreads(),
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(transportPolicy.getSyncWorkerQueueCapacity()),
+                new DaemonThreadFactory("blocking-sync-worker"));
+        this.transportPolicy = transportPolicy;
+        this.syncRequestAdmission = new SyncRequestAdmission(transportPolicy.getShedQueueDepth());
+        this.syncRequestInvoker = new SyncRequestInvoker(codeBook);
         this.endPointProvider = endPointProvider;
         this.codeBook = codeBook;
         this.topicIdGenerator = topicIdGenerator;
+        this.messageDispatcher = messageDispatcherFactory.create(new IncomingMessageHandler(codeBook, receiverRegistry));
     }
 
     @Override
     public void send(final int topicId, final ByteArrayOutputStream byteArrayOutputStream) throws MessagingException
     {
-        final Class<?> interfaceClass = topicIdToInterfaceMap.get(topicId);
-        final EndPoint endPoint = endPointProvider.resolveEndPoint(interfaceClass);
+        final BlockingClientConnection clientConnection = getClientConnection(topicId);
         try
         {
-            final Socket socket = socketFactory.createSocket(endPoint.getAddress(), endPoint.getPort());
-            final OutputStream outputStream = socket.getOutputStream();
-            final byte[] messageSize = new byte[4];
-            Bits.writeInt(byteArrayOutputStream.size(), messageSize, 0);
-            outputStream.write(messageSize, 0, 4);
-            outputStream.write((byte) 0);
-            outputStream.write(byteArrayOutputStream.toByteArray());
-            outputStream.flush();
-            IoUtil.close(socket);
+            clientConnection.send(compress(topicId, byteArrayOutputStream.toByteArray()));
         }
         catch (IOException e)
         {
+            onClientConnectionFailure(topicId, clientConnection);
             throw new MessagingException("Unable to write to remote socket", e);
         }
     }
@@ -103,43 +172,64 @@ public final class BlockingPointToPointMessagingService implements MessagingServ
     @Override
     public DecoderStream sendAndWait(final int topicId, final ByteArrayOutputStream byteArrayOutputStream) throws MessagingException
     {
-        final Class<?> interfaceClass = topicIdToInterfaceMap.get(topicId);
-        final EndPoint endPoint = endPointProvider.resolveEndPoint(interfaceClass);
-        try
+        final byte[] message = byteArrayOutputStream.toByteArray();
+        final byte[] response;
+        if(MessageHeader.isIdempotent(message, 0))
         {
-            final Socket socket = socketFactory.createSocket(endPoint.getAddress(), endPoint.getPort());
-            final OutputStream outputStream = socket.getOutputStream();
-            final byte[] messageSize = new byte[4];
-            Bits.writeInt(byteArrayOutputStream.size(), messageSize, 0);
-            outputStream.write(messageSize, 0, 4);
-            outputStream.write((byte) 1);
-            outputStream.write(byteArrayOutputStream.toByteArray());
-            outputStream.flush();
-            final InputStream inputStream = socket.getInputStream();
-            inputStream.read(messageSize, 0, 4);
-            final int responseSize = Bits.readInt(messageSize, 0);
-            final byte[] buffer = new byte[responseSize];
-            inputStream.read(buffer, 0, responseSize);
-            IoUtil.close(socket);
-            return new UnpackerDecoderStream(codeBook, new MessagePackUnpacker(new ByteArrayInputStream(buffer)));
+            response = coalescedRequests.send(CoalescedRequests.keyOf(message), new CoalescedRequests.Request()
+            {
+                @Override
+                public byte[] send()
+                {
+                    return sendAndWait(topicId, message);
+                }
+            });
         }
-        catch (IOException e)
+        else
         {
-            throw new MessagingException("Unable to write to remote socket", e);
+            response = sendAndWait(topicId, message);
         }
+        return new UnpackerDecoderStream(codeBook,
+                new MessagePackUnpacker(new ByteArrayInputStream(response, 1, response.length - 1)));
     }
 
     @Override
     public void registerReceiver(final int topicId, final Receiver receiver)
     {
-        receiverCollection.add(new BlockingConnectionReceiverRunnable(running, serverSocketFactory,
-                endPointProvider.resolveEndPoint(topicIdToInterfaceMap.get(topicId)), receiver, codeBook, startedReceiverThreadCounter));
+        receiverRegistry.registerReceiver(topicId, receiver);
+        final BlockingConnectionReceiverRunnable receiverRunnable = new BlockingConnectionReceiverRunnable(topicId, receiver,
+                endPointProvider.resolveEndPoint(topicIdToInterfaceMap.get(topicId)));
+        receiverCollection.add(receiverRunnable);
+        if(running.get())
+        {
+            executor.submit(receiverRunnable);
+        }
+    }
+
+    @Override
+    public void unregisterReceiver(final int topicId, final Receiver receiver)
+    {
+        receiverRegistry.removeReceiver(topicId, receiver);
+        for (BlockingConnectionReceiverRunnable receiverRunnable : receiverCollection)
+        {
+            if(receiverRunnable.receiver == receiver)
+            {
+                receiverCollection.remove(receiverRunnable);
+                receiverRunnable.stop();
+            }
+        }
     }
 
     @Override
     public <T> void registerPublisher(final Class<T> descriptor)
     {
-        topicIdToInterfaceMap.put(topicIdGenerator.getTopicId(descriptor), descriptor);
+        final int topicId = topicIdGenerator.getTopicId(descriptor);
+        topicIdToInterfaceMap.put(topicId, descriptor);
+        final MessageCompression compression = MessageCompression.forDescriptor(descriptor);
+        if(compression != null)
+        {
+            compressionByTopicIdMap.put(topicId, compression);
+        }
     }
 
     @Override
@@ -148,10 +238,36 @@ public final class BlockingPointToPointMessagingService implements MessagingServ
         topicIdToInterfaceMap.put(topicIdGenerator.getTopicId(descriptor), descriptor);
     }
 
+    @Override
+    public <T> void unregisterPublisher(final Class<T> descriptor)
+    {
+        final BlockingClientConnection clientConnection =
+                clientConnectionByTopicIdMap.remove(topicIdGenerator.getTopicId(descriptor));
+        if(clientConnection != null)
+        {
+            clientConnection.close();
+        }
+    }
+
+    @Override
+    public <T> void unregisterSubscriber(final Class<T> descriptor)
+    {
+        final int topicId = topicIdGenerator.getTopicId(descriptor);
+        for (BlockingConnectionReceiverRunnable receiverRunnable : receiverCollection)
+        {
+            if(receiverRunnable.topicId == topicId)
+            {
+                receiverCollection.remove(receiverRunnable);
+                receiverRunnable.stop();
+            }
+        }
+    }
+
     @Override
     public void start() throws MessagingException
     {
         running.set(true);
+        messageDispatcher.start();
 
         final int targetStartThreadCount = receiverCollection.size();
 
@@ -174,16 +290,32 @@ public final class BlockingPointToPointMessagingService implements MessagingServ
         {
             receiverRunnable.stop();
         }
+        synchronized (clientConnectionLock)
+        {
+            for (BlockingClientConnection clientConnection : clientConnectionByTopicIdMap.values())
+            {
+                clientConnection.close();
+            }
+            clientConnectionByTopicIdMap.clear();
+        }
         executor.shutdown();
+        connectionExecutor.shutdown();
+        syncWorkerPool.shutdown();
         final long timeoutSeconds = 5L;
         try
         {
-            executor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS);
+            if(!executor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS) ||
+               !connectionExecutor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS) ||
+               !syncWorkerPool.awaitTermination(timeoutSeconds, TimeUnit.SECONDS))
+            {
+                LOGGER.warning(String.format("Receiver threads did not shutdown within %d seconds", timeoutSeconds));
+            }
         }
         catch (InterruptedException e)
         {
             LOGGER.warning(String.format("Receiver threads did not shutdown within %d seconds", timeoutSeconds));
         }
+        messageDispatcher.stop();
     }
 
     @Override
@@ -192,128 +324,312 @@ public final class BlockingPointToPointMessagingService implements MessagingServ
         return true;
     }
 
-    private static final class BlockingConnectionReceiverRunnable implements Runnable
+    /**
+     * @return the number of received sync requests dropped because their caller's deadline had passed
+     */
+    public long getExpiredRequestCount()
     {
-        private static final Logger LOGGER = Logger.getLogger(BlockingConnectionReceiverRunnable.class.getSimpleName());
+        return syncRequestAdmission.getExpiredRequestCount();
+    }
 
-        private final AtomicBoolean runningFlag;
-        private final ServerSocketFactory serverSocketFactory;
-        private final EndPoint endPoint;
+    /**
+     * @return the number of received sync requests rejected because too many were queued for a worker
+     */
+    public long getShedRequestCount()
+    {
+        return syncRequestAdmission.getShedRequestCount();
+    }
+
+    private BlockingClientConnection getClientConnection(final int topicId)
+    {
+        BlockingClientConnection clientConnection = clientConnectionByTopicIdMap.get(topicId);
+        if(clientConnection != null && clientConnection.isOpen())
+        {
+            return clientConnection;
+        }
+        synchronized (clientConnectionLock)
+        {
+            clientConnection = clientConnectionByTopicIdMap.get(topicId);
+            if(clientConnection != null && clientConnection.isOpen())
+            {
+                return clientConnection;
+            }
+            final EndPoint endPoint = endPointProvider.resolveEndPoint(topicIdToInterfaceMap.get(topicId));
+            Socket socket = null;
+            try
+            {
+                socket = socketFactory.createSocket(endPoint.getAddress(), endPoint.getPort());
+                clientConnection = new BlockingClientConnection(
+                        new FramedConnection(socket, transportPolicy.getMaxFrameLength()),
+                        transportPolicy.getSendAndWaitTimeoutMillis());
+                clientConnection.start(connectionExecutor);
+            }
+            catch (IOException e)
+            {
+                IoUtil.close(socket);
+                throw new MessagingException("Unable to connect to remote socket", e);
+            }
+            catch (RejectedExecutionException e)
+            {
+                IoUtil.close(socket);
+                throw new MessagingException("Messaging service has been shut down", e);
+            }
+            clientConnectionByTopicIdMap.put(topicId, clientConnection);
+            return clientConnection;
+        }
+    }
+
+    private void onClientConnectionFailure(final int topicId, final BlockingClientConnection clientConnection)
+    {
+        clientConnection.close();
+        synchronized (clientConnectionLock)
+        {
+            if(clientConnectionByTopicIdMap.get(topicId) == clientConnection)
+            {
+                clientConnectionByTopicIdMap.remove(topicId);
+            }
+        }
+    }
+
+    private byte[] sendAndWait(final int topicId, final byte[] message)
+    {
+        final BlockingClientConnection clientConnection = getClientConnection(topicId);
+        try
+        {
+            final long deadline = System.currentTimeMillis() + transportPolicy.getSendAndWaitTimeoutMillis();
+            return clientConnection.sendAndWait(
+                    compress(topicId, MessageHeader.withDeadline(message, message.length, deadline)), topicId);
+        }
+        catch (IOException e)
+        {
+            onClientConnectionFailure(topicId, clientConnection);
+            throw new MessagingException("Unable to write to remote socket", e);
+        }
+    }
+
+    private byte[] compress(final int topicId, final byte[] message)
+    {
+        final MessageCompression compression = compressionByTopicIdMap.get(topicId);
+        return compression == null ? message : compression.compress(message);
+    }
+
+    private final class BlockingConnectionReceiverRunnable implements Runnable
+    {
+        private final int topicId;
         private final Receiver receiver;
-        private final CodeBook codeBook;
-        private final AtomicInteger startedReceiverThreadCounter;
+        private final EndPoint endPoint;
+        private final Set<FramedConnection> openConnections =
+                Collections.newSetFromMap(new ConcurrentHashMap<FramedConnection, Boolean>());
         private volatile ServerSocket serverSocket;
+        private volatile boolean stopped;
 
-        public BlockingConnectionReceiverRunnable(final AtomicBoolean runningFlag, final ServerSocketFactory serverSocketFactory,
-                                                  final EndPoint endPoint, final Receiver receiver, final CodeBook codeBook,
-                                                  final AtomicInteger startedReceiverThreadCounter)
+        private BlockingConnectionReceiverRunnable(final int topicId, final Receiver receiver, final EndPoint endPoint)
         {
-            this.runningFlag = runningFlag;
-            this.serverSocketFactory = serverSocketFactory;
-            this.endPoint = endPoint;
+            this.topicId = topicId;
             this.receiver = receiver;
-            this.codeBook = codeBook;
-            this.startedReceiverThreadCounter = startedReceiverThreadCounter;
+            this.endPoint = endPoint;
         }
 
         @Override
         public void run()
         {
-            startedReceiverThreadCounter.incrementAndGet();
+            boolean started = false;
             while(isRunning())
             {
                 try
                 {
-                    serverSocket = serverSocketFactory.createServerSocket(endPoint.getPort());
+                    try
+                    {
+                        serverSocket = serverSocketFactory.createServerSocket(endPoint.getPort());
+                    }
+                    finally
+                    {
+                        // start() waits for this, so that publishers do not connect before the socket is bound
+                        if(!started)
+                        {
+                            started = true;
+                            startedReceiverThreadCounter.incrementAndGet();
+                        }
+                    }
                     while(isRunning())
                     {
                         final Socket socket = serverSocket.accept();
-                        final byte[] size = new byte[4];
-                        final InputStream inputStream = socket.getInputStream();
-                        inputStream.read(size, 0, 4);
-                        final int messageSize = Bits.readInt(size, 0);
-                        final boolean isSyncMethod = ((byte)inputStream.read()) != 0;
-
-                        final byte[] message = new byte[messageSize];
-                        inputStream.read(message, 0, messageSize);
-
-                        final UnpackerDecoderStream decoderStream = new UnpackerDecoderStream(codeBook, new MessagePackUnpacker(new ByteArrayInputStream(message)));
-                        final int topicId = decoderStream.readInt();
-                        if(isSyncMethod)
+                        try
                         {
-                            final Object result = receiver.onSyncMessage(topicId, decoderStream);
-                            final ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
-                            final PackerEncoderStream encoderStream = new PackerEncoderStream(codeBook, new MessagePackPacker(outBuffer));
-
-                            if(result == null)
-                            {
-                                encoderStream.writeObject(result);
-                            }
-                            else
-                            {
-                                final Class<?> returnType = result.getClass();
-                                if (int.class == returnType)
-                                {
-                                    encoderStream.writeInt((Integer) result);
-                                }
-                                else if (long.class == returnType)
-                                {
-                                    encoderStream.writeLong((Long) result);
-                                }
-                                else if (byte.class == returnType)
-                                {
-                                    encoderStream.writeByte((Byte) result);
-                                }
-                                else if (String.class == returnType)
-                                {
-                                    encoderStream.writeString((String) result);
-                                }
-                                else
-                                {
-                                    encoderStream.writeObject(result);
-                                }
-                            }
-
-                            final OutputStream outputStream = socket.getOutputStream();
-                            Bits.writeInt(outBuffer.size(), size, 0);
-                            outputStream.write(size, 0, 4);
-                            final byte[] responseBytes = outBuffer.toByteArray();
-                            outputStream.write(responseBytes);
-                            outputStream.flush();
+                            connectionExecutor.execute(new ConnectionReader(
+                                    new FramedConnection(socket, transportPolicy.getMaxFrameLength())));
                         }
-                        else
+                        catch(RejectedExecutionException e)
                         {
-                            receiver.onMessage(topicId, decoderStream);
+                            // shutting down
+                            IoUtil.close(socket);
                         }
                     }
-
                 }
                 catch(IOException e)
                 {
-                    if(runningFlag.get())
+                    if(running.get() && !stopped)
                     {
                         LOGGER.log(Level.WARNING, "Unable to create server socket, pausing..", e);
                     }
                     IoUtil.close(serverSocket);
                     LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1L));
                 }
-                catch(Throwable e)
-                {
-                    LOGGER.log(Level.SEVERE, "Failed to invoke Receiver", e);
-                    IoUtil.close(serverSocket);
-                    LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1L));
-                }
+            }
+            if(!started)
+            {
+                startedReceiverThreadCounter.incrementAndGet();
             }
         }
 
         private boolean isRunning()
         {
-            return runningFlag.get() && !Thread.currentThread().isInterrupted();
+            return running.get() && !stopped && !Thread.currentThread().isInterrupted();
         }
 
         void stop()
         {
+            stopped = true;
             IoUtil.close(serverSocket);
+            for (FramedConnection connection : openConnections)
+            {
+                connection.close();
+            }
+        }
+
+        private final class ConnectionReader implements Runnable
+        {
+            private final FramedConnection connection;
+
+            private ConnectionReader(final FramedConnection connection)
+            {
+                this.connection = connection;
+            }
+
+            @Override
+            public void run()
+            {
+                openConnections.add(connection);
+                try
+                {
+                    while(isRunning())
+                    {
+                        byte[] message = connection.readFrame();
+                        MessageHeader.validate(message, 0, message.length);
+                        if(MessageHeader.isSync(message, 0) && !admit(message))
+                        {
+                            continue;
+                        }
+                        if(MessageHeader.isCompressed(message, 0))
+                        {
+                            message = MessageCompression.decompress(message, 0, message.length);
+                        }
+
+                        if(MessageHeader.isSync(message, 0))
+                        {
+                            submit(new SyncRequest(connection, connection.getReadCorrelationId(), message));
+                        }
+                        else
+                        {
+                            messageDispatcher.dispatch(message, 0, message.length);
+                        }
+                    }
+                }
+                catch(IOException e)
+                {
+                    // peer closed the connection, or the receiver is stopping
+                }
+                catch(RejectedExecutionException e)
+                {
+                    // shutting down
+                }
+                catch(RuntimeException e)
+                {
+                    LOGGER.log(Level.WARNING, "Closing connection " + connection + " after invalid message", e);
+                }
+                finally
+                {
+                    openConnections.remove(connection);
+                    connection.close();
+                }
+            }
+
+            private void submit(final SyncRequest syncRequest) throws IOException
+            {
+                try
+                {
+                    syncWorkerPool.execute(syncRequest);
+                }
+                catch(RejectedExecutionException e)
+                {
+                    if(syncWorkerPool.isShutdown())
+                    {
+                        throw e;
+                    }
+                    // running the request here would stop this connection being read, so answer it as overloaded
+                    syncRequestAdmission.onQueueFull();
+                    writeOverloaded();
+                }
+            }
+
+            private void writeOverloaded() throws IOException
+            {
+                final byte[] response = SyncRequestInvoker.errorResponse(SyncRequestAdmission.OVERLOADED_DESCRIPTION);
+                connection.writeFrame(connection.getReadCorrelationId(), response, 0, response.length);
+            }
+
+            /**
+             * checked before the request is decompressed or decoded, as its header is never compressed
+             */
+            private boolean admit(final byte[] message) throws IOException
+            {
+                if(syncRequestAdmission.isExpired(message))
+                {
+                    return false;
+                }
+                if(syncRequestAdmission.shouldShed(syncWorkerPool.getQueue().size()))
+                {
+                    writeOverloaded();
+                    return false;
+                }
+                return true;
+            }
+        }
+
+        private final class SyncRequest implements Runnable
+        {
+            private final FramedConnection connection;
+            private final int correlationId;
+            private final byte[] message;
+
+            private SyncRequest(final FramedConnection connection, final int correlationId, final byte[] message)
+            {
+                this.connection = connection;
+                this.correlationId = correlationId;
+                this.message = message;
+            }
+
+            @Override
+            public void run()
+            {
+                if(syncRequestAdmission.isExpired(message))
+                {
+                    return;
+                }
+                final SyncResponseBuffer responseBuffer = syncRequestInvoker.invoke(receiver, message);
+                try
+                {
+                    connection.writeFrame(correlationId, responseBuffer.getBuffer(), 0, responseBuffer.size());
+                }
+                catch(IOException e)
+                {
+                    connection.close();
+                }
+                finally
+                {
+                    syncRequestInvoker.release(responseBuffer);
+                }
+            }
         }
     }
 }
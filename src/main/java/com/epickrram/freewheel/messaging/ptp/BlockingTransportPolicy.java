@@ -0,0 +1,112 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+public final class BlockingTransportPolicy
+{
+    public static final int DEFAULT_SEND_AND_WAIT_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_SYNC_WORKER_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    private final int sendAndWaitTimeoutMillis;
+    private final BlockingThreadModel threadModel;
+    private final int syncWorkerThreads;
+    private final int syncWorkerQueueCapacity;
+    private final int maxFrameLength;
+    private final int shedQueueDepth;
+
+    public BlockingTransportPolicy(final int sendAndWaitTimeoutMillis, final BlockingThreadModel threadModel,
+                                   final int syncWorkerThreads, final int syncWorkerQueueCapacity,
+                                   final int maxFrameLength)
+    {
+        this(sendAndWaitTimeoutMillis, threadModel, syncWorkerThreads, syncWorkerQueueCapacity, maxFrameLength,
+                syncWorkerQueueCapacity);
+    }
+
+    public BlockingTransportPolicy(final int sendAndWaitTimeoutMillis, final BlockingThreadModel threadModel,
+                                   final int syncWorkerThreads, final int syncWorkerQueueCapacity,
+                                   final int maxFrameLength, final int shedQueueDepth)
+    {
+        if(sendAndWaitTimeoutMillis <= 0 || syncWorkerThreads <= 0 || syncWorkerQueueCapacity <= 0 ||
+           maxFrameLength <= 0 || shedQueueDepth <= 0)
+        {
+            throw new IllegalArgumentException("Timeout, worker threads, worker queue capacity, max frame length " +
+                    "and shed queue depth must be positive");
+        }
+        if(shedQueueDepth > syncWorkerQueueCapacity)
+        {
+            throw new IllegalArgumentException("Shed queue depth must not exceed sync worker queue capacity");
+        }
+        this.sendAndWaitTimeoutMillis = sendAndWaitTimeoutMillis;
+        this.threadModel = threadModel;
+        this.syncWorkerThreads = syncWorkerThreads;
+        this.syncWorkerQueueCapacity = syncWorkerQueueCapacity;
+        this.maxFrameLength = maxFrameLength;
+        this.shedQueueDepth = shedQueueDepth;
+    }
+
+    public static BlockingTransportPolicy defaults()
+    {
+        return withThreadModel(BlockingThreadModel.PLATFORM);
+    }
+
+    public static BlockingTransportPolicy withThreadModel(final BlockingThreadModel threadModel)
+    {
+        return new BlockingTransportPolicy(DEFAULT_SEND_AND_WAIT_TIMEOUT_MILLIS, threadModel,
+                Runtime.getRuntime().availableProcessors(), DEFAULT_SYNC_WORKER_QUEUE_CAPACITY, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public int getSendAndWaitTimeoutMillis()
+    {
+        return sendAndWaitTimeoutMillis;
+    }
+
+    public BlockingThreadModel getThreadModel()
+    {
+        return threadModel;
+    }
+
+    /**
+     * sync requests are handed from connection readers to a pool of this many threads
+     */
+    public int getSyncWorkerThreads()
+    {
+        return syncWorkerThreads;
+    }
+
+    /**
+     * when this many sync requests are queued, connection readers run further requests themselves, which
+     * stops them reading until the pool catches up; unless shed queue depth is larger, such requests are
+     * rejected first
+     */
+    public int getSyncWorkerQueueCapacity()
+    {
+        return syncWorkerQueueCapacity;
+    }
+
+    public int getMaxFrameLength()
+    {
+        return maxFrameLength;
+    }
+
+    /**
+     * sync requests arriving while this many are queued for a worker are rejected with an error response
+     */
+    public int getShedQueueDepth()
+    {
+        return shedQueueDepth;
+    }
+}
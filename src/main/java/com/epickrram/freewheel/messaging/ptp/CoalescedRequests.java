@@ -0,0 +1,126 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.messaging.Bits;
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.util.ByteArrayKey;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares one in-flight sync request between concurrent callers making identical requests. The first caller
+ * sends the request; callers arriving before it completes wait for the same response, or the same failure.
+ */
+final class CoalescedRequests
+{
+    interface Request
+    {
+        byte[] send();
+    }
+
+    private final ConcurrentMap<ByteArrayKey, InFlightRequest> inFlightRequestMap =
+            new ConcurrentHashMap<ByteArrayKey, InFlightRequest>();
+    private final AtomicLong coalescedRequestCount = new AtomicLong();
+
+    byte[] send(final ByteArrayKey key, final Request request)
+    {
+        final InFlightRequest inFlightRequest = new InFlightRequest();
+        final InFlightRequest existing = inFlightRequestMap.putIfAbsent(key, inFlightRequest);
+        if(existing != null)
+        {
+            coalescedRequestCount.incrementAndGet();
+            return existing.await();
+        }
+        try
+        {
+            final byte[] response = request.send();
+            inFlightRequest.complete(response, null);
+            return response;
+        }
+        catch(RuntimeException e)
+        {
+            inFlightRequest.complete(null, e);
+            throw e;
+        }
+        catch(Error e)
+        {
+            inFlightRequest.complete(null, e);
+            throw e;
+        }
+        finally
+        {
+            inFlightRequestMap.remove(key, inFlightRequest);
+        }
+    }
+
+    /**
+     * @return a key identifying requests with the same topic, method and encoded arguments
+     */
+    static ByteArrayKey keyOf(final byte[] message)
+    {
+        final int headerLength = MessageHeader.getLength(message, 0);
+        final byte[] key = new byte[8 + message.length - headerLength];
+        Bits.writeInt(MessageHeader.getTopicId(message, 0), key, 0);
+        Bits.writeInt(MessageHeader.getMethodId(message, 0), key, 4);
+        System.arraycopy(message, headerLength, key, 8, message.length - headerLength);
+        return new ByteArrayKey(key);
+    }
+
+    /**
+     * @return the number of requests answered by another caller's request
+     */
+    long getCoalescedRequestCount()
+    {
+        return coalescedRequestCount.get();
+    }
+
+    private static final class InFlightRequest
+    {
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile byte[] response;
+        private volatile Throwable failure;
+
+        void complete(final byte[] response, final Throwable failure)
+        {
+            this.response = response;
+            this.failure = failure;
+            completed.countDown();
+        }
+
+        byte[] await()
+        {
+            try
+            {
+                completed.await();
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new MessagingException("Interrupted while waiting for coalesced response", e);
+            }
+            if(failure != null)
+            {
+                throw new MessagingException("Coalesced request failed: " + failure.getMessage(), failure);
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.util.IoUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A socket carrying length-prefixed frames: u32 payload length, u32 correlation id, payload.
+ * Frames may be written from any thread; only one thread may read.
+ */
+final class FramedConnection
+{
+    static final int NO_CORRELATION_ID = 0;
+
+    private final Socket socket;
+    private final int maxFrameLength;
+    private final DataInputStream inputStream;
+    private final DataOutputStream outputStream;
+    // not synchronized, which would pin a virtual thread while it blocks in the write
+    private final Lock writeLock = new ReentrantLock();
+    private int readCorrelationId;
+
+    FramedConnection(final Socket socket, final int maxFrameLength) throws IOException
+    {
+        this.socket = socket;
+        this.maxFrameLength = maxFrameLength;
+        socket.setTcpNoDelay(true);
+        inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    void writeFrame(final int correlationId, final byte[] payload, final int offset, final int length) throws IOException
+    {
+        writeLock.lock();
+        try
+        {
+            outputStream.writeInt(length);
+            outputStream.writeInt(correlationId);
+            outputStream.write(payload, offset, length);
+            outputStream.flush();
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return the payload of the next frame, blocking until it has been read in full
+     */
+    byte[] readFrame() throws IOException
+    {
+        final int length = inputStream.readInt();
+        if(length < 0 || length > maxFrameLength)
+        {
+            throw new IOException("Invalid frame length " + length + " from " + socket.getRemoteSocketAddress());
+        }
+        readCorrelationId = inputStream.readInt();
+        final byte[] payload = new byte[length];
+        inputStream.readFully(payload);
+        return payload;
+    }
+
+    /**
+     * @return the correlation id of the frame last returned by readFrame
+     */
+    int getReadCorrelationId()
+    {
+        return readCorrelationId;
+    }
+
+    boolean isClosed()
+    {
+        return socket.isClosed();
+    }
+
+    void close()
+    {
+        IoUtil.close(socket);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FramedConnection{" + socket.getRemoteSocketAddress() + "}";
+    }
+}
@@ -0,0 +1,112 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * Bounded queue of frames written while a publisher is disconnected. Slots are allocated the first time they
+ * are used and then reused, so a topic that never disconnects does not pay for its full capacity.
+ */
+final class OutboundBacklog
+{
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final int slotSize;
+    private final ReconnectPolicy.OverflowPolicy overflowPolicy;
+
+    private int head;
+    private int size;
+
+    OutboundBacklog(final int capacity, final int slotSize, final ReconnectPolicy.OverflowPolicy overflowPolicy)
+    {
+        this.slots = new byte[capacity][];
+        this.lengths = new int[capacity];
+        this.slotSize = slotSize;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    boolean offer(final ChannelBuffer buffer)
+    {
+        final int length = buffer.readableBytes();
+        if(length > slotSize || slots.length == 0)
+        {
+            return false;
+        }
+        if(size == slots.length)
+        {
+            if(overflowPolicy == ReconnectPolicy.OverflowPolicy.DROP_NEWEST)
+            {
+                return false;
+            }
+            head = nextIndex(head);
+            size--;
+        }
+        final int tail = (head + size) % slots.length;
+        if(slots[tail] == null)
+        {
+            slots[tail] = new byte[slotSize];
+        }
+        buffer.getBytes(buffer.readerIndex(), slots[tail], 0, length);
+        lengths[tail] = length;
+        size++;
+        return true;
+    }
+
+    /**
+     * @return true if the next offer will evict the oldest entry to make room
+     */
+    boolean isEvicting()
+    {
+        return slots.length != 0 && size == slots.length && overflowPolicy == ReconnectPolicy.OverflowPolicy.DROP_OLDEST;
+    }
+
+    ChannelBuffer poll()
+    {
+        if(size == 0)
+        {
+            return null;
+        }
+        final ChannelBuffer buffer = ChannelBuffers.copiedBuffer(slots[head], 0, lengths[head]);
+        head = nextIndex(head);
+        size--;
+        return buffer;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    int allocatedSlotCount()
+    {
+        int allocatedSlotCount = 0;
+        for (byte[] slot : slots)
+        {
+            if(slot != null)
+            {
+                allocatedSlotCount++;
+            }
+        }
+        return allocatedSlotCount;
+    }
+
+    private int nextIndex(final int index)
+    {
+        return (index + 1) % slots.length;
+    }
+}
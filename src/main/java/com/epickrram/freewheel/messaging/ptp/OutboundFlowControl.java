@@ -0,0 +1,75 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+public final class OutboundFlowControl
+{
+    public static final int DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK = 256 * 1024;
+    public static final int DEFAULT_WRITE_BUFFER_LOW_WATER_MARK = 128 * 1024;
+    public static final long DEFAULT_WRITE_TIMEOUT_MILLIS = 5000L;
+
+    private static final WriteFailureListener NO_OP_LISTENER = new WriteFailureListener()
+    {
+        @Override
+        public void onWriteFailure(final int topicId, final Throwable cause)
+        {
+        }
+    };
+
+    private final int highWaterMark;
+    private final int lowWaterMark;
+    private final long writeTimeoutMillis;
+    private final WriteFailureListener writeFailureListener;
+
+    public OutboundFlowControl(final int highWaterMark, final int lowWaterMark,
+                               final long writeTimeoutMillis, final WriteFailureListener writeFailureListener)
+    {
+        if(lowWaterMark > highWaterMark)
+        {
+            throw new IllegalArgumentException("Low water mark must not exceed high water mark");
+        }
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.writeFailureListener = writeFailureListener != null ? writeFailureListener : NO_OP_LISTENER;
+    }
+
+    public static OutboundFlowControl defaults()
+    {
+        return new OutboundFlowControl(DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK, DEFAULT_WRITE_BUFFER_LOW_WATER_MARK,
+                DEFAULT_WRITE_TIMEOUT_MILLIS, NO_OP_LISTENER);
+    }
+
+    public int getHighWaterMark()
+    {
+        return highWaterMark;
+    }
+
+    public int getLowWaterMark()
+    {
+        return lowWaterMark;
+    }
+
+    public long getWriteTimeoutMillis()
+    {
+        return writeTimeoutMillis;
+    }
+
+    public WriteFailureListener getWriteFailureListener()
+    {
+        return writeFailureListener;
+    }
+}
@@ -16,13 +16,20 @@
 package com.epickrram.freewheel.messaging.ptp;
 
 import com.epickrram.freewheel.io.DecoderStream;
+import com.epickrram.freewheel.messaging.MessageCompression;
+import com.epickrram.freewheel.messaging.MessageHeader;
 import com.epickrram.freewheel.messaging.MessagingException;
 import com.epickrram.freewheel.messaging.MessagingService;
 import com.epickrram.freewheel.messaging.Receiver;
 import com.epickrram.freewheel.messaging.ReceiverRegistry;
+import com.epickrram.freewheel.messaging.dispatch.IncomingMessageHandler;
+import com.epickrram.freewheel.messaging.dispatch.InlineMessageDispatcher;
+import com.epickrram.freewheel.messaging.dispatch.MessageDispatcher;
+import com.epickrram.freewheel.messaging.dispatch.MessageDispatcherFactory;
 import com.epickrram.freewheel.protocol.CodeBook;
+import com.epickrram.freewheel.remoting.RemoteInterfaceSchema;
 import com.epickrram.freewheel.remoting.TopicIdGenerator;
-import com.epickrram.freewheel.util.Creator;
+import com.epickrram.freewheel.util.HashedTimerWheel;
 import com.epickrram.freewheel.util.IoUtil;
 import org.jboss.netty.bootstrap.Bootstrap;
 import org.jboss.netty.bootstrap.ClientBootstrap;
@@ -31,7 +38,6 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFactory;
-import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -39,68 +45,164 @@ import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.FixedReceiveBufferSizePredictor;
 import org.jboss.netty.channel.ReceiveBufferSizePredictor;
 import org.jboss.netty.channel.ReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
 
 import java.io.ByteArrayOutputStream;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.RunnableFuture;
 
-import static com.epickrram.freewheel.util.ConcurrentMapIdiom.getOrCreateFromConcurrentMap;
-
+/**
+ * Point-to-point transport over Netty. Each publisher keeps one connection per topic, carrying
+ * length-prefixed messages. Sync requests are sent on the same connection wrapped in a SyncFrame, run on a
+ * bounded worker pool by the subscriber, and answered on that connection, matched to their caller by
+ * correlation id.
+ */
 public final class PointToPointMessagingService implements MessagingService
 {
     private static final int MAX_MESSAGE_SIZE = 64 * 1024;
+    private static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
     private static final long CONNECTION_TIMEOUT_MILLIS = 10000L;
 
     private final ReceiverRegistry receiverRegistry = new ReceiverRegistry();
     private final EndPointProvider endPointProvider;
     private final CodeBook codeBook;
     private final TopicIdGenerator topicIdGenerator;
-    private final Map<Integer, Channel> publisherChannelByTopicIdMap = new ConcurrentHashMap<Integer, Channel>();
-    private final List<Channel> subscriberChannels = new CopyOnWriteArrayList<Channel>();
+    private final OutboundFlowControl flowControl;
+    private final ReconnectPolicy reconnectPolicy;
+    private final IncomingMessageHandler incomingMessageHandler;
+    private final MessageDispatcher messageDispatcher;
+    private final SyncRequestPolicy syncRequestPolicy;
+    private final SyncRequestExecutor syncRequestExecutor;
+    private final CoalescedRequests coalescedRequests = new CoalescedRequests();
+    private final ConcurrentMap<Integer, PublisherChannel> publisherChannelByTopicIdMap = new ConcurrentHashMap<Integer, PublisherChannel>();
+    private final ConcurrentMap<Integer, Channel> subscriberChannelByTopicIdMap = new ConcurrentHashMap<Integer, Channel>();
+    private final ConcurrentMap<Integer, ChannelGroup> acceptedChannelsByTopicIdMap = new ConcurrentHashMap<Integer, ChannelGroup>();
+    private final ConcurrentMap<Integer, SchemaHandshake> schemaHandshakeByTopicIdMap = new ConcurrentHashMap<Integer, SchemaHandshake>();
+    private final ConcurrentMap<Integer, MessageCompression> compressionByTopicIdMap = new ConcurrentHashMap<Integer, MessageCompression>();
+    private final ConcurrentMap<Integer, PublisherFilter> publisherFilterByTopicIdMap = new ConcurrentHashMap<Integer, PublisherFilter>();
     private final ConcurrentMap<Integer, RunnableFuture<Channel>> publisherChannelFutures = new ConcurrentHashMap<Integer, RunnableFuture<Channel>>();
     private final ConcurrentMap<Integer, RunnableFuture<Channel>> subscriberChannelFutures = new ConcurrentHashMap<Integer, RunnableFuture<Channel>>();
     private final ExecutorService messagingThreadPool;
+    private final ChannelFactory clientChannelFactory;
+    private final HashedTimerWheel timerWheel;
+    private final Object lifecycleLock = new Object();
 
     private volatile boolean started;
 
     public PointToPointMessagingService(final EndPointProvider endPointProvider,
                                         final CodeBook codeBook,
                                         final TopicIdGenerator topicIdGenerator)
+    {
+        this(endPointProvider, codeBook, topicIdGenerator, OutboundFlowControl.defaults(), ReconnectPolicy.defaults(),
+                InlineMessageDispatcher.factory());
+    }
+
+    public PointToPointMessagingService(final EndPointProvider endPointProvider,
+                                        final CodeBook codeBook,
+                                        final TopicIdGenerator topicIdGenerator,
+                                        final OutboundFlowControl flowControl,
+                                        final ReconnectPolicy reconnectPolicy,
+                                        final MessageDispatcherFactory messageDispatcherFactory)
+    {
+        this(endPointProvider, codeBook, topicIdGenerator, flowControl, reconnectPolicy, messageDispatcherFactory,
+                SyncRequestPolicy.defaults());
+    }
+
+    public PointToPointMessagingService(final EndPointProvider endPointProvider,
+                                        final CodeBook codeBook,
+                                        final TopicIdGenerator topicIdGenerator,
+                                        final OutboundFlowControl flowControl,
+                                        final ReconnectPolicy reconnectPolicy,
+                                        final MessageDispatcherFactory messageDispatcherFactory,
+                                        final SyncRequestPolicy syncRequestPolicy)
     {
         this.endPointProvider = endPointProvider;
         this.codeBook = codeBook;
         this.topicIdGenerator = topicIdGenerator;
+        this.flowControl = flowControl;
+        this.reconnectPolicy = reconnectPolicy;
+        this.incomingMessageHandler = new IncomingMessageHandler(codeBook, receiverRegistry);
+        this.messageDispatcher = messageDispatcherFactory.create(incomingMessageHandler);
+        this.syncRequestPolicy = syncRequestPolicy;
+        this.syncRequestExecutor = new SyncRequestExecutor(codeBook, receiverRegistry, syncRequestPolicy);
         messagingThreadPool = Executors.newCachedThreadPool();
+        // shared by all publishers so that each topic does not start its own boss and worker threads
+        clientChannelFactory = new NioClientSocketChannelFactory(messagingThreadPool, messagingThreadPool);
+        timerWheel = new HashedTimerWheel("point-to-point-timer");
     }
 
     @Override
     public <T> void registerPublisher(final Class<T> descriptor)
     {
-        if(started)
+        final int topicId = topicIdGenerator.getTopicId(descriptor);
+        final MessageCompression compression = MessageCompression.forDescriptor(descriptor);
+        if(compression != null)
         {
-            throw new MessagingException("Cannot register a publisher after MessagingService has been started");
+            compressionByTopicIdMap.put(topicId, compression);
+        }
+        synchronized (lifecycleLock)
+        {
+            createPublisherChannel(endPointProvider.resolveEndPoint(descriptor), topicId,
+                    RemoteInterfaceSchema.forDescriptor(descriptor));
         }
-        createPublisherChannel(endPointProvider.resolveEndPoint(descriptor), topicIdGenerator.getTopicId(descriptor));
     }
 
     @Override
     public <T> void registerSubscriber(final Class<T> descriptor)
     {
-        if(started)
+        synchronized (lifecycleLock)
         {
-            throw new MessagingException("Cannot register a publisher after MessagingService has been started");
+            createSubscriberChannel(endPointProvider.resolveEndPoint(descriptor), topicIdGenerator.getTopicId(descriptor),
+                    RemoteInterfaceSchema.forDescriptor(descriptor));
+        }
+    }
+
+    @Override
+    public <T> void unregisterPublisher(final Class<T> descriptor)
+    {
+        final int topicId = topicIdGenerator.getTopicId(descriptor);
+        synchronized (lifecycleLock)
+        {
+            publisherChannelFutures.remove(topicId);
+            final PublisherChannel publisherChannel = publisherChannelByTopicIdMap.remove(topicId);
+            if(publisherChannel != null)
+            {
+                publisherChannel.close();
+            }
+        }
+    }
+
+    @Override
+    public <T> void unregisterSubscriber(final Class<T> descriptor)
+    {
+        final int topicId = topicIdGenerator.getTopicId(descriptor);
+        synchronized (lifecycleLock)
+        {
+            subscriberChannelFutures.remove(topicId);
+            final Channel subscriberChannel = subscriberChannelByTopicIdMap.remove(topicId);
+            if(subscriberChannel != null)
+            {
+                IoUtil.close(subscriberChannel);
+            }
+            schemaHandshakeByTopicIdMap.remove(topicId);
+            publisherFilterByTopicIdMap.remove(topicId);
+            final ChannelGroup acceptedChannels = acceptedChannelsByTopicIdMap.remove(topicId);
+            if(acceptedChannels != null)
+            {
+                acceptedChannels.close().awaitUninterruptibly(CONNECTION_TIMEOUT_MILLIS);
+            }
         }
-        createSubscriberChannel(endPointProvider.resolveEndPoint(descriptor), topicIdGenerator.getTopicId(descriptor));
     }
 
     @Override
@@ -110,54 +212,252 @@ public final class PointToPointMessagingService implements MessagingService
         {
             throw new MessagingException("MessagingService is not yet started");
         }
-        final ChannelBuffer buffer = ChannelBuffers.buffer(4 + byteArrayOutputStream.size());
-        buffer.writeInt(byteArrayOutputStream.size());
-        buffer.writeBytes(byteArrayOutputStream.toByteArray(), 0, byteArrayOutputStream.size());
+        final byte[] message = compress(topicId, byteArrayOutputStream.toByteArray());
+        final ChannelBuffer buffer = ChannelBuffers.buffer(4 + message.length);
+        buffer.writeInt(message.length);
+        buffer.writeBytes(message);
 
-        final ChannelFuture writeFuture = publisherChannelByTopicIdMap.get(topicId).write(buffer);
-        // TODO monitor messaging success in different queue, or implement reliable messaging
+        getPublisherChannel(topicId).write(buffer);
     }
 
     @Override
     public DecoderStream sendAndWait(final int topicId, final ByteArrayOutputStream byteArrayOutputStream) throws MessagingException
     {
-        throw new IllegalStateException(getClass().getSimpleName() + " does not support sendAndWait");
+        final byte[] message = byteArrayOutputStream.toByteArray();
+        final byte[] response;
+        if(MessageHeader.isIdempotent(message, 0))
+        {
+            response = coalescedRequests.send(CoalescedRequests.keyOf(message), new CoalescedRequests.Request()
+            {
+                @Override
+                public byte[] send()
+                {
+                    return awaitResponse(sendSyncRequest(topicId, message));
+                }
+            });
+        }
+        else
+        {
+            response = awaitResponse(sendSyncRequest(topicId, message));
+        }
+        return SyncResponseFuture.decode(codeBook, response);
+    }
+
+    /**
+     * Sends a sync request without waiting for its response. The returned future fails if no response arrives
+     * within the policy's sendAndWait timeout, or if the connection is lost first.
+     */
+    public Future<DecoderStream> sendAsync(final int topicId, final ByteArrayOutputStream byteArrayOutputStream) throws MessagingException
+    {
+        return sendSyncRequest(topicId, byteArrayOutputStream.toByteArray());
     }
 
     @Override
     public boolean supportsSendAndWait()
     {
-        return false;
+        return true;
+    }
+
+    /**
+     * @return the number of received sync requests dropped because their caller's deadline had passed
+     */
+    public long getExpiredRequestCount()
+    {
+        return syncRequestExecutor.getExpiredRequestCount();
+    }
+
+    /**
+     * @return the number of received sync requests rejected because too many were queued for a worker
+     */
+    public long getShedRequestCount()
+    {
+        return syncRequestExecutor.getShedRequestCount();
+    }
+
+    public long getWriteFailureCount()
+    {
+        long writeFailureCount = 0L;
+        for (PublisherChannel publisherChannel : publisherChannelByTopicIdMap.values())
+        {
+            writeFailureCount += publisherChannel.getWriteFailureCount();
+        }
+        return writeFailureCount;
+    }
+
+    public long getBackPressureCount()
+    {
+        long backPressureCount = 0L;
+        for (PublisherChannel publisherChannel : publisherChannelByTopicIdMap.values())
+        {
+            backPressureCount += publisherChannel.getBackPressureCount();
+        }
+        return backPressureCount;
+    }
+
+    public long getDroppedMessageCount()
+    {
+        long droppedMessageCount = 0L;
+        for (PublisherChannel publisherChannel : publisherChannelByTopicIdMap.values())
+        {
+            droppedMessageCount += publisherChannel.getDroppedMessageCount();
+        }
+        return droppedMessageCount;
+    }
+
+    public long getUnknownTopicCount()
+    {
+        return receiverRegistry.getUnknownTopicCount();
+    }
+
+    public long getRejectedHandshakeCount()
+    {
+        long rejectedHandshakeCount = 0L;
+        for (SchemaHandshake schemaHandshake : schemaHandshakeByTopicIdMap.values())
+        {
+            rejectedHandshakeCount += schemaHandshake.getRejectedCount();
+        }
+        return rejectedHandshakeCount;
+    }
+
+    /**
+     * @return the number of messages not delivered to a local receiver because its filter rejected them
+     */
+    public long getFilteredMessageCount()
+    {
+        return incomingMessageHandler.getFilteredMessageCount();
+    }
+
+    /**
+     * @return the number of messages not sent because the remote subscriber's filter rejected them
+     */
+    public long getPublisherFilteredMessageCount()
+    {
+        long filteredMessageCount = 0L;
+        for (PublisherChannel publisherChannel : publisherChannelByTopicIdMap.values())
+        {
+            filteredMessageCount += publisherChannel.getFilteredMessageCount();
+        }
+        return filteredMessageCount;
+    }
+
+    public long getReconnectCount()
+    {
+        long reconnectCount = 0L;
+        for (PublisherChannel publisherChannel : publisherChannelByTopicIdMap.values())
+        {
+            reconnectCount += publisherChannel.getReconnectCount();
+        }
+        return reconnectCount;
     }
 
     @Override
     public void registerReceiver(final int topicId, final Receiver receiver)
     {
         receiverRegistry.registerReceiver(topicId, receiver);
+        onReceiversChanged(topicId);
+    }
+
+    @Override
+    public void unregisterReceiver(final int topicId, final Receiver receiver)
+    {
+        receiverRegistry.removeReceiver(topicId, receiver);
+        onReceiversChanged(topicId);
     }
 
     @Override
     public void start() throws MessagingException
     {
-        startSubscriberChannels();
-        startPublisherChannels();
-        started = true;
+        synchronized (lifecycleLock)
+        {
+            messageDispatcher.start();
+            startSubscriberChannels();
+            startPublisherChannels();
+            started = true;
+        }
     }
 
     @Override
     public void shutdown() throws MessagingException
     {
-        if(started)
+        synchronized (lifecycleLock)
         {
-            for (Channel channel : publisherChannelByTopicIdMap.values())
+            if(started)
             {
-                IoUtil.close(channel);
+                for (PublisherChannel publisherChannel : publisherChannelByTopicIdMap.values())
+                {
+                    publisherChannel.close();
+                }
+                for (Channel channel : subscriberChannelByTopicIdMap.values())
+                {
+                    IoUtil.close(channel);
+                }
+                for (ChannelGroup acceptedChannels : acceptedChannelsByTopicIdMap.values())
+                {
+                    acceptedChannels.close().awaitUninterruptibly(CONNECTION_TIMEOUT_MILLIS);
+                }
+                timerWheel.stop();
+                syncRequestExecutor.shutdown();
+                messagingThreadPool.shutdownNow();
+                messageDispatcher.stop();
             }
-            for (Channel channel : subscriberChannels)
+        }
+    }
+
+    private SyncResponseFuture sendSyncRequest(final int topicId, final byte[] message)
+    {
+        if(!started)
+        {
+            throw new MessagingException("MessagingService is not yet started");
+        }
+        final int timeoutMillis = syncRequestPolicy.getSendAndWaitTimeoutMillis();
+        final byte[] request = MessageHeader.withDeadline(message, message.length, System.currentTimeMillis() + timeoutMillis);
+        return getPublisherChannel(topicId).writeSyncRequest(compress(topicId, request), codeBook, timeoutMillis);
+    }
+
+    private static byte[] awaitResponse(final SyncResponseFuture responseFuture)
+    {
+        try
+        {
+            return responseFuture.getResponse();
+        }
+        catch (InterruptedException e)
+        {
+            responseFuture.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for response", e);
+        }
+        catch (ExecutionException e)
+        {
+            if(e.getCause() instanceof MessagingException)
             {
-                IoUtil.close(channel);
+                throw (MessagingException) e.getCause();
             }
-            messagingThreadPool.shutdownNow();
+            throw new MessagingException("Remote invocation failed", e.getCause());
+        }
+    }
+
+    private PublisherChannel getPublisherChannel(final int topicId)
+    {
+        final PublisherChannel publisherChannel = publisherChannelByTopicIdMap.get(topicId);
+        if(publisherChannel == null)
+        {
+            throw new MessagingException("No publisher registered for topic " + topicId);
+        }
+        return publisherChannel;
+    }
+
+    private byte[] compress(final int topicId, final byte[] message)
+    {
+        final MessageCompression compression = compressionByTopicIdMap.get(topicId);
+        return compression == null ? message : compression.compress(message);
+    }
+
+    private void onReceiversChanged(final int topicId)
+    {
+        final PublisherFilter publisherFilter = publisherFilterByTopicIdMap.get(topicId);
+        if(publisherFilter != null)
+        {
+            publisherFilter.onReceiversChanged();
         }
     }
 
@@ -168,8 +468,7 @@ public final class PointToPointMessagingService implements MessagingService
             entry.getValue().run();
             try
             {
-                final Channel publisherChannel = entry.getValue().get();
-                publisherChannelByTopicIdMap.put(entry.getKey(), publisherChannel);
+                publisherChannelByTopicIdMap.get(entry.getKey()).setChannel(entry.getValue().get());
             }
             catch (InterruptedException e)
             {
@@ -184,54 +483,75 @@ public final class PointToPointMessagingService implements MessagingService
 
     private void startSubscriberChannels()
     {
-        for (RunnableFuture<Channel> subscriberBootstrapFuture : subscriberChannelFutures.values())
+        for (Map.Entry<Integer, RunnableFuture<Channel>> entry : subscriberChannelFutures.entrySet())
         {
-            subscriberBootstrapFuture.run();
-            try
-            {
-                subscriberChannels.add(subscriberBootstrapFuture.get());
-            }
-            catch (InterruptedException e)
-            {
-                throw new MessagingException("Unable to start subscriber", e);
-            }
-            catch (ExecutionException e)
-            {
-                throw new MessagingException("Unable to start subscriber", e);
-            }
+            startSubscriberChannel(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void startSubscriberChannel(final int topicId, final RunnableFuture<Channel> subscriberBootstrapFuture)
+    {
+        subscriberBootstrapFuture.run();
+        try
+        {
+            subscriberChannelByTopicIdMap.put(topicId, subscriberBootstrapFuture.get());
+        }
+        catch (InterruptedException e)
+        {
+            throw new MessagingException("Unable to start subscriber", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new MessagingException("Unable to start subscriber", e);
         }
     }
 
-    private void createPublisherChannel(final EndPoint endPoint, final int topicId)
+    private void createPublisherChannel(final EndPoint endPoint, final int topicId, final RemoteInterfaceSchema schema)
     {
-        final ChannelFactory channelFactory = new NioClientSocketChannelFactory(messagingThreadPool, messagingThreadPool);
-        final ClientBootstrap bootstrap = new ClientBootstrap(channelFactory);
+        if(publisherChannelByTopicIdMap.containsKey(topicId))
+        {
+            return;
+        }
+        final ClientBootstrap bootstrap = new ClientBootstrap(clientChannelFactory);
         setPublisherOptions(bootstrap);
-        setHandler(bootstrap, new PublisherChannelHandler());
-        getOrCreateFromConcurrentMap(publisherChannelFutures, new Creator<RunnableFuture<Channel>>()
+        final PublisherChannel publisherChannel = new PublisherChannel(topicId, flowControl, reconnectPolicy, bootstrap,
+                endPoint.toSocketAddress(), timerWheel, new SchemaHandshake(codeBook, topicId, schema).createFrame());
+        setHandler(bootstrap, new PublisherChannelHandler(publisherChannel, codeBook));
+        publisherChannelByTopicIdMap.put(topicId, publisherChannel);
+        if(started)
         {
-            @Override
-            public RunnableFuture<Channel> create()
-            {
-                return new FutureTask<Channel>(new PublisherChannelCallable(bootstrap, endPoint.toSocketAddress()));
-            }
-        }, topicId);
+            publisherChannel.connect();
+        }
+        else
+        {
+            publisherChannelFutures.put(topicId, new FutureTask<Channel>(new PublisherChannelCallable(bootstrap, endPoint.toSocketAddress())));
+        }
     }
 
-    private void createSubscriberChannel(final EndPoint endPoint, final int topicId)
+    private void createSubscriberChannel(final EndPoint endPoint, final int topicId, final RemoteInterfaceSchema schema)
     {
+        if(subscriberChannelFutures.containsKey(topicId))
+        {
+            return;
+        }
         final ChannelFactory channelFactory = new NioServerSocketChannelFactory(messagingThreadPool, messagingThreadPool);
         final ServerBootstrap bootstrap = new ServerBootstrap(channelFactory);
+        final ChannelGroup acceptedChannels = new DefaultChannelGroup("subscribers-" + topicId);
+        acceptedChannelsByTopicIdMap.put(topicId, acceptedChannels);
         setSubscriberOptions(bootstrap);
-        setHandler(bootstrap, new SubscriberChannelHandler(codeBook, receiverRegistry));
-        getOrCreateFromConcurrentMap(subscriberChannelFutures, new Creator<RunnableFuture<Channel>>()
+        final SchemaHandshake schemaHandshake = new SchemaHandshake(codeBook, topicId, schema);
+        schemaHandshakeByTopicIdMap.put(topicId, schemaHandshake);
+        final PublisherFilter publisherFilter = new PublisherFilter(codeBook, topicId, receiverRegistry);
+        publisherFilterByTopicIdMap.put(topicId, publisherFilter);
+        setHandler(bootstrap, new SubscriberChannelHandler(messageDispatcher, acceptedChannels, schemaHandshake,
+                publisherFilter, syncRequestExecutor));
+        final RunnableFuture<Channel> subscriberBootstrapFuture =
+                new FutureTask<Channel>(new SubscriberChannelCallable(bootstrap, endPoint.toLocalSocketAddress()));
+        subscriberChannelFutures.put(topicId, subscriberBootstrapFuture);
+        if(started)
         {
-            @Override
-            public RunnableFuture<Channel> create()
-            {
-                return new FutureTask<Channel>(new SubscriberChannelCallable(bootstrap, endPoint.toLocalSocketAddress()));
-            }
-        }, topicId);
+            startSubscriberChannel(topicId, subscriberBootstrapFuture);
+        }
     }
 
     private void setHandler(final Bootstrap bootstrap, final ChannelHandler handler)
@@ -240,7 +560,8 @@ public final class PointToPointMessagingService implements MessagingService
         {
             public ChannelPipeline getPipeline()
             {
-                return Channels.pipeline(handler);
+                // delivers whole frames, length prefix included, to handlers
+                return Channels.pipeline(new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 0, 4), handler);
             }
         });
     }
@@ -249,6 +570,8 @@ public final class PointToPointMessagingService implements MessagingService
     {
         bootstrap.setOption("sendBufferSize", MAX_MESSAGE_SIZE);
         bootstrap.setOption("connectTimeoutMillis", CONNECTION_TIMEOUT_MILLIS);
+        bootstrap.setOption("writeBufferHighWaterMark", flowControl.getHighWaterMark());
+        bootstrap.setOption("writeBufferLowWaterMark", flowControl.getLowWaterMark());
     }
 
     private void setSubscriberOptions(final ServerBootstrap bootstrap)
@@ -0,0 +1,478 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.messaging.filter.MessageFilter;
+import com.epickrram.freewheel.protocol.CodeBook;
+import com.epickrram.freewheel.util.HashedTimerWheel;
+import com.epickrram.freewheel.util.IoUtil;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+final class PublisherChannel
+{
+    private static final Logger LOGGER = Logger.getLogger(PublisherChannel.class.getName());
+
+    private final int topicId;
+    private final OutboundFlowControl flowControl;
+    private final ReconnectPolicy reconnectPolicy;
+    private final ClientBootstrap bootstrap;
+    private final SocketAddress remoteAddress;
+    private final HashedTimerWheel timerWheel;
+    private final OutboundBacklog backlog;
+    private final ChannelBuffer handshakeFrame;
+    private final MessagingException messageDroppedException;
+    private final Object writabilityMonitor = new Object();
+    private final Object connectionLock = new Object();
+    private final AtomicLong writeFailureCount = new AtomicLong();
+    private final AtomicLong backPressureCount = new AtomicLong();
+    private final AtomicLong droppedMessageCount = new AtomicLong();
+    private final AtomicLong reconnectCount = new AtomicLong();
+    private final AtomicLong filteredMessageCount = new AtomicLong();
+    private final AtomicLong correlationIdSequence = new AtomicLong();
+    private final ConcurrentMap<Long, SyncResponseFuture> pendingResponses = new ConcurrentHashMap<Long, SyncResponseFuture>();
+    private final ChannelFutureListener writeCompletionListener = new ChannelFutureListener()
+    {
+        @Override
+        public void operationComplete(final ChannelFuture future) throws Exception
+        {
+            if(!future.isSuccess())
+            {
+                onWriteFailure(future.getCause());
+            }
+        }
+    };
+
+    private final ChannelFutureListener reconnectListener = new ChannelFutureListener()
+    {
+        @Override
+        public void operationComplete(final ChannelFuture future) throws Exception
+        {
+            if(future.isSuccess())
+            {
+                if(channel != null)
+                {
+                    reconnectCount.incrementAndGet();
+                    LOGGER.info("Publisher for topic " + topicId + " reconnected to " + remoteAddress);
+                }
+                setChannel(future.getChannel());
+            }
+            else
+            {
+                backoffMillis = reconnectPolicy.nextBackoffMillis(backoffMillis);
+                scheduleReconnect();
+            }
+        }
+    };
+    private final Runnable reconnectTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            if(!closed)
+            {
+                bootstrap.connect(remoteAddress).addListener(reconnectListener);
+            }
+        }
+    };
+
+    private volatile Channel channel;
+    private volatile boolean connected;
+    private volatile boolean closed;
+    private volatile long backoffMillis;
+    private volatile MessageFilter remoteFilter;
+    private volatile MessagingException rejection;
+
+    PublisherChannel(final int topicId, final OutboundFlowControl flowControl, final ReconnectPolicy reconnectPolicy,
+                     final ClientBootstrap bootstrap, final SocketAddress remoteAddress,
+                     final HashedTimerWheel timerWheel, final ChannelBuffer handshakeFrame)
+    {
+        this.topicId = topicId;
+        this.flowControl = flowControl;
+        this.reconnectPolicy = reconnectPolicy;
+        this.bootstrap = bootstrap;
+        this.remoteAddress = remoteAddress;
+        this.timerWheel = timerWheel;
+        this.handshakeFrame = handshakeFrame;
+        this.backlog = new OutboundBacklog(reconnectPolicy.getBacklogCapacity(), reconnectPolicy.getBacklogSlotSize(),
+                reconnectPolicy.getOverflowPolicy());
+        this.messageDroppedException = new MessagingException("Publisher for topic " + topicId +
+                " is disconnected and message could not be held in the outbound backlog");
+    }
+
+    void setChannel(final Channel channel)
+    {
+        synchronized (connectionLock)
+        {
+            if(closed || rejection != null)
+            {
+                IoUtil.close(channel);
+                return;
+            }
+            this.channel = channel;
+            // a new subscriber connection sends everything until it says otherwise
+            remoteFilter = null;
+            if(handshakeFrame != null)
+            {
+                channel.write(handshakeFrame.duplicate()).addListener(writeCompletionListener);
+            }
+            ChannelBuffer pending;
+            while((pending = backlog.poll()) != null)
+            {
+                writeToChannel(channel, pending);
+            }
+            backoffMillis = reconnectPolicy.getInitialBackoffMillis();
+            connected = true;
+        }
+    }
+
+    Channel getChannel()
+    {
+        return channel;
+    }
+
+    void write(final ChannelBuffer buffer)
+    {
+        final MessagingException rejection = this.rejection;
+        if(rejection != null)
+        {
+            droppedMessageCount.incrementAndGet();
+            onWriteFailure(buffer, rejection);
+            return;
+        }
+        if(isFilteredByRemote(buffer))
+        {
+            filteredMessageCount.incrementAndGet();
+            return;
+        }
+        if(!connected)
+        {
+            writeWhileDisconnected(buffer);
+            return;
+        }
+        final Channel channel = this.channel;
+        if(!channel.isWritable())
+        {
+            backPressureCount.incrementAndGet();
+            if(!awaitWritable(channel))
+            {
+                onWriteFailure(buffer, new MessagingException("Channel for topic " + topicId + " did not become writable within " +
+                        flowControl.getWriteTimeoutMillis() + "ms"));
+                return;
+            }
+        }
+        writeToChannel(channel, buffer);
+    }
+
+    /**
+     * @return the response to message, which fails if no response arrives within timeoutMillis
+     */
+    SyncResponseFuture writeSyncRequest(final byte[] message, final CodeBook codeBook, final long timeoutMillis)
+    {
+        final long correlationId = correlationIdSequence.incrementAndGet();
+        final SyncResponseFuture responseFuture = new SyncResponseFuture(pendingResponses, correlationId, topicId, codeBook);
+        pendingResponses.put(correlationId, responseFuture);
+        try
+        {
+            responseFuture.scheduleTimeout(timerWheel, timeoutMillis);
+        }
+        catch (RejectedExecutionException e)
+        {
+            failPendingResponse(correlationId, new MessagingException("Publisher for topic " + topicId + " is shutting down"));
+            return responseFuture;
+        }
+        write(SyncFrame.createRequest(correlationId, message));
+        return responseFuture;
+    }
+
+    void onSyncResponse(final long correlationId, final byte[] response)
+    {
+        final SyncResponseFuture responseFuture = pendingResponses.remove(correlationId);
+        if(responseFuture != null)
+        {
+            responseFuture.complete(response, null);
+        }
+    }
+
+    void setRemoteFilter(final MessageFilter remoteFilter)
+    {
+        this.remoteFilter = remoteFilter;
+    }
+
+    void connect()
+    {
+        backoffMillis = reconnectPolicy.getInitialBackoffMillis();
+        try
+        {
+            timerWheel.schedule(reconnectTask, 0L, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // shutting down
+        }
+    }
+
+    /**
+     * Called when the subscriber rejects this publisher's schema; messages are dropped from then on, as
+     * reconnecting would only be rejected again.
+     */
+    void onHandshakeRejected(final long subscriberFingerprint)
+    {
+        final MessagingException rejection = new MessagingException("Subscriber at " + remoteAddress +
+                " rejected the schema of topic " + topicId + "; subscriber schema fingerprint is " +
+                Long.toHexString(subscriberFingerprint));
+        synchronized (connectionLock)
+        {
+            if(closed || this.rejection != null)
+            {
+                return;
+            }
+            this.rejection = rejection;
+            connected = false;
+            ChannelBuffer pending;
+            while((pending = backlog.poll()) != null)
+            {
+                droppedMessageCount.incrementAndGet();
+                failIfSyncRequest(pending, rejection);
+            }
+        }
+        LOGGER.severe(rejection.getMessage() + ", no longer reconnecting");
+        onWriteFailure(rejection);
+        failPendingResponses(rejection.getMessage());
+        IoUtil.close(channel);
+    }
+
+    boolean isRejected()
+    {
+        return rejection != null;
+    }
+
+    void onWritabilityChanged()
+    {
+        synchronized (writabilityMonitor)
+        {
+            writabilityMonitor.notifyAll();
+        }
+    }
+
+    void onChannelClosed(final Channel closedChannel)
+    {
+        onWritabilityChanged();
+        synchronized (connectionLock)
+        {
+            if(closed || rejection != null || closedChannel != channel || !connected)
+            {
+                return;
+            }
+            connected = false;
+            remoteFilter = null;
+            backoffMillis = reconnectPolicy.getInitialBackoffMillis();
+        }
+        LOGGER.warning("Publisher connection for topic " + topicId + " to " + remoteAddress + " lost, reconnecting");
+        // requests written to the lost connection will not be answered
+        failPendingResponses("Publisher connection for topic " + topicId + " to " + remoteAddress + " lost");
+        scheduleReconnect();
+    }
+
+    void close()
+    {
+        synchronized (connectionLock)
+        {
+            closed = true;
+            connected = false;
+        }
+        IoUtil.close(channel);
+        failPendingResponses("Publisher for topic " + topicId + " closed");
+    }
+
+    long getWriteFailureCount()
+    {
+        return writeFailureCount.get();
+    }
+
+    long getBackPressureCount()
+    {
+        return backPressureCount.get();
+    }
+
+    long getDroppedMessageCount()
+    {
+        return droppedMessageCount.get();
+    }
+
+    long getReconnectCount()
+    {
+        return reconnectCount.get();
+    }
+
+    long getFilteredMessageCount()
+    {
+        return filteredMessageCount.get();
+    }
+
+    private boolean isFilteredByRemote(final ChannelBuffer buffer)
+    {
+        final MessageFilter filter = remoteFilter;
+        if(filter == null || !buffer.hasArray())
+        {
+            return false;
+        }
+        // frames are length-prefixed
+        final int offset = buffer.arrayOffset() + buffer.readerIndex() + 4;
+        final int length = buffer.readableBytes() - 4;
+        final byte[] message = buffer.array();
+        return !MessageHeader.isSync(message, offset) && !filter.accept(message, offset, length);
+    }
+
+    private void failPendingResponses(final String reason)
+    {
+        for (Long correlationId : pendingResponses.keySet())
+        {
+            failPendingResponse(correlationId, new MessagingException(reason));
+        }
+    }
+
+    private void failPendingResponse(final long correlationId, final Throwable cause)
+    {
+        final SyncResponseFuture responseFuture = pendingResponses.remove(correlationId);
+        if(responseFuture != null)
+        {
+            responseFuture.complete(null, cause);
+        }
+    }
+
+    private void writeWhileDisconnected(final ChannelBuffer buffer)
+    {
+        synchronized (connectionLock)
+        {
+            if(!connected)
+            {
+                if(backlog.isEvicting())
+                {
+                    failIfSyncRequest(backlog.poll(), messageDroppedException);
+                }
+                if(!backlog.offer(buffer))
+                {
+                    droppedMessageCount.incrementAndGet();
+                    onWriteFailure(buffer, messageDroppedException);
+                }
+                return;
+            }
+        }
+        write(buffer);
+    }
+
+    private void scheduleReconnect()
+    {
+        if(closed || rejection != null)
+        {
+            return;
+        }
+        try
+        {
+            timerWheel.schedule(reconnectTask, backoffMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // shutting down
+        }
+    }
+
+    private boolean awaitWritable(final Channel channel)
+    {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flowControl.getWriteTimeoutMillis());
+        synchronized (writabilityMonitor)
+        {
+            while(!channel.isWritable() && channel.isOpen())
+            {
+                final long remainingNanos = deadline - System.nanoTime();
+                if(remainingNanos <= 0L)
+                {
+                    return false;
+                }
+                try
+                {
+                    TimeUnit.NANOSECONDS.timedWait(writabilityMonitor, remainingNanos);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return channel.isOpen();
+    }
+
+    private void writeToChannel(final Channel channel, final ChannelBuffer buffer)
+    {
+        final long correlationId = SyncFrame.getRequestCorrelationId(buffer);
+        if(correlationId == SyncFrame.NO_CORRELATION_ID)
+        {
+            channel.write(buffer).addListener(writeCompletionListener);
+            return;
+        }
+        channel.write(buffer).addListener(new ChannelFutureListener()
+        {
+            @Override
+            public void operationComplete(final ChannelFuture future) throws Exception
+            {
+                if(!future.isSuccess())
+                {
+                    onWriteFailure(future.getCause());
+                    failPendingResponse(correlationId, future.getCause());
+                }
+            }
+        });
+    }
+
+    /**
+     * Reports a message that was not written, failing the caller's response if it was a sync request.
+     */
+    private void onWriteFailure(final ChannelBuffer buffer, final Throwable cause)
+    {
+        onWriteFailure(cause);
+        failIfSyncRequest(buffer, cause);
+    }
+
+    private void failIfSyncRequest(final ChannelBuffer buffer, final Throwable cause)
+    {
+        final long correlationId = SyncFrame.getRequestCorrelationId(buffer);
+        if(correlationId != SyncFrame.NO_CORRELATION_ID)
+        {
+            failPendingResponse(correlationId, cause);
+        }
+    }
+
+    private void onWriteFailure(final Throwable cause)
+    {
+        writeFailureCount.incrementAndGet();
+        flowControl.getWriteFailureListener().onWriteFailure(topicId, cause);
+    }
+}
@@ -16,7 +16,12 @@
 
 package com.epickrram.freewheel.messaging.ptp;
 
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.filter.MessageFilter;
+import com.epickrram.freewheel.protocol.CodeBook;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelHandler;
@@ -27,11 +32,48 @@ import java.util.logging.Logger;
 final class PublisherChannelHandler extends SimpleChannelHandler
 {
     private static final Logger LOGGER = Logger.getLogger(PublisherChannelHandler.class.getName());
-    
+
+    private final PublisherChannel publisherChannel;
+    private final CodeBook codeBook;
+
+    PublisherChannelHandler(final PublisherChannel publisherChannel, final CodeBook codeBook)
+    {
+        this.publisherChannel = publisherChannel;
+        this.codeBook = codeBook;
+    }
+
     @Override
     public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception
     {
-        throw new RuntimeException("A Publisher ChannelPipeline should never receive messages!");
+        final ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+        while(buffer.readableBytes() > 4)
+        {
+            final int messageSize = buffer.readInt();
+            if(SyncFrame.isFrame(buffer, messageSize, SyncFrame.RESPONSE_TOPIC_ID))
+            {
+                final long correlationId = SyncFrame.readCorrelationId(buffer);
+                final byte[] response = new byte[messageSize - MessageHeader.LENGTH];
+                buffer.readBytes(response);
+                publisherChannel.onSyncResponse(correlationId, response);
+                continue;
+            }
+            if(SchemaHandshake.isRejection(buffer, messageSize))
+            {
+                publisherChannel.onHandshakeRejected(SchemaHandshake.readRejectingFingerprint(buffer, messageSize));
+                continue;
+            }
+            final byte[] messageBuffer = new byte[messageSize];
+            buffer.readBytes(messageBuffer, 0, messageSize);
+            final MessageFilter filter = PublisherFilter.decode(codeBook, messageBuffer, messageSize);
+            if(filter == null)
+            {
+                LOGGER.warning("Publisher received unexpected message on " + e.getChannel());
+            }
+            else
+            {
+                publisherChannel.setRemoteFilter(filter);
+            }
+        }
     }
 
     @Override
@@ -39,4 +81,18 @@ final class PublisherChannelHandler extends SimpleChannelHandler
     {
         LOGGER.log(Level.WARNING, "Error connecting to EndPoint", e);
     }
+
+    @Override
+    public void channelInterestChanged(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception
+    {
+        publisherChannel.onWritabilityChanged();
+        super.channelInterestChanged(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception
+    {
+        publisherChannel.onChannelClosed(e.getChannel());
+        super.channelClosed(ctx, e);
+    }
 }
@@ -0,0 +1,142 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.io.DecoderStream;
+import com.epickrram.freewheel.io.PackerEncoderStream;
+import com.epickrram.freewheel.io.UnpackerDecoderStream;
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.messaging.Receiver;
+import com.epickrram.freewheel.messaging.ReceiverRegistry;
+import com.epickrram.freewheel.messaging.filter.FilteredReceiver;
+import com.epickrram.freewheel.messaging.filter.MessageFilter;
+import com.epickrram.freewheel.messaging.filter.MessageFilters;
+import com.epickrram.freewheel.protocol.CodeBook;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.msgpack.packer.MessagePackPacker;
+import org.msgpack.unpacker.MessagePackUnpacker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Sent by a subscriber to its connected publishers, so that messages none of the subscriber's receivers
+ * want are not sent at all. The filter is only narrowed when every receiver for the topic has a filter
+ * built by MessageFilters; otherwise publishers are told to send everything.
+ */
+final class PublisherFilter
+{
+    static final int FILTER_TOPIC_ID = Integer.MIN_VALUE + 1;
+
+    private final CodeBook codeBook;
+    private final int topicId;
+    private final ReceiverRegistry receiverRegistry;
+    private final ChannelGroup publisherChannels;
+
+    PublisherFilter(final CodeBook codeBook, final int topicId, final ReceiverRegistry receiverRegistry)
+    {
+        this.codeBook = codeBook;
+        this.topicId = topicId;
+        this.receiverRegistry = receiverRegistry;
+        this.publisherChannels = new DefaultChannelGroup("publisher-filter-" + topicId);
+    }
+
+    void onHandshakeAccepted(final Channel channel)
+    {
+        publisherChannels.add(channel);
+        channel.write(createFrame());
+    }
+
+    void onReceiversChanged()
+    {
+        if(!publisherChannels.isEmpty())
+        {
+            publisherChannels.write(createFrame());
+        }
+    }
+
+    ChannelBuffer createFrame()
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, FILTER_TOPIC_ID, 0, 0, 0L);
+        outputStream.write(header, 0, header.length);
+        final PackerEncoderStream encoderStream = new PackerEncoderStream(codeBook, new MessagePackPacker(outputStream));
+        try
+        {
+            encoderStream.writeInt(topicId);
+            MessageFilters.encode(getCombinedFilter(), encoderStream);
+        }
+        catch (IOException e)
+        {
+            throw new MessagingException("Unable to encode filter for topic " + topicId, e);
+        }
+        final ChannelBuffer frame = ChannelBuffers.buffer(4 + outputStream.size());
+        frame.writeInt(outputStream.size());
+        frame.writeBytes(outputStream.toByteArray());
+        return frame;
+    }
+
+    /**
+     * @return the filter carried by message, or null if message is not a filter frame
+     */
+    static MessageFilter decode(final CodeBook codeBook, final byte[] message, final int length)
+    {
+        MessageHeader.validate(message, 0, length);
+        if(MessageHeader.getTopicId(message, 0) != FILTER_TOPIC_ID)
+        {
+            return null;
+        }
+        final int headerLength = MessageHeader.getLength(message, 0);
+        final DecoderStream decoderStream = new UnpackerDecoderStream(codeBook,
+                new MessagePackUnpacker(new ByteArrayInputStream(message, headerLength, length - headerLength)));
+        try
+        {
+            decoderStream.readInt();
+            return MessageFilters.decode(decoderStream);
+        }
+        catch (IOException e)
+        {
+            throw new MessagingException("Unable to decode filter", e);
+        }
+    }
+
+    private MessageFilter getCombinedFilter()
+    {
+        final Receiver[] receivers = receiverRegistry.getRegisteredReceivers(topicId);
+        if(receivers.length == 0)
+        {
+            return MessageFilters.acceptAll();
+        }
+        final MessageFilter[] filters = new MessageFilter[receivers.length];
+        for (int i = 0; i < receivers.length; i++)
+        {
+            if(!(receivers[i] instanceof FilteredReceiver) ||
+               !MessageFilters.isEncodable(((FilteredReceiver) receivers[i]).getFilter()))
+            {
+                return MessageFilters.acceptAll();
+            }
+            filters[i] = ((FilteredReceiver) receivers[i]).getFilter();
+        }
+        return filters.length == 1 ? filters[0] : MessageFilters.anyOf(filters);
+    }
+}
@@ -0,0 +1,87 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+public final class ReconnectPolicy
+{
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100L;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 5000L;
+    public static final int DEFAULT_BACKLOG_CAPACITY = 1024;
+    public static final int DEFAULT_BACKLOG_SLOT_SIZE = 2048;
+
+    public enum OverflowPolicy
+    {
+        DROP_NEWEST,
+        DROP_OLDEST
+    }
+
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int backlogCapacity;
+    private final int backlogSlotSize;
+    private final OverflowPolicy overflowPolicy;
+
+    public ReconnectPolicy(final long initialBackoffMillis, final long maxBackoffMillis,
+                           final int backlogCapacity, final int backlogSlotSize,
+                           final OverflowPolicy overflowPolicy)
+    {
+        if(initialBackoffMillis <= 0L || maxBackoffMillis < initialBackoffMillis)
+        {
+            throw new IllegalArgumentException("Backoff must be positive, with max backoff >= initial backoff");
+        }
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.backlogCapacity = backlogCapacity;
+        this.backlogSlotSize = backlogSlotSize;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public static ReconnectPolicy defaults()
+    {
+        return new ReconnectPolicy(DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS,
+                DEFAULT_BACKLOG_CAPACITY, DEFAULT_BACKLOG_SLOT_SIZE, OverflowPolicy.DROP_NEWEST);
+    }
+
+    public long getInitialBackoffMillis()
+    {
+        return initialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis()
+    {
+        return maxBackoffMillis;
+    }
+
+    public long nextBackoffMillis(final long currentBackoffMillis)
+    {
+        return Math.min(currentBackoffMillis * 2, maxBackoffMillis);
+    }
+
+    public int getBacklogCapacity()
+    {
+        return backlogCapacity;
+    }
+
+    public int getBacklogSlotSize()
+    {
+        return backlogSlotSize;
+    }
+
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+}
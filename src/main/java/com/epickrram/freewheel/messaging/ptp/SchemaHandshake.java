@@ -0,0 +1,176 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.io.DecoderStream;
+import com.epickrram.freewheel.io.PackerEncoderStream;
+import com.epickrram.freewheel.io.UnpackerDecoderStream;
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.protocol.CodeBook;
+import com.epickrram.freewheel.remoting.RemoteInterfaceSchema;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.msgpack.packer.MessagePackPacker;
+import org.msgpack.unpacker.MessagePackUnpacker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * First frame written by a publisher on each new connection, carrying the schema fingerprint of the
+ * remote interface and, when it uses explicit method ids, the id and signature fingerprint of each method. Uses a reserved topic id so that subscribers predating the handshake treat it as
+ * an unknown topic and ignore it. A subscriber that rejects the handshake replies with a rejection frame,
+ * whose header sequence carries the subscriber's fingerprint, before closing the connection.
+ */
+final class SchemaHandshake
+{
+    static final int HANDSHAKE_TOPIC_ID = Integer.MIN_VALUE;
+    static final int REJECTION_TOPIC_ID = Integer.MIN_VALUE + 4;
+
+    private static final Logger LOGGER = Logger.getLogger(SchemaHandshake.class.getName());
+
+    enum Result
+    {
+        NOT_HANDSHAKE,
+        ACCEPTED,
+        REJECTED
+    }
+
+    private final CodeBook codeBook;
+    private final int topicId;
+    private final RemoteInterfaceSchema schema;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    SchemaHandshake(final CodeBook codeBook, final int topicId, final RemoteInterfaceSchema schema)
+    {
+        this.codeBook = codeBook;
+        this.topicId = topicId;
+        this.schema = schema;
+    }
+
+    ChannelBuffer createFrame()
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, HANDSHAKE_TOPIC_ID, 0, 0, 0L);
+        outputStream.write(header, 0, header.length);
+        final PackerEncoderStream encoderStream = new PackerEncoderStream(codeBook, new MessagePackPacker(outputStream));
+        try
+        {
+            encoderStream.writeInt(topicId);
+            encoderStream.writeLong(schema.getFingerprint());
+            encoderStream.writeBoolean(schema.hasExplicitMethodIds());
+            if(schema.hasExplicitMethodIds())
+            {
+                encoderStream.writeInt(schema.getMethodCount());
+                for (int i = 0; i < schema.getMethodCount(); i++)
+                {
+                    encoderStream.writeInt(schema.getMethodId(i));
+                    encoderStream.writeLong(schema.getMethodFingerprint(i));
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new MessagingException("Unable to encode handshake for topic " + topicId, e);
+        }
+        final ChannelBuffer frame = ChannelBuffers.buffer(4 + outputStream.size());
+        frame.writeInt(outputStream.size());
+        frame.writeBytes(outputStream.toByteArray());
+        return frame;
+    }
+
+    ChannelBuffer createRejectionFrame()
+    {
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, REJECTION_TOPIC_ID, 0, 0, schema.getFingerprint());
+        final ChannelBuffer frame = ChannelBuffers.buffer(4 + header.length);
+        frame.writeInt(header.length);
+        frame.writeBytes(header);
+        return frame;
+    }
+
+    /**
+     * @return true if the frame of frameLength bytes at the buffer's reader index is a rejection frame;
+     * the reader index is not moved
+     */
+    static boolean isRejection(final ChannelBuffer buffer, final int frameLength)
+    {
+        return frameLength >= MessageHeader.LENGTH &&
+               buffer.getInt(buffer.readerIndex() + MessageHeader.TOPIC_ID_OFFSET) == REJECTION_TOPIC_ID;
+    }
+
+    /**
+     * Reads a rejection frame at the buffer's reader index, leaving the reader index after it.
+     *
+     * @return the fingerprint of the rejecting subscriber's schema
+     */
+    static long readRejectingFingerprint(final ChannelBuffer buffer, final int frameLength)
+    {
+        final long fingerprint = buffer.getLong(buffer.readerIndex() + MessageHeader.SEQUENCE_OFFSET);
+        buffer.skipBytes(frameLength);
+        return fingerprint;
+    }
+
+    Result check(final byte[] message, final int length)
+    {
+        MessageHeader.validate(message, 0, length);
+        if(MessageHeader.getTopicId(message, 0) != HANDSHAKE_TOPIC_ID)
+        {
+            return Result.NOT_HANDSHAKE;
+        }
+        final int headerLength = MessageHeader.getLength(message, 0);
+        final DecoderStream decoderStream = new UnpackerDecoderStream(codeBook,
+                new MessagePackUnpacker(new ByteArrayInputStream(message, headerLength, length - headerLength)));
+        try
+        {
+            final int peerTopicId = decoderStream.readInt();
+            final long peerFingerprint = decoderStream.readLong();
+            final boolean peerHasExplicitMethodIds = decoderStream.readBoolean();
+            final int peerMethodCount = peerHasExplicitMethodIds ? decoderStream.readInt() : 0;
+            final int[] peerMethodIds = new int[peerMethodCount];
+            final long[] peerMethodFingerprints = new long[peerMethodCount];
+            for (int i = 0; i < peerMethodCount; i++)
+            {
+                peerMethodIds[i] = decoderStream.readInt();
+                peerMethodFingerprints[i] = decoderStream.readLong();
+            }
+            if(peerTopicId == topicId &&
+               schema.isCompatibleWith(peerFingerprint, peerHasExplicitMethodIds, peerMethodIds, peerMethodFingerprints))
+            {
+                return Result.ACCEPTED;
+            }
+            rejectedCount.incrementAndGet();
+            LOGGER.severe("Rejecting publisher for topic " + peerTopicId + " with schema fingerprint " +
+                    Long.toHexString(peerFingerprint) + ", subscriber for topic " + topicId + " has fingerprint " +
+                    Long.toHexString(schema.getFingerprint()));
+            return Result.REJECTED;
+        }
+        catch (IOException e)
+        {
+            throw new MessagingException("Unable to decode message", e);
+        }
+    }
+
+    long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+}
@@ -16,53 +16,78 @@
 
 package com.epickrram.freewheel.messaging.ptp;
 
-import com.epickrram.freewheel.io.UnpackerDecoderStream;
-import com.epickrram.freewheel.messaging.Receiver;
-import com.epickrram.freewheel.messaging.ReceiverRegistry;
-import com.epickrram.freewheel.protocol.CodeBook;
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.dispatch.MessageDispatcher;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelHandler;
-import org.msgpack.unpacker.MessagePackUnpacker;
-
-import java.io.ByteArrayInputStream;
-import java.util.Collection;
+import org.jboss.netty.channel.group.ChannelGroup;
 
 final class SubscriberChannelHandler extends SimpleChannelHandler
 {
-    private final CodeBook codeBook;
-    private final ReceiverRegistry receiverRegistry;
+    private final MessageDispatcher messageDispatcher;
+    private final ChannelGroup acceptedChannels;
+    private final SchemaHandshake schemaHandshake;
+    private final PublisherFilter publisherFilter;
+    private final SyncRequestExecutor syncRequestExecutor;
 
-    SubscriberChannelHandler(final CodeBook codeBook, final ReceiverRegistry receiverRegistry)
+    SubscriberChannelHandler(final MessageDispatcher messageDispatcher, final ChannelGroup acceptedChannels,
+                             final SchemaHandshake schemaHandshake, final PublisherFilter publisherFilter,
+                             final SyncRequestExecutor syncRequestExecutor)
+    {
+        this.messageDispatcher = messageDispatcher;
+        this.acceptedChannels = acceptedChannels;
+        this.schemaHandshake = schemaHandshake;
+        this.publisherFilter = publisherFilter;
+        this.syncRequestExecutor = syncRequestExecutor;
+    }
+
+    @Override
+    public void channelOpen(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception
     {
-        this.codeBook = codeBook;
-        this.receiverRegistry = receiverRegistry;
+        acceptedChannels.add(e.getChannel());
+        super.channelOpen(ctx, e);
     }
 
     @Override
     public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception
     {
         final ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
-        // TODO handle partial message delivery
         while(buffer.readableBytes() > 4)
         {
             final int messageSize = buffer.readInt();
+            if(SyncFrame.isFrame(buffer, messageSize, SyncFrame.REQUEST_TOPIC_ID))
+            {
+                final long correlationId = SyncFrame.readCorrelationId(buffer);
+                final byte[] request = new byte[messageSize - MessageHeader.LENGTH];
+                buffer.readBytes(request);
+                syncRequestExecutor.execute(e.getChannel(), correlationId, request);
+                continue;
+            }
             final byte[] messageBuffer = new byte[messageSize];
             buffer.readBytes(messageBuffer, 0, messageSize);
-
-            final MessagePackUnpacker messagePackUnpacker = new MessagePackUnpacker(new ByteArrayInputStream(messageBuffer));
-            final UnpackerDecoderStream decoderStream = new UnpackerDecoderStream(codeBook, messagePackUnpacker);
-            final int topicId = decoderStream.readInt();
-
-            final Collection<Receiver> receiverList = receiverRegistry.getReceiverList(topicId);
-            for (Receiver receiver : receiverList)
+            if(ctx.getAttachment() == null)
             {
-                final MessagePackUnpacker innerMessagePackUnpacker = new MessagePackUnpacker(new ByteArrayInputStream(messageBuffer));
-                final UnpackerDecoderStream innerDecoderStream = new UnpackerDecoderStream(codeBook, innerMessagePackUnpacker);
-                innerDecoderStream.readInt();
-                receiver.onMessage(topicId, innerDecoderStream);
+                // first frame on this connection; publishers predating the handshake go straight to messages
+                ctx.setAttachment(Boolean.TRUE);
+                final SchemaHandshake.Result result = schemaHandshake.check(messageBuffer, messageSize);
+                if(result == SchemaHandshake.Result.REJECTED)
+                {
+                    // tell the publisher, so that it stops reconnecting, then hang up
+                    e.getChannel().write(schemaHandshake.createRejectionFrame()).addListener(ChannelFutureListener.CLOSE);
+                    return;
+                }
+                if(result == SchemaHandshake.Result.ACCEPTED)
+                {
+                    // only publishers that handshake understand filter frames
+                    publisherFilter.onHandshakeAccepted(e.getChannel());
+                    continue;
+                }
             }
+            messageDispatcher.dispatch(messageBuffer, 0, messageSize);
         }
     }
 }
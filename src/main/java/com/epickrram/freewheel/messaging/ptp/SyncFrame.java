@@ -0,0 +1,95 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.messaging.MessageHeader;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * Envelopes for sync requests and their responses on Netty connections. Each has a message header with a
+ * reserved topic id, whose sequence carries the correlation id; a request envelope holds the request message,
+ * a response envelope holds the response encoded as described in SyncRequestInvoker. Subscribers predating
+ * sync support treat request envelopes as an unknown topic.
+ */
+final class SyncFrame
+{
+    static final int REQUEST_TOPIC_ID = Integer.MIN_VALUE + 2;
+    static final int RESPONSE_TOPIC_ID = Integer.MIN_VALUE + 3;
+    static final long NO_CORRELATION_ID = 0L;
+
+    private SyncFrame() {}
+
+    static ChannelBuffer createRequest(final long correlationId, final byte[] message)
+    {
+        // flagged as sync so that publisher-side filters let it through
+        return createFrame(REQUEST_TOPIC_ID, MessageHeader.FLAG_SYNC, correlationId, message, message.length);
+    }
+
+    static ChannelBuffer createResponse(final long correlationId, final byte[] response, final int length)
+    {
+        return createFrame(RESPONSE_TOPIC_ID, 0, correlationId, response, length);
+    }
+
+    /**
+     * @return true if the frame of frameLength bytes at the buffer's reader index has the given reserved topic id;
+     * the reader index is not moved
+     */
+    static boolean isFrame(final ChannelBuffer buffer, final int frameLength, final int topicId)
+    {
+        return frameLength >= MessageHeader.LENGTH &&
+               buffer.getInt(buffer.readerIndex() + MessageHeader.TOPIC_ID_OFFSET) == topicId;
+    }
+
+    /**
+     * @return the correlation id of a length-prefixed frame created by createRequest, or NO_CORRELATION_ID for any
+     * other frame; the reader index is not moved
+     */
+    static long getRequestCorrelationId(final ChannelBuffer frame)
+    {
+        final int headerIndex = frame.readerIndex() + 4;
+        if(frame.readableBytes() < 4 + MessageHeader.LENGTH ||
+           frame.getInt(headerIndex + MessageHeader.TOPIC_ID_OFFSET) != REQUEST_TOPIC_ID)
+        {
+            return NO_CORRELATION_ID;
+        }
+        return frame.getLong(headerIndex + MessageHeader.SEQUENCE_OFFSET);
+    }
+
+    /**
+     * Reads the envelope header at the buffer's reader index, leaving the reader index at the envelope body.
+     *
+     * @return the correlation id
+     */
+    static long readCorrelationId(final ChannelBuffer buffer)
+    {
+        final long correlationId = buffer.getLong(buffer.readerIndex() + MessageHeader.SEQUENCE_OFFSET);
+        buffer.skipBytes(MessageHeader.LENGTH);
+        return correlationId;
+    }
+
+    private static ChannelBuffer createFrame(final int topicId, final int flags, final long correlationId,
+                                             final byte[] body, final int bodyLength)
+    {
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, topicId, 0, flags, correlationId);
+        final ChannelBuffer frame = ChannelBuffers.buffer(4 + MessageHeader.LENGTH + bodyLength);
+        frame.writeInt(MessageHeader.LENGTH + bodyLength);
+        frame.writeBytes(header);
+        frame.writeBytes(body, 0, bodyLength);
+        return frame;
+    }
+}
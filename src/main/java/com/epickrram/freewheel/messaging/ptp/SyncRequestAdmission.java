@@ -0,0 +1,84 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.messaging.MessageHeader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a server should spend any effort on an incoming sync request. Requests whose caller has
+ * already given up are dropped, and requests arriving while too many others are waiting for a worker are
+ * shed, so that an overloaded server keeps completing the work it has rather than timing all of it out.
+ */
+final class SyncRequestAdmission
+{
+    static final String OVERLOADED_DESCRIPTION = "Server overloaded, request was not processed";
+
+    private final int shedQueueDepth;
+    private final AtomicLong expiredRequestCount = new AtomicLong();
+    private final AtomicLong shedRequestCount = new AtomicLong();
+
+    SyncRequestAdmission(final int shedQueueDepth)
+    {
+        this.shedQueueDepth = shedQueueDepth;
+    }
+
+    /**
+     * @return true if the message carries a deadline that has passed; the message is counted as expired
+     */
+    boolean isExpired(final byte[] message)
+    {
+        if(MessageHeader.isExpired(message, 0, System.currentTimeMillis()))
+        {
+            expiredRequestCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a request should be rejected given the number of requests already queued;
+     * the request is counted as shed
+     */
+    boolean shouldShed(final int queueDepth)
+    {
+        if(queueDepth >= shedQueueDepth)
+        {
+            shedRequestCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts a request that was admitted but found the worker queue full when handed over.
+     */
+    void onQueueFull()
+    {
+        shedRequestCount.incrementAndGet();
+    }
+
+    long getExpiredRequestCount()
+    {
+        return expiredRequestCount.get();
+    }
+
+    long getShedRequestCount()
+    {
+        return shedRequestCount.get();
+    }
+}
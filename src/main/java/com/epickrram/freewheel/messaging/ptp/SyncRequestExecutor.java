@@ -0,0 +1,158 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.messaging.MessageCompression;
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.messaging.Receiver;
+import com.epickrram.freewheel.messaging.ReceiverRegistry;
+import com.epickrram.freewheel.protocol.CodeBook;
+import com.epickrram.freewheel.util.DaemonThreadFactory;
+import org.jboss.netty.channel.Channel;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs sync requests received on Netty connections on a bounded worker pool, so that slow receivers do not
+ * hold up I/O threads, and writes each response back on the connection the request arrived on.
+ */
+final class SyncRequestExecutor
+{
+    private final ReceiverRegistry receiverRegistry;
+    private final SyncRequestInvoker syncRequestInvoker;
+    private final SyncRequestAdmission syncRequestAdmission;
+    private final ThreadPoolExecutor workerPool;
+
+    SyncRequestExecutor(final CodeBook codeBook, final ReceiverRegistry receiverRegistry, final SyncRequestPolicy policy)
+    {
+        this.receiverRegistry = receiverRegistry;
+        this.syncRequestInvoker = new SyncRequestInvoker(codeBook);
+        this.syncRequestAdmission = new SyncRequestAdmission(policy.getShedQueueDepth());
+        this.workerPool = new ThreadPoolExecutor(policy.getWorkerThreads(), policy.getWorkerThreads(),
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(policy.getWorkerQueueCapacity()),
+                new DaemonThreadFactory("ptp-sync-worker"));
+    }
+
+    /**
+     * Checked before the request is decompressed or decoded, as its header is never compressed.
+     */
+    void execute(final Channel channel, final long correlationId, final byte[] message)
+    {
+        MessageHeader.validate(message, 0, message.length);
+        if(syncRequestAdmission.isExpired(message))
+        {
+            return;
+        }
+        if(syncRequestAdmission.shouldShed(workerPool.getQueue().size()))
+        {
+            writeOverloaded(channel, correlationId);
+            return;
+        }
+        try
+        {
+            workerPool.execute(new SyncRequest(channel, correlationId, message));
+        }
+        catch(RejectedExecutionException e)
+        {
+            // the request must not run on the calling I/O thread, so a full queue is answered as overloaded
+            if(!workerPool.isShutdown())
+            {
+                syncRequestAdmission.onQueueFull();
+                writeOverloaded(channel, correlationId);
+            }
+        }
+    }
+
+    private static void writeOverloaded(final Channel channel, final long correlationId)
+    {
+        final byte[] response = SyncRequestInvoker.errorResponse(SyncRequestAdmission.OVERLOADED_DESCRIPTION);
+        channel.write(SyncFrame.createResponse(correlationId, response, response.length));
+    }
+
+    void shutdown()
+    {
+        workerPool.shutdownNow();
+    }
+
+    long getExpiredRequestCount()
+    {
+        return syncRequestAdmission.getExpiredRequestCount();
+    }
+
+    long getShedRequestCount()
+    {
+        return syncRequestAdmission.getShedRequestCount();
+    }
+
+    private final class SyncRequest implements Runnable
+    {
+        private final Channel channel;
+        private final long correlationId;
+        private final byte[] message;
+
+        private SyncRequest(final Channel channel, final long correlationId, final byte[] message)
+        {
+            this.channel = channel;
+            this.correlationId = correlationId;
+            this.message = message;
+        }
+
+        @Override
+        public void run()
+        {
+            if(syncRequestAdmission.isExpired(message))
+            {
+                return;
+            }
+            final byte[] request;
+            try
+            {
+                request = MessageHeader.isCompressed(message, 0) ?
+                        MessageCompression.decompress(message, 0, message.length) : message;
+            }
+            catch(MessagingException e)
+            {
+                writeError(String.valueOf(e));
+                return;
+            }
+            final Receiver[] receivers = receiverRegistry.getReceivers(MessageHeader.getTopicId(request, 0));
+            if(receivers.length == 0)
+            {
+                writeError("No receiver for topic " + MessageHeader.getTopicId(request, 0));
+                return;
+            }
+            final SyncResponseBuffer responseBuffer = syncRequestInvoker.invoke(receivers[0], request);
+            try
+            {
+                channel.write(SyncFrame.createResponse(correlationId, responseBuffer.getBuffer(), responseBuffer.size()));
+            }
+            finally
+            {
+                syncRequestInvoker.release(responseBuffer);
+            }
+        }
+
+        private void writeError(final String description)
+        {
+            final byte[] response = SyncRequestInvoker.errorResponse(description);
+            channel.write(SyncFrame.createResponse(correlationId, response, response.length));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.io.EncoderStream;
+import com.epickrram.freewheel.io.UnpackerDecoderStream;
+import com.epickrram.freewheel.messaging.EncodingReceiver;
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.messaging.Receiver;
+import com.epickrram.freewheel.protocol.CodeBook;
+import com.epickrram.freewheel.remoting.ReturnValueCodec;
+import org.msgpack.unpacker.MessagePackUnpacker;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Invokes a receiver for a decompressed sync request and encodes its response: RESPONSE_OK followed by the
+ * encoded result, or RESPONSE_ERROR followed by a UTF-8 description of the failure.
+ */
+final class SyncRequestInvoker
+{
+    static final byte RESPONSE_OK = 0;
+    static final byte RESPONSE_ERROR = 1;
+
+    private static final Logger LOGGER = Logger.getLogger(SyncRequestInvoker.class.getSimpleName());
+
+    private final CodeBook codeBook;
+    private final ThreadLocal<SyncResponseBuffer> syncResponseBuffer = new ThreadLocal<SyncResponseBuffer>()
+    {
+        @Override
+        protected SyncResponseBuffer initialValue()
+        {
+            return new SyncResponseBuffer(codeBook);
+        }
+    };
+
+    SyncRequestInvoker(final CodeBook codeBook)
+    {
+        this.codeBook = codeBook;
+    }
+
+    /**
+     * @return the calling thread's response buffer, holding the response; pass it to release() once written
+     */
+    SyncResponseBuffer invoke(final Receiver receiver, final byte[] message)
+    {
+        final SyncResponseBuffer responseBuffer = syncResponseBuffer.get();
+        try
+        {
+            responseBuffer.reset();
+            responseBuffer.write(RESPONSE_OK);
+            invoke(receiver, message, responseBuffer.getEncoderStream());
+        }
+        catch(Throwable e)
+        {
+            LOGGER.log(Level.SEVERE, "Failed to invoke Receiver", e);
+            responseBuffer.reset();
+            final byte[] errorResponse = errorResponse(String.valueOf(e));
+            responseBuffer.write(errorResponse, 0, errorResponse.length);
+        }
+        return responseBuffer;
+    }
+
+    void release(final SyncResponseBuffer responseBuffer)
+    {
+        if(!responseBuffer.isRetainable())
+        {
+            syncResponseBuffer.remove();
+        }
+    }
+
+    static byte[] errorResponse(final String description)
+    {
+        byte[] descriptionBytes;
+        try
+        {
+            descriptionBytes = description.getBytes("UTF-8");
+        }
+        catch(UnsupportedEncodingException e)
+        {
+            // leave the description empty
+            descriptionBytes = new byte[0];
+        }
+        final byte[] response = new byte[descriptionBytes.length + 1];
+        response[0] = RESPONSE_ERROR;
+        System.arraycopy(descriptionBytes, 0, response, 1, descriptionBytes.length);
+        return response;
+    }
+
+    /**
+     * @return response, if it is RESPONSE_OK; the encoded result follows the status byte
+     */
+    static byte[] checkResponse(final byte[] response, final int topicId)
+    {
+        if(response.length == 0 || response[0] != RESPONSE_OK)
+        {
+            throw new MessagingException("Remote invocation for topic " + topicId + " failed: " + describeError(response));
+        }
+        return response;
+    }
+
+    private static String describeError(final byte[] response)
+    {
+        if(response.length < 2)
+        {
+            return "no description";
+        }
+        try
+        {
+            return new String(response, 1, response.length - 1, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            return "no description";
+        }
+    }
+
+    private void invoke(final Receiver receiver, final byte[] message, final EncoderStream encoderStream) throws IOException
+    {
+        final int headerLength = MessageHeader.getLength(message, 0);
+        final UnpackerDecoderStream decoderStream = new UnpackerDecoderStream(codeBook,
+                new MessagePackUnpacker(new ByteArrayInputStream(message, headerLength, message.length - headerLength)));
+        final int topicId = MessageHeader.getTopicId(message, 0);
+        final int methodId = MessageHeader.getMethodId(message, 0);
+        if(receiver instanceof EncodingReceiver)
+        {
+            ((EncodingReceiver) receiver).onSyncMessage(topicId, methodId, decoderStream, encoderStream);
+        }
+        else
+        {
+            ReturnValueCodec.writeUntyped(encoderStream, receiver.onSyncMessage(topicId, methodId, decoderStream));
+        }
+    }
+}
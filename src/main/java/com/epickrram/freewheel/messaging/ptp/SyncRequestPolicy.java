@@ -0,0 +1,79 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+public final class SyncRequestPolicy
+{
+    public static final int DEFAULT_SEND_AND_WAIT_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_WORKER_QUEUE_CAPACITY = 1024;
+
+    private final int sendAndWaitTimeoutMillis;
+    private final int workerThreads;
+    private final int workerQueueCapacity;
+    private final int shedQueueDepth;
+
+    public SyncRequestPolicy(final int sendAndWaitTimeoutMillis, final int workerThreads,
+                             final int workerQueueCapacity, final int shedQueueDepth)
+    {
+        if(sendAndWaitTimeoutMillis <= 0 || workerThreads <= 0 || workerQueueCapacity <= 0 || shedQueueDepth <= 0)
+        {
+            throw new IllegalArgumentException("Timeout, worker threads, worker queue capacity and shed queue depth must be positive");
+        }
+        if(shedQueueDepth > workerQueueCapacity)
+        {
+            throw new IllegalArgumentException("Shed queue depth must not exceed worker queue capacity");
+        }
+        this.sendAndWaitTimeoutMillis = sendAndWaitTimeoutMillis;
+        this.workerThreads = workerThreads;
+        this.workerQueueCapacity = workerQueueCapacity;
+        this.shedQueueDepth = shedQueueDepth;
+    }
+
+    public static SyncRequestPolicy defaults()
+    {
+        return new SyncRequestPolicy(DEFAULT_SEND_AND_WAIT_TIMEOUT_MILLIS, Runtime.getRuntime().availableProcessors(),
+                DEFAULT_WORKER_QUEUE_CAPACITY, DEFAULT_WORKER_QUEUE_CAPACITY);
+    }
+
+    public int getSendAndWaitTimeoutMillis()
+    {
+        return sendAndWaitTimeoutMillis;
+    }
+
+    /**
+     * sync requests are handed from I/O threads to a pool of this many threads
+     */
+    public int getWorkerThreads()
+    {
+        return workerThreads;
+    }
+
+    /**
+     * when this many sync requests are queued, I/O threads run further requests themselves
+     */
+    public int getWorkerQueueCapacity()
+    {
+        return workerQueueCapacity;
+    }
+
+    /**
+     * sync requests arriving while this many are queued for a worker are rejected with an error response
+     */
+    public int getShedQueueDepth()
+    {
+        return shedQueueDepth;
+    }
+}
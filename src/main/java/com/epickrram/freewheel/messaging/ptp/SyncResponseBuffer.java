@@ -0,0 +1,56 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.io.EncoderStream;
+import com.epickrram.freewheel.io.PackerEncoderStream;
+import com.epickrram.freewheel.protocol.CodeBook;
+import org.msgpack.packer.MessagePackPacker;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A response buffer and encoder held by each sync worker thread, so that encoding a response allocates nothing
+ * once the buffer has grown to fit it. Buffers that grow beyond MAX_RETAINED_CAPACITY are not kept.
+ */
+final class SyncResponseBuffer extends ByteArrayOutputStream
+{
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private final EncoderStream encoderStream;
+
+    SyncResponseBuffer(final CodeBook codeBook)
+    {
+        super(INITIAL_CAPACITY);
+        encoderStream = new PackerEncoderStream(codeBook, new MessagePackPacker(this));
+    }
+
+    EncoderStream getEncoderStream()
+    {
+        return encoderStream;
+    }
+
+    byte[] getBuffer()
+    {
+        return buf;
+    }
+
+    boolean isRetainable()
+    {
+        return buf.length <= MAX_RETAINED_CAPACITY;
+    }
+}
@@ -0,0 +1,167 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.io.DecoderStream;
+import com.epickrram.freewheel.io.UnpackerDecoderStream;
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.protocol.CodeBook;
+import com.epickrram.freewheel.util.HashedTimerWheel;
+import org.msgpack.unpacker.MessagePackUnpacker;
+
+import java.io.ByteArrayInputStream;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending response to a sync request sent on a Netty connection. Completes with the response,
+ * or fails once the request's timeout passes or its connection is lost. Whichever happens
+ * first removes the request from its connection's pending responses, so exactly one of them completes it.
+ */
+final class SyncResponseFuture implements Future<DecoderStream>
+{
+    private final ConcurrentMap<Long, SyncResponseFuture> pendingResponses;
+    private final long correlationId;
+    private final int topicId;
+    private final CodeBook codeBook;
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private final Runnable timeoutTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            if(pendingResponses.remove(correlationId, SyncResponseFuture.this))
+            {
+                complete(null, new MessagingException("Did not receive response for topic " + topicId +
+                        " within " + timeoutMillis + "ms"));
+            }
+        }
+    };
+    private volatile byte[] response;
+    private volatile Throwable failure;
+    private volatile HashedTimerWheel.Timeout timeout;
+    private volatile long timeoutMillis;
+
+    SyncResponseFuture(final ConcurrentMap<Long, SyncResponseFuture> pendingResponses, final long correlationId,
+                       final int topicId, final CodeBook codeBook)
+    {
+        this.pendingResponses = pendingResponses;
+        this.correlationId = correlationId;
+        this.topicId = topicId;
+        this.codeBook = codeBook;
+    }
+
+    void scheduleTimeout(final HashedTimerWheel timerWheel, final long timeoutMillis)
+    {
+        this.timeoutMillis = timeoutMillis;
+        timeout = timerWheel.schedule(timeoutTask, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called once the response has been removed from the pending responses.
+     */
+    void complete(final byte[] response, final Throwable failure)
+    {
+        this.response = response;
+        this.failure = failure;
+        completed.countDown();
+        final HashedTimerWheel.Timeout pendingTimeout = timeout;
+        if(pendingTimeout != null)
+        {
+            pendingTimeout.cancel();
+        }
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning)
+    {
+        if(pendingResponses.remove(correlationId, this))
+        {
+            complete(null, new CancellationException());
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+        return failure instanceof CancellationException;
+    }
+
+    @Override
+    public boolean isDone()
+    {
+        return completed.getCount() == 0L;
+    }
+
+    @Override
+    public DecoderStream get() throws InterruptedException, ExecutionException
+    {
+        return decode(getResponse());
+    }
+
+    @Override
+    public DecoderStream get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if(!completed.await(timeout, unit))
+        {
+            throw new TimeoutException();
+        }
+        return decode(getResponse());
+    }
+
+    /**
+     * @return the response once complete; the encoded result follows the status byte
+     */
+    byte[] getResponse() throws InterruptedException, ExecutionException
+    {
+        completed.await();
+        if(failure instanceof CancellationException)
+        {
+            throw (CancellationException) failure;
+        }
+        if(failure != null)
+        {
+            throw new ExecutionException(failure);
+        }
+        try
+        {
+            return SyncRequestInvoker.checkResponse(response, topicId);
+        }
+        catch(MessagingException e)
+        {
+            throw new ExecutionException(e);
+        }
+    }
+
+    static DecoderStream decode(final CodeBook codeBook, final byte[] response)
+    {
+        return new UnpackerDecoderStream(codeBook,
+                new MessagePackUnpacker(new ByteArrayInputStream(response, 1, response.length - 1)));
+    }
+
+    private DecoderStream decode(final byte[] response)
+    {
+        return decode(codeBook, response);
+    }
+}
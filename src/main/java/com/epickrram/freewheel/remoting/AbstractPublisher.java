@@ -16,9 +16,11 @@
 package com.epickrram.freewheel.remoting;
 
 import com.epickrram.freewheel.protocol.CodeBook;
+import com.epickrram.freewheel.messaging.MessageHeader;
 import com.epickrram.freewheel.messaging.MessagingService;
 
 import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class AbstractPublisher
 {
@@ -26,12 +28,24 @@ public abstract class AbstractPublisher
     private final MessagingService messagingService;
     private final int topicId;
     private final CodeBook codeBook;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ResponseCache[] responseCaches;
 
     public AbstractPublisher(final MessagingService messagingService, final int topicId, final CodeBook codeBook)
+    {
+        this(messagingService, topicId, codeBook, null);
+    }
+
+    /**
+     * @param responseCaches caches for @CachedResponse methods, indexed by method id; may be null
+     */
+    public AbstractPublisher(final MessagingService messagingService, final int topicId, final CodeBook codeBook,
+                             final ResponseCache[] responseCaches)
     {
         this.messagingService = messagingService;
         this.topicId = topicId;
         this.codeBook = codeBook;
+        this.responseCaches = responseCaches;
     }
 
     protected MessagingService getMessagingService()
@@ -49,8 +63,20 @@ public abstract class AbstractPublisher
         return new ByteArrayOutputStream(DEFAULT_BUFFER_SIZE);
     }
 
+    protected void writeHeader(final ByteArrayOutputStream buffer, final int methodId, final int flags)
+    {
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, topicId, methodId, flags, sequence.getAndIncrement());
+        buffer.write(header, 0, header.length);
+    }
+
     protected CodeBook getCodeBook()
     {
         return codeBook;
     }
+
+    protected ResponseCache getResponseCache(final int methodId)
+    {
+        return responseCaches[methodId];
+    }
 }
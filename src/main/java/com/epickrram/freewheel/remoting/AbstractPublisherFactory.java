@@ -19,10 +19,10 @@ package com.epickrram.freewheel.remoting;
 import com.epickrram.freewheel.messaging.LifecycleAware;
 import com.epickrram.freewheel.messaging.config.Remote;
 import com.epickrram.freewheel.protocol.CodeBook;
+import com.epickrram.freewheel.util.Provider;
 import javassist.CannotCompileException;
 import javassist.ClassPool;
 import javassist.CtClass;
-import javassist.LoaderClassPath;
 import javassist.Modifier;
 import javassist.NotFoundException;
 import javassist.bytecode.ClassFile;
@@ -35,20 +35,22 @@ import java.util.Collection;
 import java.util.Collections;
 
 import static com.epickrram.freewheel.remoting.GeneratedClassRegistry.CONSTRUCTOR_MAP;
-import static com.epickrram.freewheel.remoting.MethodNameComparator.METHOD_COMPARATOR;
-import static java.util.Arrays.sort;
 
 public abstract class AbstractPublisherFactory implements PublisherFactory
 {
     private final String abstractPublisherClassname;
+    private final String generatedClassnameSuffix;
     protected final TopicIdGenerator topicIdGenerator;
     protected final CodeBook codeBook;
+    protected final ResponseCacheRegistry responseCacheRegistry = new ResponseCacheRegistry();
 
     protected AbstractPublisherFactory(final String abstractPublisherClassname,
+                                       final String generatedClassnameSuffix,
                                        final TopicIdGenerator topicIdGenerator,
                                        final CodeBook codeBook)
     {
         this.abstractPublisherClassname = abstractPublisherClassname;
+        this.generatedClassnameSuffix = generatedClassnameSuffix;
         this.topicIdGenerator = topicIdGenerator;
         this.codeBook = codeBook;
     }
@@ -59,58 +61,21 @@ public abstract class AbstractPublisherFactory implements PublisherFactory
         return Collections.emptyList();
     }
 
+    @Override
+    public ResponseCacheInvalidation getResponseCacheInvalidation()
+    {
+        return responseCacheRegistry;
+    }
+
     @Override
     @SuppressWarnings({"unchecked"})
     public <T> T createPublisher(final Class<T> descriptor) throws RemotingException
     {
-        final Remote definition = validateRemoteInterface(descriptor);
-        validatePublisher(descriptor);
+        final Constructor jdkConstructor = getConstructor(descriptor);
         try
         {
-            if (CONSTRUCTOR_MAP.containsKey(descriptor))
-            {
-                return createPublisher(descriptor, CONSTRUCTOR_MAP.get(descriptor));
-            }
-            final String generatedClassname = getGeneratedClassname(descriptor);
-            final ClassPool classPool = new ClassPool(ClassPool.getDefault());
-            classPool.appendClassPath(new LoaderClassPath(Thread.currentThread().getContextClassLoader()));
-            classPool.appendClassPath(new LoaderClassPath(ClassLoader.getSystemClassLoader()));
-
-            classPool.importPackage("com.epickrram.freewheel.messaging");
-            classPool.importPackage("com.epickrram.freewheel.stream");
-            classPool.importPackage("com.epickrram.freewheel.io");
-            classPool.importPackage("com.epickrram.freewheel.remoting");
-            classPool.importPackage("com.epickrram.freewheel.util");
-            classPool.importPackage("org.msgpack.packer");
-            classPool.importPackage("java.io");
-            final CtClass superClass = classPool.get(abstractPublisherClassname);
-            final CtClass ctClass = classPool.makeClass(generatedClassname, superClass);
-            final ClassFile classFile = ctClass.getClassFile();
-
-            ctClass.setModifiers(Modifier.PUBLIC | Modifier.FINAL);
-            classFile.addInterface(descriptor.getName());
-
-            final Method[] methods = descriptor.getDeclaredMethods();
-            sort(methods, METHOD_COMPARATOR);
-            for (int methodIndex = 0; methodIndex < methods.length; methodIndex++)
-            {
-                final Method method = methods[methodIndex];
-                classFile.addMethod(generateMethod(method, methodIndex, ctClass));
-            }
-
-            final Constructor jdkConstructor = createConstructor(ctClass.toClass(), definition, descriptor);
-            CONSTRUCTOR_MAP.put(descriptor, jdkConstructor);
-
             return createPublisher(descriptor, jdkConstructor);
         }
-        catch (CannotCompileException e)
-        {
-            throw new RemotingException("Unable to generate publisher", e);
-        }
-        catch (NoSuchMethodException e)
-        {
-            throw new RemotingException("Unable to generate publisher", e);
-        }
         catch (InvocationTargetException e)
         {
             throw new RemotingException("Unable to generate publisher", e);
@@ -123,23 +88,95 @@ public abstract class AbstractPublisherFactory implements PublisherFactory
         {
             throw new RemotingException("Unable to generate publisher", e);
         }
-        catch (NotFoundException e)
+    }
+
+    @Override
+    public <T> void preparePublisher(final Class<T> descriptor) throws RemotingException
+    {
+        getConstructor(descriptor);
+    }
+
+    @Override
+    public <T> void removePublisher(final Class<T> descriptor)
+    {
+        responseCacheRegistry.removeResponseCaches(descriptor);
+    }
+
+    CtClass generatePublisherClass(final Class<?> descriptor) throws NotFoundException, CannotCompileException
+    {
+        final ClassPool classPool = GeneratedClassPool.newClassPool("com.epickrram.freewheel.messaging",
+                "com.epickrram.freewheel.stream", "com.epickrram.freewheel.io", "com.epickrram.freewheel.remoting",
+                "com.epickrram.freewheel.util", "org.msgpack.packer", "java.io");
+        final CtClass superClass = classPool.get(abstractPublisherClassname);
+        final CtClass ctClass = classPool.makeClass(getGeneratedClassname(descriptor), superClass);
+        final ClassFile classFile = ctClass.getClassFile();
+
+        ctClass.setModifiers(Modifier.PUBLIC | Modifier.FINAL);
+        classFile.addInterface(descriptor.getName());
+
+        final RemoteInterfaceSchema schema = RemoteInterfaceSchema.forDescriptor(descriptor);
+        generateClassMembers(schema, ctClass);
+        final Method[] methods = schema.getMethods();
+        for (int methodIndex = 0; methodIndex < methods.length; methodIndex++)
         {
-            throw new RemotingException("Unable to generate publisher", e);
+            final Method method = methods[methodIndex];
+            classFile.addMethod(generateMethod(method, schema.getMethodId(methodIndex), ctClass));
         }
+        return ctClass;
+    }
+
+    private Constructor getConstructor(final Class<?> descriptor)
+    {
+        final Remote definition = validateRemoteInterface(descriptor);
+        validatePublisher(descriptor);
+        return CONSTRUCTOR_MAP.getValue(getGeneratedClassname(descriptor), new Provider<String, Constructor>()
+        {
+            @Override
+            public Constructor provide(final String generatedClassname)
+            {
+                try
+                {
+                    Class<?> generatedClass = PrebuiltClasses.find(generatedClassname, descriptor);
+                    if (generatedClass == null)
+                    {
+                        generatedClass = generatePublisherClass(descriptor).toClass();
+                    }
+                    return createConstructor(generatedClass, definition, descriptor);
+                }
+                catch (CannotCompileException e)
+                {
+                    throw new RemotingException("Unable to generate publisher", e);
+                }
+                catch (NoSuchMethodException e)
+                {
+                    throw new RemotingException("Unable to generate publisher", e);
+                }
+                catch (NotFoundException e)
+                {
+                    throw new RemotingException("Unable to generate publisher", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds interfaces or methods to the generated class beyond the descriptor's methods; called before generateMethod.
+     */
+    protected void generateClassMembers(final RemoteInterfaceSchema schema, final CtClass ctClass) throws CannotCompileException
+    {
     }
 
     protected abstract <T> void validatePublisher(final Class<T> descriptor);
 
-    protected abstract MethodInfo generateMethod(final Method method, final int methodIndex, final CtClass ctClass) throws CannotCompileException;
+    protected abstract MethodInfo generateMethod(final Method method, final int methodId, final CtClass ctClass) throws CannotCompileException;
 
     protected abstract Constructor createConstructor(final Class<?> generatedPublisherClass, final Remote definition, final Class<?> descriptor) throws NoSuchMethodException;
 
     protected abstract <T> T createPublisher(final Class<T> descriptor, final Constructor jdkConstructor) throws InstantiationException, IllegalAccessException, InvocationTargetException;
 
-    private String getGeneratedClassname(final Class<?> descriptor)
+    String getGeneratedClassname(final Class<?> descriptor)
     {
-        return descriptor.getName() + "Publisher";
+        return descriptor.getName() + generatedClassnameSuffix;
     }
 
     private <T> Remote validateRemoteInterface(final Class<T> descriptor)
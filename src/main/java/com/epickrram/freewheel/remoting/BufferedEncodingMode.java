@@ -0,0 +1,41 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+public enum BufferedEncodingMode
+{
+    /**
+     * publisher methods encode their arguments into the ring event before publishing it
+     */
+    CALLER_THREAD("BufferedPublisher"),
+    /**
+     * publisher methods copy primitive arguments and object references into slots on the ring event,
+     * and the event processor encodes them; arguments must not be mutated after the call returns
+     */
+    EVENT_PROCESSOR_THREAD("DeferredBufferedPublisher");
+
+    private final String generatedClassnameSuffix;
+
+    private BufferedEncodingMode(final String generatedClassnameSuffix)
+    {
+        this.generatedClassnameSuffix = generatedClassnameSuffix;
+    }
+
+    String getGeneratedClassnameSuffix()
+    {
+        return generatedClassnameSuffix;
+    }
+}
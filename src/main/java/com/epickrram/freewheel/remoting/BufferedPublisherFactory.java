@@ -15,6 +15,7 @@
 //////////////////////////////////////////////////////////////////////////////////
 package com.epickrram.freewheel.remoting;
 
+import com.epickrram.freewheel.messaging.DeferredEncoder;
 import com.epickrram.freewheel.messaging.LifecycleAware;
 import com.epickrram.freewheel.messaging.OutgoingMessageEvent;
 import com.epickrram.freewheel.messaging.config.Remote;
@@ -24,6 +25,7 @@ import com.epickrram.freewheel.util.RingBufferWrapper;
 import com.lmax.disruptor.EventProcessor;
 import javassist.CannotCompileException;
 import javassist.CtClass;
+import javassist.CtMethod;
 import javassist.CtNewMethod;
 import javassist.bytecode.MethodInfo;
 
@@ -31,9 +33,8 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Collection;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -43,26 +44,33 @@ import static java.util.Collections.singletonList;
 public final class BufferedPublisherFactory extends AbstractPublisherFactory
 {
     private final RingBufferFactory ringBufferFactory;
-    private final Collection<LifecycleAware> eventProcessorLifecycleHandler;
-    // TODO replace with Memoizer
-    private static final Map<Class<?>, RingBufferWrapper<OutgoingMessageEvent>> RING_BUFFER_MAP =
-            new ConcurrentHashMap<Class<?>, RingBufferWrapper<OutgoingMessageEvent>>();
-
+    private final BufferedEncodingMode encodingMode;
+    private final EventProcessorLifecycleAware eventProcessorLifecycle;
+    private final Map<Class<?>, RingBufferWrapper<OutgoingMessageEvent>> ringBufferByDescriptorMap =
+            new HashMap<Class<?>, RingBufferWrapper<OutgoingMessageEvent>>();
 
     public BufferedPublisherFactory(final RingBufferFactory ringBufferFactory,
                                     final TopicIdGenerator topicIdGenerator,
                                     final CodeBook codeBook)
     {
-        super(AbstractReliablePublisher.class.getName(), topicIdGenerator, codeBook);
+        this(ringBufferFactory, topicIdGenerator, codeBook, BufferedEncodingMode.CALLER_THREAD);
+    }
+
+    public BufferedPublisherFactory(final RingBufferFactory ringBufferFactory,
+                                    final TopicIdGenerator topicIdGenerator,
+                                    final CodeBook codeBook,
+                                    final BufferedEncodingMode encodingMode)
+    {
+        super(AbstractReliablePublisher.class.getName(), encodingMode.getGeneratedClassnameSuffix(), topicIdGenerator, codeBook);
         this.ringBufferFactory = ringBufferFactory;
-        final LifecycleAware lifecycleHandler = new EventProcessorLifecycleAware(ringBufferFactory.getEventProcessors());
-        eventProcessorLifecycleHandler = singletonList(lifecycleHandler);
+        this.encodingMode = encodingMode;
+        this.eventProcessorLifecycle = new EventProcessorLifecycleAware(ringBufferFactory);
     }
 
     @Override
     public Collection<LifecycleAware> getLifecycleAwareCollection()
     {
-        return eventProcessorLifecycleHandler;
+        return singletonList((LifecycleAware) eventProcessorLifecycle);
     }
 
     @Override
@@ -72,10 +80,44 @@ public final class BufferedPublisherFactory extends AbstractPublisherFactory
         {
             throw new IllegalArgumentException("Buffered Publisher methods cannot have return values");
         }
+        if(isDeferred())
+        {
+            for (Method method : descriptor.getMethods())
+            {
+                if(method.getParameterTypes().length > OutgoingMessageEvent.MAX_DEFERRED_ARGUMENTS)
+                {
+                    throw new IllegalArgumentException("Deferred encoding supports at most " +
+                            OutgoingMessageEvent.MAX_DEFERRED_ARGUMENTS + " arguments: " + method);
+                }
+            }
+        }
     }
 
     @Override
-    protected MethodInfo generateMethod(final Method method, final int methodIndex, final CtClass ctClass) throws CannotCompileException
+    protected void generateClassMembers(final RemoteInterfaceSchema schema, final CtClass ctClass) throws CannotCompileException
+    {
+        if(!isDeferred())
+        {
+            return;
+        }
+        ctClass.getClassFile().addInterface(DeferredEncoder.class.getName());
+
+        final StringBuilder methodSource = new StringBuilder();
+        methodSource.append("public void encode(int methodId, OutgoingMessageEvent event, EncoderStream encoderStream) " +
+                "throws IOException {\n switch (methodId) {\n");
+        final Method[] methods = schema.getMethods();
+        for (int methodIndex = 0; methodIndex < methods.length; methodIndex++)
+        {
+            methodSource.append(" case ").append(schema.getMethodId(methodIndex)).append(": {\n");
+            MethodHelper.appendEncodeCapturedParameterCalls(methodSource, methods[methodIndex].getParameterTypes());
+            methodSource.append("return;\n }\n");
+        }
+        methodSource.append(" default: {\n  RemoteInterfaceSchema.unknownMethod(getTopicId(), methodId);\n }\n }\n}\n");
+        ctClass.addMethod(CtMethod.make(methodSource.toString(), ctClass));
+    }
+
+    @Override
+    protected MethodInfo generateMethod(final Method method, final int methodId, final CtClass ctClass) throws CannotCompileException
     {
         final StringBuilder methodSource = new StringBuilder();
         methodSource.append("public void ").append(method.getName()).append("(");
@@ -88,14 +130,23 @@ public final class BufferedPublisherFactory extends AbstractPublisherFactory
                 append("final RingBufferWrapper ringBuffer = getRingBuffer();\n").
                 append("final long sequence = ringBuffer.next();\n").
                 append("\ntry {\n").
-                append("final OutgoingMessageEvent messageEvent = (OutgoingMessageEvent) ringBuffer.get(sequence);\n").
-                append("messageEvent.reset();\n").
-                append("messageEvent.setTopicId(getTopicId());\n").
-                append("final EncoderStream encoderStream = messageEvent.getEncoderStream();\n").
-                append("encoderStream.writeInt(getTopicId());\n").
-                append("encoderStream.writeByte((byte) ").
-                append(methodIndex).
-                append(");\n");
+                append("final OutgoingMessageEvent messageEvent = (OutgoingMessageEvent) ringBuffer.get(sequence);\n");
+
+        if(isDeferred())
+        {
+            methodSource.append("messageEvent.deferEncoding(getTopicId(), ").append(methodId).append(", sequence, ").
+                    append(parameterTypes.length).append(", this);\n");
+            MethodHelper.appendCaptureParameterCalls(methodSource, parameterTypes);
+            methodSource.append("}\n").
+                    append("finally {\nringBuffer.publish(sequence);}\n").
+                    append("}\n");
+
+            return CtNewMethod.make(methodSource.toString(), ctClass).getMethodInfo();
+        }
+
+        methodSource.append("messageEvent.reset();\n").
+                append("messageEvent.writeHeader(getTopicId(), ").append(methodId).append(", sequence);\n").
+                append("final EncoderStream encoderStream = messageEvent.getEncoderStream();\n");
 
         MethodHelper.appendEncodeParameterCalls(methodSource, parameterTypes);
 
@@ -111,44 +162,94 @@ public final class BufferedPublisherFactory extends AbstractPublisherFactory
     @Override
     protected Constructor createConstructor(final Class<?> generatedPublisherClass, final Remote definition, final Class<?> descriptor) throws NoSuchMethodException
     {
-        final Constructor jdkConstructor = generatedPublisherClass.getConstructor(new Class[]{RingBufferWrapper.class, int.class, CodeBook.class});
-        RING_BUFFER_MAP.put(descriptor, ringBufferFactory.createRingBuffer(definition.messageStoreSize()));
-        return jdkConstructor;
+        return generatedPublisherClass.getConstructor(new Class[]{RingBufferWrapper.class, int.class, CodeBook.class});
     }
 
     @SuppressWarnings({"unchecked"})
     protected <T> T createPublisher(final Class<T> descriptor, final Constructor jdkConstructor) throws InstantiationException, IllegalAccessException, InvocationTargetException
     {
-        return (T) jdkConstructor.newInstance(RING_BUFFER_MAP.get(descriptor), topicIdGenerator.getTopicId(descriptor), codeBook);
+        return (T) jdkConstructor.newInstance(getRingBuffer(descriptor), topicIdGenerator.getTopicId(descriptor), codeBook);
     }
 
+    /**
+     * Stops draining the ring buffer of descriptor's publishers, which must not be used afterwards.
+     */
+    @Override
+    public <T> void removePublisher(final Class<T> descriptor)
+    {
+        super.removePublisher(descriptor);
+        final RingBufferWrapper<OutgoingMessageEvent> ringBuffer;
+        synchronized (ringBufferByDescriptorMap)
+        {
+            ringBuffer = ringBufferByDescriptorMap.remove(descriptor);
+        }
+        if(ringBuffer != null)
+        {
+            ringBufferFactory.releaseRingBuffer(ringBuffer);
+        }
+    }
+
+    private RingBufferWrapper<OutgoingMessageEvent> getRingBuffer(final Class<?> descriptor)
+    {
+        synchronized (ringBufferByDescriptorMap)
+        {
+            RingBufferWrapper<OutgoingMessageEvent> ringBuffer = ringBufferByDescriptorMap.get(descriptor);
+            if(ringBuffer == null)
+            {
+                ringBuffer = eventProcessorLifecycle.createRingBuffer(descriptor.getAnnotation(Remote.class).messageStoreSize());
+                ringBufferByDescriptorMap.put(descriptor, ringBuffer);
+            }
+            return ringBuffer;
+        }
+    }
+
+    private boolean isDeferred()
+    {
+        return encodingMode == BufferedEncodingMode.EVENT_PROCESSOR_THREAD;
+    }
+
+    /**
+     * Runs the event processor of each ring buffer, including those created after the system has started.
+     */
     private static final class EventProcessorLifecycleAware implements LifecycleAware
     {
-        private final List<EventProcessor> eventProcessors;
-        private volatile ExecutorService executorService;
+        private final RingBufferFactory ringBufferFactory;
+        private ExecutorService executorService;
+
+        public EventProcessorLifecycleAware(final RingBufferFactory ringBufferFactory)
+        {
+            this.ringBufferFactory = ringBufferFactory;
+        }
 
-        public EventProcessorLifecycleAware(final List<EventProcessor> eventProcessors)
+        synchronized RingBufferWrapper<OutgoingMessageEvent> createRingBuffer(final int size)
         {
-            this.eventProcessors = eventProcessors;
+            final RingBufferWrapper<OutgoingMessageEvent> ringBuffer = ringBufferFactory.createRingBuffer(size);
+            if(executorService != null)
+            {
+                executorService.submit(ringBufferFactory.getEventProcessor(ringBuffer));
+            }
+            return ringBuffer;
         }
 
         @Override
-        public void systemStarting()
+        public synchronized void systemStarting()
         {
             // TODO central control for Thread lifecycle
-            final DaemonThreadFactory threadFactory = new DaemonThreadFactory("publisher");
-            this.executorService = Executors.newFixedThreadPool(eventProcessors.size(), threadFactory);
-            for (EventProcessor eventProcessor : eventProcessors)
+            executorService = Executors.newCachedThreadPool(new DaemonThreadFactory("publisher"));
+            for (EventProcessor eventProcessor : ringBufferFactory.getEventProcessors())
             {
                 executorService.submit(eventProcessor);
             }
         }
 
         @Override
-        public void systemStopping()
+        public synchronized void systemStopping()
         {
             // TODO should halt() ringbuffers
-            executorService.shutdown();
+            if(executorService != null)
+            {
+                executorService.shutdown();
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -15,10 +15,22 @@
 //////////////////////////////////////////////////////////////////////////////////
 package com.epickrram.freewheel.remoting;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 public final class ClassNameTopicIdGenerator implements TopicIdGenerator
 {
+    private final ConcurrentMap<Integer, String> classnameByTopicIdMap = new ConcurrentHashMap<Integer, String>();
+
     public int getTopicId(final Class<?> descriptor)
     {
-        return descriptor.getName().hashCode();
+        final int topicId = descriptor.getName().hashCode();
+        final String existing = classnameByTopicIdMap.putIfAbsent(topicId, descriptor.getName());
+        if(existing != null && !existing.equals(descriptor.getName()))
+        {
+            throw new RemotingException("Topic id " + topicId + " of " + descriptor.getName() +
+                    " collides with " + existing + ", use a ManifestTopicIdGenerator to assign topic ids");
+        }
+        return topicId;
     }
 }
@@ -15,7 +15,10 @@
 //////////////////////////////////////////////////////////////////////////////////
 package com.epickrram.freewheel.remoting;
 
+import com.epickrram.freewheel.messaging.MessageHeader;
 import com.epickrram.freewheel.messaging.MessagingService;
+import com.epickrram.freewheel.messaging.config.CachedResponse;
+import com.epickrram.freewheel.messaging.config.Idempotent;
 import com.epickrram.freewheel.messaging.config.Remote;
 import com.epickrram.freewheel.protocol.CodeBook;
 import javassist.CannotCompileException;
@@ -27,10 +30,14 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
+import static com.epickrram.freewheel.remoting.MethodHelper.appendDecodeReturnValue;
+import static com.epickrram.freewheel.remoting.MethodHelper.appendDecodeReturnValueExpression;
 import static com.epickrram.freewheel.remoting.MethodHelper.appendEncodeParameterCalls;
-import static com.epickrram.freewheel.remoting.MethodHelper.appendMethodNameSuffix;
+import static com.epickrram.freewheel.remoting.MethodHelper.appendFromObject;
 import static com.epickrram.freewheel.remoting.MethodHelper.appendParameterTypes;
-import static com.epickrram.freewheel.remoting.ReflectionUtil.ensureNoPrimitiveReturnTypes;
+import static com.epickrram.freewheel.remoting.MethodHelper.appendToObject;
+import static com.epickrram.freewheel.remoting.ReflectionUtil.ensureCachedResponsesHaveResults;
+import static com.epickrram.freewheel.remoting.ReflectionUtil.ensureSupportedReturnTypes;
 import static com.epickrram.freewheel.remoting.ReflectionUtil.hasSyncMethods;
 
 public final class DirectPublisherFactory extends AbstractPublisherFactory
@@ -39,7 +46,7 @@ public final class DirectPublisherFactory extends AbstractPublisherFactory
 
     public DirectPublisherFactory(final MessagingService messagingService, final TopicIdGenerator topicIdGenerator, final CodeBook codeBook)
     {
-        super(AbstractPublisher.class.getName(), topicIdGenerator, codeBook);
+        super(AbstractPublisher.class.getName(), "DirectPublisher", topicIdGenerator, codeBook);
         this.messagingService = messagingService;
     }
 
@@ -53,25 +60,27 @@ public final class DirectPublisherFactory extends AbstractPublisherFactory
         }
         if(hasSyncMethods)
         {
-            ensureNoPrimitiveReturnTypes(descriptor);
+            ensureSupportedReturnTypes(descriptor);
         }
+        ensureCachedResponsesHaveResults(descriptor);
     }
 
     @SuppressWarnings({"unchecked"})
     @Override
     protected <T> T createPublisher(final Class<T> descriptor, final Constructor jdkConstructor) throws InstantiationException, IllegalAccessException, InvocationTargetException
     {
-        return (T) jdkConstructor.newInstance(messagingService, topicIdGenerator.getTopicId(descriptor), codeBook);
+        return (T) jdkConstructor.newInstance(messagingService, topicIdGenerator.getTopicId(descriptor), codeBook,
+                responseCacheRegistry.createResponseCaches(descriptor));
     }
 
     @Override
     protected Constructor createConstructor(final Class<?> generatedPublisherClass, final Remote definition, final Class<?> descriptor) throws NoSuchMethodException
     {
-        return generatedPublisherClass.getConstructor(new Class[]{MessagingService.class, int.class, CodeBook.class});
+        return generatedPublisherClass.getConstructor(new Class[]{MessagingService.class, int.class, CodeBook.class, ResponseCache[].class});
     }
 
     @Override
-    protected MethodInfo generateMethod(final Method method, final int methodIndex, final CtClass ctClass) throws CannotCompileException
+    protected MethodInfo generateMethod(final Method method, final int methodId, final CtClass ctClass) throws CannotCompileException
     {
         final StringBuilder methodSource = new StringBuilder();
         final boolean isSyncMethod = ReflectionUtil.isSyncMethod(method);
@@ -85,21 +94,23 @@ public final class DirectPublisherFactory extends AbstractPublisherFactory
         methodSource.append(") {").
                 append("\ntry {\n").
                 append("final ByteArrayOutputStream buffer = getOutputStream();\n").
-                append("final EncoderStream encoderStream = new PackerEncoderStream(getCodeBook(), new MessagePackPacker(buffer));\n").
-                append("encoderStream.writeInt(getTopicId());\n").
-                append("encoderStream.writeByte((byte) ").
-                append(methodIndex).
-                append(");\n");
+                append("writeHeader(buffer, ").append(methodId).append(", ").
+                append(getFlags(method, isSyncMethod)).append(");\n").
+                append("final EncoderStream encoderStream = new PackerEncoderStream(getCodeBook(), new MessagePackPacker(buffer));\n");
 
         appendEncodeParameterCalls(methodSource, parameterTypes);
 
         if (isSyncMethod)
         {
-            methodSource.append("final DecoderStream decoderStream = getMessagingService().sendAndWait(getTopicId(), buffer);\n");
-            methodSource.append("return (").append(returnType.getName()).append(") ");
-            methodSource.append("decoderStream.read");
-            appendMethodNameSuffix(returnType, methodSource);
-            methodSource.append("();");
+            if(method.isAnnotationPresent(CachedResponse.class))
+            {
+                appendCachedSendAndWait(methodSource, methodId, returnType);
+            }
+            else
+            {
+                methodSource.append("final DecoderStream decoderStream = getMessagingService().sendAndWait(getTopicId(), buffer);\n");
+                appendDecodeReturnValue(methodSource, returnType);
+            }
         }
         else
         {
@@ -112,4 +123,31 @@ public final class DirectPublisherFactory extends AbstractPublisherFactory
 
         return CtNewMethod.make(methodSource.toString(), ctClass).getMethodInfo();
     }
-}
\ No newline at end of file
+
+    private static int getFlags(final Method method, final boolean isSyncMethod)
+    {
+        if(!isSyncMethod)
+        {
+            return 0;
+        }
+        final boolean idempotent = method.isAnnotationPresent(Idempotent.class) ||
+                method.isAnnotationPresent(CachedResponse.class);
+        return idempotent ? MessageHeader.FLAG_SYNC | MessageHeader.FLAG_IDEMPOTENT : MessageHeader.FLAG_SYNC;
+    }
+
+    private static void appendCachedSendAndWait(final StringBuilder methodSource, final int methodId, final Class<?> returnType)
+    {
+        methodSource.append("final ResponseCache responseCache = getResponseCache(").append(methodId).append(");\n").
+                append("final Object cacheKey = responseCache.keyFor(buffer);\n").
+                append("final Object cachedResult = responseCache.get(cacheKey);\n").
+                append("if (cachedResult != ResponseCache.MISS) {\nreturn ");
+        appendFromObject(methodSource, returnType, "cachedResult");
+        methodSource.append(";\n}\n").
+                append("final DecoderStream decoderStream = getMessagingService().sendAndWait(getTopicId(), buffer);\n").
+                append("final ").append(returnType.getName()).append(" result = ");
+        appendDecodeReturnValueExpression(methodSource, returnType);
+        methodSource.append(";\nresponseCache.put(cacheKey, ");
+        appendToObject(methodSource, returnType, "result");
+        methodSource.append(");\nreturn result;");
+    }
+}
@@ -0,0 +1,51 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import javassist.ClassPool;
+import javassist.LoaderClassPath;
+
+public final class GeneratedClassPool
+{
+    private static final ClassPool SHARED_CLASS_POOL = createSharedClassPool();
+
+    private GeneratedClassPool()
+    {
+    }
+
+    /**
+     * Each generation gets its own child pool for the classes it creates; class path lookups and
+     * the CtClass cache for existing classes are shared through the parent.
+     */
+    public static ClassPool newClassPool(final String... importedPackages)
+    {
+        final ClassPool classPool = new ClassPool(SHARED_CLASS_POOL);
+        for (String importedPackage : importedPackages)
+        {
+            classPool.importPackage(importedPackage);
+        }
+        return classPool;
+    }
+
+    private static ClassPool createSharedClassPool()
+    {
+        final ClassPool classPool = new ClassPool(ClassPool.getDefault());
+        classPool.appendClassPath(new LoaderClassPath(Thread.currentThread().getContextClassLoader()));
+        classPool.appendClassPath(new LoaderClassPath(GeneratedClassPool.class.getClassLoader()));
+        classPool.appendClassPath(new LoaderClassPath(ClassLoader.getSystemClassLoader()));
+        return classPool;
+    }
+}
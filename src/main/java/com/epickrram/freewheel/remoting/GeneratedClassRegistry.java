@@ -16,13 +16,11 @@
 
 package com.epickrram.freewheel.remoting;
 
+import com.epickrram.freewheel.util.Memoizer;
+
 import java.lang.reflect.Constructor;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 public final class GeneratedClassRegistry
 {
-    // TODO replace with Memoizer
-    static final Map<Class<?>, Constructor> CONSTRUCTOR_MAP =
-            new ConcurrentHashMap<Class<?>, Constructor>();
+    static final Memoizer<String, Constructor> CONSTRUCTOR_MAP = new Memoizer<String, Constructor>();
 }
@@ -0,0 +1,107 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import com.epickrram.freewheel.protocol.CodeBookImpl;
+import javassist.CannotCompileException;
+import javassist.CtClass;
+import javassist.NotFoundException;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import static com.epickrram.freewheel.remoting.ReflectionUtil.hasSyncMethods;
+
+/**
+ * Writes the publisher and subscriber classes for a set of @Remote interfaces to a class output directory,
+ * so that they can be packaged with the application instead of being generated at startup.
+ *
+ * Usage: GeneratedClassWriter &lt;output-directory&gt; &lt;interface-classname&gt;...
+ */
+public final class GeneratedClassWriter
+{
+    private static final Logger LOGGER = Logger.getLogger(GeneratedClassWriter.class.getName());
+
+    private final String outputDirectory;
+    private final DirectPublisherFactory directPublisherFactory;
+    private final BufferedPublisherFactory bufferedPublisherFactory;
+
+    public GeneratedClassWriter(final String outputDirectory)
+    {
+        this.outputDirectory = outputDirectory;
+        final ClassNameTopicIdGenerator topicIdGenerator = new ClassNameTopicIdGenerator();
+        final CodeBookImpl codeBook = new CodeBookImpl();
+        directPublisherFactory = new DirectPublisherFactory(null, topicIdGenerator, codeBook);
+        bufferedPublisherFactory = new BufferedPublisherFactory(new RingBufferFactoryImpl(null, null), topicIdGenerator, codeBook);
+    }
+
+    public <T> void writeClasses(final Class<T> descriptor) throws RemotingException
+    {
+        try
+        {
+            write(directPublisherFactory.generatePublisherClass(descriptor));
+            if(!hasSyncMethods(descriptor))
+            {
+                write(bufferedPublisherFactory.generatePublisherClass(descriptor));
+            }
+            final GeneratedSubscriberClassProvider<T> subscriberClassProvider = new GeneratedSubscriberClassProvider<T>(
+                    SubscriberFactory.getGeneratedClassname(descriptor, SubscriberDispatchMode.INVOKER_ARRAY), descriptor);
+            for (CtClass ctClass : subscriberClassProvider.generateClasses())
+            {
+                write(ctClass);
+            }
+            final SwitchSubscriberClassProvider<T> switchSubscriberClassProvider = new SwitchSubscriberClassProvider<T>(
+                    SubscriberFactory.getGeneratedClassname(descriptor, SubscriberDispatchMode.SWITCH), descriptor);
+            for (CtClass ctClass : switchSubscriberClassProvider.generateClasses())
+            {
+                write(ctClass);
+            }
+        }
+        catch (NotFoundException e)
+        {
+            throw new RemotingException("Unable to generate classes for " + descriptor.getName(), e);
+        }
+        catch (CannotCompileException e)
+        {
+            throw new RemotingException("Unable to generate classes for " + descriptor.getName(), e);
+        }
+        catch (IOException e)
+        {
+            throw new RemotingException("Unable to write classes for " + descriptor.getName(), e);
+        }
+    }
+
+    private void write(final CtClass ctClass) throws CannotCompileException, IOException
+    {
+        ctClass.writeFile(outputDirectory);
+        LOGGER.fine("Wrote " + ctClass.getName() + " to " + outputDirectory);
+    }
+
+    public static void main(final String[] args) throws Exception
+    {
+        if(args.length < 2)
+        {
+            System.err.println("Usage: " + GeneratedClassWriter.class.getSimpleName() +
+                    " <output-directory> <interface-classname>...");
+            System.exit(1);
+        }
+        final GeneratedClassWriter writer = new GeneratedClassWriter(args[0]);
+        for(int i = 1; i < args.length; i++)
+        {
+            writer.writeClasses(Class.forName(args[i]));
+        }
+    }
+}
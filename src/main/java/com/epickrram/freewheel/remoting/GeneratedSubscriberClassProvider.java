@@ -29,40 +29,37 @@ import javassist.Modifier;
 import javassist.NotFoundException;
 
 import java.lang.reflect.Method;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 final class GeneratedSubscriberClassProvider<T> implements Provider<String, Class>
 {
     private final String subscriberClassname;
-    private final ClassPool classPool;
-    private final String descriptorClassname;
-    private final String invokerInterfaceName;
-    private final CtClass invokerInterfaceClass;
     private final Class<T> descriptor;
 
-    public GeneratedSubscriberClassProvider(final String subscriberClassname, final ClassPool classPool,
-                                            final String descriptorClassname, final String invokerInterfaceName,
-                                            final CtClass invokerInterfaceClass, final Class<T> descriptor)
+    public GeneratedSubscriberClassProvider(final String subscriberClassname, final Class<T> descriptor)
     {
         this.subscriberClassname = subscriberClassname;
-        this.classPool = classPool;
-        this.descriptorClassname = descriptorClassname;
-        this.invokerInterfaceName = invokerInterfaceName;
-        this.invokerInterfaceClass = invokerInterfaceClass;
         this.descriptor = descriptor;
     }
 
     @Override
     public Class provide(final String key)
     {
+        final Class<?> prebuiltClass = PrebuiltClasses.find(subscriberClassname, descriptor);
+        if(prebuiltClass != null)
+        {
+            return prebuiltClass;
+        }
         try
         {
-            final CtClass ctClass = createSubscriberClass(subscriberClassname, classPool, descriptorClassname, invokerInterfaceName, invokerInterfaceClass);
-            createConstructor(descriptor, subscriberClassname, classPool, ctClass, invokerInterfaceName);
-            createReceiveMethod(ctClass);
-            createSyncReceiveMethod(ctClass);
-            return ctClass.toClass();
+            Class generatedClass = null;
+            for (CtClass ctClass : generateClasses())
+            {
+                generatedClass = ctClass.toClass();
+            }
+            return generatedClass;
         }
         catch (NotFoundException e)
         {
@@ -74,19 +71,44 @@ final class GeneratedSubscriberClassProvider<T> implements Provider<String, Clas
         }
     }
 
+    /**
+     * @return the invoker interface, the per-method invokers and the subscriber class, in load order
+     */
+    List<CtClass> generateClasses() throws NotFoundException, CannotCompileException
+    {
+        final ClassPool classPool = GeneratedClassPool.newClassPool("com.epickrram.freewheel.messaging",
+                "com.epickrram.freewheel.io", "com.epickrram.freewheel.stream", "com.epickrram.freewheel.remoting");
+
+        final String descriptorClassname = SubscriberFactory.classDefinitionToClassname(descriptor);
+        final String invokerInterfaceName = descriptorClassname + "Invoker";
+        final CtClass invokerInterfaceClass = classPool.makeInterface(invokerInterfaceName);
+
+        final List<CtClass> generatedClasses = new ArrayList<CtClass>();
+        generatedClasses.add(invokerInterfaceClass);
+        final CtClass ctClass = createSubscriberClass(subscriberClassname, classPool, descriptorClassname, invokerInterfaceName, invokerInterfaceClass);
+        createConstructor(descriptor, subscriberClassname, classPool, ctClass, invokerInterfaceName, generatedClasses);
+        createReceiveMethod(ctClass);
+        createSyncReceiveMethod(ctClass);
+        createEncodingSyncReceiveMethod(ctClass);
+        generatedClasses.add(ctClass);
+        return generatedClasses;
+    }
+
     private CtClass createSubscriberClass(final String subscriberClassname, final ClassPool classPool, final String descriptorClassname,
                                           final String invokerInterfaceName, final CtClass invokerInterfaceClass)
             throws NotFoundException, CannotCompileException
     {
         final CtClass ctClass = classPool.makeClass(subscriberClassname);
-        ctClass.addInterface(classPool.get("com.epickrram.freewheel.messaging.Receiver"));
+        ctClass.addInterface(classPool.get("com.epickrram.freewheel.messaging.EncodingReceiver"));
         final String asyncMethodSrc = "public void invoke(" + descriptorClassname + " implementation, " +
                 "DecoderStream decoderStream);";
         final String syncMethodSrc = "public Object invokeSync(" + descriptorClassname + " implementation, " +
                 "DecoderStream decoderStream);";
+        final String encodingSyncMethodSrc = "public void invokeAndEncode(" + descriptorClassname + " implementation, " +
+                "DecoderStream decoderStream, EncoderStream encoderStream);";
         invokerInterfaceClass.addMethod(CtMethod.make(asyncMethodSrc, invokerInterfaceClass));
         invokerInterfaceClass.addMethod(CtMethod.make(syncMethodSrc, invokerInterfaceClass));
-        invokerInterfaceClass.toClass();
+        invokerInterfaceClass.addMethod(CtMethod.make(encodingSyncMethodSrc, invokerInterfaceClass));
 
         ctClass.setModifiers(Modifier.PUBLIC | Modifier.FINAL);
         final String invokerArray = "private final " + invokerInterfaceName + "[] invokers;";
@@ -97,20 +119,22 @@ final class GeneratedSubscriberClassProvider<T> implements Provider<String, Clas
     }
 
     private <T> void createConstructor(final Class<T> descriptor, final String subscriberClassname, final ClassPool classPool,
-                                       final CtClass ctClass, final String invokerInterfaceName)
+                                       final CtClass ctClass, final String invokerInterfaceName,
+                                       final List<CtClass> generatedClasses)
             throws NotFoundException, CannotCompileException
     {
-        final Method[] methods = descriptor.getDeclaredMethods();
-        Arrays.sort(methods, new MethodNameComparator());
-        final CtClass[] methodInvokers = new CtClass[methods.length];
+        final RemoteInterfaceSchema schema = RemoteInterfaceSchema.forDescriptor(descriptor);
+        final Method[] methods = schema.getMethods();
         final StringBuilder constructorBody = new StringBuilder("{ implementation = $1; invokers = new ").
-                append(invokerInterfaceName).append("[").append(methods.length).append("];");
+                append(invokerInterfaceName).append("[").append(schema.getMaxMethodId() + 1).append("];");
         for (int methodIndex = 0; methodIndex < methods.length; methodIndex++)
         {
             final Method method = methods[methodIndex];
-            methodInvokers[methodIndex] = generateMethodInvoker(methodIndex, method, classPool, subscriberClassname, descriptor, invokerInterfaceName);
-            constructorBody.append("invokers[").append(methodIndex).append("] = new ").
-                    append(methodInvokers[methodIndex].getName().replace('$', '.')).append("();\n");
+            final int methodId = schema.getMethodId(methodIndex);
+            final CtClass methodInvoker = generateMethodInvoker(methodId, method, classPool, subscriberClassname, descriptor, invokerInterfaceName);
+            generatedClasses.add(methodInvoker);
+            constructorBody.append("invokers[").append(methodId).append("] = new ").
+                    append(methodInvoker.getName().replace('$', '.')).append("();\n");
         }
         constructorBody.append("}");
 
@@ -119,97 +143,70 @@ final class GeneratedSubscriberClassProvider<T> implements Provider<String, Clas
         ctClass.addConstructor(ctConstructor);
     }
 
-    private <T> CtClass generateMethodInvoker(final int methodIndex, final Method method, final ClassPool classPool,
+    private <T> CtClass generateMethodInvoker(final int methodId, final Method method, final ClassPool classPool,
                                               final String generatedClassname, final Class<T> descriptor, final String invokerInterfaceName)
             throws NotFoundException, CannotCompileException
     {
         final boolean isSyncMethod = ReflectionUtil.isSyncMethod(method);
 
-        final String invokerClassname = generatedClassname + "Invoker" + methodIndex;
+        final String invokerClassname = generatedClassname + "Invoker" + methodId;
         final CtClass ctClass = classPool.makeClass(invokerClassname);
         ctClass.addInterface(classPool.getCtClass(invokerInterfaceName));
-        final StringBuilder methodSource = new StringBuilder("public ");
-        if(isSyncMethod)
-        {
-            methodSource.append("Object invokeSync(");
-        }
-        else
-        {
-            methodSource.append("void invoke(");
-        }
-        methodSource.append(SubscriberFactory.classDefinitionToClassname(descriptor)).
-                append(" implementation, DecoderStream decoderStream) {\n");
+        final String descriptorClassname = SubscriberFactory.classDefinitionToClassname(descriptor);
         final Class<?>[] parameterTypes = method.getParameterTypes();
-        char parameterId = 'a';
-        for (final Class<?> parameterType : parameterTypes)
+        final StringBuilder invocation = new StringBuilder("implementation.").append(method.getName()).append("(");
+        MethodHelper.appendArguments(invocation, parameterTypes.length, "arg");
+        invocation.append(")");
+
+        final StringBuilder methodSource = new StringBuilder();
+        methodSource.append("public void invoke(").append(descriptorClassname).
+                append(" implementation, DecoderStream decoderStream) {\n");
+        if(!isSyncMethod)
         {
-            if (parameterType.equals(int.class))
-            {
-                methodSource.append("final int ").append((parameterId++)).append(" = decoderStream.readInt();\n");
-            }
-            else if (parameterType.equals(long.class))
-            {
-                methodSource.append("final long ").append((parameterId++)).append(" = decoderStream.readLong();\n");
-            }
-            else if (parameterType.equals(byte.class))
-            {
-                methodSource.append("final byte ").append((parameterId++)).append(" = decoderStream.readByte();\n");
-            }
-            else if (parameterType.equals(String.class))
-            {
-                methodSource.append("final String ").append((parameterId++)).append(" = decoderStream.readString();\n");
-            }
-            else
-            {
-                methodSource.append("final ").append(parameterType.getName()).append(" ").
-                        append((parameterId++)).append(" = (").append(parameterType.getName()).
-                        append(") decoderStream.readObject();\n");
-            }
+            MethodHelper.appendDecodeParameterCalls(methodSource, parameterTypes, "arg");
+            methodSource.append(invocation).append(";\n");
         }
+        methodSource.append("}\n");
+        ctClass.addMethod(CtMethod.make(methodSource.toString(), ctClass));
 
+        methodSource.setLength(0);
+        methodSource.append("public Object invokeSync(").append(descriptorClassname).
+                append(" implementation, DecoderStream decoderStream) {\n");
         if(isSyncMethod)
         {
-            methodSource.append("return ");
+            MethodHelper.appendDecodeParameterCalls(methodSource, parameterTypes, "arg");
+            MethodHelper.appendReturnAsObject(methodSource, method.getReturnType(), invocation.toString());
         }
-        methodSource.append("implementation.").append(method.getName()).append("(");
-        parameterId = 'a';
-        for (int i = 0; i < parameterTypes.length; i++)
+        else
         {
-            if (i != 0)
-            {
-                methodSource.append(", ");
-            }
-            methodSource.append((parameterId++));
+            methodSource.append("return null;\n");
         }
-        methodSource.append(");}\n");
-
+        methodSource.append("}\n");
         ctClass.addMethod(CtMethod.make(methodSource.toString(), ctClass));
 
         methodSource.setLength(0);
-        if(!isSyncMethod)
-        {
-            methodSource.append("Object invokeSync(");
-            methodSource.append(SubscriberFactory.classDefinitionToClassname(descriptor)).
-                append(" implementation, DecoderStream decoderStream) {\nreturn null;\n}\n");
-        }
-        else
+        methodSource.append("public void invokeAndEncode(").append(descriptorClassname).
+                append(" implementation, DecoderStream decoderStream, EncoderStream encoderStream) {\n");
+        if(isSyncMethod)
         {
-            methodSource.append("void invoke(");
-            methodSource.append(SubscriberFactory.classDefinitionToClassname(descriptor)).
-                append(" implementation, DecoderStream decoderStream) {\n}\n");
+            MethodHelper.appendDecodeParameterCalls(methodSource, parameterTypes, "arg");
+            MethodHelper.appendEncodeReturnValue(methodSource, method.getReturnType(), invocation.toString());
         }
+        methodSource.append("}\n");
         ctClass.addMethod(CtMethod.make(methodSource.toString(), ctClass));
 
         ctClass.addConstructor(CtNewConstructor.defaultConstructor(ctClass));
-        ctClass.toClass();
         return ctClass;
     }
 
     private void createReceiveMethod(final CtClass ctClass) throws CannotCompileException
     {
-        final String invocation = "public void onMessage(int topicId, DecoderStream decoderStream) {\n" +
-                " int methodIndex = decoderStream.readByte();\n" +
-                " invokers[methodIndex].invoke(implementation, decoderStream);\n" +
+        final String invocation = "public void onMessage(int topicId, int methodId, DecoderStream decoderStream) {\n" +
+                " if (methodId >= invokers.length || invokers[methodId] == null) {\n" +
+                "  RemoteInterfaceSchema.unknownMethod(topicId, methodId);\n" +
+                "  return;\n" +
+                " }\n" +
+                " invokers[methodId].invoke(implementation, decoderStream);\n" +
                 "}\n";
 
         ctClass.addMethod(CtMethod.make(invocation, ctClass));
@@ -217,9 +214,27 @@ final class GeneratedSubscriberClassProvider<T> implements Provider<String, Clas
 
     private void createSyncReceiveMethod(final CtClass ctClass) throws CannotCompileException
     {
-        final String invocation = "public Object onSyncMessage(int topicId, DecoderStream decoderStream) {\n" +
-                " int methodIndex = decoderStream.readByte();\n" +
-                " return invokers[methodIndex].invokeSync(implementation, decoderStream);\n" +
+        final String invocation = "public Object onSyncMessage(int topicId, int methodId, DecoderStream decoderStream) {\n" +
+                " if (methodId >= invokers.length || invokers[methodId] == null) {\n" +
+                "  RemoteInterfaceSchema.unknownMethod(topicId, methodId);\n" +
+                "  return null;\n" +
+                " }\n" +
+                " return invokers[methodId].invokeSync(implementation, decoderStream);\n" +
+                "}\n";
+
+        ctClass.addMethod(CtMethod.make(invocation, ctClass));
+    }
+
+    private void createEncodingSyncReceiveMethod(final CtClass ctClass) throws CannotCompileException
+    {
+        final String invocation = "public void onSyncMessage(int topicId, int methodId, DecoderStream decoderStream, " +
+                "EncoderStream encoderStream) {\n" +
+                " if (methodId >= invokers.length || invokers[methodId] == null) {\n" +
+                "  RemoteInterfaceSchema.unknownMethod(topicId, methodId);\n" +
+                "  encoderStream.writeObject(null);\n" +
+                "  return;\n" +
+                " }\n" +
+                " invokers[methodId].invokeAndEncode(implementation, decoderStream, encoderStream);\n" +
                 "}\n";
 
         ctClass.addMethod(CtMethod.make(invocation, ctClass));
@@ -0,0 +1,118 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.epickrram.freewheel.util.IoUtil.close;
+
+/**
+ * Assigns small, dense topic ids from a manifest shared by all peers, so that ids cannot collide and
+ * receivers can be looked up by index.
+ *
+ * The manifest is either an ordered list of interface names, or a classpath resource with lines of the
+ * form <code>topic.com.example.Interface=3</code>.
+ */
+public final class ManifestTopicIdGenerator implements TopicIdGenerator
+{
+    static final int MAX_TOPIC_ID = 255;
+    private static final String TOPIC_PREFIX = "topic.";
+
+    private final Map<String, Integer> topicIdByClassnameMap = new HashMap<String, Integer>();
+    private final String[] classnameByTopicId = new String[MAX_TOPIC_ID + 1];
+
+    public ManifestTopicIdGenerator(final List<String> classnames)
+    {
+        for (int i = 0; i < classnames.size(); i++)
+        {
+            addTopic(classnames.get(i), i);
+        }
+    }
+
+    public ManifestTopicIdGenerator(final String resourceName)
+    {
+        final InputStream inputStream = Thread.currentThread().getContextClassLoader().
+                getResourceAsStream(resourceName);
+        if(inputStream == null)
+        {
+            throw new IllegalArgumentException("Cannot find classpath resource: " + resourceName);
+        }
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(inputStream));
+            String line;
+            while((line = reader.readLine()) != null)
+            {
+                line = line.trim();
+                if(line.startsWith(TOPIC_PREFIX))
+                {
+                    final int separatorIndex = line.indexOf('=');
+                    addTopic(line.substring(TOPIC_PREFIX.length(), separatorIndex).trim(),
+                            Integer.parseInt(line.substring(separatorIndex + 1).trim()));
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to read from classpath resource", e);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Cannot parse topic id", e);
+        }
+        finally
+        {
+            close(reader);
+        }
+    }
+
+    @Override
+    public int getTopicId(final Class<?> descriptor)
+    {
+        final Integer topicId = topicIdByClassnameMap.get(descriptor.getName());
+        if(topicId == null)
+        {
+            throw new RemotingException("No topic id assigned to " + descriptor.getName() + " in topic manifest");
+        }
+        return topicId;
+    }
+
+    private void addTopic(final String classname, final int topicId)
+    {
+        if(topicId < 0 || topicId > MAX_TOPIC_ID)
+        {
+            throw new RemotingException("Topic id " + topicId + " of " + classname + " is outside the range 0-" + MAX_TOPIC_ID);
+        }
+        if(classnameByTopicId[topicId] != null)
+        {
+            throw new RemotingException("Topic id " + topicId + " is assigned to both " + classnameByTopicId[topicId] +
+                    " and " + classname);
+        }
+        if(topicIdByClassnameMap.containsKey(classname))
+        {
+            throw new RemotingException("Topic manifest contains " + classname + " more than once");
+        }
+        classnameByTopicId[topicId] = classname;
+        topicIdByClassnameMap.put(classname, topicId);
+    }
+}
@@ -31,6 +31,116 @@ public final class MethodHelper
         }
     }
 
+    /**
+     * Appends statements that copy each parameter into the messageEvent argument slot at its index;
+     * primitives are stored by value and everything else by reference.
+     */
+    static void appendCaptureParameterCalls(final StringBuilder methodSource, final Class<?>[] parameterTypes)
+    {
+        char id = 'a';
+        for (int i = 0, n = parameterTypes.length; i < n; i++)
+        {
+            final Class<?> parameterType = parameterTypes[i];
+            methodSource.append("messageEvent.set");
+            appendArgumentSlotSuffix(parameterType, methodSource);
+            methodSource.append("Argument(").append(i).append(", ");
+            if(parameterType.isPrimitive() && !hasTypedArgumentAccessors(parameterType))
+            {
+                methodSource.append("(long) ");
+            }
+            else if(!parameterType.isPrimitive())
+            {
+                methodSource.append("(Object) ");
+            }
+            methodSource.append(id++).append(");\n");
+        }
+    }
+
+    /**
+     * Appends statements that write the arguments captured by appendCaptureParameterCalls from event to encoderStream,
+     * producing the same encoding as appendEncodeParameterCalls.
+     */
+    static void appendEncodeCapturedParameterCalls(final StringBuilder methodSource, final Class<?>[] parameterTypes)
+    {
+        for (int i = 0, n = parameterTypes.length; i < n; i++)
+        {
+            final Class<?> parameterType = parameterTypes[i];
+            methodSource.append("encoderStream.write");
+            appendMethodNameSuffix(parameterType, methodSource);
+            methodSource.append("(");
+            if(String.class == parameterType || (parameterType.isPrimitive() && !hasTypedArgumentAccessors(parameterType)))
+            {
+                methodSource.append("(").append(parameterType.getName()).append(") ");
+            }
+            methodSource.append("event.get");
+            appendArgumentSlotSuffix(parameterType, methodSource);
+            methodSource.append("Argument(").append(i).append("));\n");
+        }
+    }
+
+    private static void appendArgumentSlotSuffix(final Class<?> type, final StringBuilder source)
+    {
+        if(hasTypedArgumentAccessors(type))
+        {
+            appendMethodNameSuffix(type, source);
+        }
+        else
+        {
+            source.append(type.isPrimitive() ? "Primitive" : "Reference");
+        }
+    }
+
+    /**
+     * boolean, float and double have their own argument slot accessors; other primitives are widened to long.
+     */
+    private static boolean hasTypedArgumentAccessors(final Class<?> type)
+    {
+        return boolean.class == type || float.class == type || double.class == type;
+    }
+
+    static void appendDecodeParameterCalls(final StringBuilder methodSource, final Class<?>[] parameterTypes,
+                                           final String variablePrefix)
+    {
+        for (int i = 0, n = parameterTypes.length; i < n; i++)
+        {
+            final Class<?> parameterType = parameterTypes[i];
+            if (parameterType.equals(int.class))
+            {
+                methodSource.append("final int ").append(variablePrefix).append(i).append(" = decoderStream.readInt();\n");
+            }
+            else if (parameterType.equals(long.class))
+            {
+                methodSource.append("final long ").append(variablePrefix).append(i).append(" = decoderStream.readLong();\n");
+            }
+            else if (parameterType.equals(byte.class))
+            {
+                methodSource.append("final byte ").append(variablePrefix).append(i).append(" = decoderStream.readByte();\n");
+            }
+            else if (parameterType.equals(String.class))
+            {
+                methodSource.append("final String ").append(variablePrefix).append(i).append(" = decoderStream.readString();\n");
+            }
+            else
+            {
+                methodSource.append("final ").append(parameterType.getName()).append(" ").
+                        append(variablePrefix).append(i).append(" = (").append(parameterType.getName()).
+                        append(") decoderStream.readObject();\n");
+            }
+        }
+    }
+
+    static void appendArguments(final StringBuilder methodSource, final int parameterCount, final String variablePrefix)
+    {
+        for (int i = 0; i < parameterCount; i++)
+        {
+            if (i != 0)
+            {
+                methodSource.append(", ");
+            }
+            methodSource.append(variablePrefix).append(i);
+        }
+    }
+
     static void appendParameterTypes(final StringBuilder methodSource, final Class<?>[] parameterTypes)
     {
         char id = 'a';
@@ -51,6 +161,124 @@ public final class MethodHelper
         methodSource.append("(").append(parameterName).append(");");
     }
 
+    /**
+     * Appends statements that write the result of invocation to encoderStream, specialised on the declared return type.
+     */
+    static void appendEncodeReturnValue(final StringBuilder methodSource, final Class<?> returnType, final String invocation)
+    {
+        final String boxedSuffix = ReturnValueCodec.getBoxedSuffix(returnType);
+        if(void.class == returnType || Void.class == returnType)
+        {
+            methodSource.append(invocation).append(";\n");
+        }
+        else if(returnType.isPrimitive() || String.class == returnType)
+        {
+            methodSource.append("encoderStream.write");
+            appendMethodNameSuffix(returnType, methodSource);
+            methodSource.append("(").append(invocation).append(");\n");
+        }
+        else if(boxedSuffix != null)
+        {
+            methodSource.append("ReturnValueCodec.writeBoxed").append(boxedSuffix).
+                    append("(encoderStream, (Object) ").append(invocation).append(");\n");
+        }
+        else
+        {
+            methodSource.append("encoderStream.writeObject(").append(invocation).append(");\n");
+        }
+    }
+
+    /**
+     * Appends a statement that reads a value written by appendEncodeReturnValue from decoderStream and returns it.
+     */
+    static void appendDecodeReturnValue(final StringBuilder methodSource, final Class<?> returnType)
+    {
+        if(void.class == returnType)
+        {
+            return;
+        }
+        methodSource.append("return ");
+        appendDecodeReturnValueExpression(methodSource, returnType);
+        methodSource.append(";");
+    }
+
+    /**
+     * Appends an expression that reads a value written by appendEncodeReturnValue from decoderStream.
+     */
+    static void appendDecodeReturnValueExpression(final StringBuilder methodSource, final Class<?> returnType)
+    {
+        final String boxedSuffix = ReturnValueCodec.getBoxedSuffix(returnType);
+        if(Void.class == returnType)
+        {
+            methodSource.append("null");
+        }
+        else if(returnType.isPrimitive() || String.class == returnType)
+        {
+            methodSource.append("decoderStream.read");
+            appendMethodNameSuffix(returnType, methodSource);
+            methodSource.append("()");
+        }
+        else if(boxedSuffix != null)
+        {
+            methodSource.append("(").append(returnType.getName()).append(") ReturnValueCodec.readBoxed").
+                    append(boxedSuffix).append("(decoderStream)");
+        }
+        else
+        {
+            methodSource.append("(").append(returnType.getName()).append(") decoderStream.readObject()");
+        }
+    }
+
+    /**
+     * Appends an expression that converts a non-void value to an Object, boxing primitives.
+     */
+    static void appendToObject(final StringBuilder methodSource, final Class<?> type, final String value)
+    {
+        if(type.isPrimitive())
+        {
+            methodSource.append("ReturnValueCodec.box(").append(value).append(")");
+        }
+        else
+        {
+            methodSource.append("(Object) ").append(value);
+        }
+    }
+
+    /**
+     * Appends an expression that converts an Object produced by appendToObject back to type.
+     */
+    static void appendFromObject(final StringBuilder methodSource, final Class<?> type, final String value)
+    {
+        if(type.isPrimitive())
+        {
+            methodSource.append("((").append(ReturnValueCodec.getWrapperType(type).getName()).append(") ").append(value).append(").").
+                    append(type.getName()).append("Value()");
+        }
+        else
+        {
+            methodSource.append("(").append(type.getName()).append(") ").append(value);
+        }
+    }
+
+    /**
+     * Appends statements that return the result of invocation as an Object, or null for a void method.
+     */
+    static void appendReturnAsObject(final StringBuilder methodSource, final Class<?> returnType, final String invocation)
+    {
+        if(void.class == returnType)
+        {
+            methodSource.append(invocation).append(";\nreturn null;\n");
+        }
+        else if(returnType.isPrimitive())
+        {
+            methodSource.append("return ReturnValueCodec.box(").append(invocation).append(");\n");
+        }
+        else
+        {
+            methodSource.append("return ").append(invocation).append(";\n");
+        }
+    }
+
     static void appendMethodNameSuffix(final Class<?> type, final StringBuilder source)
     {
         if (boolean.class == type)
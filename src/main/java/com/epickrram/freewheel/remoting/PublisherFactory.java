@@ -25,5 +25,17 @@ public interface PublisherFactory
     @SuppressWarnings({"unchecked"})
     <T> T createPublisher(Class<T> descriptor) throws RemotingException;
 
+    <T> void preparePublisher(Class<T> descriptor) throws RemotingException;
+
+    /**
+     * Releases what this factory holds for publishers of descriptor, such as their response caches.
+     */
+    <T> void removePublisher(Class<T> descriptor);
+
     Collection<LifecycleAware> getLifecycleAwareCollection();
+
+    /**
+     * @return the receiver of invalidations for the response caches of publishers created by this factory
+     */
+    ResponseCacheInvalidation getResponseCacheInvalidation();
 }
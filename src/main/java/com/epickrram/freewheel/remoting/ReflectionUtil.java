@@ -16,6 +16,8 @@
 
 package com.epickrram.freewheel.remoting;
 
+import com.epickrram.freewheel.messaging.config.CachedResponse;
+
 import java.lang.reflect.Method;
 
 public final class ReflectionUtil
@@ -26,15 +28,27 @@ public final class ReflectionUtil
                 method.getExceptionTypes().length != 0;
     }
 
-    public static <T> void ensureNoPrimitiveReturnTypes(final Class<T> descriptor)
+    public static <T> void ensureSupportedReturnTypes(final Class<T> descriptor)
     {
         final Method[] methods = descriptor.getMethods();
         for (Method method : methods)
         {
-            if(method.getReturnType().isPrimitive() && method.getReturnType() != void.class && method.getReturnType() != Void.class)
+            if(!ReturnValueCodec.isSupportedReturnType(method.getReturnType()))
+            {
+                throw new IllegalArgumentException(String.format("Return type %s of method %s is not supported. Use int or a wrapper type.",
+                        method.getReturnType().getName(), method.getName()));
+            }
+        }
+    }
+
+    public static <T> void ensureCachedResponsesHaveResults(final Class<T> descriptor)
+    {
+        for (Method method : descriptor.getMethods())
+        {
+            if(method.isAnnotationPresent(CachedResponse.class) &&
+               (method.getReturnType() == void.class || method.getReturnType() == Void.class))
             {
-                throw new IllegalArgumentException(String.format("Primitive return types are not currently supported. Use a wrapper type for method %s, returning %s.",
-                        method.getName(), method.getReturnType().getName()));
+                throw new IllegalArgumentException(String.format("Method %s has no result to cache", method.getName()));
             }
         }
     }
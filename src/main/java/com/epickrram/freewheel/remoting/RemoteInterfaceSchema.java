@@ -0,0 +1,262 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.config.MethodId;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.epickrram.freewheel.remoting.MethodNameComparator.METHOD_COMPARATOR;
+
+/**
+ * The wire-level view of a remote interface: the id each method is encoded with and a fingerprint of
+ * the method signatures that peers compare when a connection is set up.
+ *
+ * Without @MethodId annotations a method's id is its position in the sorted method list, so any change
+ * to the interface re-numbers methods and peers must have identical fingerprints. With explicit ids,
+ * peers with different fingerprints can interoperate as long as every method id known to both has the
+ * same signature on both; messages for method ids that a receiver does not know about are counted and
+ * dropped.
+ */
+public final class RemoteInterfaceSchema
+{
+    private static final Logger LOGGER = Logger.getLogger(RemoteInterfaceSchema.class.getName());
+    private static final ConcurrentMap<Class<?>, RemoteInterfaceSchema> SCHEMA_BY_DESCRIPTOR_MAP =
+            new ConcurrentHashMap<Class<?>, RemoteInterfaceSchema>();
+    private static final AtomicLong UNKNOWN_METHOD_COUNT = new AtomicLong();
+    private static final int MAX_METHOD_ID = MessageHeader.MAX_METHOD_ID;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Method[] methods;
+    private final int[] methodIds;
+    private final long[] methodFingerprints;
+    private final boolean explicitMethodIds;
+    private final long fingerprint;
+
+    private RemoteInterfaceSchema(final Class<?> descriptor)
+    {
+        methods = descriptor.getDeclaredMethods();
+        Arrays.sort(methods, METHOD_COMPARATOR);
+        methodIds = new int[methods.length];
+        methodFingerprints = new long[methods.length];
+        explicitMethodIds = assignMethodIds(descriptor);
+        fingerprint = calculateFingerprints(descriptor);
+    }
+
+    public static RemoteInterfaceSchema forDescriptor(final Class<?> descriptor) throws RemotingException
+    {
+        RemoteInterfaceSchema schema = SCHEMA_BY_DESCRIPTOR_MAP.get(descriptor);
+        if(schema == null)
+        {
+            schema = new RemoteInterfaceSchema(descriptor);
+            final RemoteInterfaceSchema existing = SCHEMA_BY_DESCRIPTOR_MAP.putIfAbsent(descriptor, schema);
+            if(existing != null)
+            {
+                schema = existing;
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Called from generated subscribers when a message carries a method id they do not recognise.
+     */
+    public static void unknownMethod(final int topicId, final int methodId)
+    {
+        UNKNOWN_METHOD_COUNT.incrementAndGet();
+        if(LOGGER.isLoggable(Level.FINE))
+        {
+            LOGGER.fine("Ignoring message for unknown method id " + methodId + " on topic " + topicId);
+        }
+    }
+
+    public static long getUnknownMethodCount()
+    {
+        return UNKNOWN_METHOD_COUNT.get();
+    }
+
+    public long getFingerprint()
+    {
+        return fingerprint;
+    }
+
+    public boolean hasExplicitMethodIds()
+    {
+        return explicitMethodIds;
+    }
+
+    /**
+     * Peers are compatible if their fingerprints match or, when both use explicit method ids, if no method id
+     * is shared with a different signature. Ids added or removed on either side are allowed.
+     *
+     * @param peerMethodIds the peer's method ids, only read when both sides use explicit method ids
+     * @param peerMethodFingerprints the signature fingerprint of each of peerMethodIds
+     */
+    public boolean isCompatibleWith(final long peerFingerprint, final boolean peerHasExplicitMethodIds,
+                                    final int[] peerMethodIds, final long[] peerMethodFingerprints)
+    {
+        if(peerFingerprint == fingerprint)
+        {
+            return true;
+        }
+        if(!explicitMethodIds || !peerHasExplicitMethodIds)
+        {
+            return false;
+        }
+        for (int i = 0; i < peerMethodIds.length; i++)
+        {
+            final int methodIndex = indexOf(peerMethodIds[i]);
+            if(methodIndex != -1 && methodFingerprints[methodIndex] != peerMethodFingerprints[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getMethodCount()
+    {
+        return methods.length;
+    }
+
+    public int getMethodId(final int methodIndex)
+    {
+        return methodIds[methodIndex];
+    }
+
+    /**
+     * @return a fingerprint of the name, parameter types and return type of the method at methodIndex
+     */
+    public long getMethodFingerprint(final int methodIndex)
+    {
+        return methodFingerprints[methodIndex];
+    }
+
+    /**
+     * @return the method with methodId, or null if the descriptor has no such method
+     */
+    public Method getMethod(final int methodId)
+    {
+        final int methodIndex = indexOf(methodId);
+        return methodIndex == -1 ? null : methods[methodIndex];
+    }
+
+    Method[] getMethods()
+    {
+        return methods.clone();
+    }
+
+    int getMaxMethodId()
+    {
+        int maxMethodId = -1;
+        for (int methodId : methodIds)
+        {
+            maxMethodId = Math.max(maxMethodId, methodId);
+        }
+        return maxMethodId;
+    }
+
+    private int indexOf(final int methodId)
+    {
+        for (int i = 0; i < methodIds.length; i++)
+        {
+            if(methodIds[i] == methodId)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean assignMethodIds(final Class<?> descriptor)
+    {
+        int annotatedMethodCount = 0;
+        for (int i = 0; i < methods.length; i++)
+        {
+            final MethodId methodId = methods[i].getAnnotation(MethodId.class);
+            if(methodId != null)
+            {
+                annotatedMethodCount++;
+                methodIds[i] = methodId.value();
+            }
+            else
+            {
+                methodIds[i] = i;
+            }
+        }
+        if(annotatedMethodCount != 0 && annotatedMethodCount != methods.length)
+        {
+            throw new RemotingException("Either all or none of the methods of " + descriptor.getName() +
+                    " must be annotated with @MethodId");
+        }
+        final BitSet usedMethodIds = new BitSet();
+        for (int i = 0; i < methods.length; i++)
+        {
+            final int methodId = methodIds[i];
+            if(methodId < 0 || methodId > MAX_METHOD_ID)
+            {
+                throw new RemotingException("Method id " + methodId + " of " + methods[i].toGenericString() +
+                        " is outside the range 0-" + MAX_METHOD_ID);
+            }
+            if(usedMethodIds.get(methodId))
+            {
+                throw new RemotingException("Method id " + methodId + " is used more than once in " + descriptor.getName());
+            }
+            usedMethodIds.set(methodId);
+        }
+        return annotatedMethodCount != 0;
+    }
+
+    private long calculateFingerprints(final Class<?> descriptor)
+    {
+        final StringBuilder signature = new StringBuilder(descriptor.getName());
+        final StringBuilder methodSignature = new StringBuilder();
+        for (int i = 0; i < methods.length; i++)
+        {
+            final Method method = methods[i];
+            methodSignature.setLength(0);
+            methodSignature.append(method.getName()).append('(');
+            for (Class<?> parameterType : method.getParameterTypes())
+            {
+                methodSignature.append(parameterType.getName()).append(',');
+            }
+            methodSignature.append(')').append(method.getReturnType().getName());
+            methodFingerprints[i] = hash(methodSignature);
+            signature.append(';').append(methodIds[i]).append(':').append(methodSignature);
+        }
+        return hash(signature);
+    }
+
+    private static long hash(final CharSequence signature)
+    {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0, n = signature.length(); i < n; i++)
+        {
+            hash ^= signature.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
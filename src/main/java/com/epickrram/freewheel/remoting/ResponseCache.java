@@ -0,0 +1,163 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.util.ByteArrayKey;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Results of one @CachedResponse method, keyed on the encoded arguments of the call. Lookups do not lock.
+ * When a put takes the cache over maxEntries, expired entries are removed and then arbitrary entries,
+ * until a quarter of the capacity is free again.
+ */
+public final class ResponseCache
+{
+    public static final Object MISS = new Object();
+
+    private static final Object NULL_RESULT = new Object();
+
+    private final int maxEntries;
+    private final long timeToLiveNanos;
+    private final ConcurrentMap<ByteArrayKey, Entry> entryMap = new ConcurrentHashMap<ByteArrayKey, Entry>();
+    private final AtomicInteger entryCount = new AtomicInteger();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    ResponseCache(final int maxEntries, final long timeToLiveMillis)
+    {
+        if(maxEntries <= 0 || timeToLiveMillis <= 0L)
+        {
+            throw new IllegalArgumentException("maxEntries and timeToLiveMillis must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+    }
+
+    /**
+     * @param message a message written by a publisher, header first
+     */
+    public Object keyFor(final ByteArrayOutputStream message)
+    {
+        final byte[] bytes = message.toByteArray();
+        return new ByteArrayKey(Arrays.copyOfRange(bytes, MessageHeader.getLength(bytes, 0), bytes.length));
+    }
+
+    /**
+     * @return the cached result, which may be null, or MISS
+     */
+    public Object get(final Object key)
+    {
+        final Entry entry = entryMap.get(key);
+        if(entry == null)
+        {
+            return MISS;
+        }
+        if(entry.isExpired(System.nanoTime()))
+        {
+            remove(entry);
+            return MISS;
+        }
+        return entry.result == NULL_RESULT ? null : entry.result;
+    }
+
+    public void put(final Object key, final Object result)
+    {
+        final ByteArrayKey argumentsKey = (ByteArrayKey) key;
+        final Entry entry = new Entry(argumentsKey, result == null ? NULL_RESULT : result, System.nanoTime() + timeToLiveNanos);
+        if(entryMap.put(argumentsKey, entry) == null && entryCount.incrementAndGet() > maxEntries)
+        {
+            evict();
+        }
+    }
+
+    public void invalidateAll()
+    {
+        for (Entry entry : entryMap.values())
+        {
+            remove(entry);
+        }
+    }
+
+    public int size()
+    {
+        return entryCount.get();
+    }
+
+    private void remove(final Entry entry)
+    {
+        if(entryMap.remove(entry.key, entry))
+        {
+            entryCount.decrementAndGet();
+        }
+    }
+
+    private void evict()
+    {
+        if(!evicting.compareAndSet(false, true))
+        {
+            return;
+        }
+        try
+        {
+            final long nowNanos = System.nanoTime();
+            for (Entry entry : entryMap.values())
+            {
+                if(entry.isExpired(nowNanos))
+                {
+                    remove(entry);
+                }
+            }
+            final int targetCount = maxEntries - Math.max(1, maxEntries / 4);
+            final Iterator<Map.Entry<ByteArrayKey, Entry>> iterator = entryMap.entrySet().iterator();
+            while(entryCount.get() > targetCount && iterator.hasNext())
+            {
+                remove(iterator.next().getValue());
+            }
+        }
+        finally
+        {
+            evicting.set(false);
+        }
+    }
+
+    private static final class Entry
+    {
+        private final ByteArrayKey key;
+        private final Object result;
+        private final long expiresAtNanos;
+
+        private Entry(final ByteArrayKey key, final Object result, final long expiresAtNanos)
+        {
+            this.key = key;
+            this.result = result;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        private boolean isExpired(final long nowNanos)
+        {
+            return nowNanos - expiresAtNanos >= 0L;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import com.epickrram.freewheel.messaging.config.CachedResponse;
+import com.epickrram.freewheel.util.Creator;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.epickrram.freewheel.util.ConcurrentMapIdiom.getOrCreateFromConcurrentMap;
+
+/**
+ * Creates the response caches of publishers and clears them on request.
+ */
+public final class ResponseCacheRegistry implements ResponseCacheInvalidation
+{
+    private static final Creator<Collection<ResponseCache>> CACHE_COLLECTION_CREATOR = new Creator<Collection<ResponseCache>>()
+    {
+        @Override
+        public Collection<ResponseCache> create()
+        {
+            return new CopyOnWriteArrayList<ResponseCache>();
+        }
+    };
+
+    private final ConcurrentMap<String, Collection<ResponseCache>> cachesByDescriptorMap =
+            new ConcurrentHashMap<String, Collection<ResponseCache>>();
+    private final ConcurrentMap<String, Collection<ResponseCache>> cachesByMethodMap =
+            new ConcurrentHashMap<String, Collection<ResponseCache>>();
+
+    @Override
+    public void invalidate(final String descriptorClassname, final String methodName)
+    {
+        invalidateAll(cachesByMethodMap.get(methodKey(descriptorClassname, methodName)));
+    }
+
+    @Override
+    public void invalidateAll(final String descriptorClassname)
+    {
+        invalidateAll(cachesByDescriptorMap.get(descriptorClassname));
+    }
+
+    /**
+     * @return caches indexed by method id, or null if no method of descriptor is annotated with @CachedResponse
+     */
+    ResponseCache[] createResponseCaches(final Class<?> descriptor)
+    {
+        final RemoteInterfaceSchema schema = RemoteInterfaceSchema.forDescriptor(descriptor);
+        final Method[] methods = schema.getMethods();
+        ResponseCache[] responseCaches = null;
+        for (int methodIndex = 0; methodIndex < methods.length; methodIndex++)
+        {
+            final CachedResponse cachedResponse = methods[methodIndex].getAnnotation(CachedResponse.class);
+            if(cachedResponse != null)
+            {
+                if(responseCaches == null)
+                {
+                    responseCaches = new ResponseCache[schema.getMaxMethodId() + 1];
+                }
+                final ResponseCache responseCache = new ResponseCache(cachedResponse.maxEntries(), cachedResponse.timeToLiveMillis());
+                responseCaches[schema.getMethodId(methodIndex)] = responseCache;
+                getOrCreateFromConcurrentMap(cachesByDescriptorMap, CACHE_COLLECTION_CREATOR, descriptor.getName()).add(responseCache);
+                getOrCreateFromConcurrentMap(cachesByMethodMap, CACHE_COLLECTION_CREATOR,
+                        methodKey(descriptor.getName(), methods[methodIndex].getName())).add(responseCache);
+            }
+        }
+        return responseCaches;
+    }
+
+    /**
+     * Forgets the response caches of descriptor's publishers, discarding their results; those publishers
+     * must not be used afterwards, as invalidations no longer reach their caches.
+     */
+    void removeResponseCaches(final Class<?> descriptor)
+    {
+        invalidateAll(cachesByDescriptorMap.remove(descriptor.getName()));
+        for (Method method : RemoteInterfaceSchema.forDescriptor(descriptor).getMethods())
+        {
+            cachesByMethodMap.remove(methodKey(descriptor.getName(), method.getName()));
+        }
+    }
+
+    int getResponseCacheCount()
+    {
+        int count = 0;
+        for (Collection<ResponseCache> responseCaches : cachesByDescriptorMap.values())
+        {
+            count += responseCaches.size();
+        }
+        return count;
+    }
+
+    private static void invalidateAll(final Collection<ResponseCache> responseCaches)
+    {
+        if(responseCaches != null)
+        {
+            for (ResponseCache responseCache : responseCaches)
+            {
+                responseCache.invalidateAll();
+            }
+        }
+    }
+
+    private static String methodKey(final String descriptorClassname, final String methodName)
+    {
+        return descriptorClassname + '#' + methodName;
+    }
+}
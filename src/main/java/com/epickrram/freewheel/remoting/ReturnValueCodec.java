@@ -0,0 +1,226 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import com.epickrram.freewheel.io.DecoderStream;
+import com.epickrram.freewheel.io.EncoderStream;
+
+import java.io.IOException;
+
+/**
+ * Helpers called from generated publishers and subscribers to move sync return values across the wire
+ * without a CodeBook lookup. Boxed values are written as a null flag followed by the primitive value.
+ * Parameters are typed as Object so that generated code never needs overload resolution against JDK types.
+ */
+public final class ReturnValueCodec
+{
+    private ReturnValueCodec() {}
+
+    public static Object box(final boolean value)
+    {
+        return Boolean.valueOf(value);
+    }
+
+    public static Object box(final byte value)
+    {
+        return Byte.valueOf(value);
+    }
+
+    public static Object box(final int value)
+    {
+        return Integer.valueOf(value);
+    }
+
+    public static Object box(final long value)
+    {
+        return Long.valueOf(value);
+    }
+
+    public static Object box(final float value)
+    {
+        return Float.valueOf(value);
+    }
+
+    public static Object box(final double value)
+    {
+        return Double.valueOf(value);
+    }
+
+    public static void writeBoxedBoolean(final EncoderStream encoderStream, final Object value) throws IOException
+    {
+        encoderStream.writeBoolean(value == null);
+        if(value != null)
+        {
+            encoderStream.writeBoolean(((Boolean) value).booleanValue());
+        }
+    }
+
+    public static Object readBoxedBoolean(final DecoderStream decoderStream) throws IOException
+    {
+        return decoderStream.readBoolean() ? null : Boolean.valueOf(decoderStream.readBoolean());
+    }
+
+    public static void writeBoxedByte(final EncoderStream encoderStream, final Object value) throws IOException
+    {
+        encoderStream.writeBoolean(value == null);
+        if(value != null)
+        {
+            encoderStream.writeByte(((Byte) value).byteValue());
+        }
+    }
+
+    public static Object readBoxedByte(final DecoderStream decoderStream) throws IOException
+    {
+        return decoderStream.readBoolean() ? null : Byte.valueOf(decoderStream.readByte());
+    }
+
+    public static void writeBoxedInt(final EncoderStream encoderStream, final Object value) throws IOException
+    {
+        encoderStream.writeBoolean(value == null);
+        if(value != null)
+        {
+            encoderStream.writeInt(((Integer) value).intValue());
+        }
+    }
+
+    public static Object readBoxedInt(final DecoderStream decoderStream) throws IOException
+    {
+        return decoderStream.readBoolean() ? null : Integer.valueOf(decoderStream.readInt());
+    }
+
+    public static void writeBoxedLong(final EncoderStream encoderStream, final Object value) throws IOException
+    {
+        encoderStream.writeBoolean(value == null);
+        if(value != null)
+        {
+            encoderStream.writeLong(((Long) value).longValue());
+        }
+    }
+
+    public static Object readBoxedLong(final DecoderStream decoderStream) throws IOException
+    {
+        return decoderStream.readBoolean() ? null : Long.valueOf(decoderStream.readLong());
+    }
+
+    public static void writeBoxedFloat(final EncoderStream encoderStream, final Object value) throws IOException
+    {
+        encoderStream.writeBoolean(value == null);
+        if(value != null)
+        {
+            encoderStream.writeFloat(((Float) value).floatValue());
+        }
+    }
+
+    public static Object readBoxedFloat(final DecoderStream decoderStream) throws IOException
+    {
+        return decoderStream.readBoolean() ? null : Float.valueOf(decoderStream.readFloat());
+    }
+
+    public static void writeBoxedDouble(final EncoderStream encoderStream, final Object value) throws IOException
+    {
+        encoderStream.writeBoolean(value == null);
+        if(value != null)
+        {
+            encoderStream.writeDouble(((Double) value).doubleValue());
+        }
+    }
+
+    public static Object readBoxedDouble(final DecoderStream decoderStream) throws IOException
+    {
+        return decoderStream.readBoolean() ? null : Double.valueOf(decoderStream.readDouble());
+    }
+
+    /**
+     * Writes a return value whose declared type is unknown, as produced by Receiver.onSyncMessage.
+     */
+    public static void writeUntyped(final EncoderStream encoderStream, final Object value) throws IOException
+    {
+        if(value instanceof String)
+        {
+            encoderStream.writeString((String) value);
+        }
+        else
+        {
+            encoderStream.writeObject(value);
+        }
+    }
+
+    static boolean isSupportedReturnType(final Class<?> returnType)
+    {
+        return !returnType.isPrimitive() || returnType == void.class || getBoxedSuffix(returnType) != null;
+    }
+
+    static Class<?> getWrapperType(final Class<?> primitiveType)
+    {
+        if(boolean.class == primitiveType)
+        {
+            return Boolean.class;
+        }
+        else if(byte.class == primitiveType)
+        {
+            return Byte.class;
+        }
+        else if(int.class == primitiveType)
+        {
+            return Integer.class;
+        }
+        else if(long.class == primitiveType)
+        {
+            return Long.class;
+        }
+        else if(float.class == primitiveType)
+        {
+            return Float.class;
+        }
+        else if(double.class == primitiveType)
+        {
+            return Double.class;
+        }
+        throw new IllegalArgumentException("Unsupported primitive type " + primitiveType.getName());
+    }
+
+    /**
+     * @return the suffix of the write/readBoxed helpers for a primitive or wrapper type, or null if there is none
+     */
+    static String getBoxedSuffix(final Class<?> type)
+    {
+        if(boolean.class == type || Boolean.class == type)
+        {
+            return "Boolean";
+        }
+        else if(byte.class == type || Byte.class == type)
+        {
+            return "Byte";
+        }
+        else if(int.class == type || Integer.class == type)
+        {
+            return "Int";
+        }
+        else if(long.class == type || Long.class == type)
+        {
+            return "Long";
+        }
+        else if(float.class == type || Float.class == type)
+        {
+            return "Float";
+        }
+        else if(double.class == type || Double.class == type)
+        {
+            return "Double";
+        }
+        return null;
+    }
+}
@@ -26,5 +26,16 @@ public interface RingBufferFactory
 {
     RingBufferWrapper<OutgoingMessageEvent> createRingBuffer(final int size);
 
+    /**
+     * @return the processor that drains ringBuffer
+     */
+    EventProcessor getEventProcessor(final RingBufferWrapper<OutgoingMessageEvent> ringBuffer);
+
+    /**
+     * Halts the processor of ringBuffer once it has handled the events already published, or after a short
+     * timeout if it is not running, and forgets both.
+     */
+    void releaseRingBuffer(final RingBufferWrapper<OutgoingMessageEvent> ringBuffer);
+
     List<EventProcessor> getEventProcessors();
 }
\ No newline at end of file
@@ -23,15 +23,23 @@ import com.lmax.disruptor.BatchEventProcessor;
 import com.lmax.disruptor.EventFactory;
 import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.EventProcessor;
+import com.lmax.disruptor.IgnoreExceptionHandler;
 import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.SequenceBarrier;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 public final class RingBufferFactoryImpl implements RingBufferFactory
 {
-    private final List<EventProcessor> eventProcessors = new CopyOnWriteArrayList<EventProcessor>();
+    private static final long RELEASE_DRAIN_TIMEOUT_MILLIS = 1000L;
+
+    private final Map<RingBufferWrapper<OutgoingMessageEvent>, DrainedRingBuffer> drainedRingBufferMap =
+            new ConcurrentHashMap<RingBufferWrapper<OutgoingMessageEvent>, DrainedRingBuffer>();
 
     private final EventFactory<OutgoingMessageEvent> eventFactory;
     private final EventHandler<OutgoingMessageEvent> eventHandler;
@@ -48,18 +56,61 @@ public final class RingBufferFactoryImpl implements RingBufferFactory
     {
         final RingBuffer<OutgoingMessageEvent> ringBuffer = new RingBuffer<OutgoingMessageEvent>(eventFactory, size);
         final SequenceBarrier sequenceBarrier = ringBuffer.newBarrier();
-        final EventProcessor eventProcessor =
+        final BatchEventProcessor<OutgoingMessageEvent> eventProcessor =
                 new BatchEventProcessor<OutgoingMessageEvent>(ringBuffer, sequenceBarrier, eventHandler);
+        // the default handler rethrows, killing the processor and leaving publishers blocked on a full ring
+        eventProcessor.setExceptionHandler(new IgnoreExceptionHandler());
 
         ringBuffer.setGatingSequences(eventProcessor.getSequence());
-        eventProcessors.add(eventProcessor);
+        final RingBufferWrapper<OutgoingMessageEvent> ringBufferWrapper = new DisruptorRingBufferWrapper<OutgoingMessageEvent>(ringBuffer);
+        drainedRingBufferMap.put(ringBufferWrapper, new DrainedRingBuffer(ringBuffer, eventProcessor));
 
-        return new DisruptorRingBufferWrapper<OutgoingMessageEvent>(ringBuffer);
+        return ringBufferWrapper;
+    }
+
+    @Override
+    public EventProcessor getEventProcessor(final RingBufferWrapper<OutgoingMessageEvent> ringBuffer)
+    {
+        return drainedRingBufferMap.get(ringBuffer).eventProcessor;
+    }
+
+    @Override
+    public void releaseRingBuffer(final RingBufferWrapper<OutgoingMessageEvent> ringBuffer)
+    {
+        final DrainedRingBuffer drainedRingBuffer = drainedRingBufferMap.remove(ringBuffer);
+        if(drainedRingBuffer == null)
+        {
+            return;
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RELEASE_DRAIN_TIMEOUT_MILLIS);
+        while(drainedRingBuffer.eventProcessor.getSequence().get() < drainedRingBuffer.ringBuffer.getCursor() &&
+              System.nanoTime() < deadline)
+        {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1L));
+        }
+        drainedRingBuffer.eventProcessor.halt();
     }
 
     @Override
     public List<EventProcessor> getEventProcessors()
     {
+        final List<EventProcessor> eventProcessors = new ArrayList<EventProcessor>();
+        for (DrainedRingBuffer drainedRingBuffer : drainedRingBufferMap.values())
+        {
+            eventProcessors.add(drainedRingBuffer.eventProcessor);
+        }
         return eventProcessors;
     }
+
+    private static final class DrainedRingBuffer
+    {
+        private final RingBuffer<OutgoingMessageEvent> ringBuffer;
+        private final EventProcessor eventProcessor;
+
+        private DrainedRingBuffer(final RingBuffer<OutgoingMessageEvent> ringBuffer, final EventProcessor eventProcessor)
+        {
+            this.ringBuffer = ringBuffer;
+            this.eventProcessor = eventProcessor;
+        }
+    }
 }
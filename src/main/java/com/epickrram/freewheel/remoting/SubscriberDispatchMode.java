@@ -0,0 +1,40 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+public enum SubscriberDispatchMode
+{
+    /**
+     * onMessage dispatches through an array of generated per-method invoker objects
+     */
+    INVOKER_ARRAY("Subscriber"),
+    /**
+     * onMessage is a single switch over the method index with each method's decode and call inlined
+     */
+    SWITCH("SwitchSubscriber");
+
+    private final String generatedClassnameSuffix;
+
+    private SubscriberDispatchMode(final String generatedClassnameSuffix)
+    {
+        this.generatedClassnameSuffix = generatedClassnameSuffix;
+    }
+
+    String getGeneratedClassnameSuffix()
+    {
+        return generatedClassnameSuffix;
+    }
+}
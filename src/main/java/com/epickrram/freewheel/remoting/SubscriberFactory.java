@@ -17,9 +17,6 @@ package com.epickrram.freewheel.remoting;
 
 import com.epickrram.freewheel.messaging.Receiver;
 import com.epickrram.freewheel.util.Memoizer;
-import javassist.ClassPool;
-import javassist.CtClass;
-import javassist.LoaderClassPath;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -28,28 +25,23 @@ public final class SubscriberFactory
 {
     private static final Memoizer<String, Class> GENERATED_SUBSCRIBER_CLASS_MAP = new Memoizer<String, Class>();
 
-    public <T> Receiver createReceiver(final Class<T> descriptor, final T instance) throws RemotingException
-    {
-        final String subscriberClassname = getGeneratedClassname(descriptor);
-        final ClassPool classPool = new ClassPool(ClassPool.getDefault());
+    private final SubscriberDispatchMode dispatchMode;
 
-        classPool.appendClassPath(new LoaderClassPath(Thread.currentThread().getContextClassLoader()));
-        classPool.appendClassPath(new LoaderClassPath(ClassLoader.getSystemClassLoader()));
+    public SubscriberFactory()
+    {
+        this(SubscriberDispatchMode.INVOKER_ARRAY);
+    }
 
-        classPool.importPackage("com.epickrram.freewheel.messaging");
-        classPool.importPackage("com.epickrram.freewheel.io");
-        classPool.importPackage("com.epickrram.freewheel.stream");
-        classPool.importPackage("com.epickrram.freewheel.remoting");
+    public SubscriberFactory(final SubscriberDispatchMode dispatchMode)
+    {
+        this.dispatchMode = dispatchMode;
+    }
 
+    public <T> Receiver createReceiver(final Class<T> descriptor, final T instance) throws RemotingException
+    {
         try
         {
-            final String descriptorClassname = classDefinitionToClassname(descriptor);
-            final String invokerInterfaceName = descriptorClassname + "Invoker";
-            final CtClass invokerInterfaceClass = classPool.makeInterface(invokerInterfaceName);
-
-            final Class generatedClass = GENERATED_SUBSCRIBER_CLASS_MAP.getValue(subscriberClassname,
-                    new GeneratedSubscriberClassProvider<T>(subscriberClassname, classPool, descriptorClassname,
-                            invokerInterfaceName, invokerInterfaceClass, descriptor));
+            final Class generatedClass = getSubscriberClass(descriptor);
 
             final Constructor jdkConstructor = generatedClass.getConstructor(new Class[]{descriptor});
             return (Receiver) jdkConstructor.newInstance(instance);
@@ -72,9 +64,26 @@ public final class SubscriberFactory
         }
     }
 
-    private String getGeneratedClassname(final Class<?> descriptor)
+    public <T> void prepareReceiver(final Class<T> descriptor) throws RemotingException
+    {
+        getSubscriberClass(descriptor);
+    }
+
+    private <T> Class getSubscriberClass(final Class<T> descriptor)
+    {
+        final String subscriberClassname = getGeneratedClassname(descriptor, dispatchMode);
+        if(dispatchMode == SubscriberDispatchMode.SWITCH)
+        {
+            return GENERATED_SUBSCRIBER_CLASS_MAP.getValue(subscriberClassname,
+                    new SwitchSubscriberClassProvider<T>(subscriberClassname, descriptor));
+        }
+        return GENERATED_SUBSCRIBER_CLASS_MAP.getValue(subscriberClassname,
+                new GeneratedSubscriberClassProvider<T>(subscriberClassname, descriptor));
+    }
+
+    static String getGeneratedClassname(final Class<?> descriptor, final SubscriberDispatchMode dispatchMode)
     {
-        return descriptor.getName() + "Subscriber";
+        return descriptor.getName() + dispatchMode.getGeneratedClassnameSuffix();
     }
 
     static <T> String classDefinitionToClassname(final Class<T> descriptor)
@@ -0,0 +1,170 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.util.Provider;
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtConstructor;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.Modifier;
+import javassist.NotFoundException;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Generates a Receiver whose onMessage/onSyncMessage switch on the method index and decode and invoke
+ * the implementation inline, so there is a single monomorphic call site per method for the JIT to inline.
+ */
+final class SwitchSubscriberClassProvider<T> implements Provider<String, Class>
+{
+    private final String subscriberClassname;
+    private final Class<T> descriptor;
+
+    public SwitchSubscriberClassProvider(final String subscriberClassname, final Class<T> descriptor)
+    {
+        this.subscriberClassname = subscriberClassname;
+        this.descriptor = descriptor;
+    }
+
+    @Override
+    public Class provide(final String key)
+    {
+        final Class<?> prebuiltClass = PrebuiltClasses.find(subscriberClassname, descriptor);
+        if(prebuiltClass != null)
+        {
+            return prebuiltClass;
+        }
+        try
+        {
+            return generateClasses().get(0).toClass();
+        }
+        catch (NotFoundException e)
+        {
+            throw new MessagingException("Could not create Subscriber", e);
+        }
+        catch (CannotCompileException e)
+        {
+            throw new MessagingException("Could not create Subscriber", e);
+        }
+    }
+
+    List<CtClass> generateClasses() throws NotFoundException, CannotCompileException
+    {
+        final ClassPool classPool = GeneratedClassPool.newClassPool("com.epickrram.freewheel.messaging",
+                "com.epickrram.freewheel.io", "com.epickrram.freewheel.remoting");
+        final String descriptorClassname = SubscriberFactory.classDefinitionToClassname(descriptor);
+
+        final CtClass ctClass = classPool.makeClass(subscriberClassname);
+        ctClass.addInterface(classPool.get("com.epickrram.freewheel.messaging.EncodingReceiver"));
+        ctClass.setModifiers(Modifier.PUBLIC | Modifier.FINAL);
+        ctClass.addField(CtField.make("private final " + descriptorClassname + " implementation;", ctClass));
+
+        final CtConstructor ctConstructor = new CtConstructor(new CtClass[]{classPool.getCtClass(descriptor.getName())}, ctClass);
+        ctConstructor.setBody("{ implementation = $1; }");
+        ctClass.addConstructor(ctConstructor);
+
+        final RemoteInterfaceSchema schema = RemoteInterfaceSchema.forDescriptor(descriptor);
+        ctClass.addMethod(CtMethod.make(createReceiveMethod(schema, false), ctClass));
+        ctClass.addMethod(CtMethod.make(createReceiveMethod(schema, true), ctClass));
+        ctClass.addMethod(CtMethod.make(createEncodingSyncReceiveMethod(schema), ctClass));
+        return Collections.singletonList(ctClass);
+    }
+
+    private String createReceiveMethod(final RemoteInterfaceSchema schema, final boolean sync)
+    {
+        final Method[] methods = schema.getMethods();
+        final StringBuilder methodSource = new StringBuilder();
+        if(sync)
+        {
+            methodSource.append("public Object onSyncMessage(int topicId, int methodId, DecoderStream decoderStream) {\n");
+        }
+        else
+        {
+            methodSource.append("public void onMessage(int topicId, int methodId, DecoderStream decoderStream) {\n");
+        }
+        methodSource.append(" switch (methodId) {\n");
+        for (int methodIndex = 0; methodIndex < methods.length; methodIndex++)
+        {
+            final Method method = methods[methodIndex];
+            final int methodId = schema.getMethodId(methodIndex);
+            methodSource.append(" case ").append(methodId).append(": {\n");
+            if(ReflectionUtil.isSyncMethod(method) == sync)
+            {
+                final String variablePrefix = "m" + methodId + "_";
+                final Class<?>[] parameterTypes = method.getParameterTypes();
+                MethodHelper.appendDecodeParameterCalls(methodSource, parameterTypes, variablePrefix);
+                final String invocation = createInvocation(method, variablePrefix);
+                if(sync)
+                {
+                    MethodHelper.appendReturnAsObject(methodSource, method.getReturnType(), invocation);
+                }
+                else
+                {
+                    methodSource.append(invocation).append(";\nreturn;\n");
+                }
+            }
+            else
+            {
+                methodSource.append(sync ? "return null;\n" : "return;\n");
+            }
+            methodSource.append(" }\n");
+        }
+        methodSource.append(" default: {\n  RemoteInterfaceSchema.unknownMethod(topicId, methodId);\n  return").
+                append(sync ? " null" : "").append(";\n }\n }\n}\n");
+        return methodSource.toString();
+    }
+
+    private String createEncodingSyncReceiveMethod(final RemoteInterfaceSchema schema)
+    {
+        final Method[] methods = schema.getMethods();
+        final StringBuilder methodSource = new StringBuilder(
+                "public void onSyncMessage(int topicId, int methodId, DecoderStream decoderStream, EncoderStream encoderStream) {\n");
+        methodSource.append(" switch (methodId) {\n");
+        for (int methodIndex = 0; methodIndex < methods.length; methodIndex++)
+        {
+            final Method method = methods[methodIndex];
+            final int methodId = schema.getMethodId(methodIndex);
+            methodSource.append(" case ").append(methodId).append(": {\n");
+            if(ReflectionUtil.isSyncMethod(method))
+            {
+                final String variablePrefix = "m" + methodId + "_";
+                MethodHelper.appendDecodeParameterCalls(methodSource, method.getParameterTypes(), variablePrefix);
+                MethodHelper.appendEncodeReturnValue(methodSource, method.getReturnType(), createInvocation(method, variablePrefix));
+            }
+            else
+            {
+                methodSource.append("encoderStream.writeObject(null);\n");
+            }
+            methodSource.append("return;\n }\n");
+        }
+        methodSource.append(" default: {\n  RemoteInterfaceSchema.unknownMethod(topicId, methodId);\n" +
+                "  encoderStream.writeObject(null);\n  return;\n }\n }\n}\n");
+        return methodSource.toString();
+    }
+
+    private static String createInvocation(final Method method, final String variablePrefix)
+    {
+        final StringBuilder invocation = new StringBuilder("implementation.").append(method.getName()).append("(");
+        MethodHelper.appendArguments(invocation, method.getParameterTypes().length, variablePrefix);
+        return invocation.append(")").toString();
+    }
+}
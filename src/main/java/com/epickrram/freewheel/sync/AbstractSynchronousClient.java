@@ -0,0 +1,134 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.sync;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Base class for generated synchronous clients. Outstanding calls are held in one concurrent map per
+ * response matcher, keyed by correlation identifier, so matching a response does not depend on the
+ * number of calls in flight.
+ */
+public abstract class AbstractSynchronousClient
+{
+    private static final ThreadLocal<PendingCall> PENDING_CALL_POOL = new ThreadLocal<PendingCall>()
+    {
+        @Override
+        protected PendingCall initialValue()
+        {
+            return new PendingCall();
+        }
+    };
+
+    private final ConcurrentMap<Object, PendingCall>[] pendingCallsByMatcherIndex;
+
+    @SuppressWarnings({"unchecked"})
+    protected AbstractSynchronousClient(final int responseMatcherCount)
+    {
+        pendingCallsByMatcherIndex = new ConcurrentMap[responseMatcherCount];
+        for(int i = 0; i < responseMatcherCount; i++)
+        {
+            pendingCallsByMatcherIndex[i] = new ConcurrentHashMap<Object, PendingCall>();
+        }
+    }
+
+    protected final PendingCall beginCall(final int matcherIndex, final Object identifier)
+    {
+        if(identifier == null)
+        {
+            throw new IllegalArgumentException("Synchronous calls require a non-null identifier");
+        }
+        PendingCall pendingCall = PENDING_CALL_POOL.get();
+        if(pendingCall.isInUse())
+        {
+            // synchronous call made while the calling thread is already waiting on another
+            pendingCall = new PendingCall();
+        }
+        final ConcurrentMap<Object, PendingCall> pendingCalls = pendingCallsByMatcherIndex[matcherIndex];
+        pendingCall.begin(pendingCalls, identifier);
+        if(pendingCalls.putIfAbsent(identifier, pendingCall) != null)
+        {
+            pendingCall.release();
+            throw new IllegalStateException("A call with identifier " + identifier + " is already in progress");
+        }
+        return pendingCall;
+    }
+
+    protected final Object awaitResponse(final PendingCall pendingCall, final long timeoutMilliseconds,
+                                         final String responseDescription)
+    {
+        return pendingCall.await(timeoutMilliseconds, responseDescription);
+    }
+
+    protected final void cancelCall(final PendingCall pendingCall)
+    {
+        pendingCall.cancel();
+    }
+
+    protected final void completeCall(final int matcherIndex, final Object identifier, final Object responseValue)
+    {
+        if(identifier == null)
+        {
+            return;
+        }
+        final PendingCall pendingCall = pendingCallsByMatcherIndex[matcherIndex].remove(identifier);
+        if(pendingCall != null)
+        {
+            pendingCall.complete(responseValue);
+        }
+    }
+
+    public static Object box(final boolean value)
+    {
+        return Boolean.valueOf(value);
+    }
+
+    public static Object box(final byte value)
+    {
+        return Byte.valueOf(value);
+    }
+
+    public static Object box(final short value)
+    {
+        return Short.valueOf(value);
+    }
+
+    public static Object box(final char value)
+    {
+        return Character.valueOf(value);
+    }
+
+    public static Object box(final int value)
+    {
+        return Integer.valueOf(value);
+    }
+
+    public static Object box(final long value)
+    {
+        return Long.valueOf(value);
+    }
+
+    public static Object box(final float value)
+    {
+        return Float.valueOf(value);
+    }
+
+    public static Object box(final double value)
+    {
+        return Double.valueOf(value);
+    }
+}
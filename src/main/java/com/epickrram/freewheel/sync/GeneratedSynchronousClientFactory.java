@@ -0,0 +1,337 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.sync;
+
+import com.epickrram.freewheel.remoting.GeneratedClassPool;
+import com.epickrram.freewheel.remoting.RemotingException;
+import com.epickrram.freewheel.util.Memoizer;
+import com.epickrram.freewheel.util.Provider;
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtConstructor;
+import javassist.CtField;
+import javassist.CtNewMethod;
+import javassist.Modifier;
+import javassist.NotFoundException;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.epickrram.freewheel.remoting.MethodNameComparator.METHOD_COMPARATOR;
+
+/**
+ * Generates a subclass of AbstractSynchronousClient implementing both the client and response interfaces.
+ * Each client method calls the service's request method directly and waits on a pending call registered
+ * under its correlation identifier; each response method completes the pending call for its identifier.
+ */
+final class GeneratedSynchronousClientFactory
+{
+    private static final Memoizer<String, Constructor> CONSTRUCTOR_MAP = new Memoizer<String, Constructor>();
+
+    @SuppressWarnings({"unchecked"})
+    <Service, Response, Client> Client createClient(final Service service, final Class<Response> responseClass,
+                                                    final Class<Client> clientClass)
+    {
+        final Constructor constructor = CONSTRUCTOR_MAP.getValue(getGeneratedClassname(clientClass, responseClass),
+                new Provider<String, Constructor>()
+        {
+            @Override
+            public Constructor provide(final String generatedClassname)
+            {
+                try
+                {
+                    return generateClientClass(generatedClassname, service.getClass(), responseClass, clientClass).
+                            toClass().getConstructor(new Class[]{Object.class});
+                }
+                catch (NotFoundException e)
+                {
+                    throw new RemotingException("Unable to generate synchronous client", e);
+                }
+                catch (CannotCompileException e)
+                {
+                    throw new RemotingException("Unable to generate synchronous client", e);
+                }
+                catch (NoSuchMethodException e)
+                {
+                    throw new RemotingException("Unable to generate synchronous client", e);
+                }
+            }
+        });
+        try
+        {
+            return (Client) constructor.newInstance(service);
+        }
+        catch (InstantiationException e)
+        {
+            throw new RemotingException("Unable to create synchronous client", e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new RemotingException("Unable to create synchronous client", e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new RemotingException("Unable to create synchronous client", e);
+        }
+    }
+
+    CtClass generateClientClass(final String generatedClassname, final Class<?> serviceClass,
+                                final Class<?> responseClass, final Class<?> clientClass)
+            throws NotFoundException, CannotCompileException
+    {
+        final ClassPool classPool = GeneratedClassPool.newClassPool("com.epickrram.freewheel.sync");
+        final CtClass ctClass = classPool.makeClass(generatedClassname,
+                classPool.get(AbstractSynchronousClient.class.getName()));
+        ctClass.setModifiers(Modifier.PUBLIC | Modifier.FINAL);
+        ctClass.addInterface(classPool.get(clientClass.getName()));
+        ctClass.addInterface(classPool.get(responseClass.getName()));
+
+        final List<Class<?>> serviceInterfaces = new ArrayList<Class<?>>();
+        final Map<String, List<ResponseMatcher>> responseMatchersByMethodName = new LinkedHashMap<String, List<ResponseMatcher>>();
+        final Map<String, ResponseMatcher> responseMatcherByKey = new LinkedHashMap<String, ResponseMatcher>();
+
+        final Method[] clientMethods = clientClass.getMethods();
+        Arrays.sort(clientMethods, METHOD_COMPARATOR);
+        final List<String> clientMethodSources = new ArrayList<String>();
+        for (Method clientMethod : clientMethods)
+        {
+            final SyncMethod syncMethod = clientMethod.getAnnotation(SyncMethod.class);
+            if(syncMethod == null)
+            {
+                throw new IllegalArgumentException("Method " + clientMethod.getName() + " of " + clientClass.getName() +
+                        " must be annotated with @SyncMethod");
+            }
+            final Method requestMethod = findRequestMethod(serviceClass, syncMethod.requestMethod(), clientMethod.getParameterTypes());
+            if(!serviceInterfaces.contains(requestMethod.getDeclaringClass()))
+            {
+                serviceInterfaces.add(requestMethod.getDeclaringClass());
+            }
+            final Method responseMethod = findResponseMethod(responseClass, syncMethod);
+            validateParameterIndex(clientMethod, syncMethod.requestParameterIdentifierIndex());
+
+            final String matcherKey = responseMethod.getName() + ":" + syncMethod.responseParameterIdentifierIndex() +
+                    ":" + syncMethod.responseParameterValueIndex();
+            ResponseMatcher responseMatcher = responseMatcherByKey.get(matcherKey);
+            if(responseMatcher == null)
+            {
+                responseMatcher = new ResponseMatcher(responseMatcherByKey.size(), syncMethod);
+                responseMatcherByKey.put(matcherKey, responseMatcher);
+                List<ResponseMatcher> responseMatchers = responseMatchersByMethodName.get(responseMethod.getName());
+                if(responseMatchers == null)
+                {
+                    responseMatchers = new ArrayList<ResponseMatcher>();
+                    responseMatchersByMethodName.put(responseMethod.getName(), responseMatchers);
+                }
+                responseMatchers.add(responseMatcher);
+            }
+
+            clientMethodSources.add(createClientMethodBody(clientMethod, syncMethod, requestMethod,
+                    serviceInterfaces.indexOf(requestMethod.getDeclaringClass()), responseMatcher.index,
+                    responseClass.getSimpleName()));
+        }
+
+        final StringBuilder constructorBody = new StringBuilder("{ super(").append(responseMatcherByKey.size()).append(");\n");
+        for (int i = 0; i < serviceInterfaces.size(); i++)
+        {
+            final String serviceInterfaceName = serviceInterfaces.get(i).getName().replace('$', '.');
+            ctClass.addField(CtField.make("private final " + serviceInterfaceName + " service" + i + ";", ctClass));
+            constructorBody.append("service").append(i).append(" = (").append(serviceInterfaceName).append(") $1;\n");
+        }
+        constructorBody.append("}");
+        final CtConstructor ctConstructor = new CtConstructor(new CtClass[]{classPool.get(Object.class.getName())}, ctClass);
+        ctConstructor.setBody(constructorBody.toString());
+        ctClass.addConstructor(ctConstructor);
+
+        for (int i = 0; i < clientMethods.length; i++)
+        {
+            addMethod(classPool, ctClass, clientMethods[i], clientMethodSources.get(i));
+        }
+
+        final Method[] responseMethods = responseClass.getMethods();
+        Arrays.sort(responseMethods, METHOD_COMPARATOR);
+        for (Method responseMethod : responseMethods)
+        {
+            addMethod(classPool, ctClass, responseMethod,
+                    createResponseMethodBody(responseMethod, responseMatchersByMethodName.get(responseMethod.getName())));
+        }
+        return ctClass;
+    }
+
+    static String getGeneratedClassname(final Class<?> clientClass, final Class<?> responseClass)
+    {
+        return clientClass.getName() + "_" + responseClass.getSimpleName() + "SynchronousClient";
+    }
+
+    private static String createClientMethodBody(final Method clientMethod, final SyncMethod syncMethod,
+                                                 final Method requestMethod, final int serviceIndex,
+                                                 final int matcherIndex, final String responseClassname)
+    {
+        final StringBuilder methodSource = new StringBuilder("{\n");
+        final int identifierIndex = syncMethod.requestParameterIdentifierIndex();
+        methodSource.append("PendingCall pendingCall = beginCall(").append(matcherIndex).append(", ");
+        appendAsObject(methodSource, clientMethod.getParameterTypes()[identifierIndex], identifierIndex);
+        methodSource.append(");\n");
+        methodSource.append("try {\n service").append(serviceIndex).append(".").
+                append(requestMethod.getName()).append("($$);\n").
+                append("} catch(RuntimeException e) {\n cancelCall(pendingCall);\n throw e;\n}\n");
+        if(clientMethod.getReturnType() != void.class)
+        {
+            methodSource.append("return ($r) ");
+        }
+        methodSource.append("awaitResponse(pendingCall, ").append(syncMethod.timeoutMilliseconds()).append("L, \"").
+                append(responseClassname).append(".").append(syncMethod.responseMethod()).append("\");\n}");
+        return methodSource.toString();
+    }
+
+    private static String createResponseMethodBody(final Method responseMethod, final List<ResponseMatcher> responseMatchers)
+    {
+        final StringBuilder methodSource = new StringBuilder("{\n");
+        if(responseMatchers != null)
+        {
+            final Class<?>[] parameterTypes = responseMethod.getParameterTypes();
+            for (ResponseMatcher responseMatcher : responseMatchers)
+            {
+                methodSource.append("completeCall(").append(responseMatcher.index).append(", ");
+                appendAsObject(methodSource, parameterTypes[responseMatcher.identifierIndex], responseMatcher.identifierIndex);
+                methodSource.append(", ");
+                appendAsObject(methodSource, parameterTypes[responseMatcher.valueIndex], responseMatcher.valueIndex);
+                methodSource.append(");\n");
+            }
+        }
+        return methodSource.append("}").toString();
+    }
+
+    /**
+     * Primitives are boxed through the base class rather than with ($w), which would need javassist to resolve
+     * constructors on the JDK wrapper classes.
+     */
+    private static void appendAsObject(final StringBuilder methodSource, final Class<?> parameterType, final int parameterIndex)
+    {
+        if(parameterType.isPrimitive())
+        {
+            methodSource.append("box($").append(parameterIndex + 1).append(")");
+        }
+        else
+        {
+            methodSource.append("(Object) $").append(parameterIndex + 1);
+        }
+    }
+
+    private static void addMethod(final ClassPool classPool, final CtClass ctClass,
+                                  final Method method, final String body) throws NotFoundException, CannotCompileException
+    {
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        final CtClass[] ctParameterTypes = new CtClass[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++)
+        {
+            ctParameterTypes[i] = toCtClass(classPool, parameterTypes[i]);
+        }
+        ctClass.addMethod(CtNewMethod.make(toCtClass(classPool, method.getReturnType()), method.getName(),
+                ctParameterTypes, new CtClass[0], body, ctClass));
+    }
+
+    private static CtClass toCtClass(final ClassPool classPool, final Class<?> type) throws NotFoundException
+    {
+        if(type.isArray())
+        {
+            return classPool.get(toCtClass(classPool, type.getComponentType()).getName() + "[]");
+        }
+        return classPool.get(type.getName());
+    }
+
+    private static Method findRequestMethod(final Class<?> serviceClass, final String methodName,
+                                            final Class<?>[] parameterTypes)
+    {
+        for (Class<?> type = serviceClass; type != null; type = type.getSuperclass())
+        {
+            final Method method = findInterfaceMethod(type.getInterfaces(), methodName, parameterTypes);
+            if(method != null)
+            {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException("Cannot find method named: " + methodName +
+                " on a public interface implemented by " + serviceClass.getName());
+    }
+
+    private static Method findInterfaceMethod(final Class<?>[] interfaces, final String methodName,
+                                              final Class<?>[] parameterTypes)
+    {
+        for (Class<?> serviceInterface : interfaces)
+        {
+            if(Modifier.isPublic(serviceInterface.getModifiers()))
+            {
+                try
+                {
+                    return serviceInterface.getMethod(methodName, parameterTypes);
+                }
+                catch (NoSuchMethodException e)
+                {
+                    // try the next interface
+                }
+            }
+            final Method method = findInterfaceMethod(serviceInterface.getInterfaces(), methodName, parameterTypes);
+            if(method != null)
+            {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static Method findResponseMethod(final Class<?> responseClass, final SyncMethod syncMethod)
+    {
+        for (Method method : responseClass.getMethods())
+        {
+            if(method.getName().equals(syncMethod.responseMethod()))
+            {
+                validateParameterIndex(method, syncMethod.responseParameterIdentifierIndex());
+                validateParameterIndex(method, syncMethod.responseParameterValueIndex());
+                return method;
+            }
+        }
+        throw new IllegalArgumentException("Cannot find method named: " + syncMethod.responseMethod());
+    }
+
+    private static void validateParameterIndex(final Method method, final int parameterIndex)
+    {
+        if(parameterIndex < 0 || parameterIndex >= method.getParameterTypes().length)
+        {
+            throw new IllegalArgumentException("Method " + method.getName() + " has no parameter at index " + parameterIndex);
+        }
+    }
+
+    private static final class ResponseMatcher
+    {
+        private final int index;
+        private final int identifierIndex;
+        private final int valueIndex;
+
+        private ResponseMatcher(final int index, final SyncMethod syncMethod)
+        {
+            this.index = index;
+            this.identifierIndex = syncMethod.responseParameterIdentifierIndex();
+            this.valueIndex = syncMethod.responseParameterValueIndex();
+        }
+    }
+}
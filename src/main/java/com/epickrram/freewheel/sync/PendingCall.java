@@ -0,0 +1,160 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.sync;
+
+import com.epickrram.freewheel.util.HashedTimerWheel;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wait handle for a single outstanding synchronous call. Instances are reused by their owning thread, so a
+ * handle is only released once neither a responding thread nor its timeout task can still hold a reference to it.
+ */
+public final class PendingCall
+{
+    private final HashedTimerWheel timerWheel = HashedTimerWheel.getDefault();
+    private final Runnable timeoutTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            onTimeout();
+        }
+    };
+    private ConcurrentMap<Object, PendingCall> pendingCalls;
+    private Object identifier;
+    private Thread waiter;
+    private HashedTimerWheel.Timeout timeout;
+    private boolean inUse;
+    private volatile Object responseValue;
+    private volatile boolean completed;
+    private volatile boolean timedOut;
+    private volatile boolean timeoutTaskFinished;
+
+    PendingCall()
+    {
+    }
+
+    boolean isInUse()
+    {
+        return inUse;
+    }
+
+    void begin(final ConcurrentMap<Object, PendingCall> pendingCalls, final Object identifier)
+    {
+        this.pendingCalls = pendingCalls;
+        this.identifier = identifier;
+        this.waiter = Thread.currentThread();
+        this.inUse = true;
+    }
+
+    void complete(final Object responseValue)
+    {
+        final Thread waitingThread = waiter;
+        this.responseValue = responseValue;
+        completed = true;
+        LockSupport.unpark(waitingThread);
+    }
+
+    /**
+     * Only called by the owning thread, when the request could not be sent.
+     */
+    void cancel()
+    {
+        if(!pendingCalls.remove(identifier, this))
+        {
+            awaitCompletion();
+        }
+        release();
+    }
+
+    Object await(final long timeoutMilliseconds, final String responseDescription)
+    {
+        try
+        {
+            if(!completed)
+            {
+                timeout = timerWheel.schedule(timeoutTask, timeoutMilliseconds, TimeUnit.MILLISECONDS);
+                while(!completed && !timeoutTaskFinished && !Thread.currentThread().isInterrupted())
+                {
+                    LockSupport.park(this);
+                }
+                final boolean abandoned = !completed && !timeoutTaskFinished && pendingCalls.remove(identifier, this);
+                if(!timeout.cancel())
+                {
+                    awaitTimeoutTask();
+                }
+                if(abandoned)
+                {
+                    throw new IllegalStateException("Interrupted while waiting for response for method " + responseDescription);
+                }
+                if(timedOut)
+                {
+                    throw new IllegalStateException("Did not receive response for method " + responseDescription +
+                            " within " + timeoutMilliseconds + "ms");
+                }
+                // a responding thread has claimed this call and is about to complete it
+                awaitCompletion();
+            }
+            return responseValue;
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    void release()
+    {
+        pendingCalls = null;
+        identifier = null;
+        timeout = null;
+        responseValue = null;
+        completed = false;
+        timedOut = false;
+        timeoutTaskFinished = false;
+        inUse = false;
+    }
+
+    private void onTimeout()
+    {
+        final Thread waitingThread = waiter;
+        if(pendingCalls.remove(identifier, this))
+        {
+            timedOut = true;
+        }
+        timeoutTaskFinished = true;
+        LockSupport.unpark(waitingThread);
+    }
+
+    private void awaitCompletion()
+    {
+        while(!completed)
+        {
+            Thread.yield();
+        }
+    }
+
+    private void awaitTimeoutTask()
+    {
+        while(!timeoutTaskFinished)
+        {
+            Thread.yield();
+        }
+    }
+}
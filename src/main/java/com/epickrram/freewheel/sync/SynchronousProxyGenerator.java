@@ -15,9 +15,26 @@ import static java.lang.reflect.Proxy.newProxyInstance;
 
 public final class SynchronousProxyGenerator
 {
+    private final SynchronousClientMode clientMode;
+    private final GeneratedSynchronousClientFactory generatedClientFactory = new GeneratedSynchronousClientFactory();
+
+    public SynchronousProxyGenerator()
+    {
+        this(SynchronousClientMode.PROXY);
+    }
+
+    public SynchronousProxyGenerator(final SynchronousClientMode clientMode)
+    {
+        this.clientMode = clientMode;
+    }
+
     @SuppressWarnings({"unchecked"})
     public <Service, Response, Client> Client generateProxy(final Service service, final Class<Response> response, final Class<Client> clientClass)
     {
+        if(clientMode == SynchronousClientMode.GENERATED)
+        {
+            return generatedClientFactory.createClient(service, response, clientClass);
+        }
         return (Client) newProxyInstance(currentThread().getContextClassLoader(),
                 new Class[]{clientClass, response},
                 new SynchronousProxyInvocationHandler(clientClass, response, service));
@@ -20,7 +20,17 @@ import com.epickrram.freewheel.messaging.MessagingContext;
 
 public final class SynchronousProxyHelper
 {
-    private final SynchronousProxyGenerator proxyGenerator = new SynchronousProxyGenerator();
+    private final SynchronousProxyGenerator proxyGenerator;
+
+    public SynchronousProxyHelper()
+    {
+        this(SynchronousClientMode.PROXY);
+    }
+
+    public SynchronousProxyHelper(final SynchronousClientMode clientMode)
+    {
+        proxyGenerator = new SynchronousProxyGenerator(clientMode);
+    }
 
     @SuppressWarnings({"unchecked"})
     public <P, S, C> C createSynchronousProxy(final Class<P> publisherClass,
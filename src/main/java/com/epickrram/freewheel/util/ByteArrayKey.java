@@ -0,0 +1,46 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.util;
+
+import java.util.Arrays;
+
+/**
+ * A map key comparing the contents of a byte array, which must not be modified once the key is created.
+ */
+public final class ByteArrayKey
+{
+    private final byte[] bytes;
+    private final int hashCode;
+
+    public ByteArrayKey(final byte[] bytes)
+    {
+        this.bytes = bytes;
+        this.hashCode = Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public boolean equals(final Object o)
+    {
+        return o instanceof ByteArrayKey && hashCode == ((ByteArrayKey) o).hashCode &&
+                Arrays.equals(bytes, ((ByteArrayKey) o).bytes);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hashCode;
+    }
+}
@@ -0,0 +1,367 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs delayed tasks from a single thread. Timeouts are hashed into a ring of buckets by deadline, so
+ * scheduling and cancelling are constant time regardless of how many timeouts are outstanding; the cost
+ * is that a task runs up to one tick after its deadline.
+ *
+ * Tasks run on the wheel thread and must not block.
+ */
+public final class HashedTimerWheel
+{
+    private static final Logger LOGGER = Logger.getLogger(HashedTimerWheel.class.getSimpleName());
+    private static final long DEFAULT_TICK_MILLIS = 10L;
+    private static final int DEFAULT_TICKS_PER_WHEEL = 512;
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private static final int STATE_NEW = 0;
+    private static final int STATE_STARTED = 1;
+    private static final int STATE_STOPPED = 2;
+
+    private final Queue<Timeout> scheduledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicInteger state = new AtomicInteger(STATE_NEW);
+    private final AtomicLong pendingTimeoutCount = new AtomicLong();
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long tickDurationNanos;
+    private final Thread workerThread;
+    private volatile long startTimeNanos;
+    private long tick;
+
+    public HashedTimerWheel(final String threadName)
+    {
+        this(threadName, DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+    }
+
+    public HashedTimerWheel(final String threadName, final long tickDuration, final TimeUnit unit, final int ticksPerWheel)
+    {
+        if(tickDuration <= 0L)
+        {
+            throw new IllegalArgumentException("tickDuration must be positive");
+        }
+        if(ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+        {
+            throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30");
+        }
+        final int wheelSize = Integer.highestOneBit(ticksPerWheel) == ticksPerWheel ?
+                ticksPerWheel : Integer.highestOneBit(ticksPerWheel) << 1;
+        wheel = new Bucket[wheelSize];
+        for(int i = 0; i < wheelSize; i++)
+        {
+            wheel[i] = new Bucket();
+        }
+        mask = wheelSize - 1;
+        tickDurationNanos = unit.toNanos(tickDuration);
+        workerThread = new DaemonThreadFactory(threadName).newThread(new Worker());
+    }
+
+    /**
+     * A wheel shared by components that have no lifecycle of their own to start and stop one with.
+     * Its thread is a daemon and is started on first use.
+     */
+    public static HashedTimerWheel getDefault()
+    {
+        return DefaultInstanceHolder.INSTANCE;
+    }
+
+    public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit)
+    {
+        start();
+        final long deadlineNanos = System.nanoTime() + unit.toNanos(Math.max(0L, delay)) - startTimeNanos;
+        final Timeout timeout = new Timeout(this, task, deadlineNanos);
+        pendingTimeoutCount.incrementAndGet();
+        scheduledTimeouts.add(timeout);
+        return timeout;
+    }
+
+    public void stop()
+    {
+        if(state.getAndSet(STATE_STOPPED) != STATE_STARTED)
+        {
+            return;
+        }
+        workerThread.interrupt();
+        if(Thread.currentThread() != workerThread)
+        {
+            try
+            {
+                workerThread.join(TimeUnit.NANOSECONDS.toMillis(tickDurationNanos) + 1000L);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public long getPendingTimeoutCount()
+    {
+        return pendingTimeoutCount.get();
+    }
+
+    private void start()
+    {
+        if(state.get() == STATE_NEW)
+        {
+            synchronized (this)
+            {
+                if(state.get() == STATE_NEW)
+                {
+                    startTimeNanos = System.nanoTime();
+                    state.set(STATE_STARTED);
+                    workerThread.start();
+                }
+            }
+        }
+        if(state.get() == STATE_STOPPED)
+        {
+            throw new RejectedExecutionException("Timer wheel has been stopped");
+        }
+    }
+
+    private void onCancelled(final Timeout timeout)
+    {
+        pendingTimeoutCount.decrementAndGet();
+        cancelledTimeouts.add(timeout);
+    }
+
+    private final class Worker implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            while(state.get() == STATE_STARTED)
+            {
+                if(!awaitNextTick())
+                {
+                    break;
+                }
+                removeCancelledTimeouts();
+                transferScheduledTimeouts();
+                wheel[(int) (tick & mask)].expireTimeouts();
+                tick++;
+            }
+        }
+
+        private boolean awaitNextTick()
+        {
+            final long tickDeadlineNanos = tickDurationNanos * (tick + 1);
+            while(true)
+            {
+                final long sleepNanos = tickDeadlineNanos - (System.nanoTime() - startTimeNanos);
+                if(sleepNanos <= 0L)
+                {
+                    return true;
+                }
+                try
+                {
+                    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(sleepNanos + 999999L));
+                }
+                catch (InterruptedException e)
+                {
+                    if(state.get() == STATE_STOPPED)
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        private void transferScheduledTimeouts()
+        {
+            for(int i = 0; i < MAX_TRANSFERS_PER_TICK; i++)
+            {
+                final Timeout timeout = scheduledTimeouts.poll();
+                if(timeout == null)
+                {
+                    return;
+                }
+                if(timeout.isCancelled())
+                {
+                    continue;
+                }
+                final long deadlineTick = timeout.deadlineNanos / tickDurationNanos;
+                timeout.remainingRounds = (deadlineTick - tick) / wheel.length;
+                wheel[(int) (Math.max(deadlineTick, tick) & mask)].add(timeout);
+            }
+        }
+
+        private void removeCancelledTimeouts()
+        {
+            Timeout timeout;
+            while((timeout = cancelledTimeouts.poll()) != null)
+            {
+                if(timeout.bucket != null)
+                {
+                    timeout.bucket.remove(timeout);
+                }
+            }
+        }
+    }
+
+    private static final class Bucket
+    {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(final Timeout timeout)
+        {
+            timeout.bucket = this;
+            if(head == null)
+            {
+                head = timeout;
+                tail = timeout;
+            }
+            else
+            {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        private void expireTimeouts()
+        {
+            Timeout timeout = head;
+            while(timeout != null)
+            {
+                final Timeout next = timeout.next;
+                if(timeout.remainingRounds <= 0L)
+                {
+                    remove(timeout);
+                    timeout.expire();
+                }
+                else if(timeout.isCancelled())
+                {
+                    remove(timeout);
+                }
+                else
+                {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        private void remove(final Timeout timeout)
+        {
+            if(timeout.bucket != this)
+            {
+                return;
+            }
+            if(timeout.previous != null)
+            {
+                timeout.previous.next = timeout.next;
+            }
+            if(timeout.next != null)
+            {
+                timeout.next.previous = timeout.previous;
+            }
+            if(timeout == head)
+            {
+                head = timeout.next;
+            }
+            if(timeout == tail)
+            {
+                tail = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    public static final class Timeout
+    {
+        private static final int STATE_PENDING = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_EXPIRED = 2;
+
+        private final HashedTimerWheel timerWheel;
+        private final Runnable task;
+        private final long deadlineNanos;
+        private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+        // accessed only by the wheel thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(final HashedTimerWheel timerWheel, final Runnable task, final long deadlineNanos)
+        {
+            this.timerWheel = timerWheel;
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * @return false if the task has already run or started running
+         */
+        public boolean cancel()
+        {
+            if(!state.compareAndSet(STATE_PENDING, STATE_CANCELLED))
+            {
+                return false;
+            }
+            timerWheel.onCancelled(this);
+            return true;
+        }
+
+        public boolean isCancelled()
+        {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        public boolean isExpired()
+        {
+            return state.get() == STATE_EXPIRED;
+        }
+
+        private void expire()
+        {
+            if(!state.compareAndSet(STATE_PENDING, STATE_EXPIRED))
+            {
+                return;
+            }
+            timerWheel.pendingTimeoutCount.decrementAndGet();
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                LOGGER.log(Level.WARNING, "Timer task threw exception", t);
+            }
+        }
+    }
+
+    private static final class DefaultInstanceHolder
+    {
+        private static final HashedTimerWheel INSTANCE = new HashedTimerWheel("timer-wheel");
+    }
+}
@@ -52,6 +52,10 @@ public final class Memoizer<K, V>
             }
             catch (ExecutionException e)
             {
+                if(e.getCause() instanceof RuntimeException)
+                {
+                    throw (RuntimeException) e.getCause();
+                }
                 throw new RuntimeException(e.getCause());
             }
         }
@@ -0,0 +1,109 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads on runtimes that provide them (Java 21 and later), without requiring them
+ * at compile time.
+ */
+public final class VirtualThreads
+{
+    private static final Method OF_VIRTUAL_METHOD;
+    private static final Method BUILDER_NAME_METHOD;
+    private static final Method BUILDER_FACTORY_METHOD;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR_METHOD;
+    private static final boolean SUPPORTED;
+
+    static
+    {
+        Method ofVirtualMethod = null;
+        Method builderNameMethod = null;
+        Method builderFactoryMethod = null;
+        Method newThreadPerTaskExecutorMethod = null;
+        boolean supported = false;
+        try
+        {
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builderNameMethod = builderClass.getMethod("name", String.class, long.class);
+            builderFactoryMethod = builderClass.getMethod("factory");
+            newThreadPerTaskExecutorMethod = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            // preview releases expose the API but throw unless preview features are enabled
+            ofVirtualMethod.invoke(null);
+            supported = true;
+        }
+        catch (ClassNotFoundException e)
+        {
+            // not supported
+        }
+        catch (NoSuchMethodException e)
+        {
+            // not supported
+        }
+        catch (IllegalAccessException e)
+        {
+            // not supported
+        }
+        catch (InvocationTargetException e)
+        {
+            // not supported
+        }
+        OF_VIRTUAL_METHOD = ofVirtualMethod;
+        BUILDER_NAME_METHOD = builderNameMethod;
+        BUILDER_FACTORY_METHOD = builderFactoryMethod;
+        NEW_THREAD_PER_TASK_EXECUTOR_METHOD = newThreadPerTaskExecutorMethod;
+        SUPPORTED = supported;
+    }
+
+    private VirtualThreads() {}
+
+    public static boolean isSupported()
+    {
+        return SUPPORTED;
+    }
+
+    /**
+     * @return an executor that starts a new virtual thread, named namePrefix-N, for each task
+     * @throws UnsupportedOperationException if the runtime does not support virtual threads
+     */
+    public static ExecutorService newThreadPerTaskExecutor(final String namePrefix)
+    {
+        if(!SUPPORTED)
+        {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this runtime");
+        }
+        try
+        {
+            final Object builder = BUILDER_NAME_METHOD.invoke(OF_VIRTUAL_METHOD.invoke(null), namePrefix + "-", 1L);
+            final ThreadFactory threadFactory = (ThreadFactory) BUILDER_FACTORY_METHOD.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR_METHOD.invoke(null, threadFactory);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new UnsupportedOperationException("Unable to create virtual thread executor", e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new UnsupportedOperationException("Unable to create virtual thread executor", e.getCause());
+        }
+    }
+}
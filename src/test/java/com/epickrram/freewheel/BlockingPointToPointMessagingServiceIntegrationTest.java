@@ -18,6 +18,9 @@ package com.epickrram.freewheel;
 
 import com.epickrram.freewheel.messaging.MessagingContext;
 import com.epickrram.freewheel.messaging.MessagingContextFactory;
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.messaging.ptp.BlockingThreadModel;
+import com.epickrram.freewheel.messaging.ptp.BlockingTransportPolicy;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.api.Invocation;
@@ -28,16 +31,35 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.epickrram.freewheel.messaging.ptp.StaticEndPointProvider.localPort;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(JMock.class)
 public final class BlockingPointToPointMessagingServiceIntegrationTest
 {
     private static final int PORT = 17658;
+    private static final int VIRTUAL_THREAD_MODEL_TEST_PORT = 17662;
+    private static final int SLOW_CALL_TEST_PORT = 17663;
+    private static final int COALESCING_TEST_PORT = 17664;
+    private static final int LOAD_SHEDDING_TEST_PORT = 17665;
+    private static final int EXPIRED_REQUEST_TEST_PORT = 17666;
+    private static final int UNREGISTER_SUBSCRIBER_TEST_PORT = 17671;
     private static final Integer INT_VALUE = Integer.valueOf(42);
 
     private Mockery mockery = new Mockery();
@@ -102,4 +124,418 @@ public final class BlockingPointToPointMessagingServiceIntegrationTest
 
         assertThat(syncPublisher.methodOne(INT_VALUE), is(INT_VALUE));
     }
+
+    @Test
+    public void shouldReturnPrimitiveAndNullBoxedResponses() throws Exception
+    {
+        mockery.checking(new Expectations()
+        {
+            {
+                oneOf(syncInterface).length("four");
+                will(returnValue(4L));
+                oneOf(syncInterface).methodOne(INT_VALUE);
+                will(returnValue(null));
+            }
+        });
+
+        assertThat(syncPublisher.length("four"), is(4L));
+        assertThat(syncPublisher.methodOne(INT_VALUE), is(nullValue()));
+    }
+
+    @Test
+    public void shouldReturnLargeResponseInFull() throws Exception
+    {
+        final StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < 256 * 1024; i++)
+        {
+            builder.append((char) ('a' + (i % 26)));
+        }
+        final String value = builder.toString();
+        mockery.checking(new Expectations()
+        {
+            {
+                oneOf(syncInterface).echo(value);
+                will(returnValue(value));
+            }
+        });
+
+        assertThat(syncPublisher.echo(value), is(value));
+    }
+
+    @Test
+    public void shouldReportReceiverFailureToCaller() throws Exception
+    {
+        mockery.checking(new Expectations()
+        {
+            {
+                oneOf(syncInterface).methodOne(INT_VALUE);
+                will(throwException(new IllegalStateException("receiver failed")));
+                oneOf(syncInterface).methodOne(INT_VALUE + 1);
+                will(returnValue(Integer.valueOf(INT_VALUE + 1)));
+            }
+        });
+
+        try
+        {
+            syncPublisher.methodOne(INT_VALUE);
+            fail();
+        }
+        catch(RuntimeException e)
+        {
+            assertTrue(e.getCause() instanceof MessagingException);
+            assertTrue(e.getCause().getMessage().contains("receiver failed"));
+        }
+        assertThat(syncPublisher.methodOne(INT_VALUE + 1), is(INT_VALUE + 1));
+    }
+
+    @Test
+    public void shouldNotHoldFastCallBehindSlowCallOnSameConnection() throws Exception
+    {
+        final CountDownLatch releaseSlowCall = new CountDownLatch(1);
+        final MessagingContext slowCallContext = new MessagingContextFactory().
+                createDirectBlockingPointToPointMessagingContext(localPort(SLOW_CALL_TEST_PORT),
+                        new BlockingTransportPolicy(BlockingTransportPolicy.DEFAULT_SEND_AND_WAIT_TIMEOUT_MILLIS,
+                                BlockingThreadModel.PLATFORM, 2, 16, BlockingTransportPolicy.DEFAULT_MAX_FRAME_LENGTH));
+        slowCallContext.createSubscriber(TestSyncInterface.class, new DoublingSyncInterface()
+        {
+            @Override
+            public Integer methodOne(final int value)
+            {
+                if(value < 0)
+                {
+                    awaitUninterruptibly(releaseSlowCall);
+                }
+                return super.methodOne(value);
+            }
+        });
+        final TestSyncInterface publisher = slowCallContext.createPublisher(TestSyncInterface.class);
+        slowCallContext.start();
+
+        final ExecutorService callers = Executors.newSingleThreadExecutor();
+        try
+        {
+            final Future<Integer> slowResult = callers.submit(new Callable<Integer>()
+            {
+                @Override
+                public Integer call() throws Exception
+                {
+                    return publisher.methodOne(-1);
+                }
+            });
+
+            assertThat(publisher.methodOne(21), is(Integer.valueOf(42)));
+            assertThat(slowResult.isDone(), is(false));
+
+            releaseSlowCall.countDown();
+            assertThat(slowResult.get(5L, TimeUnit.SECONDS), is(Integer.valueOf(-2)));
+        }
+        finally
+        {
+            releaseSlowCall.countDown();
+            callers.shutdown();
+            slowCallContext.stop();
+        }
+    }
+
+    @Test
+    public void shouldCoalesceIdenticalConcurrentIdempotentCalls() throws Exception
+    {
+        final CountDownLatch releaseLookup = new CountDownLatch(1);
+        final AtomicInteger lookupCount = new AtomicInteger();
+        final MessagingContext coalescingContext = new MessagingContextFactory().
+                createDirectBlockingPointToPointMessagingContext(localPort(COALESCING_TEST_PORT));
+        coalescingContext.createSubscriber(TestSyncInterface.class, new DoublingSyncInterface()
+        {
+            @Override
+            public Integer lookup(final int value)
+            {
+                lookupCount.incrementAndGet();
+                awaitUninterruptibly(releaseLookup);
+                return super.lookup(value);
+            }
+        });
+        final TestSyncInterface publisher = coalescingContext.createPublisher(TestSyncInterface.class);
+        coalescingContext.start();
+
+        final int callerCount = 16;
+        final ExecutorService callers = Executors.newFixedThreadPool(callerCount);
+        try
+        {
+            final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for(int i = 0; i < callerCount; i++)
+            {
+                results.add(callers.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call() throws Exception
+                    {
+                        return publisher.lookup(21);
+                    }
+                }));
+            }
+            while(lookupCount.get() == 0)
+            {
+                Thread.sleep(1L);
+            }
+            Thread.sleep(200L);
+            releaseLookup.countDown();
+
+            for (Future<Integer> result : results)
+            {
+                assertThat(result.get(5L, TimeUnit.SECONDS), is(Integer.valueOf(42)));
+            }
+            assertTrue(lookupCount.get() < callerCount);
+        }
+        finally
+        {
+            releaseLookup.countDown();
+            callers.shutdown();
+            coalescingContext.stop();
+        }
+    }
+
+    @Test
+    public void shouldRejectSyncCallsWhileWorkerQueueIsTooDeep() throws Exception
+    {
+        final CountDownLatch releaseSlowCalls = new CountDownLatch(1);
+        final CountDownLatch slowCallStarted = new CountDownLatch(1);
+        final MessagingContext sheddingContext = new MessagingContextFactory().
+                createDirectBlockingPointToPointMessagingContext(localPort(LOAD_SHEDDING_TEST_PORT),
+                        new BlockingTransportPolicy(BlockingTransportPolicy.DEFAULT_SEND_AND_WAIT_TIMEOUT_MILLIS,
+                                BlockingThreadModel.PLATFORM, 1, 16, BlockingTransportPolicy.DEFAULT_MAX_FRAME_LENGTH, 1));
+        sheddingContext.createSubscriber(TestSyncInterface.class, new DoublingSyncInterface()
+        {
+            @Override
+            public Integer methodOne(final int value)
+            {
+                if(value < 0)
+                {
+                    slowCallStarted.countDown();
+                    awaitUninterruptibly(releaseSlowCalls);
+                }
+                return super.methodOne(value);
+            }
+        });
+        final TestSyncInterface publisher = sheddingContext.createPublisher(TestSyncInterface.class);
+        sheddingContext.start();
+
+        final ExecutorService callers = Executors.newFixedThreadPool(2);
+        try
+        {
+            final Future<Integer> runningCall = callers.submit(slowCall(publisher, -1));
+            slowCallStarted.await(5L, TimeUnit.SECONDS);
+            final Future<Integer> queuedCall = callers.submit(slowCall(publisher, -2));
+            Thread.sleep(200L);
+
+            try
+            {
+                publisher.methodOne(21);
+                fail("Expected request to be shed");
+            }
+            catch(RuntimeException e)
+            {
+                assertTrue(e.getCause() instanceof MessagingException);
+                assertTrue(e.getCause().getMessage().contains("overloaded"));
+            }
+
+            releaseSlowCalls.countDown();
+            assertThat(runningCall.get(5L, TimeUnit.SECONDS), is(Integer.valueOf(-2)));
+            assertThat(queuedCall.get(5L, TimeUnit.SECONDS), is(Integer.valueOf(-4)));
+            assertThat(publisher.methodOne(21), is(Integer.valueOf(42)));
+        }
+        finally
+        {
+            releaseSlowCalls.countDown();
+            callers.shutdown();
+            sheddingContext.stop();
+        }
+    }
+
+    @Test
+    public void shouldNotInvokeSyncCallsAfterCallerHasTimedOut() throws Exception
+    {
+        final CountDownLatch releaseSlowCall = new CountDownLatch(1);
+        final CountDownLatch slowCallStarted = new CountDownLatch(1);
+        final AtomicInteger expiredCallInvocationCount = new AtomicInteger();
+        final MessagingContext expiryContext = new MessagingContextFactory().
+                createDirectBlockingPointToPointMessagingContext(localPort(EXPIRED_REQUEST_TEST_PORT),
+                        new BlockingTransportPolicy(300, BlockingThreadModel.PLATFORM, 1, 16,
+                                BlockingTransportPolicy.DEFAULT_MAX_FRAME_LENGTH));
+        expiryContext.createSubscriber(TestSyncInterface.class, new DoublingSyncInterface()
+        {
+            @Override
+            public Integer methodOne(final int value)
+            {
+                if(value == -1)
+                {
+                    slowCallStarted.countDown();
+                    awaitUninterruptibly(releaseSlowCall);
+                }
+                else if(value == -2)
+                {
+                    expiredCallInvocationCount.incrementAndGet();
+                }
+                return super.methodOne(value);
+            }
+        });
+        final TestSyncInterface publisher = expiryContext.createPublisher(TestSyncInterface.class);
+        expiryContext.start();
+
+        final ExecutorService callers = Executors.newSingleThreadExecutor();
+        try
+        {
+            callers.submit(slowCall(publisher, -1));
+            slowCallStarted.await(5L, TimeUnit.SECONDS);
+            try
+            {
+                publisher.methodOne(-2);
+                fail("Expected call to time out");
+            }
+            catch(RuntimeException e)
+            {
+                assertTrue(e.getCause() instanceof MessagingException);
+            }
+            // deadlines have millisecond resolution
+            Thread.sleep(20L);
+
+            releaseSlowCall.countDown();
+            assertThat(publisher.methodOne(21), is(Integer.valueOf(42)));
+            assertThat(expiredCallInvocationCount.get(), is(0));
+        }
+        finally
+        {
+            releaseSlowCall.countDown();
+            callers.shutdown();
+            expiryContext.stop();
+        }
+    }
+
+    @Test
+    public void shouldReleaseListeningSocketWhenLastSubscriberIsRemoved() throws Exception
+    {
+        final MessagingContext subscriberContext = new MessagingContextFactory().
+                createDirectBlockingPointToPointMessagingContext(localPort(UNREGISTER_SUBSCRIBER_TEST_PORT));
+        final DoublingSyncInterface subscriber = new DoublingSyncInterface();
+        subscriberContext.createSubscriber(TestSyncInterface.class, subscriber);
+        subscriberContext.start();
+
+        try
+        {
+            subscriberContext.removeSubscriber(TestSyncInterface.class, subscriber);
+
+            final long timeout = System.currentTimeMillis() + 5000L;
+            ServerSocket serverSocket = null;
+            while(serverSocket == null && System.currentTimeMillis() < timeout)
+            {
+                try
+                {
+                    serverSocket = new ServerSocket(UNREGISTER_SUBSCRIBER_TEST_PORT);
+                }
+                catch(IOException e)
+                {
+                    Thread.sleep(10L);
+                }
+            }
+            assertTrue(serverSocket != null);
+            serverSocket.close();
+        }
+        finally
+        {
+            subscriberContext.stop();
+        }
+    }
+
+    @Test
+    public void shouldServeConcurrentSyncCallsWithVirtualThreadModel() throws Exception
+    {
+        final MessagingContext virtualThreadContext = new MessagingContextFactory().
+                createDirectBlockingPointToPointMessagingContext(localPort(VIRTUAL_THREAD_MODEL_TEST_PORT),
+                        BlockingThreadModel.VIRTUAL);
+        virtualThreadContext.createSubscriber(TestSyncInterface.class, new DoublingSyncInterface());
+        final TestSyncInterface publisher = virtualThreadContext.createPublisher(TestSyncInterface.class);
+        virtualThreadContext.start();
+
+        final ExecutorService callers = Executors.newFixedThreadPool(8);
+        try
+        {
+            final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for(int i = 0; i < 64; i++)
+            {
+                final int value = i;
+                results.add(callers.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call() throws Exception
+                    {
+                        return publisher.methodOne(value);
+                    }
+                }));
+            }
+            for(int i = 0; i < results.size(); i++)
+            {
+                assertThat(results.get(i).get(), is(Integer.valueOf(i * 2)));
+            }
+        }
+        finally
+        {
+            callers.shutdown();
+            virtualThreadContext.stop();
+        }
+    }
+
+    private static Callable<Integer> slowCall(final TestSyncInterface publisher, final int value)
+    {
+        return new Callable<Integer>()
+        {
+            @Override
+            public Integer call() throws Exception
+            {
+                return publisher.methodOne(value);
+            }
+        };
+    }
+
+    private static void awaitUninterruptibly(final CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class DoublingSyncInterface implements TestSyncInterface
+    {
+        @Override
+        public Integer methodOne(final int value)
+        {
+            return value * 2;
+        }
+
+        @Override
+        public String echo(final String value)
+        {
+            return value;
+        }
+
+        @Override
+        public long length(final String value)
+        {
+            return value.length();
+        }
+
+        @Override
+        public Integer lookup(final int value)
+        {
+            return value * 2;
+        }
+
+        @Override
+        public void ayncMethod(final int value)
+        {
+        }
+    }
 }
\ No newline at end of file
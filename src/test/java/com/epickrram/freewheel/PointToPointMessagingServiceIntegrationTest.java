@@ -16,21 +16,58 @@
 
 package com.epickrram.freewheel;
 
+import com.epickrram.freewheel.io.DecoderStream;
+import com.epickrram.freewheel.io.PackerEncoderStream;
+import com.epickrram.freewheel.messaging.MessageHeader;
 import com.epickrram.freewheel.messaging.MessagingContext;
 import com.epickrram.freewheel.messaging.MessagingContextFactory;
+import com.epickrram.freewheel.messaging.Receiver;
+import com.epickrram.freewheel.messaging.config.Compressed;
+import com.epickrram.freewheel.messaging.config.Remote;
+import com.epickrram.freewheel.messaging.dispatch.InlineMessageDispatcher;
+import com.epickrram.freewheel.messaging.ptp.OutboundFlowControl;
+import com.epickrram.freewheel.messaging.ptp.PointToPointMessagingService;
 import com.epickrram.freewheel.messaging.ptp.PropertiesFileEndPointProvider;
+import com.epickrram.freewheel.messaging.ptp.ReconnectPolicy;
+import com.epickrram.freewheel.messaging.ptp.SyncRequestPolicy;
+import com.epickrram.freewheel.protocol.CodeBookImpl;
+import com.epickrram.freewheel.remoting.BufferedEncodingMode;
+import com.epickrram.freewheel.remoting.ClassNameTopicIdGenerator;
+import com.epickrram.freewheel.remoting.TopicIdGenerator;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.msgpack.packer.MessagePackPacker;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.epickrram.freewheel.messaging.ptp.StaticEndPointProvider.localPort;
 
 public final class PointToPointMessagingServiceIntegrationTest
 {
+    private static final int RECONNECT_TEST_PORT = 17659;
+    private static final int DYNAMIC_REGISTRATION_TEST_PORT = 17660;
+    private static final int COMPRESSION_TEST_PORT = 17661;
+    private static final int SYNC_TEST_PORT = 17667;
+    private static final int ASYNC_TEST_PORT = 17668;
+    private static final int BUFFERED_REGISTRATION_TEST_PORT = 17669;
+    private static final int DEFERRED_ENCODING_TEST_PORT = 17670;
+
     private MessagingContext messagingContext;
 
     @Before
@@ -100,6 +137,174 @@ public final class PointToPointMessagingServiceIntegrationTest
         Assert.assertTrue(isInAscendingOrder(testInterface.methodTwoInvocationArguments));
     }
 
+    @Test
+    public void shouldResumePublishingAfterSubscriberRestarts() throws Exception
+    {
+        final MessagingContextFactory contextFactory = new MessagingContextFactory();
+        final TestInterfaceImpl firstSubscriber = new TestInterfaceImpl();
+        final MessagingContext firstSubscriberContext = contextFactory.createDirectPointToPointMessagingContext(localPort(RECONNECT_TEST_PORT));
+        firstSubscriberContext.createSubscriber(TestInterface.class, firstSubscriber);
+        firstSubscriberContext.start();
+
+        final MessagingContext publisherContext = contextFactory.createDirectPointToPointMessagingContext(localPort(RECONNECT_TEST_PORT));
+        final TestInterface proxy = publisherContext.createPublisher(TestInterface.class);
+        publisherContext.start();
+
+        try
+        {
+            proxy.methodTwo(0L, 0, (byte) 0);
+            waitForExpectedMethodCalls(firstSubscriber, 1);
+            Assert.assertEquals(1, firstSubscriber.methodTwoInvocationCount);
+
+            firstSubscriberContext.stop();
+
+            final TestInterfaceImpl secondSubscriber = new TestInterfaceImpl();
+            final MessagingContext secondSubscriberContext = contextFactory.createDirectPointToPointMessagingContext(localPort(RECONNECT_TEST_PORT));
+            secondSubscriberContext.createSubscriber(TestInterface.class, secondSubscriber);
+            secondSubscriberContext.start();
+
+            try
+            {
+                final long timeout = System.currentTimeMillis() + 10000L;
+                int sequence = 1;
+                while(System.currentTimeMillis() < timeout && secondSubscriber.methodTwoInvocationCount == 0)
+                {
+                    proxy.methodTwo(0L, sequence++, (byte) 0);
+                    Thread.sleep(50L);
+                }
+                Assert.assertTrue(secondSubscriber.methodTwoInvocationCount != 0);
+            }
+            finally
+            {
+                secondSubscriberContext.stop();
+            }
+        }
+        finally
+        {
+            publisherContext.stop();
+        }
+    }
+
+    @Test
+    public void shouldAddAndRemoveSubscribersOnRunningContext() throws Exception
+    {
+        final MessagingContextFactory contextFactory = new MessagingContextFactory();
+        final MessagingContext subscriberContext = contextFactory.createDirectPointToPointMessagingContext(localPort(DYNAMIC_REGISTRATION_TEST_PORT));
+        final MessagingContext publisherContext = contextFactory.createDirectPointToPointMessagingContext(localPort(DYNAMIC_REGISTRATION_TEST_PORT));
+        subscriberContext.start();
+        publisherContext.start();
+
+        try
+        {
+            final TestInterfaceImpl firstSubscriber = new TestInterfaceImpl();
+            subscriberContext.createSubscriber(TestInterface.class, firstSubscriber);
+            final TestInterface proxy = publisherContext.createPublisher(TestInterface.class);
+
+            proxy.methodTwo(0L, 0, (byte) 0);
+            waitForExpectedMethodCalls(firstSubscriber, 1);
+            Assert.assertEquals(1, firstSubscriber.methodTwoInvocationCount);
+
+            subscriberContext.removeSubscriber(TestInterface.class, firstSubscriber);
+            final TestInterfaceImpl secondSubscriber = new TestInterfaceImpl();
+            subscriberContext.createSubscriber(TestInterface.class, secondSubscriber);
+
+            final long timeout = System.currentTimeMillis() + 10000L;
+            int sequence = 1;
+            while(System.currentTimeMillis() < timeout && secondSubscriber.methodTwoInvocationCount == 0)
+            {
+                proxy.methodTwo(0L, sequence++, (byte) 0);
+                Thread.sleep(50L);
+            }
+            Assert.assertTrue(secondSubscriber.methodTwoInvocationCount != 0);
+            Assert.assertEquals(1, firstSubscriber.methodTwoInvocationCount);
+        }
+        finally
+        {
+            publisherContext.stop();
+            subscriberContext.stop();
+        }
+    }
+
+    @Test
+    public void shouldAddAndRemoveBufferedPublishersOnRunningContext() throws Exception
+    {
+        final MessagingContextFactory contextFactory = new MessagingContextFactory();
+        final MessagingContext subscriberContext = contextFactory.createDirectPointToPointMessagingContext(localPort(BUFFERED_REGISTRATION_TEST_PORT));
+        final MessagingContext publisherContext = contextFactory.createPointToPointMessagingContext(localPort(BUFFERED_REGISTRATION_TEST_PORT));
+        subscriberContext.start();
+        publisherContext.start();
+
+        try
+        {
+            final TestInterfaceImpl subscriber = new TestInterfaceImpl();
+            subscriberContext.createSubscriber(TestInterface.class, subscriber);
+
+            final TestInterface firstProxy = publisherContext.createPublisher(TestInterface.class);
+            for(int i = 0; i < 5; i++)
+            {
+                firstProxy.methodTwo(0L, i, (byte) 0);
+            }
+            waitForExpectedMethodCalls(subscriber, 5);
+            Assert.assertEquals(5, subscriber.methodTwoInvocationCount);
+
+            publisherContext.removePublisher(TestInterface.class);
+            final TestInterface secondProxy = publisherContext.createPublisher(TestInterface.class);
+
+            final long timeout = System.currentTimeMillis() + 10000L;
+            int sequence = 5;
+            while(System.currentTimeMillis() < timeout && subscriber.methodTwoInvocationCount == 5)
+            {
+                secondProxy.methodTwo(0L, sequence++, (byte) 0);
+                Thread.sleep(50L);
+            }
+            Assert.assertTrue(subscriber.methodTwoInvocationCount > 5);
+        }
+        finally
+        {
+            publisherContext.stop();
+            subscriberContext.stop();
+        }
+    }
+
+    @Test
+    public void shouldContinuePublishingAfterDeferredEncodingFailure() throws Exception
+    {
+        final MessagingContextFactory contextFactory = new MessagingContextFactory();
+        final MessagingContext subscriberContext = contextFactory.createDirectPointToPointMessagingContext(localPort(DEFERRED_ENCODING_TEST_PORT));
+        final MessagingContext publisherContext = contextFactory.createPointToPointMessagingContext(localPort(DEFERRED_ENCODING_TEST_PORT),
+                BufferedEncodingMode.EVENT_PROCESSOR_THREAD);
+        final List<Object> receivedValues = new CopyOnWriteArrayList<Object>();
+        subscriberContext.createSubscriber(ValueListener.class, new ValueListener()
+        {
+            @Override
+            public void onValue(final Object value)
+            {
+                receivedValues.add(value);
+            }
+        });
+        final ValueListener proxy = publisherContext.createPublisher(ValueListener.class);
+        subscriberContext.start();
+        publisherContext.start();
+
+        try
+        {
+            proxy.onValue(new Object());
+            proxy.onValue("encodable");
+
+            final long timeout = System.currentTimeMillis() + 10000L;
+            while(System.currentTimeMillis() < timeout && receivedValues.isEmpty())
+            {
+                Thread.sleep(10L);
+            }
+            Assert.assertEquals(Collections.<Object>singletonList("encodable"), receivedValues);
+        }
+        finally
+        {
+            publisherContext.stop();
+            subscriberContext.stop();
+        }
+    }
+
     @Ignore("publishers now created with deferred connection")
     @Test
     public void shouldSuccessfullyCreatePublisherIfSubscriberIsNotYetListening() throws Exception
@@ -143,6 +348,170 @@ public final class PointToPointMessagingServiceIntegrationTest
         Assert.assertEquals(printMissing(testInterface.methodTwoInvocationArguments), expectedCallsOnMethodTwo, testInterface.methodTwoInvocationCount);
     }
 
+    @Test
+    public void shouldDeliverCompressedMessages() throws Exception
+    {
+        final MessagingContextFactory contextFactory = new MessagingContextFactory();
+        final MessagingContext subscriberContext = contextFactory.createDirectPointToPointMessagingContext(localPort(COMPRESSION_TEST_PORT));
+        final BlockingQueue<String> receivedSnapshots = new LinkedBlockingQueue<String>();
+        subscriberContext.createSubscriber(SnapshotListener.class, new SnapshotListener()
+        {
+            @Override
+            public void onSnapshot(final String snapshot)
+            {
+                receivedSnapshots.add(snapshot);
+            }
+        });
+        subscriberContext.start();
+        final MessagingContext publisherContext = contextFactory.createDirectPointToPointMessagingContext(localPort(COMPRESSION_TEST_PORT));
+        final SnapshotListener proxy = publisherContext.createPublisher(SnapshotListener.class);
+        publisherContext.start();
+
+        try
+        {
+            final StringBuilder snapshot = new StringBuilder();
+            for(int i = 0; i < 2000; i++)
+            {
+                snapshot.append("instrument-").append(i % 50).append(';');
+            }
+            proxy.onSnapshot(snapshot.toString());
+
+            Assert.assertEquals(snapshot.toString(), receivedSnapshots.poll(10L, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            publisherContext.stop();
+            subscriberContext.stop();
+        }
+    }
+
+    @Test
+    public void shouldReturnSyncResponsesOnPublisherConnection() throws Exception
+    {
+        final MessagingContextFactory contextFactory = new MessagingContextFactory();
+        final MessagingContext subscriberContext = contextFactory.createDirectPointToPointMessagingContext(localPort(SYNC_TEST_PORT));
+        subscriberContext.createSubscriber(TestSyncInterface.class, new DoublingSyncInterface());
+        subscriberContext.start();
+        final MessagingContext publisherContext = contextFactory.createDirectPointToPointMessagingContext(localPort(SYNC_TEST_PORT));
+        final TestSyncInterface proxy = publisherContext.createPublisher(TestSyncInterface.class);
+        publisherContext.start();
+
+        final ExecutorService callers = Executors.newFixedThreadPool(8);
+        try
+        {
+            Assert.assertEquals(Integer.valueOf(42), proxy.methodOne(21));
+            Assert.assertEquals(5L, proxy.length("abcde"));
+
+            final StringBuilder largeValue = new StringBuilder();
+            while(largeValue.length() < 256 * 1024)
+            {
+                largeValue.append("response-").append(largeValue.length()).append(';');
+            }
+            Assert.assertEquals(largeValue.toString(), proxy.echo(largeValue.toString()));
+
+            final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for(int i = 0; i < 200; i++)
+            {
+                final int value = i;
+                results.add(callers.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call() throws Exception
+                    {
+                        return proxy.methodOne(value);
+                    }
+                }));
+            }
+            for(int i = 0; i < results.size(); i++)
+            {
+                Assert.assertEquals(Integer.valueOf(i * 2), results.get(i).get(10L, TimeUnit.SECONDS));
+            }
+        }
+        finally
+        {
+            callers.shutdown();
+            publisherContext.stop();
+            subscriberContext.stop();
+        }
+    }
+
+    @Test
+    public void shouldCompleteAsyncRequestsInAnyOrder() throws Exception
+    {
+        final CodeBookImpl codeBook = new CodeBookImpl();
+        final TopicIdGenerator topicIdGenerator = new ClassNameTopicIdGenerator();
+        final int topicId = topicIdGenerator.getTopicId(TestSyncInterface.class);
+        final CountDownLatch releaseFirstRequest = new CountDownLatch(1);
+        final PointToPointMessagingService subscriberService =
+                new PointToPointMessagingService(localPort(ASYNC_TEST_PORT), codeBook, topicIdGenerator,
+                        OutboundFlowControl.defaults(), ReconnectPolicy.defaults(), InlineMessageDispatcher.factory(),
+                        new SyncRequestPolicy(SyncRequestPolicy.DEFAULT_SEND_AND_WAIT_TIMEOUT_MILLIS, 4, 16, 16));
+        subscriberService.registerSubscriber(TestSyncInterface.class);
+        subscriberService.registerReceiver(topicId, new Receiver()
+        {
+            @Override
+            public void onMessage(final int topicId, final int methodId, final DecoderStream decoderStream)
+            {
+            }
+
+            @Override
+            public Object onSyncMessage(final int topicId, final int methodId, final DecoderStream decoderStream)
+            {
+                try
+                {
+                    final int value = decoderStream.readInt();
+                    if(value == 0)
+                    {
+                        releaseFirstRequest.await(10L, TimeUnit.SECONDS);
+                    }
+                    return "reply-" + value;
+                }
+                catch(Exception e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        subscriberService.start();
+        final PointToPointMessagingService publisherService =
+                new PointToPointMessagingService(localPort(ASYNC_TEST_PORT), codeBook, topicIdGenerator);
+        publisherService.registerPublisher(TestSyncInterface.class);
+        publisherService.start();
+
+        try
+        {
+            final List<Future<DecoderStream>> responses = new ArrayList<Future<DecoderStream>>();
+            for(int i = 0; i < 10; i++)
+            {
+                responses.add(publisherService.sendAsync(topicId, syncRequest(codeBook, topicId, i)));
+            }
+            for(int i = 1; i < responses.size(); i++)
+            {
+                Assert.assertEquals("reply-" + i, responses.get(i).get(10L, TimeUnit.SECONDS).readString());
+            }
+            Assert.assertFalse(responses.get(0).isDone());
+
+            releaseFirstRequest.countDown();
+            Assert.assertEquals("reply-0", responses.get(0).get(10L, TimeUnit.SECONDS).readString());
+        }
+        finally
+        {
+            releaseFirstRequest.countDown();
+            publisherService.shutdown();
+            subscriberService.shutdown();
+        }
+    }
+
+    private static ByteArrayOutputStream syncRequest(final CodeBookImpl codeBook, final int topicId, final int value) throws IOException
+    {
+        final ByteArrayOutputStream request = new ByteArrayOutputStream();
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, topicId, 0, MessageHeader.FLAG_SYNC, value);
+        request.write(header, 0, header.length);
+        new PackerEncoderStream(codeBook, new MessagePackPacker(request)).writeInt(value);
+        return request;
+    }
+
     private void waitForExpectedMethodCalls(final TestInterfaceImpl testInterface, final int expectedCallsOnMethodTwo) throws InterruptedException
     {
         final long timeout = System.currentTimeMillis() + 10000L;
@@ -183,6 +552,51 @@ public final class PointToPointMessagingServiceIntegrationTest
         return msg.toString();
     }
 
+    private static final class DoublingSyncInterface implements TestSyncInterface
+    {
+        @Override
+        public Integer methodOne(final int value)
+        {
+            return value * 2;
+        }
+
+        @Override
+        public String echo(final String value)
+        {
+            return value;
+        }
+
+        @Override
+        public long length(final String value)
+        {
+            return value.length();
+        }
+
+        @Override
+        public Integer lookup(final int value)
+        {
+            return value * 2;
+        }
+
+        @Override
+        public void ayncMethod(final int value)
+        {
+        }
+    }
+
+    @Remote
+    public interface ValueListener
+    {
+        void onValue(final Object value);
+    }
+
+    @Remote
+    @Compressed(threshold = 1024)
+    public interface SnapshotListener
+    {
+        void onSnapshot(final String snapshot);
+    }
+
     private static final class TestInterfaceImpl implements TestInterface, TestInterface2
     {
         private final List<Integer> methodOneInvocationArguments = new ArrayList<Integer>();
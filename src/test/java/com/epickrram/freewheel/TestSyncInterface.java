@@ -16,11 +16,16 @@
 
 package com.epickrram.freewheel;
 
+import com.epickrram.freewheel.messaging.config.Idempotent;
 import com.epickrram.freewheel.messaging.config.Remote;
 
 @Remote
 public interface TestSyncInterface
 {
     Integer methodOne(int value);
+    String echo(String value);
+    long length(String value);
+    @Idempotent
+    Integer lookup(int value);
     void ayncMethod(int value);
 }
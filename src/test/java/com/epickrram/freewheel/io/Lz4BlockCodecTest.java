@@ -0,0 +1,123 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.io;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public final class Lz4BlockCodecTest
+{
+    @Test
+    public void shouldCompressRepetitiveData() throws Exception
+    {
+        final byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) ("reference-data-" + (i % 37)).charAt(i % 15);
+        }
+
+        final int compressedLength = assertRoundTrip(data, 0, data.length);
+
+        assertTrue(compressedLength < data.length / 4);
+    }
+
+    @Test
+    public void shouldRoundTripIncompressibleData() throws Exception
+    {
+        final byte[] data = new byte[5000];
+        new Random(42L).nextBytes(data);
+
+        final int compressedLength = assertRoundTrip(data, 0, data.length);
+
+        assertTrue(compressedLength <= Lz4BlockCodec.maxCompressedLength(data.length));
+    }
+
+    @Test
+    public void shouldRoundTripShortInput() throws Exception
+    {
+        final byte[] data = "short".getBytes("UTF-8");
+
+        assertRoundTrip(data, 0, data.length);
+        assertRoundTrip(data, 0, 0);
+    }
+
+    @Test
+    public void shouldRoundTripFromOffset() throws Exception
+    {
+        final byte[] data = new byte[1000];
+        Arrays.fill(data, 100, 900, (byte) 7);
+
+        assertRoundTrip(data, 100, 800);
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectTruncatedBlock() throws Exception
+    {
+        final byte[] data = new byte[1000];
+        Arrays.fill(data, (byte) 3);
+        final byte[] compressed = new byte[Lz4BlockCodec.maxCompressedLength(data.length)];
+        final int compressedLength = Lz4BlockCodec.compress(data, 0, data.length, compressed, 0);
+
+        Lz4BlockCodec.decompress(compressed, 0, compressedLength - 1, new byte[data.length], 0, data.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectOffsetBeforeStartOfOutput() throws Exception
+    {
+        // one literal, then a match 2 bytes back
+        final byte[] block = new byte[] {0x10, 1, 2, 0};
+
+        Lz4BlockCodec.decompress(block, 0, block.length, new byte[5], 0, 5);
+    }
+
+    @Test
+    public void shouldNotCarryMatchesBetweenCallsOnOneThread() throws Exception
+    {
+        final byte[] first = new byte[4000];
+        Arrays.fill(first, (byte) 'a');
+        final byte[] second = new byte[4000];
+        new Random(7L).nextBytes(second);
+        Arrays.fill(second, 1000, 3000, (byte) 'a');
+
+        final byte[] expected = new byte[Lz4BlockCodec.maxCompressedLength(second.length)];
+        final int expectedLength = Lz4BlockCodec.compress(second, 0, second.length, expected, 0);
+        assertRoundTrip(first, 0, first.length);
+        final byte[] actual = new byte[expected.length];
+        final int actualLength = Lz4BlockCodec.compress(second, 0, second.length, actual, 0);
+
+        assertThat(actualLength, is(expectedLength));
+        assertTrue(Arrays.equals(expected, actual));
+        assertRoundTrip(second, 0, second.length);
+    }
+
+    private static int assertRoundTrip(final byte[] data, final int offset, final int length) throws IOException
+    {
+        final byte[] compressed = new byte[3 + Lz4BlockCodec.maxCompressedLength(length)];
+        final int compressedLength = Lz4BlockCodec.compress(data, offset, length, compressed, 3);
+        final byte[] decompressed = new byte[length + 2];
+        Lz4BlockCodec.decompress(compressed, 3, compressedLength, decompressed, 2, length);
+
+        assertThat(Arrays.copyOfRange(decompressed, 2, length + 2), is(Arrays.copyOfRange(data, offset, offset + length)));
+        return compressedLength;
+    }
+}
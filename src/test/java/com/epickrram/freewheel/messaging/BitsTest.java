@@ -41,6 +41,15 @@ public final class BitsTest
         Assert.assertEquals(INT_VALUE, Bits.readInt(buffer, 2));
     }
 
+    @Test
+    public void shouldTranscodeUnsignedShortToBytesAtOffset() throws Exception
+    {
+        final byte[] buffer = new byte[4];
+        Bits.writeShort(0xFFFE, buffer, 2);
+
+        Assert.assertEquals(0xFFFE, Bits.readUnsignedShort(buffer, 2));
+    }
+
     @Test
     public void shouldTranscodeLongToBytes() throws Exception
     {
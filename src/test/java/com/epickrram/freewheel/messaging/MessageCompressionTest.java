@@ -0,0 +1,93 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging;
+
+import com.epickrram.freewheel.messaging.config.Compressed;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public final class MessageCompressionTest
+{
+    private static final int TOPIC_ID = 37;
+    private static final int METHOD_ID = 5;
+
+    @Test
+    public void shouldNotCompressPayloadBelowThreshold() throws Exception
+    {
+        final byte[] message = message(99);
+
+        assertThat(new MessageCompression(100).compress(message), is(sameInstance(message)));
+    }
+
+    @Test
+    public void shouldCompressPayloadAboveThresholdAndRestoreOriginal() throws Exception
+    {
+        final byte[] message = message(10000);
+
+        final byte[] compressed = new MessageCompression(100).compress(message);
+
+        assertTrue(compressed.length < message.length);
+        assertThat(MessageHeader.isCompressed(compressed, 0), is(true));
+        assertThat(MessageHeader.isSync(compressed, 0), is(true));
+        assertThat(MessageHeader.getTopicId(compressed, 0), is(TOPIC_ID));
+        assertThat(MessageHeader.getMethodId(compressed, 0), is(METHOD_ID));
+
+        final byte[] framed = new byte[compressed.length + 8];
+        System.arraycopy(compressed, 0, framed, 8, compressed.length);
+        assertThat(MessageCompression.decompress(framed, 8, compressed.length), is(message));
+    }
+
+    @Test(expected = MessagingException.class)
+    public void shouldRejectCorruptCompressedMessage() throws Exception
+    {
+        final byte[] compressed = new MessageCompression(100).compress(message(10000));
+
+        MessageCompression.decompress(compressed, 0, compressed.length - 10);
+    }
+
+    @Test
+    public void shouldReadThresholdFromDescriptor() throws Exception
+    {
+        assertThat(MessageCompression.forDescriptor(CompressedInterface.class).getThreshold(), is(512));
+        assertThat(MessageCompression.forDescriptor(UncompressedInterface.class), is(nullValue()));
+    }
+
+    private static byte[] message(final int payloadLength)
+    {
+        final byte[] message = new byte[MessageHeader.LENGTH + payloadLength];
+        MessageHeader.write(message, 0, TOPIC_ID, METHOD_ID, MessageHeader.FLAG_SYNC, 11L);
+        Arrays.fill(message, MessageHeader.LENGTH, message.length, (byte) 'x');
+        return message;
+    }
+
+    @Compressed(threshold = 512)
+    private interface CompressedInterface
+    {
+        void onSnapshot(final String snapshot);
+    }
+
+    private interface UncompressedInterface
+    {
+        void onSnapshot(final String snapshot);
+    }
+}
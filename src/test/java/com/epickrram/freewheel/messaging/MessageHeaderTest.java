@@ -0,0 +1,123 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public final class MessageHeaderTest
+{
+    private static final int TOPIC_ID = -98234;
+    private static final int METHOD_ID = 40000;
+    private static final long SEQUENCE = 1L << 40;
+
+    @Test
+    public void shouldTranscodeHeaderAtOffset() throws Exception
+    {
+        final byte[] message = new byte[MessageHeader.LENGTH + 3];
+        MessageHeader.write(message, 3, TOPIC_ID, METHOD_ID, MessageHeader.FLAG_SYNC, SEQUENCE);
+
+        MessageHeader.validate(message, 3, MessageHeader.LENGTH);
+        assertThat(MessageHeader.getVersion(message, 3), is((int) MessageHeader.VERSION));
+        assertThat(MessageHeader.getTopicId(message, 3), is(TOPIC_ID));
+        assertThat(MessageHeader.getMethodId(message, 3), is(METHOD_ID));
+        assertThat(MessageHeader.getSequence(message, 3), is(SEQUENCE));
+        assertThat(MessageHeader.isSync(message, 3), is(true));
+        assertThat(MessageHeader.hasTimestamp(message, 3), is(false));
+        assertThat(MessageHeader.getLength(message, 3), is(MessageHeader.LENGTH));
+    }
+
+    @Test
+    public void shouldIncludeOptionalTimestampInHeaderLength() throws Exception
+    {
+        final byte[] message = new byte[MessageHeader.LENGTH + MessageHeader.TIMESTAMP_LENGTH];
+        MessageHeader.write(message, 0, TOPIC_ID, METHOD_ID, MessageHeader.FLAG_TIMESTAMP, SEQUENCE);
+        MessageHeader.writeTimestamp(message, 0, 123456789L);
+
+        assertThat(MessageHeader.isSync(message, 0), is(false));
+        assertThat(MessageHeader.getTimestamp(message, 0), is(123456789L));
+        assertThat(MessageHeader.getLength(message, 0), is(MessageHeader.LENGTH + MessageHeader.TIMESTAMP_LENGTH));
+    }
+
+    @Test
+    public void shouldInsertDeadlineAfterTimestamp() throws Exception
+    {
+        final byte[] message = new byte[MessageHeader.LENGTH + MessageHeader.TIMESTAMP_LENGTH + 2];
+        MessageHeader.write(message, 0, TOPIC_ID, METHOD_ID, MessageHeader.FLAG_SYNC | MessageHeader.FLAG_TIMESTAMP, SEQUENCE);
+        MessageHeader.writeTimestamp(message, 0, 123456789L);
+        message[message.length - 2] = 7;
+        message[message.length - 1] = 11;
+
+        final byte[] withDeadline = MessageHeader.withDeadline(message, message.length, 987654321L);
+
+        assertThat(MessageHeader.hasDeadline(message, 0), is(false));
+        assertThat(MessageHeader.isSync(withDeadline, 0), is(true));
+        assertThat(MessageHeader.getTimestamp(withDeadline, 0), is(123456789L));
+        assertThat(MessageHeader.getDeadline(withDeadline, 0), is(987654321L));
+        assertThat(MessageHeader.getLength(withDeadline, 0),
+                is(MessageHeader.LENGTH + MessageHeader.TIMESTAMP_LENGTH + MessageHeader.DEADLINE_LENGTH));
+        assertThat(withDeadline.length, is(message.length + MessageHeader.DEADLINE_LENGTH));
+        assertThat(withDeadline[withDeadline.length - 2], is((byte) 7));
+        assertThat(withDeadline[withDeadline.length - 1], is((byte) 11));
+    }
+
+    @Test
+    public void shouldReplaceExistingDeadline() throws Exception
+    {
+        final byte[] message = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(message, 0, TOPIC_ID, METHOD_ID, 0, SEQUENCE);
+
+        final byte[] withDeadline = MessageHeader.withDeadline(
+                MessageHeader.withDeadline(message, message.length, 1000L), MessageHeader.LENGTH + MessageHeader.DEADLINE_LENGTH, 2000L);
+
+        assertThat(withDeadline.length, is(MessageHeader.LENGTH + MessageHeader.DEADLINE_LENGTH));
+        assertThat(MessageHeader.getDeadline(withDeadline, 0), is(2000L));
+    }
+
+    @Test
+    public void shouldOnlyExpireMessagesWithPassedDeadline() throws Exception
+    {
+        final byte[] message = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(message, 0, TOPIC_ID, METHOD_ID, MessageHeader.FLAG_SYNC, SEQUENCE);
+        final byte[] withDeadline = MessageHeader.withDeadline(message, message.length, 1000L);
+
+        assertThat(MessageHeader.isExpired(message, 0, Long.MAX_VALUE), is(false));
+        assertThat(MessageHeader.getDeadline(message, 0), is(0L));
+        assertThat(MessageHeader.isExpired(withDeadline, 0, 1000L), is(false));
+        assertThat(MessageHeader.isExpired(withDeadline, 0, 1001L), is(true));
+    }
+
+    @Test(expected = MessagingException.class)
+    public void shouldRejectTruncatedHeader() throws Exception
+    {
+        final byte[] message = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(message, 0, TOPIC_ID, METHOD_ID, MessageHeader.FLAG_TIMESTAMP, SEQUENCE);
+
+        MessageHeader.validate(message, 0, message.length);
+    }
+
+    @Test(expected = MessagingException.class)
+    public void shouldRejectUnknownVersion() throws Exception
+    {
+        final byte[] message = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(message, 0, TOPIC_ID, METHOD_ID, 0, SEQUENCE);
+        message[0] = 2;
+
+        MessageHeader.validate(message, 0, message.length);
+    }
+}
@@ -0,0 +1,229 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging;
+
+import com.epickrram.freewheel.messaging.config.Remote;
+import com.epickrram.freewheel.messaging.filter.FilteredReceiver;
+import com.epickrram.freewheel.messaging.filter.MessageFilters;
+import com.epickrram.freewheel.protocol.CodeBookImpl;
+import com.epickrram.freewheel.remoting.ClassNameTopicIdGenerator;
+import com.epickrram.freewheel.remoting.DirectPublisherFactory;
+import com.epickrram.freewheel.remoting.SubscriberFactory;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JMock.class)
+public final class MessagingContextImplTest
+{
+    private final Mockery mockery = new Mockery();
+    private MessagingService messagingService;
+    private MessagingContextImpl messagingContext;
+
+    @Test
+    public void shouldGenerateClassesForAllDescriptorsAndReportTimings() throws Exception
+    {
+        final Collection<Class<?>> publisherDescriptors = Arrays.<Class<?>>asList(PreparedOne.class, PreparedTwo.class);
+        final Collection<Class<?>> subscriberDescriptors = Arrays.<Class<?>>asList(PreparedTwo.class, PreparedThree.class);
+
+        final Map<Class<?>, Long> generationNanos = messagingContext.prepare(publisherDescriptors, subscriberDescriptors);
+
+        assertThat(generationNanos.size(), is(3));
+        for (Long nanos : generationNanos.values())
+        {
+            assertTrue(nanos > 0L);
+        }
+    }
+
+    @Test
+    public void shouldCreatePublisherAndSubscriberFromPreparedClasses() throws Exception
+    {
+        messagingContext.prepare(Collections.<Class<?>>singletonList(PreparedFour.class),
+                Collections.<Class<?>>singletonList(PreparedFour.class));
+
+        mockery.checking(new Expectations()
+        {
+            {
+                allowing(messagingService).registerPublisher(PreparedFour.class);
+                allowing(messagingService).registerSubscriber(PreparedFour.class);
+                allowing(messagingService).registerReceiver(with(any(Integer.class)), with(any(Receiver.class)));
+            }
+        });
+
+        assertThat(messagingContext.createPublisher(PreparedFour.class), is(notNullValue()));
+        messagingContext.createSubscriber(PreparedFour.class, new PreparedFour()
+        {
+            @Override
+            public void onEvent(final int value)
+            {
+            }
+        });
+    }
+
+    @Test
+    public void shouldWrapReceiverOfFilteredSubscriber() throws Exception
+    {
+        mockery.checking(new Expectations()
+        {
+            {
+                one(messagingService).registerReceiver(with(any(Integer.class)), (Receiver) with(instanceOf(FilteredReceiver.class)));
+                allowing(messagingService).registerSubscriber(PreparedFour.class);
+            }
+        });
+
+        messagingContext.createSubscriber(PreparedFour.class, new PreparedFour()
+        {
+            @Override
+            public void onEvent(final int value)
+            {
+            }
+        }, MessageFilters.methodIds(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectFilterOnArgumentThatCannotBeFiltered() throws Exception
+    {
+        messagingContext.createSubscriber(PreparedTwo.class, new PreparedTwo()
+        {
+            @Override
+            public void onEvent(final long value, final String description)
+            {
+            }
+        }, MessageFilters.integralArgument(0, 1, 5L));
+    }
+
+    @Test
+    public void shouldRemoveOnlyTheSubscriptionForTheGivenDescriptor() throws Exception
+    {
+        final BothEvents implementation = new BothEvents();
+        final ClassNameTopicIdGenerator topicIdGenerator = new ClassNameTopicIdGenerator();
+        final int topicIdOne = topicIdGenerator.getTopicId(PreparedOne.class);
+        final int topicIdFour = topicIdGenerator.getTopicId(PreparedFour.class);
+        final Receiver[] receivers = new Receiver[2];
+
+        mockery.checking(new Expectations()
+        {
+            {
+                allowing(messagingService).registerSubscriber(with(any(Class.class)));
+                one(messagingService).registerReceiver(with(equal(topicIdOne)), with(any(Receiver.class)));
+                will(captureReceiver(receivers, 0));
+                one(messagingService).registerReceiver(with(equal(topicIdFour)), with(any(Receiver.class)));
+                will(captureReceiver(receivers, 1));
+            }
+        });
+
+        messagingContext.createSubscriber(PreparedOne.class, implementation);
+        messagingContext.createSubscriber(PreparedFour.class, implementation);
+
+        mockery.checking(new Expectations()
+        {
+            {
+                one(messagingService).unregisterReceiver(topicIdFour, receivers[1]);
+                one(messagingService).unregisterSubscriber(PreparedFour.class);
+            }
+        });
+
+        messagingContext.removeSubscriber(PreparedFour.class, implementation);
+    }
+
+    @Test(expected = MessagingException.class)
+    public void shouldRejectRemovalOfSubscriptionThatWasNeverCreated() throws Exception
+    {
+        final BothEvents implementation = new BothEvents();
+        mockery.checking(new Expectations()
+        {
+            {
+                allowing(messagingService).registerSubscriber(with(any(Class.class)));
+                allowing(messagingService).registerReceiver(with(any(Integer.class)), with(any(Receiver.class)));
+            }
+        });
+
+        messagingContext.createSubscriber(PreparedOne.class, implementation);
+        messagingContext.removeSubscriber(PreparedFour.class, implementation);
+    }
+
+    private static Action captureReceiver(final Receiver[] receivers, final int index)
+    {
+        return new CustomAction("capture receiver")
+        {
+            @Override
+            public Object invoke(final Invocation invocation) throws Throwable
+            {
+                receivers[index] = (Receiver) invocation.getParameter(1);
+                return null;
+            }
+        };
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        messagingService = mockery.mock(MessagingService.class);
+        final ClassNameTopicIdGenerator topicIdGenerator = new ClassNameTopicIdGenerator();
+        messagingContext = new MessagingContextImpl(new DirectPublisherFactory(messagingService, topicIdGenerator, new CodeBookImpl()),
+                new SubscriberFactory(), messagingService, topicIdGenerator);
+    }
+
+    @Remote
+    public interface PreparedOne
+    {
+        void onEvent(int value);
+    }
+
+    @Remote
+    public interface PreparedTwo
+    {
+        void onEvent(long value, String description);
+    }
+
+    @Remote
+    public interface PreparedThree
+    {
+        void onFirst(int value);
+        void onSecond(byte value);
+    }
+
+    @Remote
+    public interface PreparedFour
+    {
+        void onEvent(int value);
+    }
+
+    private static final class BothEvents implements PreparedOne, PreparedFour
+    {
+        @Override
+        public void onEvent(final int value)
+        {
+        }
+    }
+}
@@ -16,15 +16,19 @@
 
 package com.epickrram.freewheel.messaging;
 
+import com.epickrram.freewheel.io.EncoderStream;
 import com.epickrram.freewheel.io.PackerEncoderStreamFactory;
 import com.epickrram.freewheel.protocol.CodeBookImpl;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.integration.junit4.JMock;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.IOException;
+
 @RunWith(JMock.class)
 public final class MessagingServiceEventHandlerTest
 {
@@ -50,6 +54,71 @@ public final class MessagingServiceEventHandlerTest
         eventHandler.onEvent(event, 0L, true);
     }
 
+    @Test
+    public void shouldEncodeDeferredEventBeforePublishing() throws Exception
+    {
+        event.deferEncoding(TOPIC_ID, 3, 0L, 1, new DeferredEncoder()
+        {
+            @Override
+            public void encode(final int methodId, final OutgoingMessageEvent event, final EncoderStream encoderStream) throws IOException
+            {
+                encoderStream.writeLong(event.getPrimitiveArgument(0));
+            }
+        });
+        event.setPrimitiveArgument(0, 17L);
+
+        mockery.checking(new Expectations()
+        {
+            {
+                one(messagingService).send(TOPIC_ID, event.getOutput());
+            }
+        });
+
+        eventHandler.onEvent(event, 0L, true);
+
+        final byte[] message = event.getOutput().toByteArray();
+        Assert.assertEquals(3, MessageHeader.getMethodId(message, 0));
+        Assert.assertTrue(message.length > MessageHeader.LENGTH);
+    }
+
+    @Test
+    public void shouldDropEventThatCannotBeEncodedAndPublishSubsequentEvents() throws Exception
+    {
+        event.deferEncoding(TOPIC_ID, 3, 0L, 1, new DeferredEncoder()
+        {
+            @Override
+            public void encode(final int methodId, final OutgoingMessageEvent event, final EncoderStream encoderStream) throws IOException
+            {
+                throw new IllegalArgumentException("no translator for argument");
+            }
+        });
+
+        eventHandler.onEvent(event, 0L, true);
+        Assert.assertEquals(1L, eventHandler.getEncodingFailureCount());
+
+        event.deferEncoding(TOPIC_ID, 4, 1L, 1, new DeferredEncoder()
+        {
+            @Override
+            public void encode(final int methodId, final OutgoingMessageEvent event, final EncoderStream encoderStream) throws IOException
+            {
+                encoderStream.writeLong(event.getPrimitiveArgument(0));
+            }
+        });
+        event.setPrimitiveArgument(0, 17L);
+
+        mockery.checking(new Expectations()
+        {
+            {
+                one(messagingService).send(TOPIC_ID, event.getOutput());
+            }
+        });
+
+        eventHandler.onEvent(event, 1L, true);
+
+        Assert.assertEquals(4, MessageHeader.getMethodId(event.getOutput().toByteArray(), 0));
+        Assert.assertEquals(1L, eventHandler.getEncodingFailureCount());
+    }
+
     @Before
     public void setUp() throws Exception
     {
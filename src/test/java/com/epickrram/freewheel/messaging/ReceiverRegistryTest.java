@@ -0,0 +1,140 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging;
+
+import com.epickrram.freewheel.io.DecoderStream;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public final class ReceiverRegistryTest
+{
+    private final ReceiverRegistry receiverRegistry = new ReceiverRegistry();
+
+    @Test
+    public void shouldReturnEmptySnapshotAndCountUnknownTopic() throws Exception
+    {
+        assertThat(receiverRegistry.getReceivers(17).length, is(0));
+        assertThat(receiverRegistry.getReceivers(17).length, is(0));
+
+        assertThat(receiverRegistry.getUnknownTopicCount(), is(2L));
+    }
+
+    @Test
+    public void shouldAppendReceiversForSameTopicInRegistrationOrder() throws Exception
+    {
+        final Receiver first = new StubReceiver();
+        final Receiver second = new StubReceiver();
+        receiverRegistry.registerReceiver(0, first);
+        receiverRegistry.registerReceiver(0, second);
+
+        final Receiver[] receivers = receiverRegistry.getReceivers(0);
+        assertThat(receivers.length, is(2));
+        assertThat(receivers[0], is(sameInstance(first)));
+        assertThat(receivers[1], is(sameInstance(second)));
+        assertThat(receiverRegistry.getUnknownTopicCount(), is(0L));
+    }
+
+    @Test
+    public void shouldNotModifyPreviouslyReturnedSnapshot() throws Exception
+    {
+        receiverRegistry.registerReceiver(5, new StubReceiver());
+        final Receiver[] snapshot = receiverRegistry.getReceivers(5);
+
+        receiverRegistry.registerReceiver(5, new StubReceiver());
+
+        assertThat(snapshot.length, is(1));
+        assertThat(receiverRegistry.getReceivers(5).length, is(2));
+    }
+
+    @Test
+    public void shouldRemoveReceiverAndForgetTopicWhenLastReceiverRemoved() throws Exception
+    {
+        final Receiver first = new StubReceiver();
+        final Receiver second = new StubReceiver();
+        receiverRegistry.registerReceiver(3, first);
+        receiverRegistry.registerReceiver(3, second);
+        receiverRegistry.registerReceiver(4, first);
+
+        receiverRegistry.removeReceiver(3, first);
+        assertThat(receiverRegistry.getReceivers(3).length, is(1));
+        assertThat(receiverRegistry.getReceivers(3)[0], is(sameInstance(second)));
+
+        receiverRegistry.removeReceiver(3, second);
+        assertThat(receiverRegistry.getReceivers(3).length, is(0));
+        assertThat(receiverRegistry.getUnknownTopicCount(), is(1L));
+        assertThat(receiverRegistry.getReceivers(4)[0], is(sameInstance(first)));
+    }
+
+    @Test
+    public void shouldRetainAllTopicsWhenTableGrows() throws Exception
+    {
+        final Receiver[] registered = new Receiver[1000];
+        for(int i = 0; i < registered.length; i++)
+        {
+            registered[i] = new StubReceiver();
+            receiverRegistry.registerReceiver(topicIdFor(i), registered[i]);
+        }
+
+        for(int i = 0; i < registered.length; i++)
+        {
+            final Receiver[] receivers = receiverRegistry.getReceivers(topicIdFor(i));
+            assertThat(receivers.length, is(1));
+            assertThat(receivers[0], is(sameInstance(registered[i])));
+        }
+    }
+
+    @Test
+    public void shouldKeepDenseAndHashedTopicIdsSeparate() throws Exception
+    {
+        final Receiver dense = new StubReceiver();
+        final Receiver hashed = new StubReceiver();
+        receiverRegistry.registerReceiver(2, dense);
+        receiverRegistry.registerReceiver(topicIdFor(2), hashed);
+        receiverRegistry.registerReceiver(-2, hashed);
+
+        assertThat(receiverRegistry.getReceivers(2)[0], is(sameInstance(dense)));
+        assertThat(receiverRegistry.getReceivers(topicIdFor(2))[0], is(sameInstance(hashed)));
+        assertThat(receiverRegistry.getReceivers(-2)[0], is(sameInstance(hashed)));
+        assertThat(receiverRegistry.getReceivers(1).length, is(0));
+        assertThat(receiverRegistry.getReceivers(255).length, is(0));
+
+        receiverRegistry.removeReceiver(2, dense);
+        assertThat(receiverRegistry.getReceivers(2).length, is(0));
+        assertThat(receiverRegistry.getUnknownTopicCount(), is(3L));
+    }
+
+    private static int topicIdFor(final int index)
+    {
+        return ("com.example.Topic" + index).hashCode();
+    }
+
+    private static final class StubReceiver implements Receiver
+    {
+        @Override
+        public void onMessage(final int topicId, final int methodId, final DecoderStream decoderStream)
+        {
+        }
+
+        @Override
+        public Object onSyncMessage(final int topicId, final int methodId, final DecoderStream decoderStream)
+        {
+            return null;
+        }
+    }
+}
@@ -16,12 +16,8 @@
 package com.epickrram.freewheel.messaging;
 
 import com.epickrram.freewheel.io.DecoderStream;
-import com.epickrram.freewheel.io.PackerEncoderStream;
-import com.epickrram.freewheel.protocol.CodeBookImpl;
 import junit.framework.Assert;
-import org.msgpack.packer.MessagePackPacker;
 
-import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
@@ -35,7 +31,7 @@ public final class TestMessageReceiver implements Receiver
     private final ConcurrentMap<Integer, List<byte[]>> topicMessages = new ConcurrentHashMap<Integer, List<byte[]>>();
 
     @Override
-    public void onMessage(final int topicId, final DecoderStream decoderStream)
+    public void onMessage(final int topicId, final int methodId, final DecoderStream decoderStream)
     {
         List<byte[]> topicMessageList = topicMessages.get(topicId);
         if(topicMessageList == null)
@@ -47,29 +43,23 @@ public final class TestMessageReceiver implements Receiver
                 topicMessageList = existing;
             }
         }
-        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        final PackerEncoderStream encoderStream = new PackerEncoderStream(new CodeBookImpl(), new MessagePackPacker(buffer));
-
         try
         {
-            encoderStream.writeInt(topicId);
-            final byte[] bytes = decoderStream.readByteArray();
-            encoderStream.writeByteArray(bytes, 0, bytes.length);
+            topicMessageList.add(decoderStream.readByteArray());
         }
         catch (Exception e)
         {
             Assert.fail("Did not get expected contents in message");
         }
-        topicMessageList.add(buffer.toByteArray());
     }
 
     @Override
-    public Object onSyncMessage(final int topicId, final DecoderStream decoderStream)
+    public Object onSyncMessage(final int topicId, final int methodId, final DecoderStream decoderStream)
     {
         throw new UnsupportedOperationException();
     }
 
-    public void waitForMessageReceived(final int topicId, final byte[] expectedMessage)
+    public void waitForMessageReceived(final int topicId, final byte[] expectedPayload)
     {
         final long timeout = System.currentTimeMillis() + TIMEOUT_MILLIS;
         while(System.currentTimeMillis() < timeout)
@@ -79,7 +69,7 @@ public final class TestMessageReceiver implements Receiver
             {
                 for (byte[] message : topicMessageList)
                 {
-                    if(Arrays.equals(expectedMessage, message))
+                    if(Arrays.equals(expectedPayload, message))
                     {
                         return;
                     }
@@ -94,7 +84,7 @@ public final class TestMessageReceiver implements Receiver
                 // ignore
             }
         }
-        org.junit.Assert.fail("Did not find expected message " + Arrays.toString(expectedMessage) + " for topic " + topicId);
+        org.junit.Assert.fail("Did not find expected message " + Arrays.toString(expectedPayload) + " for topic " + topicId);
     }
 
 }
@@ -0,0 +1,173 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.diagnostic;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public final class DiagnosticLogTest
+{
+    private static final int TOPIC_ID = 11;
+    private static final int OTHER_TOPIC_ID = 12;
+
+    private final RecordingSink sink = new RecordingSink();
+    private DiagnosticLog diagnosticLog;
+
+    @Test
+    public void shouldDrainEnabledEventsToSink() throws Exception
+    {
+        diagnosticLog = new DiagnosticLog(16, 1, DiagnosticLevel.DEBUG, sink);
+        diagnosticLog.start();
+
+        diagnosticLog.record(DiagnosticEventType.MESSAGE_SENT, TOPIC_ID, 128L);
+
+        sink.waitForEvents(1);
+        assertThat(sink.events.get(0), is("MESSAGE_SENT/" + TOPIC_ID + "/128"));
+    }
+
+    @Test
+    public void shouldOnlyRecordTopicsWithEnabledLevel() throws Exception
+    {
+        diagnosticLog = new DiagnosticLog(16, 1, DiagnosticLevel.OFF, sink);
+        diagnosticLog.setTopicLevel(TOPIC_ID, DiagnosticLevel.DEBUG);
+        diagnosticLog.start();
+
+        diagnosticLog.record(DiagnosticEventType.MESSAGE_SENT, OTHER_TOPIC_ID, 1L);
+        diagnosticLog.record(DiagnosticEventType.MESSAGE_SENT, TOPIC_ID, 2L);
+
+        sink.waitForEvents(1);
+        assertThat(sink.events.size(), is(1));
+        assertThat(sink.events.get(0), is("MESSAGE_SENT/" + TOPIC_ID + "/2"));
+        assertThat(diagnosticLog.isEnabled(DiagnosticEventType.MESSAGE_RECEIVED, OTHER_TOPIC_ID), is(false));
+    }
+
+    @Test
+    public void shouldNotRecordDebugEventsAtInfoLevel() throws Exception
+    {
+        diagnosticLog = new DiagnosticLog(16, 1, DiagnosticLevel.INFO, sink);
+
+        assertThat(diagnosticLog.isEnabled(DiagnosticEventType.MESSAGE_SENT, TOPIC_ID), is(false));
+        diagnosticLog.setTopicLevel(TOPIC_ID, DiagnosticLevel.DEBUG);
+        assertThat(diagnosticLog.isEnabled(DiagnosticEventType.MESSAGE_SENT, TOPIC_ID), is(true));
+        diagnosticLog.setTopicLevel(TOPIC_ID, DiagnosticLevel.OFF);
+        assertThat(diagnosticLog.isEnabled(DiagnosticEventType.MESSAGE_SENT, TOPIC_ID), is(false));
+    }
+
+    @Test
+    public void shouldSampleEvents() throws Exception
+    {
+        diagnosticLog = new DiagnosticLog(16, 4, DiagnosticLevel.DEBUG, sink);
+        diagnosticLog.start();
+
+        for (int i = 0; i < 8; i++)
+        {
+            diagnosticLog.record(DiagnosticEventType.MESSAGE_RECEIVED, TOPIC_ID, i);
+        }
+
+        sink.waitForEvents(2);
+        assertThat(sink.events.get(0), is("MESSAGE_RECEIVED/" + TOPIC_ID + "/0"));
+        assertThat(sink.events.get(1), is("MESSAGE_RECEIVED/" + TOPIC_ID + "/4"));
+    }
+
+    @Test
+    public void shouldDropEventsRatherThanBlockWhenRingIsFull() throws Exception
+    {
+        diagnosticLog = new DiagnosticLog(4, 1, DiagnosticLevel.DEBUG, sink);
+
+        for (int i = 0; i < 10; i++)
+        {
+            diagnosticLog.record(DiagnosticEventType.MESSAGE_SENT, TOPIC_ID, i);
+        }
+
+        assertThat(diagnosticLog.getDroppedCount(), is(6L));
+    }
+
+    @Test
+    public void shouldDropRatherThanBlockWhenProducersContendForLastSlots() throws Exception
+    {
+        // the ring is never drained, as after stop()
+        diagnosticLog = new DiagnosticLog(4, 1, DiagnosticLevel.DEBUG, sink);
+
+        final int producerCount = 8;
+        final int eventsPerProducer = 1000;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(producerCount);
+        for (int i = 0; i < producerCount; i++)
+        {
+            final Thread producer = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        startLatch.await();
+                        for (int j = 0; j < eventsPerProducer; j++)
+                        {
+                            diagnosticLog.record(DiagnosticEventType.MESSAGE_SENT, TOPIC_ID, j);
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    doneLatch.countDown();
+                }
+            });
+            producer.setDaemon(true);
+            producer.start();
+        }
+        startLatch.countDown();
+
+        assertThat(doneLatch.await(5L, TimeUnit.SECONDS), is(true));
+        assertThat(diagnosticLog.getDroppedCount(), is((long) producerCount * eventsPerProducer - 4L));
+    }
+
+    @After
+    public void tearDown()
+    {
+        diagnosticLog.stop();
+    }
+
+    private static final class RecordingSink implements DiagnosticEventSink
+    {
+        private final List<String> events = new CopyOnWriteArrayList<String>();
+
+        @Override
+        public void onEvent(final long timestampNanos, final DiagnosticEventType type, final int topicId, final long value)
+        {
+            events.add(type + "/" + topicId + "/" + value);
+        }
+
+        private void waitForEvents(final int count) throws InterruptedException
+        {
+            final long timeout = System.currentTimeMillis() + 5000L;
+            while(events.size() < count && System.currentTimeMillis() < timeout)
+            {
+                Thread.sleep(10L);
+            }
+            Thread.sleep(50L);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.dispatch;
+
+import com.epickrram.freewheel.io.DecoderStream;
+import com.epickrram.freewheel.io.PackerEncoderStream;
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.Receiver;
+import com.epickrram.freewheel.messaging.ReceiverRegistry;
+import com.epickrram.freewheel.protocol.CodeBookImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.msgpack.packer.MessagePackPacker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public final class LaneMessageDispatcherTest
+{
+    private static final int TOPIC_ONE = 0;
+    private static final int TOPIC_TWO = 1;
+    private static final int MESSAGE_COUNT = 1000;
+
+    private final CodeBookImpl codeBook = new CodeBookImpl();
+    private ReceiverRegistry receiverRegistry;
+    private MessageDispatcher dispatcher;
+
+    @Test
+    public void shouldPreserveOrderingWithinTopicAndDispatchTopicsOnSeparateLanes() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(MESSAGE_COUNT * 2);
+        final RecordingReceiver topicOneReceiver = new RecordingReceiver(latch);
+        final RecordingReceiver topicTwoReceiver = new RecordingReceiver(latch);
+        receiverRegistry.registerReceiver(TOPIC_ONE, topicOneReceiver);
+        receiverRegistry.registerReceiver(TOPIC_TWO, topicTwoReceiver);
+        startDispatcher(ShardKeyExtractors.TOPIC_ID);
+
+        for(int i = 0; i < MESSAGE_COUNT; i++)
+        {
+            dispatch(TOPIC_ONE, i, i);
+            dispatch(TOPIC_TWO, i, i);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        topicOneReceiver.assertInOrder();
+        topicTwoReceiver.assertInOrder();
+        assertThat(topicOneReceiver.threadNames.size(), is(1));
+        assertThat(topicTwoReceiver.threadNames.size(), is(1));
+        assertThat(topicOneReceiver.threadNames, is(not(topicTwoReceiver.threadNames)));
+    }
+
+    @Test
+    public void shouldShardSingleTopicByKeyArgument() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(MESSAGE_COUNT);
+        final RecordingReceiver receiver = new RecordingReceiver(latch);
+        receiverRegistry.registerReceiver(TOPIC_ONE, receiver);
+        startDispatcher(ShardKeyExtractors.integralArgument(0));
+
+        for(int i = 0; i < MESSAGE_COUNT; i++)
+        {
+            dispatch(TOPIC_ONE, i % 2, i);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertThat(receiver.threadNames.size(), is(2));
+    }
+
+    @Test
+    public void shouldShardOnIntegralArgumentFollowingNonIntegralArguments() throws Exception
+    {
+        final ShardKeyExtractor shardKeyExtractor = ShardKeyExtractors.integralArgument(1);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, TOPIC_ONE, 0, 0, 0L);
+        outputStream.write(header, 0, header.length);
+        final PackerEncoderStream encoderStream = new PackerEncoderStream(codeBook, new MessagePackPacker(outputStream));
+        encoderStream.writeString("account");
+        encoderStream.writeLong(1234567890123L);
+        final byte[] message = outputStream.toByteArray();
+
+        assertThat(shardKeyExtractor.getShardKey(message, 0, message.length), is(1234567890123L));
+    }
+
+    @Test
+    public void shouldReadTopicIdShardKeyFromHeader() throws Exception
+    {
+        final byte[] message = new byte[3 + MessageHeader.LENGTH];
+        MessageHeader.write(message, 3, TOPIC_TWO, 0, 0, 0L);
+
+        assertThat(ShardKeyExtractors.TOPIC_ID.getShardKey(message, 3, MessageHeader.LENGTH), is((long) TOPIC_TWO));
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        receiverRegistry = new ReceiverRegistry();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if(dispatcher != null)
+        {
+            dispatcher.stop();
+        }
+    }
+
+    private void startDispatcher(final ShardKeyExtractor shardKeyExtractor)
+    {
+        dispatcher = new LaneMessageDispatcher(new IncomingMessageHandler(codeBook, receiverRegistry), 2, 1024, shardKeyExtractor);
+        dispatcher.start();
+    }
+
+    private void dispatch(final int topicId, final int key, final int sequence) throws IOException
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, topicId, 0, 0, sequence);
+        outputStream.write(header, 0, header.length);
+        final PackerEncoderStream encoderStream = new PackerEncoderStream(codeBook, new MessagePackPacker(outputStream));
+        encoderStream.writeInt(key);
+        encoderStream.writeInt(sequence);
+        final byte[] message = outputStream.toByteArray();
+        dispatcher.dispatch(message, 0, message.length);
+    }
+
+    private static final class RecordingReceiver implements Receiver
+    {
+        private final List<Integer> sequences = new CopyOnWriteArrayList<Integer>();
+        private final Set<String> threadNames = new CopyOnWriteArraySet<String>();
+        private final CountDownLatch latch;
+
+        private RecordingReceiver(final CountDownLatch latch)
+        {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onMessage(final int topicId, final int methodId, final DecoderStream decoderStream)
+        {
+            try
+            {
+                decoderStream.readInt();
+                sequences.add(decoderStream.readInt());
+                threadNames.add(Thread.currentThread().getName());
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            latch.countDown();
+        }
+
+        @Override
+        public Object onSyncMessage(final int topicId, final int methodId, final DecoderStream decoderStream)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        private void assertInOrder()
+        {
+            for(int i = 0; i < sequences.size(); i++)
+            {
+                assertThat(sequences.get(i), is(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.filter;
+
+import com.epickrram.freewheel.io.PackerEncoderStream;
+import com.epickrram.freewheel.io.UnpackerDecoderStream;
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.config.MethodId;
+import com.epickrram.freewheel.messaging.config.Remote;
+import com.epickrram.freewheel.protocol.CodeBookImpl;
+import org.junit.Test;
+import org.msgpack.packer.MessagePackPacker;
+import org.msgpack.unpacker.MessagePackUnpacker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public final class MessageFiltersTest
+{
+    private static final int TOPIC_ID = 17;
+    private static final int UPDATE_METHOD_ID = 2;
+    private static final int OTHER_METHOD_ID = 3;
+
+    @Test
+    public void shouldFilterOnMethodId() throws Exception
+    {
+        final MessageFilter filter = MessageFilters.methodIds(UPDATE_METHOD_ID);
+
+        assertAccepted(filter, message(UPDATE_METHOD_ID, "EURUSD", 1L), true);
+        assertAccepted(filter, message(OTHER_METHOD_ID, "EURUSD", 1L), false);
+    }
+
+    @Test
+    public void shouldFilterOnIntegralArgumentFollowingOtherArguments() throws Exception
+    {
+        final MessageFilter filter = MessageFilters.integralArgument(UPDATE_METHOD_ID, 2, 5L, 70000L);
+
+        assertAccepted(filter, message(UPDATE_METHOD_ID, "EURUSD", 1.5d, 70000L), true);
+        assertAccepted(filter, message(UPDATE_METHOD_ID, "GBPUSD", -3, 5), true);
+        assertAccepted(filter, message(UPDATE_METHOD_ID, "EURUSD", 1.5d, 6L), false);
+    }
+
+    @Test
+    public void shouldAcceptMessagesForOtherMethods() throws Exception
+    {
+        final MessageFilter filter = MessageFilters.integralArgument(UPDATE_METHOD_ID, 0, 5L);
+
+        assertAccepted(filter, message(OTHER_METHOD_ID, 6L), true);
+    }
+
+    @Test
+    public void shouldAcceptMessageWhenArgumentCannotBeRead() throws Exception
+    {
+        final MessageFilter filter = MessageFilters.integralArgument(UPDATE_METHOD_ID, 1, 5L);
+
+        assertAccepted(filter, message(UPDATE_METHOD_ID, 6L, "not a number"), true);
+        assertAccepted(filter, message(UPDATE_METHOD_ID, 6L), true);
+    }
+
+    @Test
+    public void shouldCombineFilters() throws Exception
+    {
+        final MessageFilter anyOf = MessageFilters.anyOf(MessageFilters.methodIds(OTHER_METHOD_ID),
+                MessageFilters.integralArgument(UPDATE_METHOD_ID, 0, 5L));
+        final MessageFilter allOf = MessageFilters.allOf(MessageFilters.methodIds(UPDATE_METHOD_ID),
+                MessageFilters.integralArgument(UPDATE_METHOD_ID, 0, 5L));
+
+        assertAccepted(anyOf, message(OTHER_METHOD_ID, 6L), true);
+        assertAccepted(anyOf, message(UPDATE_METHOD_ID, 6L), false);
+        assertAccepted(allOf, message(UPDATE_METHOD_ID, 5L), true);
+        assertAccepted(allOf, message(OTHER_METHOD_ID, 5L), false);
+    }
+
+    @Test
+    public void shouldTranscodeFilter() throws Exception
+    {
+        final MessageFilter filter = MessageFilters.anyOf(MessageFilters.methodIds(OTHER_METHOD_ID),
+                MessageFilters.integralArgument(UPDATE_METHOD_ID, 1, 5L));
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        MessageFilters.encode(filter, new PackerEncoderStream(new CodeBookImpl(), new MessagePackPacker(outputStream)));
+
+        final MessageFilter decoded = MessageFilters.decode(new UnpackerDecoderStream(new CodeBookImpl(),
+                new MessagePackUnpacker(new ByteArrayInputStream(outputStream.toByteArray()))));
+
+        assertAccepted(decoded, message(OTHER_METHOD_ID, "EURUSD", 6L), true);
+        assertAccepted(decoded, message(UPDATE_METHOD_ID, "EURUSD", 5L), true);
+        assertAccepted(decoded, message(UPDATE_METHOD_ID, "EURUSD", 6L), false);
+    }
+
+    @Test
+    public void shouldNotEncodeCustomFilters() throws Exception
+    {
+        final MessageFilter custom = new MessageFilter()
+        {
+            @Override
+            public boolean accept(final byte[] message, final int offset, final int length)
+            {
+                return false;
+            }
+        };
+
+        assertThat(MessageFilters.isEncodable(MessageFilters.methodIds(UPDATE_METHOD_ID)), is(true));
+        assertThat(MessageFilters.isEncodable(MessageFilters.anyOf(MessageFilters.acceptAll(), custom)), is(false));
+    }
+
+    @Test
+    public void shouldValidateIntegralArgumentFilterAgainstDescriptor() throws Exception
+    {
+        MessageFilters.validate(MessageFilters.anyOf(MessageFilters.integralArgument(UPDATE_METHOD_ID, 2, 5L),
+                MessageFilters.methodIds(OTHER_METHOD_ID)), Quotes.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectFilterOnArgumentFollowingBoolean() throws Exception
+    {
+        MessageFilters.validate(MessageFilters.integralArgument(OTHER_METHOD_ID, 1, 5L), Quotes.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectFilterOnNonIntegralArgument() throws Exception
+    {
+        MessageFilters.validate(MessageFilters.allOf(MessageFilters.integralArgument(UPDATE_METHOD_ID, 1, 5L)), Quotes.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectFilterOnUnknownMethod() throws Exception
+    {
+        MessageFilters.validate(MessageFilters.integralArgument(7, 0, 5L), Quotes.class);
+    }
+
+    private static void assertAccepted(final MessageFilter filter, final byte[] message, final boolean expected)
+    {
+        // offset the message within the array, as transports do
+        final byte[] buffer = new byte[message.length + 4];
+        System.arraycopy(message, 0, buffer, 4, message.length);
+        assertThat(filter.accept(buffer, 4, message.length), is(expected));
+        assertThat(filter.accept(Arrays.copyOf(message, message.length + 1), 0, message.length), is(expected));
+    }
+
+    private static byte[] message(final int methodId, final Object... arguments) throws Exception
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, TOPIC_ID, methodId, 0, 0L);
+        outputStream.write(header);
+        final PackerEncoderStream encoderStream = new PackerEncoderStream(new CodeBookImpl(), new MessagePackPacker(outputStream));
+        for (Object argument : arguments)
+        {
+            if(argument instanceof String)
+            {
+                encoderStream.writeString((String) argument);
+            }
+            else if(argument instanceof Double)
+            {
+                encoderStream.writeDouble((Double) argument);
+            }
+            else if(argument instanceof Integer)
+            {
+                encoderStream.writeInt((Integer) argument);
+            }
+            else
+            {
+                encoderStream.writeLong((Long) argument);
+            }
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Remote
+    public interface Quotes
+    {
+        @MethodId(UPDATE_METHOD_ID)
+        void update(String symbol, double price, long quantity);
+
+        @MethodId(OTHER_METHOD_ID)
+        void trade(boolean buy, long quantity);
+    }
+}
@@ -0,0 +1,175 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.multicast;
+
+import com.epickrram.freewheel.messaging.dispatch.MessageDispatcher;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public final class FragmentReassemblerTest
+{
+    private static final int DATAGRAM_SIZE = FragmentHeader.LENGTH + 10;
+    private static final int PORT = 9000;
+
+    private final FragmentReassembler reassembler = new FragmentReassembler(new FragmentationPolicy(DATAGRAM_SIZE, 1000, 100L, 2));
+    private final RecordingDispatcher dispatcher = new RecordingDispatcher();
+    private final InetAddress source = InetAddress.getLoopbackAddress();
+
+    @Test
+    public void shouldReassembleFragmentsArrivingOutOfOrder() throws Exception
+    {
+        final byte[] message = message(25);
+        final List<byte[]> fragments = fragment(message, 1L);
+
+        deliver(fragments.get(2), 0L);
+        deliver(fragments.get(0), 0L);
+        assertThat(dispatcher.messages.size(), is(0));
+        deliver(fragments.get(1), 0L);
+
+        assertThat(dispatcher.messages.size(), is(1));
+        assertThat(dispatcher.messages.get(0), is(message));
+        assertThat(reassembler.getPendingCount(), is(0));
+    }
+
+    @Test
+    public void shouldIgnoreDuplicateFragments() throws Exception
+    {
+        final byte[] message = message(15);
+        final List<byte[]> fragments = fragment(message, 1L);
+
+        deliver(fragments.get(0), 0L);
+        deliver(fragments.get(0), 0L);
+        deliver(fragments.get(1), 0L);
+
+        assertThat(dispatcher.messages.size(), is(1));
+        assertThat(dispatcher.messages.get(0), is(message));
+    }
+
+    @Test
+    public void shouldKeepMessagesFromDifferentSourcesApart() throws Exception
+    {
+        final byte[] first = message(15);
+        final byte[] second = message(12);
+        second[0] = 99;
+        final List<byte[]> firstFragments = fragment(first, 1L);
+        final List<byte[]> secondFragments = fragment(second, 1L);
+
+        deliver(firstFragments.get(0), 0L);
+        reassembler.onFragment(source, PORT + 1, secondFragments.get(0), 0, secondFragments.get(0).length, 0L, dispatcher);
+        reassembler.onFragment(source, PORT + 1, secondFragments.get(1), 0, secondFragments.get(1).length, 0L, dispatcher);
+        deliver(firstFragments.get(1), 0L);
+
+        assertThat(dispatcher.messages.get(0), is(second));
+        assertThat(dispatcher.messages.get(1), is(first));
+    }
+
+    @Test
+    public void shouldDiscardIncompleteMessageAfterTimeout() throws Exception
+    {
+        final List<byte[]> stale = fragment(message(15), 1L);
+        final List<byte[]> fresh = fragment(message(15), 2L);
+
+        deliver(stale.get(0), 0L);
+        deliver(fresh.get(0), 101L);
+        deliver(stale.get(1), 101L);
+
+        assertThat(reassembler.getIncompleteCount(), is(1L));
+        assertThat(dispatcher.messages.size(), is(0));
+        assertThat(reassembler.getPendingCount(), is(2));
+    }
+
+    @Test
+    public void shouldEvictOldestWhenAllSlotsAreInUse() throws Exception
+    {
+        deliver(fragment(message(15), 1L).get(0), 0L);
+        deliver(fragment(message(15), 2L).get(0), 1L);
+        deliver(fragment(message(15), 3L).get(0), 2L);
+
+        assertThat(reassembler.getIncompleteCount(), is(1L));
+        assertThat(reassembler.getPendingCount(), is(2));
+    }
+
+    @Test
+    public void shouldDropFragmentsThatDoNotFitTheirMessage() throws Exception
+    {
+        final byte[] fragment = fragment(message(15), 1L).get(0);
+        FragmentHeader.write(fragment, 0, 2, 10, 1L, 5);
+
+        deliver(fragment, 0L);
+
+        assertThat(reassembler.getMalformedCount(), is(1L));
+        assertThat(reassembler.getPendingCount(), is(0));
+    }
+
+    private void deliver(final byte[] fragment, final long nowMillis)
+    {
+        reassembler.onFragment(source, PORT, fragment, 0, fragment.length, nowMillis, dispatcher);
+    }
+
+    private static byte[] message(final int length)
+    {
+        final byte[] message = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            message[i] = (byte) i;
+        }
+        return message;
+    }
+
+    private static List<byte[]> fragment(final byte[] message, final long messageId)
+    {
+        final int dataSize = DATAGRAM_SIZE - FragmentHeader.LENGTH;
+        final int count = (message.length + dataSize - 1) / dataSize;
+        final List<byte[]> fragments = new ArrayList<byte[]>();
+        for (int i = 0; i < count; i++)
+        {
+            final int length = Math.min(dataSize, message.length - i * dataSize);
+            final byte[] fragment = new byte[FragmentHeader.LENGTH + length];
+            FragmentHeader.write(fragment, i, count, dataSize, messageId, message.length);
+            System.arraycopy(message, i * dataSize, fragment, FragmentHeader.LENGTH, length);
+            fragments.add(fragment);
+        }
+        return fragments;
+    }
+
+    private static final class RecordingDispatcher implements MessageDispatcher
+    {
+        private final List<byte[]> messages = new ArrayList<byte[]>();
+
+        @Override
+        public void dispatch(final byte[] message, final int offset, final int length)
+        {
+            messages.add(Arrays.copyOfRange(message, offset, offset + length));
+        }
+
+        @Override
+        public void start()
+        {
+        }
+
+        @Override
+        public void stop()
+        {
+        }
+    }
+}
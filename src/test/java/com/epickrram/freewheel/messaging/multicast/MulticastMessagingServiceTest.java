@@ -16,6 +16,7 @@
 package com.epickrram.freewheel.messaging.multicast;
 
 import com.epickrram.freewheel.io.PackerEncoderStream;
+import com.epickrram.freewheel.messaging.MessageHeader;
 import com.epickrram.freewheel.messaging.TestMessageReceiver;
 import com.epickrram.freewheel.messaging.ptp.EndPoint;
 import com.epickrram.freewheel.protocol.CodeBookImpl;
@@ -40,8 +41,10 @@ public final class MulticastMessagingServiceTest
     public void shouldSendMulticastMessageToConfiguredAddress() throws Exception
     {
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, TOPIC_ID, 0, 0, 0L);
+        outputStream.write(header, 0, header.length);
         final PackerEncoderStream encoderStream = new PackerEncoderStream(new CodeBookImpl(), new MessagePackPacker(outputStream));
-        encoderStream.writeInt(TOPIC_ID);
         encoderStream.writeByteArray(MESSAGE_PAYLOAD, 0, MESSAGE_PAYLOAD.length);
         messageListener.startListening();
         multicastMessagingService.send(TOPIC_ID, outputStream);
@@ -54,8 +57,10 @@ public final class MulticastMessagingServiceTest
     {
         final TestMessageReceiver testMessageReceiver = new TestMessageReceiver();
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, TOPIC_ID, 0, 0, 0L);
+        outputStream.write(header, 0, header.length);
         final PackerEncoderStream encoderStream = new PackerEncoderStream(new CodeBookImpl(), new MessagePackPacker(outputStream));
-        encoderStream.writeInt(TOPIC_ID);
         encoderStream.writeByteArray(MESSAGE_PAYLOAD, 0, MESSAGE_PAYLOAD.length);
 
         multicastMessagingService.registerReceiver(TOPIC_ID, testMessageReceiver);
@@ -63,7 +68,33 @@ public final class MulticastMessagingServiceTest
 
         multicastMessagingService.send(TOPIC_ID, outputStream);
 
-        testMessageReceiver.waitForMessageReceived(TOPIC_ID, outputStream.toByteArray());
+        testMessageReceiver.waitForMessageReceived(TOPIC_ID, MESSAGE_PAYLOAD);
+
+        multicastMessagingService.shutdown();
+    }
+
+    @Test
+    public void shouldFragmentAndReassembleMessageLargerThanDatagram() throws Exception
+    {
+        final TestMessageReceiver testMessageReceiver = new TestMessageReceiver();
+        final byte[] largePayload = new byte[100 * 1024];
+        for (int i = 0; i < largePayload.length; i++)
+        {
+            largePayload[i] = (byte) (i * 31);
+        }
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, TOPIC_ID, 0, 0, 0L);
+        outputStream.write(header, 0, header.length);
+        final PackerEncoderStream encoderStream = new PackerEncoderStream(new CodeBookImpl(), new MessagePackPacker(outputStream));
+        encoderStream.writeByteArray(largePayload, 0, largePayload.length);
+
+        multicastMessagingService.registerReceiver(TOPIC_ID, testMessageReceiver);
+        multicastMessagingService.start();
+
+        multicastMessagingService.send(TOPIC_ID, outputStream);
+
+        testMessageReceiver.waitForMessageReceived(TOPIC_ID, largePayload);
 
         multicastMessagingService.shutdown();
     }
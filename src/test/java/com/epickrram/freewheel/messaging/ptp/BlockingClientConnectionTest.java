@@ -0,0 +1,180 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.util.IoUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class BlockingClientConnectionTest
+{
+    private static final int MAX_FRAME_LENGTH = 4 * 1024 * 1024;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private ServerSocket serverSocket;
+    private FramedConnection serverConnection;
+    private BlockingClientConnection clientConnection;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        final Socket clientSocket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+        serverConnection = new FramedConnection(serverSocket.accept(), MAX_FRAME_LENGTH);
+        clientConnection = new BlockingClientConnection(new FramedConnection(clientSocket, MAX_FRAME_LENGTH), 2000);
+        clientConnection.start(executor);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        clientConnection.close();
+        serverConnection.close();
+        IoUtil.close(serverSocket);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldReadLargeFrameInFull() throws Exception
+    {
+        final byte[] payload = new byte[MAX_FRAME_LENGTH];
+        Arrays.fill(payload, (byte) 7);
+
+        executor.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                clientConnection.send(payload);
+                return null;
+            }
+        });
+
+        assertThat(Arrays.equals(serverConnection.readFrame(), payload), is(true));
+        assertThat(serverConnection.getReadCorrelationId(), is(FramedConnection.NO_CORRELATION_ID));
+    }
+
+    @Test
+    public void shouldMatchResponsesReturnedOutOfOrder() throws Exception
+    {
+        final Future<byte[]> first = executor.submit(sendAndWait(1));
+        serverConnection.readFrame();
+        final int firstCorrelationId = serverConnection.getReadCorrelationId();
+
+        final Future<byte[]> second = executor.submit(sendAndWait(2));
+        serverConnection.readFrame();
+        final int secondCorrelationId = serverConnection.getReadCorrelationId();
+
+        respond(secondCorrelationId, (byte) 2);
+        assertThat(second.get(1L, TimeUnit.SECONDS)[1], is((byte) 2));
+        assertThat(first.isDone(), is(false));
+
+        respond(firstCorrelationId, (byte) 1);
+        assertThat(first.get(1L, TimeUnit.SECONDS)[1], is((byte) 1));
+    }
+
+    @Test
+    public void shouldReportRemoteError() throws Exception
+    {
+        final Future<byte[]> response = executor.submit(sendAndWait(1));
+        serverConnection.readFrame();
+        final byte[] error = {SyncRequestInvoker.RESPONSE_ERROR, 'o', 'o', 'p', 's'};
+        serverConnection.writeFrame(serverConnection.getReadCorrelationId(), error, 0, error.length);
+
+        try
+        {
+            response.get(1L, TimeUnit.SECONDS);
+            fail();
+        }
+        catch(ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof MessagingException);
+            assertTrue(e.getCause().getMessage().contains("oops"));
+        }
+    }
+
+    @Test
+    public void shouldFailPendingCallWhenConnectionIsLost() throws Exception
+    {
+        final Future<byte[]> response = executor.submit(sendAndWait(1));
+        serverConnection.readFrame();
+        serverConnection.close();
+
+        try
+        {
+            response.get(1L, TimeUnit.SECONDS);
+            fail();
+        }
+        catch(ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertThat(clientConnection.isOpen(), is(false));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectFrameLongerThanMaximum() throws Exception
+    {
+        executor.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                clientConnection.send(new byte[MAX_FRAME_LENGTH + 1]);
+                return null;
+            }
+        });
+
+        serverConnection.readFrame();
+    }
+
+    private void respond(final int correlationId, final byte value) throws IOException
+    {
+        final byte[] response = {SyncRequestInvoker.RESPONSE_OK, value};
+        serverConnection.writeFrame(correlationId, response, 0, response.length);
+    }
+
+    private Callable<byte[]> sendAndWait(final int value)
+    {
+        return new Callable<byte[]>()
+        {
+            @Override
+            public byte[] call() throws Exception
+            {
+                return clientConnection.sendAndWait(new byte[] {(byte) value}, 1);
+            }
+        };
+    }
+}
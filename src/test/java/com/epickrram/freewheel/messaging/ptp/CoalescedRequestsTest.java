@@ -0,0 +1,177 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.util.ByteArrayKey;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class CoalescedRequestsTest
+{
+    private static final int CALLER_COUNT = 8;
+
+    private final CoalescedRequests coalescedRequests = new CoalescedRequests();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch requestSent = new CountDownLatch(1);
+    private final CountDownLatch releaseResponse = new CountDownLatch(1);
+    private final AtomicInteger sendCount = new AtomicInteger();
+
+    @After
+    public void tearDown() throws Exception
+    {
+        releaseResponse.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldShareOneRequestBetweenConcurrentIdenticalCallers() throws Exception
+    {
+        final byte[] response = {1, 2, 3};
+        final List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+        results.add(executor.submit(caller(key(1), respondWith(response))));
+        requestSent.await();
+        for(int i = 1; i < CALLER_COUNT; i++)
+        {
+            results.add(executor.submit(caller(key(1), respondWith(response))));
+        }
+        awaitCoalescedCount(CALLER_COUNT - 1);
+
+        releaseResponse.countDown();
+
+        for (Future<byte[]> result : results)
+        {
+            assertThat(result.get(1L, TimeUnit.SECONDS), is(sameInstance(response)));
+        }
+        assertThat(sendCount.get(), is(1));
+    }
+
+    @Test
+    public void shouldNotShareRequestsWithDifferentKeys() throws Exception
+    {
+        releaseResponse.countDown();
+
+        coalescedRequests.send(key(1), respondWith(new byte[0]));
+        coalescedRequests.send(key(2), respondWith(new byte[0]));
+        coalescedRequests.send(key(1), respondWith(new byte[0]));
+
+        assertThat(sendCount.get(), is(3));
+        assertThat(coalescedRequests.getCoalescedRequestCount(), is(0L));
+    }
+
+    @Test
+    public void shouldReportFailureToAllWaitingCallers() throws Exception
+    {
+        final Future<byte[]> first = executor.submit(caller(key(1), new CoalescedRequests.Request()
+        {
+            @Override
+            public byte[] send()
+            {
+                respondWith(null).send();
+                throw new MessagingException("remote failure");
+            }
+        }));
+        requestSent.await();
+        final Future<byte[]> second = executor.submit(caller(key(1), respondWith(new byte[0])));
+        awaitCoalescedCount(1);
+
+        releaseResponse.countDown();
+
+        assertFailedWith(first, "remote failure");
+        assertFailedWith(second, "remote failure");
+        assertThat(sendCount.get(), is(1));
+    }
+
+    private void awaitCoalescedCount(final long expected) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while(coalescedRequests.getCoalescedRequestCount() != expected && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(1L);
+        }
+        assertThat(coalescedRequests.getCoalescedRequestCount(), is(expected));
+    }
+
+    private static void assertFailedWith(final Future<byte[]> result, final String message) throws Exception
+    {
+        try
+        {
+            result.get(1L, TimeUnit.SECONDS);
+            fail();
+        }
+        catch(ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof MessagingException);
+            assertTrue(e.getCause().getMessage().contains(message));
+        }
+    }
+
+    private Callable<byte[]> caller(final ByteArrayKey key, final CoalescedRequests.Request request)
+    {
+        return new Callable<byte[]>()
+        {
+            @Override
+            public byte[] call() throws Exception
+            {
+                return coalescedRequests.send(key, request);
+            }
+        };
+    }
+
+    private CoalescedRequests.Request respondWith(final byte[] response)
+    {
+        return new CoalescedRequests.Request()
+        {
+            @Override
+            public byte[] send()
+            {
+                sendCount.incrementAndGet();
+                requestSent.countDown();
+                try
+                {
+                    releaseResponse.await();
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return response;
+            }
+        };
+    }
+
+    private static ByteArrayKey key(final int value)
+    {
+        return new ByteArrayKey(new byte[] {(byte) value});
+    }
+}
@@ -0,0 +1,100 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public final class OutboundBacklogTest
+{
+    @Test
+    public void shouldReturnMessagesInOrder() throws Exception
+    {
+        final OutboundBacklog backlog = new OutboundBacklog(4, 8, ReconnectPolicy.OverflowPolicy.DROP_NEWEST);
+
+        assertThat(backlog.offer(bufferOf(1)), is(true));
+        assertThat(backlog.offer(bufferOf(2)), is(true));
+
+        assertThat(backlog.poll().readByte(), is((byte) 1));
+        assertThat(backlog.poll().readByte(), is((byte) 2));
+        assertThat(backlog.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldOnlyAllocateSlotsWhenFirstUsed() throws Exception
+    {
+        final OutboundBacklog backlog = new OutboundBacklog(1024, 2048, ReconnectPolicy.OverflowPolicy.DROP_NEWEST);
+
+        assertThat(backlog.allocatedSlotCount(), is(0));
+
+        backlog.offer(bufferOf(1));
+        backlog.offer(bufferOf(2));
+        backlog.poll();
+        backlog.poll();
+        backlog.offer(bufferOf(3));
+
+        assertThat(backlog.allocatedSlotCount(), is(3));
+        assertThat(backlog.poll().readByte(), is((byte) 3));
+    }
+
+    @Test
+    public void shouldRejectNewestMessageWhenFull() throws Exception
+    {
+        final OutboundBacklog backlog = new OutboundBacklog(2, 8, ReconnectPolicy.OverflowPolicy.DROP_NEWEST);
+
+        backlog.offer(bufferOf(1));
+        backlog.offer(bufferOf(2));
+
+        assertThat(backlog.isEvicting(), is(false));
+        assertThat(backlog.offer(bufferOf(3)), is(false));
+        assertThat(backlog.size(), is(2));
+        assertThat(backlog.poll().readByte(), is((byte) 1));
+    }
+
+    @Test
+    public void shouldOverwriteOldestMessageWhenFull() throws Exception
+    {
+        final OutboundBacklog backlog = new OutboundBacklog(2, 8, ReconnectPolicy.OverflowPolicy.DROP_OLDEST);
+
+        backlog.offer(bufferOf(1));
+        backlog.offer(bufferOf(2));
+
+        assertThat(backlog.isEvicting(), is(true));
+        assertThat(backlog.offer(bufferOf(3)), is(true));
+        assertThat(backlog.size(), is(2));
+        assertThat(backlog.poll().readByte(), is((byte) 2));
+        assertThat(backlog.poll().readByte(), is((byte) 3));
+    }
+
+    @Test
+    public void shouldRejectMessageLargerThanSlotSize() throws Exception
+    {
+        final OutboundBacklog backlog = new OutboundBacklog(2, 2, ReconnectPolicy.OverflowPolicy.DROP_OLDEST);
+
+        assertThat(backlog.offer(ChannelBuffers.wrappedBuffer(new byte[3])), is(false));
+        assertThat(backlog.size(), is(0));
+    }
+
+    private static ChannelBuffer bufferOf(final int value)
+    {
+        return ChannelBuffers.wrappedBuffer(new byte[] {(byte) value});
+    }
+}
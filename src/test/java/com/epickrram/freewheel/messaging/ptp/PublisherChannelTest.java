@@ -0,0 +1,325 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.protocol.CodeBookImpl;
+import com.epickrram.freewheel.util.HashedTimerWheel;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.Sequence;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.lib.action.CustomAction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(JMock.class)
+public final class PublisherChannelTest
+{
+    private static final int TOPIC_ID = 12345;
+    private static final long WRITE_TIMEOUT_MILLIS = 50L;
+    private static final long SYNC_TIMEOUT_MILLIS = 10000L;
+
+    private Mockery mockery = new Mockery();
+    private Channel channel;
+    private HashedTimerWheel reconnectTimer;
+    private ChannelFuture writeFuture;
+    private RecordingWriteFailureListener failureListener;
+    private PublisherChannel publisherChannel;
+
+    @Test
+    public void shouldReportFailedWriteCompletion() throws Exception
+    {
+        final ChannelBuffer buffer = ChannelBuffers.buffer(4);
+        final IOException cause = new IOException("connection reset");
+
+        mockery.checking(new Expectations()
+        {
+            {
+                allowing(channel).isWritable();
+                will(returnValue(true));
+                one(channel).write(buffer);
+                will(returnValue(writeFuture));
+                allowing(writeFuture).isSuccess();
+                will(returnValue(false));
+                allowing(writeFuture).getCause();
+                will(returnValue(cause));
+                one(writeFuture).addListener(with(any(ChannelFutureListener.class)));
+                will(new CustomAction("complete write")
+                {
+                    @Override
+                    public Object invoke(final Invocation invocation) throws Throwable
+                    {
+                        ((ChannelFutureListener) invocation.getParameter(0)).operationComplete(writeFuture);
+                        return null;
+                    }
+                });
+            }
+        });
+
+        publisherChannel.write(buffer);
+
+        assertThat(publisherChannel.getWriteFailureCount(), is(1L));
+        assertThat(publisherChannel.getBackPressureCount(), is(0L));
+        assertThat(failureListener.topicId, is(TOPIC_ID));
+        assertThat(failureListener.cause, is(sameInstance((Throwable) cause)));
+    }
+
+    @Test
+    public void shouldDropMessageIfChannelDoesNotBecomeWritableWithinTimeout() throws Exception
+    {
+        mockery.checking(new Expectations()
+        {
+            {
+                allowing(channel).isWritable();
+                will(returnValue(false));
+                allowing(channel).isOpen();
+                will(returnValue(true));
+                never(channel).write(with(any(Object.class)));
+            }
+        });
+
+        publisherChannel.write(ChannelBuffers.buffer(4));
+
+        assertThat(publisherChannel.getWriteFailureCount(), is(1L));
+        assertThat(publisherChannel.getBackPressureCount(), is(1L));
+        assertThat(failureListener.topicId, is(TOPIC_ID));
+    }
+
+    @Test
+    public void shouldHoldMessagesInBacklogWhileDisconnectedAndReplayOnReconnect() throws Exception
+    {
+        final Channel reconnectedChannel = mockery.mock(Channel.class, "reconnectedChannel");
+        final ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(new byte[] {1, 2, 3, 4});
+
+        mockery.checking(new Expectations()
+        {
+            {
+                never(channel).write(with(any(Object.class)));
+                one(reconnectedChannel).write(buffer);
+                will(returnValue(writeFuture));
+                allowing(writeFuture).addListener(with(any(ChannelFutureListener.class)));
+            }
+        });
+
+        publisherChannel.onChannelClosed(channel);
+        assertThat(reconnectTimer.getPendingTimeoutCount(), is(1L));
+        publisherChannel.write(buffer);
+        publisherChannel.setChannel(reconnectedChannel);
+
+        assertThat(publisherChannel.getDroppedMessageCount(), is(0L));
+        assertThat(publisherChannel.getWriteFailureCount(), is(0L));
+    }
+
+    @Test
+    public void shouldWriteHandshakeBeforeReplayingBacklog() throws Exception
+    {
+        final Channel reconnectedChannel = mockery.mock(Channel.class, "reconnectedChannel");
+        final ChannelBuffer handshakeFrame = ChannelBuffers.wrappedBuffer(new byte[] {9, 9});
+        final ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(new byte[] {1, 2, 3, 4});
+        final Sequence writes = mockery.sequence("writes");
+        publisherChannel = new PublisherChannel(TOPIC_ID, new OutboundFlowControl(1024, 512, WRITE_TIMEOUT_MILLIS, failureListener),
+                ReconnectPolicy.defaults(), null, null, reconnectTimer, handshakeFrame);
+
+        mockery.checking(new Expectations()
+        {
+            {
+                one(reconnectedChannel).write(handshakeFrame);
+                inSequence(writes);
+                will(returnValue(writeFuture));
+                one(reconnectedChannel).write(buffer);
+                inSequence(writes);
+                will(returnValue(writeFuture));
+                allowing(writeFuture).addListener(with(any(ChannelFutureListener.class)));
+            }
+        });
+
+        publisherChannel.write(buffer);
+        publisherChannel.setChannel(reconnectedChannel);
+    }
+
+    @Test
+    public void shouldFailSyncRequestDroppedWhileDisconnected() throws Exception
+    {
+        publisherChannel = new PublisherChannel(TOPIC_ID, new OutboundFlowControl(1024, 512, WRITE_TIMEOUT_MILLIS, failureListener),
+                new ReconnectPolicy(100L, 100L, 4, 16, ReconnectPolicy.OverflowPolicy.DROP_NEWEST), null, null, reconnectTimer, null);
+        publisherChannel.setChannel(channel);
+        publisherChannel.onChannelClosed(channel);
+
+        final SyncResponseFuture response = publisherChannel.writeSyncRequest(new byte[64], new CodeBookImpl(), SYNC_TIMEOUT_MILLIS);
+
+        assertFailedWithoutWaiting(response);
+        assertThat(publisherChannel.getDroppedMessageCount(), is(1L));
+    }
+
+    @Test
+    public void shouldFailSyncRequestEvictedFromBacklog() throws Exception
+    {
+        publisherChannel = new PublisherChannel(TOPIC_ID, new OutboundFlowControl(1024, 512, WRITE_TIMEOUT_MILLIS, failureListener),
+                new ReconnectPolicy(100L, 100L, 1, 1024, ReconnectPolicy.OverflowPolicy.DROP_OLDEST), null, null, reconnectTimer, null);
+        publisherChannel.setChannel(channel);
+        publisherChannel.onChannelClosed(channel);
+
+        final SyncResponseFuture response = publisherChannel.writeSyncRequest(new byte[64], new CodeBookImpl(), SYNC_TIMEOUT_MILLIS);
+        assertThat(response.isDone(), is(false));
+        publisherChannel.write(ChannelBuffers.buffer(4));
+
+        assertFailedWithoutWaiting(response);
+    }
+
+    @Test
+    public void shouldFailSyncRequestIfChannelDoesNotBecomeWritableWithinTimeout() throws Exception
+    {
+        mockery.checking(new Expectations()
+        {
+            {
+                allowing(channel).isWritable();
+                will(returnValue(false));
+                allowing(channel).isOpen();
+                will(returnValue(true));
+                never(channel).write(with(any(Object.class)));
+            }
+        });
+
+        final SyncResponseFuture response = publisherChannel.writeSyncRequest(new byte[64], new CodeBookImpl(), SYNC_TIMEOUT_MILLIS);
+
+        assertFailedWithoutWaiting(response);
+    }
+
+    @Test
+    public void shouldFailSyncRequestIfWriteFails() throws Exception
+    {
+        final IOException cause = new IOException("connection reset");
+
+        mockery.checking(new Expectations()
+        {
+            {
+                allowing(channel).isWritable();
+                will(returnValue(true));
+                one(channel).write(with(any(ChannelBuffer.class)));
+                will(returnValue(writeFuture));
+                allowing(writeFuture).isSuccess();
+                will(returnValue(false));
+                allowing(writeFuture).getCause();
+                will(returnValue(cause));
+                one(writeFuture).addListener(with(any(ChannelFutureListener.class)));
+                will(new CustomAction("complete write")
+                {
+                    @Override
+                    public Object invoke(final Invocation invocation) throws Throwable
+                    {
+                        ((ChannelFutureListener) invocation.getParameter(0)).operationComplete(writeFuture);
+                        return null;
+                    }
+                });
+            }
+        });
+
+        final SyncResponseFuture response = publisherChannel.writeSyncRequest(new byte[64], new CodeBookImpl(), SYNC_TIMEOUT_MILLIS);
+
+        assertFailedWithoutWaiting(response);
+        assertThat(publisherChannel.getWriteFailureCount(), is(1L));
+    }
+
+    @Test
+    public void shouldStopReconnectingAndReportRejectedSchema() throws Exception
+    {
+        mockery.checking(new Expectations()
+        {
+            {
+                one(channel).close();
+                never(channel).write(with(any(Object.class)));
+            }
+        });
+
+        publisherChannel.onHandshakeRejected(0xCAFEL);
+        publisherChannel.onChannelClosed(channel);
+
+        assertThat(publisherChannel.isRejected(), is(true));
+        assertThat(reconnectTimer.getPendingTimeoutCount(), is(0L));
+        assertThat(failureListener.cause, is(instanceOf(MessagingException.class)));
+        assertThat(publisherChannel.getWriteFailureCount(), is(1L));
+
+        publisherChannel.write(ChannelBuffers.wrappedBuffer(new byte[] {1, 2, 3, 4}));
+        final SyncResponseFuture response = publisherChannel.writeSyncRequest(new byte[64], new CodeBookImpl(), SYNC_TIMEOUT_MILLIS);
+
+        assertFailedWithoutWaiting(response);
+        assertThat(publisherChannel.getDroppedMessageCount(), is(2L));
+    }
+
+    private static void assertFailedWithoutWaiting(final SyncResponseFuture response) throws Exception
+    {
+        assertThat(response.isDone(), is(true));
+        try
+        {
+            response.get(0L, TimeUnit.MILLISECONDS);
+            fail("Expected the request to have failed");
+        }
+        catch (ExecutionException e)
+        {
+            // expected
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        channel = mockery.mock(Channel.class);
+        writeFuture = mockery.mock(ChannelFuture.class);
+        reconnectTimer = new HashedTimerWheel("test-reconnect");
+        failureListener = new RecordingWriteFailureListener();
+        publisherChannel = new PublisherChannel(TOPIC_ID, new OutboundFlowControl(1024, 512, WRITE_TIMEOUT_MILLIS, failureListener),
+                ReconnectPolicy.defaults(), null, null, reconnectTimer, null);
+        publisherChannel.setChannel(channel);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        reconnectTimer.stop();
+    }
+
+    private static final class RecordingWriteFailureListener implements WriteFailureListener
+    {
+        private int topicId;
+        private Throwable cause;
+
+        @Override
+        public void onWriteFailure(final int topicId, final Throwable cause)
+        {
+            this.topicId = topicId;
+            this.cause = cause;
+        }
+    }
+}
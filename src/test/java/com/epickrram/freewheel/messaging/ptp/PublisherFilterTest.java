@@ -0,0 +1,98 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.io.DecoderStream;
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.Receiver;
+import com.epickrram.freewheel.messaging.ReceiverRegistry;
+import com.epickrram.freewheel.messaging.filter.FilteredReceiver;
+import com.epickrram.freewheel.messaging.filter.MessageFilter;
+import com.epickrram.freewheel.messaging.filter.MessageFilters;
+import com.epickrram.freewheel.protocol.CodeBookImpl;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public final class PublisherFilterTest
+{
+    private static final int TOPIC_ID = 7;
+
+    private final ReceiverRegistry receiverRegistry = new ReceiverRegistry();
+
+    @Test
+    public void shouldSendCombinedFilterWhenAllReceiversAreFiltered() throws Exception
+    {
+        receiverRegistry.registerReceiver(TOPIC_ID, new FilteredReceiver(new StubReceiver(), MessageFilters.methodIds(1)));
+        receiverRegistry.registerReceiver(TOPIC_ID, new FilteredReceiver(new StubReceiver(), MessageFilters.methodIds(2)));
+
+        final MessageFilter filter = decode(new PublisherFilter(new CodeBookImpl(), TOPIC_ID, receiverRegistry).createFrame());
+
+        assertThat(filter.accept(header(1), 0, MessageHeader.LENGTH), is(true));
+        assertThat(filter.accept(header(2), 0, MessageHeader.LENGTH), is(true));
+        assertThat(filter.accept(header(3), 0, MessageHeader.LENGTH), is(false));
+    }
+
+    @Test
+    public void shouldSendAcceptAllWhenAnyReceiverIsUnfiltered() throws Exception
+    {
+        receiverRegistry.registerReceiver(TOPIC_ID, new FilteredReceiver(new StubReceiver(), MessageFilters.methodIds(1)));
+        receiverRegistry.registerReceiver(TOPIC_ID, new StubReceiver());
+
+        final MessageFilter filter = decode(new PublisherFilter(new CodeBookImpl(), TOPIC_ID, receiverRegistry).createFrame());
+
+        assertThat(filter.accept(header(3), 0, MessageHeader.LENGTH), is(true));
+    }
+
+    @Test
+    public void shouldIgnoreOtherFrames() throws Exception
+    {
+        final byte[] message = header(1);
+
+        assertThat(PublisherFilter.decode(new CodeBookImpl(), message, message.length), is(nullValue()));
+    }
+
+    private static MessageFilter decode(final ChannelBuffer frame)
+    {
+        final byte[] payload = new byte[frame.readInt()];
+        frame.readBytes(payload);
+        return PublisherFilter.decode(new CodeBookImpl(), payload, payload.length);
+    }
+
+    private static byte[] header(final int methodId)
+    {
+        final byte[] message = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(message, 0, TOPIC_ID, methodId, 0, 0L);
+        return message;
+    }
+
+    private static final class StubReceiver implements Receiver
+    {
+        @Override
+        public void onMessage(final int topicId, final int methodId, final DecoderStream decoderStream)
+        {
+        }
+
+        @Override
+        public Object onSyncMessage(final int topicId, final int methodId, final DecoderStream decoderStream)
+        {
+            return null;
+        }
+    }
+}
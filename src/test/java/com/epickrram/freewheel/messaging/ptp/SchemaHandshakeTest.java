@@ -0,0 +1,143 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.messaging.MessageHeader;
+import com.epickrram.freewheel.messaging.config.MethodId;
+import com.epickrram.freewheel.protocol.CodeBookImpl;
+import com.epickrram.freewheel.remoting.RemoteInterfaceSchema;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public final class SchemaHandshakeTest
+{
+    private static final int TOPIC_ID = 7;
+
+    @Test
+    public void shouldAcceptHandshakeFromMatchingSchema() throws Exception
+    {
+        final byte[] payload = payloadOf(handshakeFor(TOPIC_ID, VersionOne.class).createFrame());
+        final SchemaHandshake subscriber = handshakeFor(TOPIC_ID, VersionOne.class);
+
+        assertThat(subscriber.check(payload, payload.length), is(SchemaHandshake.Result.ACCEPTED));
+        assertThat(subscriber.getRejectedCount(), is(0L));
+    }
+
+    @Test
+    public void shouldRejectHandshakeFromIncompatibleSchema() throws Exception
+    {
+        final byte[] payload = payloadOf(handshakeFor(TOPIC_ID, VersionOne.class).createFrame());
+        final SchemaHandshake subscriber = handshakeFor(TOPIC_ID, VersionTwo.class);
+
+        assertThat(subscriber.check(payload, payload.length), is(SchemaHandshake.Result.REJECTED));
+        assertThat(subscriber.getRejectedCount(), is(1L));
+    }
+
+    @Test
+    public void shouldAcceptHandshakeWhenBothSidesUseExplicitMethodIds() throws Exception
+    {
+        final byte[] payload = payloadOf(handshakeFor(TOPIC_ID, ExplicitVersionOne.class).createFrame());
+        final SchemaHandshake subscriber = handshakeFor(TOPIC_ID, ExplicitVersionTwo.class);
+
+        assertThat(subscriber.check(payload, payload.length), is(SchemaHandshake.Result.ACCEPTED));
+    }
+
+    @Test
+    public void shouldRejectHandshakeWhenSharedMethodIdHasDifferentSignature() throws Exception
+    {
+        final byte[] payload = payloadOf(handshakeFor(TOPIC_ID, ExplicitVersionOne.class).createFrame());
+        final SchemaHandshake subscriber = handshakeFor(TOPIC_ID, ExplicitChangedSignature.class);
+
+        assertThat(subscriber.check(payload, payload.length), is(SchemaHandshake.Result.REJECTED));
+    }
+
+    @Test
+    public void shouldRejectHandshakeForDifferentTopic() throws Exception
+    {
+        final byte[] payload = payloadOf(handshakeFor(TOPIC_ID + 1, VersionOne.class).createFrame());
+        final SchemaHandshake subscriber = handshakeFor(TOPIC_ID, VersionOne.class);
+
+        assertThat(subscriber.check(payload, payload.length), is(SchemaHandshake.Result.REJECTED));
+    }
+
+    @Test
+    public void shouldPassThroughOrdinaryMessage() throws Exception
+    {
+        final byte[] payload = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(payload, 0, TOPIC_ID, 0, 0, 0L);
+
+        assertThat(handshakeFor(TOPIC_ID, VersionOne.class).check(payload, payload.length),
+                is(SchemaHandshake.Result.NOT_HANDSHAKE));
+    }
+
+    @Test
+    public void shouldCarrySubscriberFingerprintInRejectionFrame() throws Exception
+    {
+        final ChannelBuffer frame = handshakeFor(TOPIC_ID, VersionTwo.class).createRejectionFrame();
+        final int frameLength = frame.readInt();
+
+        assertThat(SchemaHandshake.isRejection(frame, frameLength), is(true));
+        assertThat(SchemaHandshake.readRejectingFingerprint(frame, frameLength),
+                is(RemoteInterfaceSchema.forDescriptor(VersionTwo.class).getFingerprint()));
+        assertThat(frame.readableBytes(), is(0));
+    }
+
+    private static SchemaHandshake handshakeFor(final int topicId, final Class<?> descriptor)
+    {
+        return new SchemaHandshake(new CodeBookImpl(), topicId, RemoteInterfaceSchema.forDescriptor(descriptor));
+    }
+
+    private static byte[] payloadOf(final ChannelBuffer frame)
+    {
+        final byte[] payload = new byte[frame.readInt()];
+        frame.readBytes(payload);
+        return payload;
+    }
+
+    private interface VersionOne
+    {
+        void update(int value);
+    }
+
+    private interface VersionTwo
+    {
+        void update(long value);
+    }
+
+    private interface ExplicitVersionOne
+    {
+        @MethodId(0)
+        void update(int value);
+    }
+
+    private interface ExplicitVersionTwo
+    {
+        @MethodId(0)
+        void update(int value);
+
+        @MethodId(1)
+        void reset();
+    }
+
+    private interface ExplicitChangedSignature
+    {
+        @MethodId(0)
+        void update(long value);
+    }
+}
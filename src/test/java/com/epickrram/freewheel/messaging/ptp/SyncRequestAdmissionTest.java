@@ -0,0 +1,75 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.messaging.MessageHeader;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public final class SyncRequestAdmissionTest
+{
+    private final SyncRequestAdmission admission = new SyncRequestAdmission(4);
+
+    @Test
+    public void shouldCountExpiredRequests() throws Exception
+    {
+        assertThat(admission.isExpired(requestWithDeadline(System.currentTimeMillis() + 60000L)), is(false));
+        assertThat(admission.isExpired(requestWithDeadline(System.currentTimeMillis() - 1000L)), is(true));
+        assertThat(admission.isExpired(new byte[MessageHeader.LENGTH]), is(false));
+
+        assertThat(admission.getExpiredRequestCount(), is(1L));
+    }
+
+    @Test
+    public void shouldShedRequestsAtQueueDepth() throws Exception
+    {
+        assertThat(admission.shouldShed(3), is(false));
+        assertThat(admission.shouldShed(4), is(true));
+        assertThat(admission.shouldShed(5), is(true));
+
+        assertThat(admission.getShedRequestCount(), is(2L));
+    }
+
+    @Test
+    public void shouldCountRequestsRejectedByFullQueueAsShed() throws Exception
+    {
+        admission.onQueueFull();
+
+        assertThat(admission.getShedRequestCount(), is(1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowShedQueueDepthBeyondWorkerQueueCapacity() throws Exception
+    {
+        new SyncRequestPolicy(SyncRequestPolicy.DEFAULT_SEND_AND_WAIT_TIMEOUT_MILLIS, 1, 16, 17);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowShedQueueDepthBeyondSyncWorkerQueueCapacity() throws Exception
+    {
+        new BlockingTransportPolicy(BlockingTransportPolicy.DEFAULT_SEND_AND_WAIT_TIMEOUT_MILLIS, BlockingThreadModel.PLATFORM,
+                1, 16, BlockingTransportPolicy.DEFAULT_MAX_FRAME_LENGTH, 17);
+    }
+
+    private static byte[] requestWithDeadline(final long deadline)
+    {
+        final byte[] message = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(message, 0, 1, 2, MessageHeader.FLAG_SYNC, 0L);
+        return MessageHeader.withDeadline(message, message.length, deadline);
+    }
+}
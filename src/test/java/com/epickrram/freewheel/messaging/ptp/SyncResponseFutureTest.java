@@ -0,0 +1,113 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.messaging.ptp;
+
+import com.epickrram.freewheel.messaging.MessagingException;
+import com.epickrram.freewheel.protocol.CodeBookImpl;
+import com.epickrram.freewheel.util.HashedTimerWheel;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class SyncResponseFutureTest
+{
+    private static final long CORRELATION_ID = 17L;
+    private static final int TOPIC_ID = 5;
+
+    private final ConcurrentMap<Long, SyncResponseFuture> pendingResponses = new ConcurrentHashMap<Long, SyncResponseFuture>();
+    private final HashedTimerWheel timerWheel = new HashedTimerWheel("test-timer", 10L, TimeUnit.MILLISECONDS, 64);
+    private final SyncResponseFuture responseFuture = new SyncResponseFuture(pendingResponses, CORRELATION_ID, TOPIC_ID,
+            new CodeBookImpl());
+
+    @After
+    public void tearDown()
+    {
+        timerWheel.stop();
+    }
+
+    @Test
+    public void shouldFailAndRemoveItselfWhenTimeoutPasses() throws Exception
+    {
+        pendingResponses.put(CORRELATION_ID, responseFuture);
+        responseFuture.scheduleTimeout(timerWheel, 50L);
+
+        try
+        {
+            responseFuture.get(5L, TimeUnit.SECONDS);
+            fail("Expected timeout");
+        }
+        catch(ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof MessagingException);
+        }
+        assertThat(pendingResponses.isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldRemoveItselfWhenCancelled() throws Exception
+    {
+        pendingResponses.put(CORRELATION_ID, responseFuture);
+
+        assertThat(responseFuture.cancel(false), is(true));
+        assertThat(responseFuture.isCancelled(), is(true));
+        assertThat(responseFuture.isDone(), is(true));
+        assertThat(pendingResponses.isEmpty(), is(true));
+        try
+        {
+            responseFuture.get();
+            fail("Expected cancellation");
+        }
+        catch(CancellationException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void shouldNotCancelCompletedResponse() throws Exception
+    {
+        responseFuture.complete(new byte[] {SyncRequestInvoker.RESPONSE_OK}, null);
+
+        assertThat(responseFuture.cancel(false), is(false));
+        assertThat(responseFuture.isCancelled(), is(false));
+    }
+
+    @Test
+    public void shouldReportRemoteFailure() throws Exception
+    {
+        responseFuture.complete(SyncRequestInvoker.errorResponse("oops"), null);
+
+        try
+        {
+            responseFuture.get();
+            fail("Expected remote failure");
+        }
+        catch(ExecutionException e)
+        {
+            assertTrue(e.getCause().getMessage().contains("oops"));
+        }
+    }
+}
@@ -19,6 +19,7 @@ package com.epickrram.freewheel.remoting;
 import com.epickrram.freewheel.io.EncoderStream;
 import com.epickrram.freewheel.io.PackerEncoderStream;
 import com.epickrram.freewheel.io.PackerEncoderStreamFactory;
+import com.epickrram.freewheel.messaging.MessageHeader;
 import com.epickrram.freewheel.messaging.OutgoingMessageEvent;
 import com.epickrram.freewheel.messaging.config.Remote;
 import com.epickrram.freewheel.protocol.CodeBook;
@@ -97,6 +98,23 @@ public final class BufferedPublisherFactoryTest
         bufferedPublisherFactory.createPublisher(SingleArgMethodInterface.class);
     }
 
+    @Test
+    public void shouldReleaseRingBufferWhenPublisherIsRemoved() throws Exception
+    {
+        mockery.checking(new Expectations()
+        {
+            {
+                exactly(2).of(ringBufferFactory).createRingBuffer(MESSAGE_STORE_SIZE);
+                will(returnValue(ringBufferWrapper));
+                oneOf(ringBufferFactory).releaseRingBuffer(ringBufferWrapper);
+            }
+        });
+
+        bufferedPublisherFactory.createPublisher(SingleArgMethodInterface.class);
+        bufferedPublisherFactory.removePublisher(SingleArgMethodInterface.class);
+        bufferedPublisherFactory.createPublisher(SingleArgMethodInterface.class);
+    }
+
     @Test
     public void shouldPublishMessagesToRingBuffer() throws Exception
     {
@@ -105,16 +123,14 @@ public final class BufferedPublisherFactoryTest
         final OutgoingMessageEvent secondEvent = new OutgoingMessageEvent(packerEncoderStreamFactory);
 
         final ByteArrayOutputStream expectedMessageOne = new ByteArrayOutputStream();
+        writeHeader(expectedMessageOne, 0, 0L);
         final EncoderStream encoderOne = encoderFor(expectedMessageOne);
-        encoderOne.writeInt(TOPIC_ID);
-        encoderOne.writeByte((byte) 0);
         encoderOne.writeInt(42);
         encoderOne.writeByte((byte) 11);
 
         final ByteArrayOutputStream expectedMessageTwo = new ByteArrayOutputStream();
+        writeHeader(expectedMessageTwo, 1, 1L);
         final EncoderStream encoderTwo = encoderFor(expectedMessageTwo);
-        encoderTwo.writeInt(TOPIC_ID);
-        encoderTwo.writeByte((byte) 1);
         encoderTwo.writeLong(Long.MAX_VALUE);
         encoderTwo.writeInt(11);
         encoderTwo.writeByte((byte) 3);
@@ -155,12 +171,68 @@ public final class BufferedPublisherFactoryTest
         assertMessageContents(expectedMessageTwo, secondEvent.getOutput());
     }
 
+    @Test
+    public void shouldCaptureArgumentsAndDeferEncodingToEventProcessor() throws Exception
+    {
+        final OutgoingMessageEvent event = new OutgoingMessageEvent(packerEncoderStreamFactory);
+        final ByteArrayOutputStream expectedMessage = new ByteArrayOutputStream();
+        writeHeader(expectedMessage, 0, 7L);
+        final EncoderStream encoder = encoderFor(expectedMessage);
+        encoder.writeInt(-42);
+        encoder.writeBoolean(true);
+        encoder.writeDouble(1.25d);
+        encoder.writeFloat(-0.5f);
+        encoder.writeLong(Long.MIN_VALUE);
+        encoder.writeString("quote");
+
+        mockery.checking(new Expectations()
+        {
+            {
+                oneOf(ringBufferWrapper).next();
+                will(returnValue(7L));
+                oneOf(ringBufferWrapper).get(7L);
+                will(returnValue(event));
+                oneOf(ringBufferWrapper).publish(7L);
+
+                allowing(ringBufferFactory).createRingBuffer(MESSAGE_STORE_SIZE);
+                will(returnValue(ringBufferWrapper));
+            }
+        });
+
+        final DeferredEncodingInterface publisher =
+                new BufferedPublisherFactory(ringBufferFactory, topicIdGenerator, codeBook, BufferedEncodingMode.EVENT_PROCESSOR_THREAD).
+                        createPublisher(DeferredEncodingInterface.class);
+
+        publisher.invoke(-42, true, 1.25d, -0.5f, Long.MIN_VALUE, "quote");
+
+        Assert.assertEquals(0, event.getOutput().size());
+
+        event.encodeDeferred();
+
+        assertMessageContents(expectedMessage, event.getOutput());
+        Assert.assertNull(event.getReferenceArgument(5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectDeferredEncodingOfMethodsWithTooManyArguments() throws Exception
+    {
+        new BufferedPublisherFactory(ringBufferFactory, topicIdGenerator, codeBook, BufferedEncodingMode.EVENT_PROCESSOR_THREAD).
+                createPublisher(TooManyArgsMethodInterface.class);
+    }
+
     private void assertMessageContents(final ByteArrayOutputStream expected,
                                        final ByteArrayOutputStream actual)
     {
         Assert.assertThat(actual, aByteOutputBufferMatching(expected));
     }
 
+    private static void writeHeader(final ByteArrayOutputStream expectedMessage, final int methodId, final long sequence)
+    {
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, TOPIC_ID, methodId, 0, sequence);
+        expectedMessage.write(header, 0, header.length);
+    }
+
     private EncoderStream encoderFor(final ByteArrayOutputStream expectedMessage)
     {
         return new PackerEncoderStream(codeBook, new MessagePackPacker(expectedMessage));
@@ -179,6 +251,19 @@ public final class BufferedPublisherFactoryTest
         void invoke(int value);
     }
 
+    @Remote(reliable = true, messageStoreSize = MESSAGE_STORE_SIZE)
+    private static interface DeferredEncodingInterface
+    {
+        void invoke(int i, boolean flag, double price, float ratio, long id, String name);
+    }
+
+    @Remote(reliable = true, messageStoreSize = MESSAGE_STORE_SIZE)
+    private static interface TooManyArgsMethodInterface
+    {
+        void invoke(int a, int b, int c, int d, int e, int f, int g, int h, int i,
+                    int j, int k, int l, int m, int n, int o, int p, int q);
+    }
+
     private static interface UnannotatedInterface
     {
         void bar();
@@ -0,0 +1,48 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public final class ClassNameTopicIdGeneratorTest
+{
+    private final ClassNameTopicIdGenerator topicIdGenerator = new ClassNameTopicIdGenerator();
+
+    @Test
+    public void shouldReturnSameTopicIdForRepeatedLookups() throws Exception
+    {
+        assertThat(topicIdGenerator.getTopicId(Aa.class), is(topicIdGenerator.getTopicId(Aa.class)));
+    }
+
+    @Test(expected = RemotingException.class)
+    public void shouldDetectCollidingClassnames() throws Exception
+    {
+        // "Aa" and "BB" have the same String hash code
+        topicIdGenerator.getTopicId(Aa.class);
+        topicIdGenerator.getTopicId(BB.class);
+    }
+
+    private interface Aa
+    {
+    }
+
+    private interface BB
+    {
+    }
+}
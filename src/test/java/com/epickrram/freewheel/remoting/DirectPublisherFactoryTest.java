@@ -18,7 +18,10 @@ package com.epickrram.freewheel.remoting;
 import com.epickrram.freewheel.io.PackerEncoderStream;
 import com.epickrram.freewheel.io.UnpackerDecoderStream;
 import com.epickrram.freewheel.messaging.Bits;
+import com.epickrram.freewheel.messaging.MessageHeader;
 import com.epickrram.freewheel.messaging.MessagingService;
+import com.epickrram.freewheel.messaging.config.CachedResponse;
+import com.epickrram.freewheel.messaging.config.Idempotent;
 import com.epickrram.freewheel.messaging.config.Remote;
 import com.epickrram.freewheel.protocol.CodeBook;
 import com.epickrram.freewheel.protocol.CodeBookImpl;
@@ -73,7 +76,7 @@ public final class DirectPublisherFactoryTest
     }
 
     @Test(expected = IllegalArgumentException.class)
-    public void shouldBlowUpIfSyncMethodReturnsPrimitiveValue() throws Exception
+    public void shouldBlowUpIfSyncMethodReturnsUnsupportedPrimitiveValue() throws Exception
     {
         mockery.checking(new Expectations()
         {
@@ -83,7 +86,42 @@ public final class DirectPublisherFactoryTest
             }
         });
 
-        publisherFactory.createPublisher(SyncMethodPrimitiveReturnValueInterface.class);
+        publisherFactory.createPublisher(SyncMethodUnsupportedPrimitiveReturnValueInterface.class);
+    }
+
+    @Test
+    public void shouldDecodePrimitiveAndBoxedReturnValuesByDeclaredType() throws Exception
+    {
+        mockery.checking(new Expectations()
+        {
+            {
+                allowing(messagingService).supportsSendAndWait();
+                will(returnValue(true));
+            }
+        });
+
+        final SyncMethodPrimitiveReturnValueInterface publisher =
+                publisherFactory.createPublisher(SyncMethodPrimitiveReturnValueInterface.class);
+
+        final ByteArrayOutputStream encodedResponses = new ByteArrayOutputStream();
+        final PackerEncoderStream responseEncoder = encoderFor(encodedResponses);
+        responseEncoder.writeInt(INT_VALUE_1);
+        ReturnValueCodec.writeBoxedLong(responseEncoder, Long.valueOf(LONG_VALUE));
+        ReturnValueCodec.writeBoxedLong(responseEncoder, null);
+        final UnpackerDecoderStream decoderStream = new UnpackerDecoderStream(codeBook,
+                new MessagePackUnpacker(new ByteArrayInputStream(encodedResponses.toByteArray())));
+
+        mockery.checking(new Expectations()
+        {
+            {
+                exactly(3).of(messagingService).sendAndWait(with(TOPIC_IC), with(any(ByteArrayOutputStream.class)));
+                will(returnValue(decoderStream));
+            }
+        });
+
+        assertThat(publisher.primitive(LONG_VALUE), is(INT_VALUE_1));
+        assertThat(publisher.boxed(LONG_VALUE), is(Long.valueOf(LONG_VALUE)));
+        assertThat(publisher.boxed(LONG_VALUE), is(CoreMatchers.<Long>nullValue()));
     }
 
     @Test
@@ -99,14 +137,13 @@ public final class DirectPublisherFactoryTest
 
         final SyncMethodInterface publisher = publisherFactory.createPublisher(SyncMethodInterface.class);
         final ByteArrayOutputStream expectedMessage = new ByteArrayOutputStream(10);
+        writeHeader(expectedMessage, FIRST_METHOD_INDEX, MessageHeader.FLAG_SYNC, 0L);
         final PackerEncoderStream encoderStream = encoderFor(expectedMessage);
 
         final ByteArrayOutputStream encodedResponse = new ByteArrayOutputStream();
         final PackerEncoderStream responseEncoder = encoderFor(encodedResponse);
         responseEncoder.writeString(STRING_VALUE);
         final UnpackerDecoderStream decoderStream = new UnpackerDecoderStream(codeBook, new MessagePackUnpacker(new ByteArrayInputStream(encodedResponse.toByteArray())));
-        encoderStream.writeInt(TOPIC_IC);
-        encoderStream.writeByte(FIRST_METHOD_INDEX);
         encoderStream.writeInt(INT_VALUE_1);
 
         mockery.checking(new Expectations()
@@ -120,19 +157,94 @@ public final class DirectPublisherFactoryTest
         assertThat(publisher.invoke(INT_VALUE_1), is(STRING_VALUE));
     }
 
+    @Test
+    public void shouldAnswerRepeatedCallsToCachedMethodFromCache() throws Exception
+    {
+        mockery.checking(new Expectations()
+        {
+            {
+                allowing(messagingService).supportsSendAndWait();
+                will(returnValue(true));
+            }
+        });
+        final CachedMethodInterface publisher = publisherFactory.createPublisher(CachedMethodInterface.class);
+
+        mockery.checking(new Expectations()
+        {
+            {
+                exactly(2).of(messagingService).sendAndWait(with(TOPIC_IC), with(any(ByteArrayOutputStream.class)));
+                will(onConsecutiveCalls(returnValue(responseOf(STRING_VALUE)), returnValue(responseOf("other"))));
+                exactly(2).of(messagingService).sendAndWait(with(TOPIC_IC), with(any(ByteArrayOutputStream.class)));
+                will(onConsecutiveCalls(returnValue(primitiveResponseOf(INT_VALUE_1)), returnValue(primitiveResponseOf(INT_VALUE_2))));
+            }
+        });
+
+        assertThat(publisher.lookup(INT_VALUE_1), is(STRING_VALUE));
+        assertThat(publisher.lookup(INT_VALUE_1), is(STRING_VALUE));
+        assertThat(publisher.lookup(INT_VALUE_2), is("other"));
+        assertThat(publisher.count(LONG_VALUE), is(INT_VALUE_1));
+        assertThat(publisher.count(LONG_VALUE), is(INT_VALUE_1));
+
+        publisherFactory.getResponseCacheInvalidation().invalidate(CachedMethodInterface.class.getName(), "count");
+
+        assertThat(publisher.count(LONG_VALUE), is(INT_VALUE_2));
+        assertThat(publisher.lookup(INT_VALUE_1), is(STRING_VALUE));
+    }
+
+    @Test
+    public void shouldFlagIdempotentSyncRequests() throws Exception
+    {
+        mockery.checking(new Expectations()
+        {
+            {
+                allowing(messagingService).supportsSendAndWait();
+                will(returnValue(true));
+            }
+        });
+        final IdempotentMethodInterface publisher = publisherFactory.createPublisher(IdempotentMethodInterface.class);
+        final ByteArrayOutputStream expectedMessage = new ByteArrayOutputStream();
+        writeHeader(expectedMessage, FIRST_METHOD_INDEX, MessageHeader.FLAG_SYNC | MessageHeader.FLAG_IDEMPOTENT, 0L);
+        encoderFor(expectedMessage).writeInt(INT_VALUE_1);
+
+        mockery.checking(new Expectations()
+        {
+            {
+                one(messagingService).sendAndWait(with(TOPIC_IC), with(aByteOutputBufferMatching(expectedMessage)));
+                will(returnValue(responseOf(STRING_VALUE)));
+            }
+        });
+
+        assertThat(publisher.invoke(INT_VALUE_1), is(STRING_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldBlowUpIfCachedMethodHasNoResult() throws Exception
+    {
+        mockery.checking(new Expectations()
+        {
+            {
+                allowing(messagingService).supportsSendAndWait();
+                will(returnValue(true));
+            }
+        });
+
+        publisherFactory.createPublisher(CachedVoidMethodInterface.class);
+    }
+
     @Test
     public void shouldGeneratePublisherForSingleNoArgsMethodInterface() throws Exception
     {
         final SingleNoArgsMethodInterface publisher = publisherFactory.createPublisher(SingleNoArgsMethodInterface.class);
-        final ByteArrayOutputStream expectedMessage = new ByteArrayOutputStream(10);
-        final PackerEncoderStream encoderStream = encoderFor(expectedMessage);
-        encoderStream.writeInt(TOPIC_IC);
-        encoderStream.writeByte(FIRST_METHOD_INDEX);
+        final ByteArrayOutputStream expectedMessageOne = new ByteArrayOutputStream(MessageHeader.LENGTH);
+        writeHeader(expectedMessageOne, FIRST_METHOD_INDEX, 0, 0L);
+        final ByteArrayOutputStream expectedMessageTwo = new ByteArrayOutputStream(MessageHeader.LENGTH);
+        writeHeader(expectedMessageTwo, FIRST_METHOD_INDEX, 0, 1L);
 
         mockery.checking(new Expectations()
         {
             {
-                exactly(2).of(messagingService).send(with(TOPIC_IC), with(aByteOutputBufferMatching(expectedMessage)));
+                one(messagingService).send(with(TOPIC_IC), with(aByteOutputBufferMatching(expectedMessageOne)));
+                one(messagingService).send(with(TOPIC_IC), with(aByteOutputBufferMatching(expectedMessageTwo)));
             }
         });
 
@@ -145,15 +257,13 @@ public final class DirectPublisherFactoryTest
     {
         final SingleArgMethodInterface publisher = publisherFactory.createPublisher(SingleArgMethodInterface.class);
         final ByteArrayOutputStream expectedMessageOne = new ByteArrayOutputStream(16);
+        writeHeader(expectedMessageOne, FIRST_METHOD_INDEX, 0, 0L);
         final PackerEncoderStream encoderOne = encoderFor(expectedMessageOne);
-        encoderOne.writeInt(TOPIC_IC);
-        encoderOne.writeByte(FIRST_METHOD_INDEX);
         encoderOne.writeInt(INT_VALUE_1);
 
         final ByteArrayOutputStream expectedMessageTwo = new ByteArrayOutputStream(16);
+        writeHeader(expectedMessageTwo, FIRST_METHOD_INDEX, 0, 1L);
         final PackerEncoderStream encoderTwo = encoderFor(expectedMessageTwo);
-        encoderTwo.writeInt(TOPIC_IC);
-        encoderTwo.writeByte(FIRST_METHOD_INDEX);
         encoderTwo.writeInt(INT_VALUE_2);
 
         mockery.checking(new Expectations()
@@ -173,16 +283,14 @@ public final class DirectPublisherFactoryTest
     {
         final MultipleArgMultipleMethodInterface publisher = publisherFactory.createPublisher(MultipleArgMultipleMethodInterface.class);
         final ByteArrayOutputStream expectedMessageOne = new ByteArrayOutputStream(24);
+        writeHeader(expectedMessageOne, FIRST_METHOD_INDEX, 0, 0L);
         final PackerEncoderStream encoderOne = encoderFor(expectedMessageOne);
-        encoderOne.writeInt(TOPIC_IC);
-        encoderOne.writeByte(FIRST_METHOD_INDEX);
         encoderOne.writeInt(INT_VALUE_1);
         encoderOne.writeByte(BYTE_VALUE);
 
         final ByteArrayOutputStream expectedMessageTwo = new ByteArrayOutputStream(36);
+        writeHeader(expectedMessageTwo, SECOND_METHOD_INDEX, 0, 1L);
         final PackerEncoderStream encoderTwo = encoderFor(expectedMessageTwo);
-        encoderTwo.writeInt(TOPIC_IC);
-        encoderTwo.writeByte(SECOND_METHOD_INDEX);
         encoderTwo.writeLong(LONG_VALUE);
         encoderTwo.writeInt(INT_VALUE_2);
         encoderTwo.writeByte(BYTE_VALUE);
@@ -199,6 +307,26 @@ public final class DirectPublisherFactoryTest
         publisher.invoke(LONG_VALUE, INT_VALUE_2, BYTE_VALUE);
     }
 
+    @Test
+    public void shouldReleaseResponseCachesOfRemovedPublisher() throws Exception
+    {
+        mockery.checking(new Expectations()
+        {
+            {
+                allowing(messagingService).supportsSendAndWait();
+                will(returnValue(true));
+            }
+        });
+        final ResponseCacheRegistry responseCacheRegistry = ((DirectPublisherFactory) publisherFactory).responseCacheRegistry;
+        publisherFactory.createPublisher(CachedMethodInterface.class);
+        publisherFactory.createPublisher(CachedMethodInterface.class);
+        assertThat(responseCacheRegistry.getResponseCacheCount(), is(4));
+
+        publisherFactory.removePublisher(CachedMethodInterface.class);
+
+        assertThat(responseCacheRegistry.getResponseCacheCount(), is(0));
+    }
+
     @Before
     public void setUp() throws Exception
     {
@@ -217,6 +345,28 @@ public final class DirectPublisherFactoryTest
         codeBook = new CodeBookImpl();
     }
 
+    private static void writeHeader(final ByteArrayOutputStream expectedMessage, final int methodId,
+                                    final int flags, final long sequence)
+    {
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, TOPIC_IC, methodId, flags, sequence);
+        expectedMessage.write(header, 0, header.length);
+    }
+
+    private UnpackerDecoderStream responseOf(final String value) throws Exception
+    {
+        final ByteArrayOutputStream encodedResponse = new ByteArrayOutputStream();
+        encoderFor(encodedResponse).writeString(value);
+        return new UnpackerDecoderStream(codeBook, new MessagePackUnpacker(new ByteArrayInputStream(encodedResponse.toByteArray())));
+    }
+
+    private UnpackerDecoderStream primitiveResponseOf(final int value) throws Exception
+    {
+        final ByteArrayOutputStream encodedResponse = new ByteArrayOutputStream();
+        encoderFor(encodedResponse).writeInt(value);
+        return new UnpackerDecoderStream(codeBook, new MessagePackUnpacker(new ByteArrayInputStream(encodedResponse.toByteArray())));
+    }
+
     private PackerEncoderStream encoderFor(final ByteArrayOutputStream expectedMessage)
     {
         return new PackerEncoderStream(codeBook, new MessagePackPacker(expectedMessage));
@@ -250,6 +400,37 @@ public final class DirectPublisherFactoryTest
     @Remote
     private interface SyncMethodPrimitiveReturnValueInterface
     {
-        int invoke(long value);
+        int primitive(long value);
+        Long boxed(long value);
+    }
+
+    @Remote
+    private interface CachedMethodInterface
+    {
+        @CachedResponse
+        String lookup(int value);
+
+        @CachedResponse(maxEntries = 4, timeToLiveMillis = 1000L)
+        int count(long value);
+    }
+
+    @Remote
+    private interface IdempotentMethodInterface
+    {
+        @Idempotent
+        String invoke(int value);
+    }
+
+    @Remote
+    private interface CachedVoidMethodInterface
+    {
+        @CachedResponse
+        void invoke(int value) throws Exception;
+    }
+
+    @Remote
+    private interface SyncMethodUnsupportedPrimitiveReturnValueInterface
+    {
+        short invoke(long value);
     }
 }
@@ -0,0 +1,122 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import com.epickrram.freewheel.io.PackerEncoderStream;
+import com.epickrram.freewheel.io.UnpackerDecoderStream;
+import com.epickrram.freewheel.messaging.MessagingService;
+import com.epickrram.freewheel.messaging.Receiver;
+import com.epickrram.freewheel.messaging.config.Remote;
+import com.epickrram.freewheel.protocol.CodeBook;
+import com.epickrram.freewheel.protocol.CodeBookImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.msgpack.packer.MessagePackPacker;
+import org.msgpack.unpacker.MessagePackUnpacker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public final class GeneratedClassWriterTest
+{
+    private File outputDirectory;
+    private URLClassLoader classLoader;
+
+    @Test
+    public void shouldWriteLoadableSubscriberClass() throws Exception
+    {
+        new GeneratedClassWriter(outputDirectory.getAbsolutePath()).writeClasses(PrebuiltInterface.class);
+
+        final Class<?> subscriberClass = classLoader.loadClass(PrebuiltInterface.class.getName() + "Subscriber");
+        final RecordingPrebuiltInterface implementation = new RecordingPrebuiltInterface();
+        final Receiver receiver = (Receiver) subscriberClass.getConstructor(PrebuiltInterface.class).newInstance(implementation);
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final PackerEncoderStream encoderStream = new PackerEncoderStream(new CodeBookImpl(), new MessagePackPacker(outputStream));
+        encoderStream.writeInt(42);
+        final byte[] payload = outputStream.toByteArray();
+        receiver.onMessage(-1, 0, new UnpackerDecoderStream(new CodeBookImpl(),
+                new MessagePackUnpacker(new ByteArrayInputStream(payload, 0, payload.length))));
+
+        assertThat(implementation.lastValue, is(42));
+    }
+
+    @Test
+    public void shouldWriteLoadablePublisherClasses() throws Exception
+    {
+        new GeneratedClassWriter(outputDirectory.getAbsolutePath()).writeClasses(PrebuiltInterface.class);
+
+        final Class<?> directPublisherClass = classLoader.loadClass(PrebuiltInterface.class.getName() + "DirectPublisher");
+        final Class<?> bufferedPublisherClass = classLoader.loadClass(PrebuiltInterface.class.getName() + "BufferedPublisher");
+
+        assertTrue(PrebuiltInterface.class.isAssignableFrom(directPublisherClass));
+        assertTrue(PrebuiltInterface.class.isAssignableFrom(bufferedPublisherClass));
+        directPublisherClass.getConstructor(MessagingService.class, int.class, CodeBook.class);
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        outputDirectory = File.createTempFile("generated", "classes");
+        outputDirectory.delete();
+        outputDirectory.mkdirs();
+        classLoader = new URLClassLoader(new URL[] {outputDirectory.toURI().toURL()}, getClass().getClassLoader());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        delete(outputDirectory);
+    }
+
+    private static void delete(final File file)
+    {
+        final File[] children = file.listFiles();
+        if(children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Remote
+    public interface PrebuiltInterface
+    {
+        void onValue(int value);
+    }
+
+    private static final class RecordingPrebuiltInterface implements PrebuiltInterface
+    {
+        private int lastValue;
+
+        @Override
+        public void onValue(final int value)
+        {
+            lastValue = value;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public final class ManifestTopicIdGeneratorTest
+{
+    @Test
+    public void shouldAssignTopicIdsByPositionInManifest() throws Exception
+    {
+        final ManifestTopicIdGenerator topicIdGenerator =
+                new ManifestTopicIdGenerator(Arrays.asList(First.class.getName(), Second.class.getName()));
+
+        assertThat(topicIdGenerator.getTopicId(First.class), is(0));
+        assertThat(topicIdGenerator.getTopicId(Second.class), is(1));
+    }
+
+    @Test
+    public void shouldReadTopicIdsFromResource() throws Exception
+    {
+        final ManifestTopicIdGenerator topicIdGenerator = new ManifestTopicIdGenerator("topic/valid-topic-manifest.properties");
+
+        assertThat(topicIdGenerator.getTopicId(First.class), is(0));
+        assertThat(topicIdGenerator.getTopicId(Second.class), is(200));
+    }
+
+    @Test(expected = RemotingException.class)
+    public void shouldRejectCollidingTopicIds() throws Exception
+    {
+        new ManifestTopicIdGenerator("topic/colliding-topic-manifest.properties");
+    }
+
+    @Test(expected = RemotingException.class)
+    public void shouldRejectDuplicateClassname() throws Exception
+    {
+        new ManifestTopicIdGenerator(Arrays.asList(First.class.getName(), First.class.getName()));
+    }
+
+    @Test(expected = RemotingException.class)
+    public void shouldRejectDescriptorMissingFromManifest() throws Exception
+    {
+        new ManifestTopicIdGenerator(Arrays.asList(First.class.getName())).getTopicId(Second.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectMissingResource() throws Exception
+    {
+        new ManifestTopicIdGenerator("topic/missing-topic-manifest.properties");
+    }
+
+    private interface First
+    {
+    }
+
+    private interface Second
+    {
+    }
+}
@@ -0,0 +1,173 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import com.epickrram.freewheel.messaging.config.MethodId;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+public final class RemoteInterfaceSchemaTest
+{
+    @Test
+    public void shouldAssignPositionalMethodIdsBySortedMethodName() throws Exception
+    {
+        final RemoteInterfaceSchema schema = RemoteInterfaceSchema.forDescriptor(Positional.class);
+
+        assertThat(schema.hasExplicitMethodIds(), is(false));
+        assertThat(schema.getMethods()[0].getName(), is("alpha"));
+        assertThat(schema.getMethodId(0), is(0));
+        assertThat(schema.getMethods()[1].getName(), is("beta"));
+        assertThat(schema.getMethodId(1), is(1));
+        assertThat(schema.getMaxMethodId(), is(1));
+    }
+
+    @Test
+    public void shouldUseExplicitMethodIds() throws Exception
+    {
+        final RemoteInterfaceSchema schema = RemoteInterfaceSchema.forDescriptor(Explicit.class);
+
+        assertThat(schema.hasExplicitMethodIds(), is(true));
+        assertThat(schema.getMethods()[0].getName(), is("alpha"));
+        assertThat(schema.getMethodId(0), is(12));
+        assertThat(schema.getMethods()[1].getName(), is("beta"));
+        assertThat(schema.getMethodId(1), is(4));
+        assertThat(schema.getMaxMethodId(), is(12));
+    }
+
+    @Test
+    public void shouldProduceDifferentFingerprintsForDifferentSignatures() throws Exception
+    {
+        assertThat(RemoteInterfaceSchema.forDescriptor(Positional.class).getFingerprint(),
+                is(not(RemoteInterfaceSchema.forDescriptor(Explicit.class).getFingerprint())));
+    }
+
+    @Test
+    public void shouldOnlyBeCompatibleWithDifferentFingerprintWhenBothSidesUseExplicitIds() throws Exception
+    {
+        final RemoteInterfaceSchema positional = RemoteInterfaceSchema.forDescriptor(Positional.class);
+        final RemoteInterfaceSchema explicit = RemoteInterfaceSchema.forDescriptor(Explicit.class);
+        final RemoteInterfaceSchema extended = RemoteInterfaceSchema.forDescriptor(ExplicitWithAddedMethod.class);
+
+        assertThat(isCompatible(positional, positional), is(true));
+        assertThat(isCompatible(positional, explicit), is(false));
+        assertThat(isCompatible(explicit, positional), is(false));
+        assertThat(isCompatible(explicit, extended), is(true));
+        assertThat(isCompatible(extended, explicit), is(true));
+    }
+
+    @Test
+    public void shouldNotBeCompatibleWhenSharedMethodIdHasDifferentSignature() throws Exception
+    {
+        final RemoteInterfaceSchema explicit = RemoteInterfaceSchema.forDescriptor(Explicit.class);
+        final RemoteInterfaceSchema changed = RemoteInterfaceSchema.forDescriptor(ExplicitWithChangedSignature.class);
+
+        assertThat(isCompatible(explicit, changed), is(false));
+        assertThat(isCompatible(changed, explicit), is(false));
+    }
+
+    @Test(expected = RemotingException.class)
+    public void shouldRejectPartiallyAnnotatedInterface() throws Exception
+    {
+        RemoteInterfaceSchema.forDescriptor(PartiallyAnnotated.class);
+    }
+
+    @Test(expected = RemotingException.class)
+    public void shouldRejectDuplicateMethodIds() throws Exception
+    {
+        RemoteInterfaceSchema.forDescriptor(DuplicateIds.class);
+    }
+
+    @Test(expected = RemotingException.class)
+    public void shouldRejectMethodIdOutOfRange() throws Exception
+    {
+        RemoteInterfaceSchema.forDescriptor(OutOfRange.class);
+    }
+
+    private static boolean isCompatible(final RemoteInterfaceSchema schema, final RemoteInterfaceSchema peer)
+    {
+        final int[] peerMethodIds = new int[peer.getMethodCount()];
+        final long[] peerMethodFingerprints = new long[peer.getMethodCount()];
+        for (int i = 0; i < peer.getMethodCount(); i++)
+        {
+            peerMethodIds[i] = peer.getMethodId(i);
+            peerMethodFingerprints[i] = peer.getMethodFingerprint(i);
+        }
+        return schema.isCompatibleWith(peer.getFingerprint(), peer.hasExplicitMethodIds(), peerMethodIds, peerMethodFingerprints);
+    }
+
+    private interface Positional
+    {
+        void beta();
+
+        void alpha(int value);
+    }
+
+    private interface Explicit
+    {
+        @MethodId(4)
+        void beta();
+
+        @MethodId(12)
+        void alpha(int value);
+    }
+
+    private interface ExplicitWithAddedMethod
+    {
+        @MethodId(4)
+        void beta();
+
+        @MethodId(12)
+        void alpha(int value);
+
+        @MethodId(13)
+        void gamma(long value);
+    }
+
+    private interface ExplicitWithChangedSignature
+    {
+        @MethodId(4)
+        void beta();
+
+        @MethodId(12)
+        void alpha(long value);
+    }
+
+    private interface PartiallyAnnotated
+    {
+        @MethodId(1)
+        void beta();
+
+        void alpha();
+    }
+
+    private interface DuplicateIds
+    {
+        @MethodId(1)
+        void beta();
+
+        @MethodId(1)
+        void alpha();
+    }
+
+    private interface OutOfRange
+    {
+        @MethodId(65536)
+        void alpha();
+    }
+}
@@ -0,0 +1,122 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.remoting;
+
+import com.epickrram.freewheel.messaging.MessageHeader;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public final class ResponseCacheTest
+{
+    private static final long ONE_MINUTE_MILLIS = 60000L;
+
+    @Test
+    public void shouldReturnCachedResultForEqualArguments() throws Exception
+    {
+        final ResponseCache responseCache = new ResponseCache(16, ONE_MINUTE_MILLIS);
+
+        assertThat(responseCache.get(responseCache.keyFor(message(1, 2))), is(sameInstance(ResponseCache.MISS)));
+        responseCache.put(responseCache.keyFor(message(1, 2)), "result");
+
+        assertThat(responseCache.get(responseCache.keyFor(message(1, 2))), is((Object) "result"));
+        assertThat(responseCache.get(responseCache.keyFor(message(2, 1))), is(sameInstance(ResponseCache.MISS)));
+    }
+
+    @Test
+    public void shouldIgnoreMessageHeaderWhenKeying() throws Exception
+    {
+        final ResponseCache responseCache = new ResponseCache(16, ONE_MINUTE_MILLIS);
+        final ByteArrayOutputStream otherHeader = new ByteArrayOutputStream();
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, 3, 4, MessageHeader.FLAG_SYNC, 99L);
+        otherHeader.write(header, 0, header.length);
+        otherHeader.write(7);
+
+        responseCache.put(responseCache.keyFor(message(7)), "result");
+
+        assertThat(responseCache.get(responseCache.keyFor(otherHeader)), is((Object) "result"));
+    }
+
+    @Test
+    public void shouldCacheNullResult() throws Exception
+    {
+        final ResponseCache responseCache = new ResponseCache(16, ONE_MINUTE_MILLIS);
+
+        responseCache.put(responseCache.keyFor(message(1)), null);
+
+        assertThat(responseCache.get(responseCache.keyFor(message(1))), is(nullValue()));
+    }
+
+    @Test
+    public void shouldExpireResultAfterTimeToLive() throws Exception
+    {
+        final ResponseCache responseCache = new ResponseCache(16, 1L);
+        responseCache.put(responseCache.keyFor(message(1)), "result");
+
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5L));
+
+        assertThat(responseCache.get(responseCache.keyFor(message(1))), is(sameInstance(ResponseCache.MISS)));
+        assertThat(responseCache.size(), is(0));
+    }
+
+    @Test
+    public void shouldEvictEntriesWhenFull() throws Exception
+    {
+        final ResponseCache responseCache = new ResponseCache(8, ONE_MINUTE_MILLIS);
+
+        for(int i = 0; i < 100; i++)
+        {
+            responseCache.put(responseCache.keyFor(message(i)), Integer.valueOf(i));
+            assertTrue(responseCache.size() <= 8);
+        }
+        assertThat(responseCache.get(responseCache.keyFor(message(99))), is((Object) Integer.valueOf(99)));
+    }
+
+    @Test
+    public void shouldInvalidateAllEntries() throws Exception
+    {
+        final ResponseCache responseCache = new ResponseCache(16, ONE_MINUTE_MILLIS);
+        responseCache.put(responseCache.keyFor(message(1)), "one");
+        responseCache.put(responseCache.keyFor(message(2)), "two");
+
+        responseCache.invalidateAll();
+
+        assertThat(responseCache.size(), is(0));
+        assertThat(responseCache.get(responseCache.keyFor(message(1))), is(sameInstance(ResponseCache.MISS)));
+    }
+
+    private static ByteArrayOutputStream message(final int... arguments)
+    {
+        final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        final byte[] header = new byte[MessageHeader.LENGTH];
+        MessageHeader.write(header, 0, 1, 2, MessageHeader.FLAG_SYNC, 0L);
+        message.write(header, 0, header.length);
+        for (int argument : arguments)
+        {
+            message.write(argument);
+        }
+        return message;
+    }
+}
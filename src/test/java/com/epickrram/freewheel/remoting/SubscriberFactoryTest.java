@@ -16,8 +16,10 @@
 package com.epickrram.freewheel.remoting;
 
 import com.epickrram.freewheel.io.PackerEncoderStream;
+import com.epickrram.freewheel.messaging.EncodingReceiver;
 import com.epickrram.freewheel.io.UnpackerDecoderStream;
 import com.epickrram.freewheel.messaging.Receiver;
+import com.epickrram.freewheel.messaging.config.MethodId;
 import com.epickrram.freewheel.protocol.CodeBookImpl;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
@@ -31,6 +33,10 @@ import org.msgpack.unpacker.MessagePackUnpacker;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
 @RunWith(JMock.class)
 public final class SubscriberFactoryTest
 {
@@ -46,7 +52,7 @@ public final class SubscriberFactoryTest
         final SingleNoArgsMethodInterface implementation = mockery.mock(SingleNoArgsMethodInterface.class);
         final Receiver receiver = subscriberFactory.createReceiver(SingleNoArgsMethodInterface.class, implementation);
 
-        final UnpackerDecoderStream decoderStream = decoderStreamFor(new byte[]{0});
+        final UnpackerDecoderStream decoderStream = decoderStreamFor(new byte[0]);
 
         mockery.checking(new Expectations()
         {
@@ -55,7 +61,7 @@ public final class SubscriberFactoryTest
             }
         });
 
-        receiver.onMessage(-1, decoderStream);
+        receiver.onMessage(-1, 0, decoderStream);
     }
 
 
@@ -75,9 +81,9 @@ public final class SubscriberFactoryTest
             }
         });
 
-        receiver.onMessage(-1, decoderStreamFor(new byte[] {0}));
-        receiver.onMessage(-1, decoderStreamFor(new byte[] {1}));
-        receiver.onMessage(-1, decoderStreamFor(new byte[] {2}));
+        receiver.onMessage(-1, 0, decoderStreamFor(new byte[0]));
+        receiver.onMessage(-1, 1, decoderStreamFor(new byte[0]));
+        receiver.onMessage(-1, 2, decoderStreamFor(new byte[0]));
     }
 
     @Test
@@ -88,7 +94,6 @@ public final class SubscriberFactoryTest
 
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         final PackerEncoderStream encoderStream = new PackerEncoderStream(new CodeBookImpl(), new MessagePackPacker(outputStream));
-        encoderStream.writeByte((byte) 0);
         encoderStream.writeInt(INT_VALUE);
         encoderStream.writeByte(BYTE_VALUE);
         encoderStream.writeLong(LONG_VALUE);
@@ -102,7 +107,145 @@ public final class SubscriberFactoryTest
             }
         });
 
-        receiver.onMessage(-1, decoderStream);
+        receiver.onMessage(-1, 0, decoderStream);
+    }
+
+    @Test
+    public void shouldCreateSwitchReceiverForMultipleMethods() throws Exception
+    {
+        final MultipleMethodNoArgsInterface implementation = mockery.mock(MultipleMethodNoArgsInterface.class);
+        final Receiver receiver = new SubscriberFactory(SubscriberDispatchMode.SWITCH).
+                createReceiver(MultipleMethodNoArgsInterface.class, implementation);
+
+        mockery.checking(new Expectations()
+        {
+            {
+                one(implementation).one();
+                one(implementation).two();
+                one(implementation).three();
+            }
+        });
+
+        receiver.onMessage(-1, 0, decoderStreamFor(new byte[0]));
+        receiver.onMessage(-1, 1, decoderStreamFor(new byte[0]));
+        receiver.onMessage(-1, 2, decoderStreamFor(new byte[0]));
+    }
+
+    @Test
+    public void shouldCreateSwitchReceiverForMethodWithArguments() throws Exception
+    {
+        final MethodWithArgsInterface implementation = mockery.mock(MethodWithArgsInterface.class);
+        final Receiver receiver = new SubscriberFactory(SubscriberDispatchMode.SWITCH).
+                createReceiver(MethodWithArgsInterface.class, implementation);
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final PackerEncoderStream encoderStream = new PackerEncoderStream(new CodeBookImpl(), new MessagePackPacker(outputStream));
+        encoderStream.writeInt(INT_VALUE);
+        encoderStream.writeByte(BYTE_VALUE);
+        encoderStream.writeLong(LONG_VALUE);
+
+        mockery.checking(new Expectations()
+        {
+            {
+                one(implementation).invoke(INT_VALUE, BYTE_VALUE, LONG_VALUE);
+            }
+        });
+
+        receiver.onMessage(-1, 0, decoderStreamFor(outputStream.toByteArray()));
+    }
+
+    @Test
+    public void shouldIgnoreUnknownMethodIdInSwitchReceiver() throws Exception
+    {
+        final SingleNoArgsMethodInterface implementation = mockery.mock(SingleNoArgsMethodInterface.class);
+        final Receiver receiver = new SubscriberFactory(SubscriberDispatchMode.SWITCH).
+                createReceiver(SingleNoArgsMethodInterface.class, implementation);
+
+        final long unknownMethodCount = RemoteInterfaceSchema.getUnknownMethodCount();
+        receiver.onMessage(-1, 5, decoderStreamFor(new byte[0]));
+
+        assertThat(RemoteInterfaceSchema.getUnknownMethodCount(), is(unknownMethodCount + 1));
+    }
+
+    @Test
+    public void shouldIgnoreUnknownMethodIdInInvokerArrayReceiver() throws Exception
+    {
+        final SingleNoArgsMethodInterface implementation = mockery.mock(SingleNoArgsMethodInterface.class);
+        final Receiver receiver = subscriberFactory.createReceiver(SingleNoArgsMethodInterface.class, implementation);
+
+        final long unknownMethodCount = RemoteInterfaceSchema.getUnknownMethodCount();
+        receiver.onMessage(-1, 5, decoderStreamFor(new byte[0]));
+
+        assertThat(RemoteInterfaceSchema.getUnknownMethodCount(), is(unknownMethodCount + 1));
+    }
+
+    @Test
+    public void shouldDispatchByExplicitMethodId() throws Exception
+    {
+        final ExplicitMethodIdInterface implementation = mockery.mock(ExplicitMethodIdInterface.class);
+        final Receiver invokerArrayReceiver = subscriberFactory.createReceiver(ExplicitMethodIdInterface.class, implementation);
+        final Receiver switchReceiver = new SubscriberFactory(SubscriberDispatchMode.SWITCH).
+                createReceiver(ExplicitMethodIdInterface.class, implementation);
+
+        mockery.checking(new Expectations()
+        {
+            {
+                exactly(2).of(implementation).alpha();
+                exactly(2).of(implementation).zulu();
+            }
+        });
+
+        invokerArrayReceiver.onMessage(-1, 7, decoderStreamFor(new byte[0]));
+        invokerArrayReceiver.onMessage(-1, 3, decoderStreamFor(new byte[0]));
+        switchReceiver.onMessage(-1, 7, decoderStreamFor(new byte[0]));
+        switchReceiver.onMessage(-1, 3, decoderStreamFor(new byte[0]));
+    }
+
+    @Test
+    public void shouldEncodeSyncResponsesByDeclaredReturnType() throws Exception
+    {
+        assertSyncResponsesEncodedByDeclaredReturnType(subscriberFactory);
+    }
+
+    @Test
+    public void shouldEncodeSyncResponsesByDeclaredReturnTypeInSwitchReceiver() throws Exception
+    {
+        assertSyncResponsesEncodedByDeclaredReturnType(new SubscriberFactory(SubscriberDispatchMode.SWITCH));
+    }
+
+    private void assertSyncResponsesEncodedByDeclaredReturnType(final SubscriberFactory factory) throws Exception
+    {
+        final SyncReturnTypesInterface implementation = mockery.mock(SyncReturnTypesInterface.class);
+        final EncodingReceiver receiver = (EncodingReceiver) factory.createReceiver(SyncReturnTypesInterface.class, implementation);
+
+        mockery.checking(new Expectations()
+        {
+            {
+                exactly(2).of(implementation).primitive(INT_VALUE);
+                will(returnValue(LONG_VALUE));
+                one(implementation).boxed(INT_VALUE);
+                will(returnValue(Integer.valueOf(INT_VALUE)));
+                one(implementation).boxed(0);
+                will(returnValue(null));
+                one(implementation).string(INT_VALUE);
+                will(returnValue("value"));
+            }
+        });
+
+        final ByteArrayOutputStream response = new ByteArrayOutputStream();
+        final PackerEncoderStream responseEncoder = new PackerEncoderStream(new CodeBookImpl(), new MessagePackPacker(response));
+        receiver.onSyncMessage(-1, 0, decoderStreamFor(encodedInt(INT_VALUE)), responseEncoder);
+        receiver.onSyncMessage(-1, 1, decoderStreamFor(encodedInt(INT_VALUE)), responseEncoder);
+        receiver.onSyncMessage(-1, 1, decoderStreamFor(encodedInt(0)), responseEncoder);
+        receiver.onSyncMessage(-1, 2, decoderStreamFor(encodedInt(INT_VALUE)), responseEncoder);
+
+        final UnpackerDecoderStream responseDecoder = decoderStreamFor(response.toByteArray());
+        assertThat(responseDecoder.readLong(), is(LONG_VALUE));
+        assertThat(ReturnValueCodec.readBoxedInt(responseDecoder), is((Object) Integer.valueOf(INT_VALUE)));
+        assertThat(ReturnValueCodec.readBoxedInt(responseDecoder), is(nullValue()));
+        assertThat(responseDecoder.readString(), is("value"));
+
+        assertThat(receiver.onSyncMessage(-1, 0, decoderStreamFor(encodedInt(INT_VALUE))), is((Object) Long.valueOf(LONG_VALUE)));
     }
 
     @Before
@@ -111,12 +254,40 @@ public final class SubscriberFactoryTest
         subscriberFactory = new SubscriberFactory();
     }
 
+    private static byte[] encodedInt(final int value) throws Exception
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new PackerEncoderStream(new CodeBookImpl(), new MessagePackPacker(outputStream)).writeInt(value);
+        return outputStream.toByteArray();
+    }
+
     private UnpackerDecoderStream decoderStreamFor(final byte[] payload)
     {
         final ByteArrayInputStream inputStream = new ByteArrayInputStream(payload, 0, payload.length);
         return new UnpackerDecoderStream(new CodeBookImpl(), new MessagePackUnpacker(inputStream));
     }
 
+    private interface SyncReturnTypesInterface
+    {
+        @MethodId(0)
+        long primitive(int value);
+
+        @MethodId(1)
+        Integer boxed(int value);
+
+        @MethodId(2)
+        String string(int value);
+    }
+
+    private interface ExplicitMethodIdInterface
+    {
+        @MethodId(7)
+        void alpha();
+
+        @MethodId(3)
+        void zulu();
+    }
+
     private interface MethodWithArgsInterface
     {
         void invoke(int intValue, byte b, long longValue);
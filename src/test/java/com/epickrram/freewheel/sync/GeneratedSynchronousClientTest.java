@@ -0,0 +1,214 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.sync;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class GeneratedSynchronousClientTest
+{
+    private static final long ACCOUNT_ID = 1234L;
+
+    private SynchronousProxyGenerator generator;
+
+    @Before
+    public void before() throws Exception
+    {
+        generator = new SynchronousProxyGenerator(SynchronousClientMode.GENERATED);
+    }
+
+    @Test
+    public void shouldGenerateClientClassThatImplementsResponseInterface() throws Exception
+    {
+        final ServiceClient serviceClient = generator.generateProxy(new RespondingService(), ServiceResponse.class, ServiceClient.class);
+
+        assertTrue(serviceClient instanceof ServiceResponse);
+        assertTrue(serviceClient instanceof AbstractSynchronousClient);
+    }
+
+    @Test
+    public void shouldMatchResponseByLongIdentifier() throws Exception
+    {
+        final RespondingService service = new RespondingService();
+        final ServiceClient serviceClient = generator.generateProxy(service, ServiceResponse.class, ServiceClient.class);
+        service.setResponse((ServiceResponse) serviceClient);
+
+        assertThat(serviceClient.getBalance(ACCOUNT_ID), is(BigDecimal.valueOf(ACCOUNT_ID)));
+    }
+
+    @Test
+    public void shouldMatchResponseByStringIdentifier() throws Exception
+    {
+        final RespondingService service = new RespondingService();
+        final ServiceClient serviceClient = generator.generateProxy(service, ServiceResponse.class, ServiceClient.class);
+        service.setResponse((ServiceResponse) serviceClient);
+
+        assertThat(serviceClient.getMethodTwo("request-id"), is("response-request-id"));
+    }
+
+    @Test
+    public void shouldTimeoutAfterSpecifiedInterval() throws Exception
+    {
+        final ServiceClient serviceClient = generator.generateProxy(new RespondingService(), ServiceResponse.class, ServiceClient.class);
+
+        try
+        {
+            serviceClient.timeoutAfterOneMillisecond(ACCOUNT_ID);
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            assertThat(e.getMessage(), is("Did not receive response for method ServiceResponse.onAccountState within 1ms"));
+        }
+    }
+
+    @Test
+    public void shouldIgnoreResponseForIdentifierWithNoPendingCall() throws Exception
+    {
+        final RespondingService service = new RespondingService();
+        final ServiceClient serviceClient = generator.generateProxy(service, ServiceResponse.class, ServiceClient.class);
+        service.setResponse((ServiceResponse) serviceClient);
+
+        ((ServiceResponse) serviceClient).onAccountState(ACCOUNT_ID, BigDecimal.ONE);
+
+        assertThat(serviceClient.getBalance(ACCOUNT_ID), is(BigDecimal.valueOf(ACCOUNT_ID)));
+    }
+
+    @Test
+    public void shouldRemovePendingCallWhenRequestFails() throws Exception
+    {
+        final RespondingService service = new RespondingService();
+        final ServiceClient serviceClient = generator.generateProxy(service, ServiceResponse.class, ServiceClient.class);
+        service.setResponse((ServiceResponse) serviceClient);
+        service.failNextRequest = true;
+
+        try
+        {
+            serviceClient.getBalance(ACCOUNT_ID);
+            fail();
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+
+        assertThat(serviceClient.getBalance(ACCOUNT_ID), is(BigDecimal.valueOf(ACCOUNT_ID)));
+    }
+
+    @Test
+    public void shouldServeManyConcurrentCallsOnSingleClient() throws Exception
+    {
+        final RespondingService service = new RespondingService();
+        final ServiceClient serviceClient = generator.generateProxy(service, ServiceResponse.class, ServiceClient.class);
+        service.setResponse((ServiceResponse) serviceClient);
+        service.respondAsynchronously = true;
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try
+        {
+            final List<Future<BigDecimal>> results = new ArrayList<Future<BigDecimal>>();
+            for(int i = 0; i < 200; i++)
+            {
+                final long accountId = i;
+                results.add(executorService.submit(new Callable<BigDecimal>()
+                {
+                    @Override
+                    public BigDecimal call() throws Exception
+                    {
+                        return serviceClient.getBalance(accountId);
+                    }
+                }));
+            }
+
+            for(int i = 0; i < results.size(); i++)
+            {
+                assertThat(results.get(i).get(), is(BigDecimal.valueOf(i)));
+            }
+        }
+        finally
+        {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldNotReuseGeneratedClassForDifferentResponseInterface() throws Exception
+    {
+        assertFalse(GeneratedSynchronousClientFactory.getGeneratedClassname(ServiceClient.class, ServiceResponse.class).
+                equals(GeneratedSynchronousClientFactory.getGeneratedClassname(ServiceClient.class, Service.class)));
+    }
+
+    private static final class RespondingService implements Service
+    {
+        private volatile ServiceResponse response;
+        private volatile boolean respondAsynchronously;
+        private volatile boolean failNextRequest;
+
+        @Override
+        public void requestAccountState(final long accountId)
+        {
+            if(failNextRequest)
+            {
+                failNextRequest = false;
+                throw new UnsupportedOperationException();
+            }
+            if(response == null)
+            {
+                return;
+            }
+            if(respondAsynchronously)
+            {
+                new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        response.onAccountState(accountId, BigDecimal.valueOf(accountId));
+                    }
+                }).start();
+            }
+            else
+            {
+                response.onAccountState(accountId, BigDecimal.valueOf(accountId));
+            }
+        }
+
+        @Override
+        public void requestMethodTwo(final String identifier)
+        {
+            response.onMethodTwoResponse(identifier, "response-" + identifier);
+        }
+
+        void setResponse(final ServiceResponse response)
+        {
+            this.response = response;
+        }
+    }
+}
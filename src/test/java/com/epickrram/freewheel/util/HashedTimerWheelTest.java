@@ -0,0 +1,186 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public final class HashedTimerWheelTest
+{
+    private static final long TICK_MILLIS = 5L;
+    private static final int TICKS_PER_WHEEL = 8;
+
+    private HashedTimerWheel timerWheel;
+
+    @Test
+    public void shouldRunTaskNoEarlierThanDelay() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long scheduledAt = System.nanoTime();
+        timerWheel.schedule(new CountDownTask(latch), 20L, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(1L, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - scheduledAt >= TimeUnit.MILLISECONDS.toNanos(20L));
+    }
+
+    @Test
+    public void shouldRunTaskWithDelayLongerThanOneRevolution() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long delayMillis = TICK_MILLIS * TICKS_PER_WHEEL * 3;
+        final long scheduledAt = System.nanoTime();
+        final HashedTimerWheel.Timeout timeout = timerWheel.schedule(new CountDownTask(latch), delayMillis, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(1L, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - scheduledAt >= TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        assertTrue(timeout.isExpired());
+    }
+
+    @Test
+    public void shouldNotRunCancelledTask() throws Exception
+    {
+        final AtomicInteger runCount = new AtomicInteger();
+        final HashedTimerWheel.Timeout timeout = timerWheel.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runCount.incrementAndGet();
+            }
+        }, 20L, TimeUnit.MILLISECONDS);
+
+        assertTrue(timeout.cancel());
+        assertThat(timerWheel.getPendingTimeoutCount(), is(0L));
+        Thread.sleep(60L);
+
+        assertThat(runCount.get(), is(0));
+        assertTrue(timeout.isCancelled());
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void shouldNotCancelExpiredTask() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final HashedTimerWheel.Timeout timeout = timerWheel.schedule(new CountDownTask(latch), 0L, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(1L, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void shouldContinueAfterTaskThrowsException() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        timerWheel.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                throw new IllegalStateException("expected");
+            }
+        }, 0L, TimeUnit.MILLISECONDS);
+        timerWheel.schedule(new CountDownTask(latch), 10L, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(1L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldRunManyTimeoutsScheduledFromMultipleThreads() throws Exception
+    {
+        final int threadCount = 4;
+        final int timeoutsPerThread = 5000;
+        final CountDownLatch latch = new CountDownLatch(threadCount * timeoutsPerThread / 2);
+        final Thread[] threads = new Thread[threadCount];
+        for(int i = 0; i < threadCount; i++)
+        {
+            threads[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for(int j = 0; j < timeoutsPerThread; j++)
+                    {
+                        final HashedTimerWheel.Timeout timeout =
+                                timerWheel.schedule(new CountDownTask(latch), j % 100, TimeUnit.MILLISECONDS);
+                        if(j % 2 == 0)
+                        {
+                            timeout.cancel();
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        assertTrue(latch.await(5L, TimeUnit.SECONDS));
+        Thread.sleep(20L);
+        assertThat(latch.getCount(), is(0L));
+        assertThat(timerWheel.getPendingTimeoutCount(), is(0L));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void shouldRejectScheduleAfterStop() throws Exception
+    {
+        timerWheel.schedule(new CountDownTask(new CountDownLatch(1)), 0L, TimeUnit.MILLISECONDS);
+        timerWheel.stop();
+
+        timerWheel.schedule(new CountDownTask(new CountDownLatch(1)), 0L, TimeUnit.MILLISECONDS);
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        timerWheel = new HashedTimerWheel("test-timer", TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        timerWheel.stop();
+    }
+
+    private static final class CountDownTask implements Runnable
+    {
+        private final CountDownLatch latch;
+
+        private CountDownTask(final CountDownLatch latch)
+        {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run()
+        {
+            latch.countDown();
+        }
+    }
+}
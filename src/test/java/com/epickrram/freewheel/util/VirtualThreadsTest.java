@@ -0,0 +1,86 @@
+//////////////////////////////////////////////////////////////////////////////////
+//   Copyright 2011   Mark Price     mark at epickrram.com                      //
+//                                                                              //
+//   Licensed under the Apache License, Version 2.0 (the "License");            //
+//   you may not use this file except in compliance with the License.           //
+//   You may obtain a copy of the License at                                    //
+//                                                                              //
+//       http://www.apache.org/licenses/LICENSE-2.0                             //
+//                                                                              //
+//   Unless required by applicable law or agreed to in writing, software        //
+//   distributed under the License is distributed on an "AS IS" BASIS,          //
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   //
+//   See the License for the specific language governing permissions and        //
+//   limitations under the License.                                             //
+//////////////////////////////////////////////////////////////////////////////////
+package com.epickrram.freewheel.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class VirtualThreadsTest
+{
+    @Test
+    public void shouldReportSupportOnlyWhenRuntimeProvidesVirtualThreads() throws Exception
+    {
+        assertThat(VirtualThreads.isSupported(), is(hasMethod(Thread.class, "ofVirtual") && hasMethod(Thread.class, "isVirtual")));
+    }
+
+    @Test
+    public void shouldRunTasksOnVirtualThreadsWhenSupported() throws Exception
+    {
+        if(!VirtualThreads.isSupported())
+        {
+            try
+            {
+                VirtualThreads.newThreadPerTaskExecutor("test");
+                fail();
+            }
+            catch (UnsupportedOperationException e)
+            {
+                // expected
+            }
+            return;
+        }
+
+        final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test");
+        try
+        {
+            final Thread thread = executor.submit(new Callable<Thread>()
+            {
+                @Override
+                public Thread call() throws Exception
+                {
+                    return Thread.currentThread();
+                }
+            }).get();
+
+            assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+            assertTrue(thread.getName().startsWith("test-"));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private static boolean hasMethod(final Class<?> type, final String methodName)
+    {
+        try
+        {
+            type.getMethod(methodName);
+            return true;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+}